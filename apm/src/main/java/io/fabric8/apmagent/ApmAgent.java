@@ -84,6 +84,23 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         }
     }
 
+    /**
+     * Called at the start of the methods instrumented by the trace strategy
+     *
+     * @param methodId the id assigned to the method when its class was transformed
+     */
+    public static void enterMethod(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.enterMethod(methodId);
+        }
+    }
+
+    public static void exitMethod(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exitMethod(methodId);
+        }
+    }
+
     public static void enterMethod(String methodName) {
         if (INSTANCE.started.get()) {
             INSTANCE.apmAgentContext.enterMethod(Thread.currentThread(), methodName, false);
@@ -110,6 +127,24 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         return Collections.EMPTY_LIST;
     }
 
+    public long getDroppedSamples() {
+        if (isInitialized()) {
+            return apmAgentContext.getDroppedSamples();
+        }
+        return 0;
+    }
+
+    public String getSampledCallTree() {
+        if (isInitialized()) {
+            return apmAgentContext.getCallTree().toFolded();
+        }
+        return "";
+    }
+
+    public void resetSampledCallTree() {
+        apmAgentContext.getCallTree().reset();
+    }
+
     public List<ThreadMetrics> getThreadMetrics() {
         if (isInitialized()) {
             return apmAgentContext.getThreadMetrics();
@@ -34,4 +34,16 @@ public interface ApmAgentMBean {
      * @return List of all <className>@<methodName>
      */
     List<String> getAllMethods();
+
+    /**
+     * @return the number of method timings lost because they were recorded faster than aggregated
+     */
+    long getDroppedSamples();
+
+    /**
+     * @return the stacks sampled by the sampling strategy, in the folded format used by flame graph tools
+     */
+    String getSampledCallTree();
+
+    void resetSampledCallTree();
 }
@@ -58,6 +58,12 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     private boolean threadMetricDepthChanged = false;
     private boolean strategyChanged = false;
     private int samplingInterval = 1;
+    private String samplingThreadNamePattern = "";
+    private boolean samplingRunnableOnly = true;
+    private int samplingMaxDepth = 128;
+    private int samplingMaxThreads = 256;
+    private int samplingMaxNodes = 20000;
+    private int samplingOverhead = 1;
     private List<FilterItem> whiteFilterList = new ArrayList<>();
     private List<FilterItem> blackFilterList = new ArrayList<>();
     private List<ApmConfigurationChangeListener> changeListeners = new CopyOnWriteArrayList<>();
@@ -250,6 +256,61 @@ public class ApmConfiguration implements ApmConfigurationMBean {
 
     public void setSamplingInterval(int samplingInterval) {
         this.samplingInterval = samplingInterval;
+        fireConfigurationChanged();
+    }
+
+    public String getSamplingThreadNamePattern() {
+        return samplingThreadNamePattern;
+    }
+
+    public void setSamplingThreadNamePattern(String samplingThreadNamePattern) {
+        this.samplingThreadNamePattern = samplingThreadNamePattern;
+        fireConfigurationChanged();
+    }
+
+    public boolean isSamplingRunnableOnly() {
+        return samplingRunnableOnly;
+    }
+
+    public void setSamplingRunnableOnly(boolean samplingRunnableOnly) {
+        this.samplingRunnableOnly = samplingRunnableOnly;
+        fireConfigurationChanged();
+    }
+
+    public int getSamplingMaxDepth() {
+        return samplingMaxDepth;
+    }
+
+    public void setSamplingMaxDepth(int samplingMaxDepth) {
+        this.samplingMaxDepth = samplingMaxDepth;
+        fireConfigurationChanged();
+    }
+
+    public int getSamplingMaxThreads() {
+        return samplingMaxThreads;
+    }
+
+    public void setSamplingMaxThreads(int samplingMaxThreads) {
+        this.samplingMaxThreads = samplingMaxThreads;
+        fireConfigurationChanged();
+    }
+
+    public int getSamplingMaxNodes() {
+        return samplingMaxNodes;
+    }
+
+    public void setSamplingMaxNodes(int samplingMaxNodes) {
+        this.samplingMaxNodes = samplingMaxNodes;
+        fireConfigurationChanged();
+    }
+
+    public int getSamplingOverhead() {
+        return samplingOverhead;
+    }
+
+    public void setSamplingOverhead(int samplingOverhead) {
+        this.samplingOverhead = samplingOverhead;
+        fireConfigurationChanged();
     }
 
     public String getStrategy() {
@@ -48,6 +48,52 @@ public interface ApmConfigurationMBean {
 
     void setMethodMetricDepth(int methodMetricDepth);
 
+    int getSamplingInterval();
+
+    void setSamplingInterval(int samplingInterval);
+
+    /**
+     * @return the regular expression the names of the sampled threads must match, empty to sample all threads
+     */
+    String getSamplingThreadNamePattern();
+
+    void setSamplingThreadNamePattern(String samplingThreadNamePattern);
+
+    /**
+     * @return true if only the threads in the RUNNABLE state are sampled
+     */
+    boolean isSamplingRunnableOnly();
+
+    void setSamplingRunnableOnly(boolean samplingRunnableOnly);
+
+    /**
+     * @return the maximum number of frames captured per stack trace
+     */
+    int getSamplingMaxDepth();
+
+    void setSamplingMaxDepth(int samplingMaxDepth);
+
+    /**
+     * @return the maximum number of threads captured per sample
+     */
+    int getSamplingMaxThreads();
+
+    void setSamplingMaxThreads(int samplingMaxThreads);
+
+    /**
+     * @return the maximum number of nodes of the sampled call tree
+     */
+    int getSamplingMaxNodes();
+
+    void setSamplingMaxNodes(int samplingMaxNodes);
+
+    /**
+     * @return the maximum percentage of time the sampling thread may spend taking samples
+     */
+    int getSamplingOverhead();
+
+    void setSamplingOverhead(int samplingOverhead);
+
     String getStrategy();
 
     void setStrategy(String strategy);
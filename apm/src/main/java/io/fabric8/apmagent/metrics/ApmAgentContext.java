@@ -39,13 +39,16 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ApmAgentContext {
     private static final Logger LOG = LoggerFactory.getLogger(ApmAgent.class);
     private final String DEFAULT_DOMAIN = "io.fabric8.apmagent";
     private final long HOUSE_KEEPING_TIME = TimeUnit.SECONDS.toMillis(2);
+    private final long AGGREGATION_TIME = 100;
     private final ConcurrentMap<String, ClassInfo> allMethods = new ConcurrentHashMap<>();
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
@@ -59,7 +62,18 @@ public class ApmAgentContext {
     private ObjectName configurationObjectName;
     private final ApmConfiguration configuration;
     private final MonitoredMethodMetrics monitoredMethodMetrics;
-    private AtomicBoolean doHouseKeeping = new AtomicBoolean();
+    private final MethodRegistry methodRegistry = new MethodRegistry();
+    private final List<ThreadFrames> threadFrames = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadFrames> frames = new ThreadLocal<ThreadFrames>() {
+        @Override
+        protected ThreadFrames initialValue() {
+            ThreadFrames result = new ThreadFrames(Thread.currentThread());
+            threadFrames.add(result);
+            return result;
+        }
+    };
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final CallTree callTree;
     private Thread backgroundThread;
     private boolean monitorByDefault = true;
 
@@ -68,6 +82,27 @@ public class ApmAgentContext {
         this.configuration = agent.getConfiguration();
         this.monitoredMethodMetrics = new MonitoredMethodMetrics(this);
         this.monitoredMethodMetrics.setMonitorSize(configuration.getMethodMetricDepth());
+        this.callTree = new CallTree(configuration.getSamplingMaxNodes());
+    }
+
+    /**
+     * Register an instrumented method, returning the id passed to {@link #enterMethod(int)} and {@link #exitMethod(int)}
+     */
+    public int registerMethod(String fullMethodName) {
+        return methodRegistry.register(fullMethodName, isMonitorByDefault());
+    }
+
+    /**
+     * Called by the instrumented code on the current thread, only while the metrics are started.
+     * The timings are recorded in thread local arrays and aggregated by the background thread.
+     */
+    public void enterMethod(int methodId) {
+        frames.get().enter(methodId, System.nanoTime());
+    }
+
+    public void exitMethod(int methodId) {
+        long now = System.nanoTime();
+        frames.get().exit(methodId, now, methodRegistry);
     }
 
     public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive) {
@@ -104,10 +139,58 @@ public class ApmAgentContext {
                     methodMetrics.update(elapsed);
                 }
             }
-            doHouseKeeping();
         }
     }
 
+    void recordSample(Thread thread, int methodId, long elapsed) {
+        String fullMethodName = methodRegistry.getName(methodId);
+        if (fullMethodName == null) {
+            return;
+        }
+        ThreadMetrics threadMetrics = threadMetricsMap.get(thread);
+        if (threadMetrics == null) {
+            threadMetrics = new ThreadMetrics(this, thread);
+            ThreadMetrics existing = threadMetricsMap.putIfAbsent(thread, threadMetrics);
+            if (existing != null) {
+                threadMetrics = existing;
+            }
+        }
+        threadMetrics.update(fullMethodName, elapsed);
+
+        MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
+        if (methodMetrics == null) {
+            methodMetrics = new MethodMetrics(fullMethodName);
+            methodMetrics.setActive(isMonitorByDefault());
+            MethodMetrics existing = methodMetricsMap.putIfAbsent(fullMethodName, methodMetrics);
+            if (existing != null) {
+                methodMetrics = existing;
+            }
+        }
+        methodMetrics.update(elapsed);
+    }
+
+    void aggregate() {
+        for (ThreadFrames tf : threadFrames) {
+            tf.drain(this);
+            if (!tf.getThread().isAlive()) {
+                tf.drain(this);
+                threadFrames.remove(tf);
+                droppedSamples.addAndGet(tf.getDropped());
+            }
+        }
+    }
+
+    /**
+     * @return the number of timings lost because the background thread could not keep up
+     */
+    public long getDroppedSamples() {
+        long result = droppedSamples.get();
+        for (ThreadFrames tf : threadFrames) {
+            result += tf.getDropped();
+        }
+        return result;
+    }
+
     public void initialize() {
         if (initialized.compareAndSet(false, true)) {
             try {
@@ -124,18 +207,30 @@ public class ApmAgentContext {
     public void start() {
         if (initialized.get()) {
             if (started.compareAndSet(false, true)) {
+                for (ThreadFrames tf : threadFrames) {
+                    tf.reset();
+                }
                 backgroundThread = new Thread(new Runnable() {
                     @Override
                     public void run() {
+                        long nextHouseKeeping = System.currentTimeMillis() + HOUSE_KEEPING_TIME;
                         while (started.get()) {
                             try {
-                                Thread.sleep(HOUSE_KEEPING_TIME);
-                                doHouseKeeping.set(true);
+                                Thread.sleep(AGGREGATION_TIME);
+                                aggregate();
+                                if (System.currentTimeMillis() >= nextHouseKeeping) {
+                                    nextHouseKeeping = System.currentTimeMillis() + HOUSE_KEEPING_TIME;
+                                    doHouseKeeping();
+                                }
+                            } catch (InterruptedException e) {
+                                // stopped
+                                break;
                             } catch (Throwable e) {
+                                LOG.warn("Failed to aggregate the method metrics", e);
                             }
                         }
                     }
-                });
+                }, "ApmAgent-aggregator");
                 backgroundThread.setDaemon(true);
                 backgroundThread.start();
             }
@@ -143,29 +238,36 @@ public class ApmAgentContext {
     }
 
     void doHouseKeeping() {
-        //the time is going to be the elapsed time from the latest method call
-        //its not going to be terribly accurate - but then it doesn't really need to be
-        if (doHouseKeeping.compareAndSet(true, false)) {
-            try {
-                List<ThreadMetrics> threadMetricsList = getThreadMetrics();
-                for (ThreadMetrics tm : threadMetricsList) {
-                    if (tm.isDead()) {
-                        tm.destroy();
-                        threadMetricsMap.remove(tm.getThread());
-                    }
-                }
-                monitoredMethodMetrics.calculateMethodMetrics(getMethodMetrics());
-                for (ThreadMetrics threadMetrics : threadMetricsList) {
-                    threadMetrics.calculateMethodMetrics();
+        try {
+            List<ThreadMetrics> threadMetricsList = getThreadMetrics();
+            for (ThreadMetrics tm : threadMetricsList) {
+                if (tm.isDead()) {
+                    tm.destroy();
+                    threadMetricsMap.remove(tm.getThread());
                 }
-            } catch (Throwable e) {
-                e.printStackTrace();
             }
+            monitoredMethodMetrics.calculateMethodMetrics(getMethodMetrics());
+            for (ThreadMetrics threadMetrics : threadMetricsList) {
+                threadMetrics.calculateMethodMetrics();
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
         }
     }
 
     public void stop() {
         if (initialized.get() && started.compareAndSet(true, false)) {
+            // The aggregator must be done with the maps and mbeans before they are cleared
+            Thread thread = backgroundThread;
+            backgroundThread = null;
+            if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             for (ObjectName objectName : objectNameMap.values()) {
                 unregisterMBean(objectName);
             }
@@ -256,8 +358,20 @@ public class ApmAgentContext {
         this.monitorByDefault = monitorByDefault;
     }
 
+    /**
+     * @return the call tree built by the sampling strategy
+     */
+    public CallTree getCallTree() {
+        return callTree;
+    }
+
+    public MethodRegistry getMethodRegistry() {
+        return methodRegistry;
+    }
+
     public void setActive(String fullMethodName, boolean flag) {
         if (isInitialized()) {
+            methodRegistry.setActive(fullMethodName, flag);
             for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
                 threadMetrics.setActive(fullMethodName, flag);
             }
@@ -0,0 +1,136 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregates sampled stack traces into a call tree, which can be written in the folded
+ * format used by flame graph tools.  The number of nodes is bounded: once the limit is
+ * reached, samples going through unknown frames are accounted to their deepest known caller.
+ */
+public class CallTree {
+    private final Node root = new Node(null, null);
+    private int maxNodes;
+    private int nodeCount;
+    private long samples;
+    private long truncated;
+
+    public CallTree(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Add a stack trace, the top of the stack being the first element.
+     */
+    public synchronized void add(StackTraceElement[] stack) {
+        samples++;
+        Node node = root;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            StackTraceElement element = stack[i];
+            Node child = node.find(element.getClassName(), element.getMethodName());
+            if (child == null) {
+                if (nodeCount >= maxNodes) {
+                    truncated++;
+                    break;
+                }
+                child = new Node(element.getClassName(), element.getMethodName());
+                node.children.add(child);
+                nodeCount++;
+            }
+            node = child;
+        }
+        node.self++;
+    }
+
+    public synchronized void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the number of samples which were accounted to a caller because the tree was full
+     */
+    public synchronized long getTruncated() {
+        return truncated;
+    }
+
+    public synchronized int getNodeCount() {
+        return nodeCount;
+    }
+
+    public synchronized void reset() {
+        root.children.clear();
+        root.self = 0;
+        nodeCount = 0;
+        samples = 0;
+        truncated = 0;
+    }
+
+    /**
+     * @return one line per distinct stack, as the frames from the outermost separated by
+     * <code>;</code>, followed by a space and the number of samples
+     */
+    public synchronized String toFolded() {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder path = new StringBuilder();
+        for (Node child : root.children) {
+            append(sb, path, child);
+        }
+        return sb.toString();
+    }
+
+    private void append(StringBuilder sb, StringBuilder path, Node node) {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        path.append(node.className).append('.').append(node.methodName);
+        if (node.self > 0) {
+            sb.append(path).append(' ').append(node.self).append('\n');
+        }
+        for (Node child : node.children) {
+            append(sb, path, child);
+        }
+        path.setLength(length);
+    }
+
+    private static class Node {
+        final String className;
+        final String methodName;
+        final List<Node> children = new ArrayList<>(2);
+        long self;
+
+        Node(String className, String methodName) {
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        Node find(String className, String methodName) {
+            for (int i = 0; i < children.size(); i++) {
+                Node child = children.get(i);
+                if (child.methodName.equals(methodName) && child.className.equals(className)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+}
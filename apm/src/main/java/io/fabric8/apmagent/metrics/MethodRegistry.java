@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns a dense integer id to each instrumented method when its class is transformed,
+ * so that the instrumented code only has to pass a constant to the agent.
+ * Ids are never reused, as they are compiled into the transformed classes.
+ */
+public class MethodRegistry {
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[256];
+    private volatile boolean[] active = new boolean[256];
+    private int size;
+
+    /**
+     * @return the id of the method, registering it if needed
+     */
+    public int register(String fullMethodName, boolean activeByDefault) {
+        Integer id = ids.get(fullMethodName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(fullMethodName);
+            if (id == null) {
+                id = size;
+                if (size == names.length) {
+                    active = Arrays.copyOf(active, size * 2);
+                    names = Arrays.copyOf(names, size * 2);
+                }
+                active[size] = activeByDefault;
+                names[size] = fullMethodName;
+                size++;
+                ids.put(fullMethodName, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @return the id of the method, or -1 if it has not been registered
+     */
+    public int getId(String fullMethodName) {
+        Integer id = ids.get(fullMethodName);
+        return id != null ? id : -1;
+    }
+
+    public String getName(int id) {
+        String[] names = this.names;
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    public boolean isActive(int id) {
+        boolean[] active = this.active;
+        return id >= 0 && id < active.length && active[id];
+    }
+
+    public void setActive(String fullMethodName, boolean flag) {
+        int id = getId(fullMethodName);
+        if (id >= 0) {
+            synchronized (this) {
+                active[id] = flag;
+            }
+        }
+    }
+
+    public synchronized void setAllActive(boolean flag) {
+        Arrays.fill(active, 0, size, flag);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
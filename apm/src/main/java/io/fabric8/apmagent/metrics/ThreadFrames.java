@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The call stack and recorded timings of a single thread, updated by that thread only.
+ * <p>
+ * Each completed call is written as one <code>long</code> (method id and elapsed nanoseconds)
+ * to a ring buffer which the aggregation thread of the {@link ApmAgentContext} drains,
+ * so that the instrumented thread does no lookups nor locking.  Samples are dropped if
+ * the ring is full.
+ */
+class ThreadFrames {
+    static final int CAPACITY = 2048;
+    private static final int MASK = CAPACITY - 1;
+    private static final int ID_SHIFT = 40;
+    private static final long MAX_ELAPSED = (1L << ID_SHIFT) - 1;
+
+    private final Thread thread;
+    private int[] stackIds = new int[16];
+    private long[] stackStarts = new long[16];
+    private int depth;
+    private volatile boolean reset;
+
+    private final long[] samples = new long[CAPACITY];
+    // head is only written by the owning thread, tail by the aggregation thread
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long dropped;
+
+    ThreadFrames(Thread thread) {
+        this.thread = thread;
+    }
+
+    Thread getThread() {
+        return thread;
+    }
+
+    void enter(int methodId, long now) {
+        checkReset();
+        if (depth == stackIds.length) {
+            stackIds = Arrays.copyOf(stackIds, depth * 2);
+            stackStarts = Arrays.copyOf(stackStarts, depth * 2);
+        }
+        stackIds[depth] = methodId;
+        stackStarts[depth] = now;
+        depth++;
+    }
+
+    void exit(int methodId, long now, MethodRegistry registry) {
+        checkReset();
+        int index = depth - 1;
+        while (index >= 0 && stackIds[index] != methodId) {
+            index--;
+        }
+        if (index < 0) {
+            // the method was entered before the metrics were started
+            return;
+        }
+        //the exit could have jumped a few methods if its
+        //caused by an exception
+        for (int i = depth - 1; i >= index; i--) {
+            if (registry.isActive(stackIds[i])) {
+                record(stackIds[i], now - stackStarts[i]);
+            }
+        }
+        depth = index;
+    }
+
+    private void checkReset() {
+        if (reset) {
+            reset = false;
+            depth = 0;
+        }
+    }
+
+    private void record(int methodId, long elapsed) {
+        long h = head.get();
+        if (h - tail.get() >= CAPACITY) {
+            dropped++;
+            return;
+        }
+        samples[(int) h & MASK] = ((long) methodId << ID_SHIFT) | Math.max(0, Math.min(elapsed, MAX_ELAPSED));
+        head.lazySet(h + 1);
+    }
+
+    /**
+     * Hand the recorded samples to the context, called from the aggregation thread only.
+     */
+    int drain(ApmAgentContext context) {
+        long t = tail.get();
+        long h = head.get();
+        int count = (int) (h - t);
+        for (; t < h; t++) {
+            long sample = samples[(int) t & MASK];
+            context.recordSample(thread, (int) (sample >>> ID_SHIFT), sample & MAX_ELAPSED);
+        }
+        tail.lazySet(t);
+        return count;
+    }
+
+    /**
+     * Discard the call stack on the next enter or exit, as the frames entered while the metrics
+     * were stopped have not been recorded.
+     */
+    void reset() {
+        reset = true;
+        tail.lazySet(head.get());
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+}
@@ -74,15 +74,30 @@ public class ThreadMetrics {
     }
 
     public void enter(String methodName, boolean alwaysActive) {
+        ThreadContextMethodMetrics threadContextMethodMetrics = getMethodMetrics(methodName);
+        if (alwaysActive || threadContextMethodMetrics.isActive()) {
+            threadContextMethodMetrics.onEnter();
+        }
+    }
+
+    /**
+     * Record a call timed by the instrumented thread itself, see {@link ThreadFrames}
+     */
+    void update(String methodName, long elapsed) {
+        getMethodMetrics(methodName).update(elapsed);
+    }
+
+    private ThreadContextMethodMetrics getMethodMetrics(String methodName) {
         ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
         if (threadContextMethodMetrics == null) {
             threadContextMethodMetrics = new ThreadContextMethodMetrics(thread, this.methodStackRef, methodName);
             threadContextMethodMetrics.setActive(apmAgentContext.isMonitorByDefault());
-            methods.putIfAbsent(methodName, threadContextMethodMetrics);
-        }
-        if (alwaysActive || threadContextMethodMetrics.isActive()) {
-            threadContextMethodMetrics.onEnter();
+            ThreadContextMethodMetrics existing = methods.putIfAbsent(methodName, threadContextMethodMetrics);
+            if (existing != null) {
+                threadContextMethodMetrics = existing;
+            }
         }
+        return threadContextMethodMetrics;
     }
 
     public long exit(String methodName, boolean alwaysActive) {
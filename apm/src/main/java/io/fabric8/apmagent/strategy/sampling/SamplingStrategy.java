@@ -18,17 +18,30 @@ package io.fabric8.apmagent.strategy.sampling;
 import io.fabric8.apmagent.ApmConfiguration;
 import io.fabric8.apmagent.Strategy;
 import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.metrics.CallTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
+/**
+ * Samples the stacks of the application threads at a regular interval.
+ * <p>
+ * Only the threads whose name match the configured pattern are sampled, their stacks are
+ * captured together with a single call to {@link ThreadMXBean#getThreadInfo(long[], int)}
+ * with a bounded depth, and the interval is stretched so that sampling does not take more
+ * than the configured percentage of the time.
+ */
 public class SamplingStrategy implements Strategy, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SamplingStrategy.class);
     private static final long CLEANUP_INTERVAL = 1000;
     private ApmAgentContext context;
     private ApmConfiguration configuration;
@@ -36,6 +49,15 @@ public class SamplingStrategy implements Strategy, Runnable {
     private AtomicBoolean started = new AtomicBoolean();
     private Thread samplingThread;
     private final Map<Long, String> currentMethods = new HashMap<>();
+    private final Map<Long, Thread> sampledThreads = new HashMap<>();
+    private long[] sampledThreadIds = new long[0];
+    private volatile Pattern threadNamePattern;
+    private volatile boolean runnableOnly;
+    private volatile int maxDepth;
+    private volatile int maxThreads;
+    private volatile int interval;
+    private volatile int overhead;
+    private volatile boolean refreshThreads;
 
     public SamplingStrategy(ApmAgentContext context) {
         this.context = context;
@@ -48,6 +70,7 @@ public class SamplingStrategy implements Strategy, Runnable {
             samplingThread = new Thread(this, "SamplingStrategy");
             samplingThread.setDaemon(true);
             configuration.addChangeListener(this);
+            configurationChanged();
         }
     }
 
@@ -75,51 +98,109 @@ public class SamplingStrategy implements Strategy, Runnable {
         }
     }
 
+    /**
+     * Take the new sampling settings into account, the sampled threads are selected again
+     * at the next sample as the thread name pattern or the maximum number of threads may have changed.
+     */
     @Override
     public void configurationChanged() {
-
+        String pattern = configuration.getSamplingThreadNamePattern();
+        threadNamePattern = pattern != null && pattern.length() > 0 ? Pattern.compile(pattern) : null;
+        runnableOnly = configuration.isSamplingRunnableOnly();
+        maxDepth = Math.max(1, configuration.getSamplingMaxDepth());
+        maxThreads = configuration.getSamplingMaxThreads();
+        interval = configuration.getSamplingInterval();
+        overhead = configuration.getSamplingOverhead();
+        context.getCallTree().setMaxNodes(configuration.getSamplingMaxNodes());
+        refreshThreads = true;
     }
 
     @Override
     public void run() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        CallTree callTree = context.getCallTree();
         long lastTime = 0;
         while (started.get()) {
             try {
-                for (Map.Entry<Thread, StackTraceElement[]> threadEntry : Thread.getAllStackTraces().entrySet()) {
-                    if (threadEntry.getKey() != Thread.currentThread()) {
-                        addMeasurement(threadEntry.getKey(), threadEntry.getValue());
-                    }
-                }
                 long currentTime = System.currentTimeMillis();
-
-                if ((currentTime - lastTime) > CLEANUP_INTERVAL) {
+                if (refreshThreads || (currentTime - lastTime) > CLEANUP_INTERVAL) {
+                    refreshThreads = false;
                     cleanup();
                     lastTime = currentTime;
                 }
-                Thread.sleep(configuration.getSamplingInterval());
+
+                long start = System.nanoTime();
+                boolean runnableOnly = this.runnableOnly;
+                ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(sampledThreadIds, maxDepth);
+                for (ThreadInfo threadInfo : threadInfos) {
+                    if (threadInfo == null || (runnableOnly && threadInfo.getThreadState() != Thread.State.RUNNABLE)) {
+                        continue;
+                    }
+                    StackTraceElement[] stackTrace = threadInfo.getStackTrace();
+                    if (stackTrace.length > 0) {
+                        callTree.add(stackTrace);
+                        addMeasurement(sampledThreads.get(threadInfo.getThreadId()), stackTrace);
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+
+                Thread.sleep(getSleepTime(elapsed));
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                LOG.warn("Failed to sample threads", e);
             }
         }
     }
 
+    /**
+     * Stretch the sampling interval so that the time spent sampling stays within the overhead budget
+     */
+    long getSleepTime(long elapsedNanos) {
+        long interval = this.interval;
+        int overhead = this.overhead;
+        if (overhead > 0 && overhead < 100) {
+            long budget = TimeUnit.NANOSECONDS.toMillis(elapsedNanos * (100 - overhead) / overhead);
+            interval = Math.max(interval, budget);
+        }
+        return Math.max(1, interval);
+    }
+
+    /**
+     * Refresh the threads to sample.  Threads are enumerated from their thread group, which
+     * unlike {@link Thread#getAllStackTraces()} does not need to stop the JVM.
+     */
     private void cleanup() {
-        List<ThreadInfo> removeList = null;
-        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
-        for (Long id : currentMethods.keySet()) {
-            ThreadInfo threadInfo = threadMXBean.getThreadInfo(id);
-            if (threadInfo != null) {
-                if (threadInfo.getThreadState() == Thread.State.TERMINATED) {
-                    if (removeList == null) {
-                        removeList = new ArrayList<>();
-                    }
-                    removeList.add(threadInfo);
-                }
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int count;
+        while ((count = root.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+
+        Pattern pattern = threadNamePattern;
+        int maxThreads = this.maxThreads;
+        sampledThreads.clear();
+        for (int i = 0; i < count && sampledThreads.size() < maxThreads; i++) {
+            Thread thread = threads[i];
+            if (thread != Thread.currentThread() && thread.isAlive()
+                    && (pattern == null || pattern.matcher(thread.getName()).matches())) {
+                sampledThreads.put(thread.getId(), thread);
             }
         }
-        if (removeList != null) {
-            for (ThreadInfo threadInfo : removeList) {
-                currentMethods.remove(threadInfo.getThreadId());
+        long[] ids = new long[sampledThreads.size()];
+        int i = 0;
+        for (Long id : sampledThreads.keySet()) {
+            ids[i++] = id;
+        }
+        sampledThreadIds = ids;
+
+        for (Iterator<Long> it = currentMethods.keySet().iterator(); it.hasNext();) {
+            if (!sampledThreads.containsKey(it.next())) {
+                it.remove();
             }
         }
     }
@@ -128,8 +209,8 @@ public class SamplingStrategy implements Strategy, Runnable {
         if (thread != null && thread.isAlive() &&
                 stackTraceElements != null && stackTraceElements.length > 0) {
             StackTraceElement topOfStack = stackTraceElements[0];
-            String currentMethod = getCurrentMethod(topOfStack);
             if (configuration.isAudit(topOfStack.getClassName(), topOfStack.getMethodName())) {
+                String currentMethod = getCurrentMethod(topOfStack);
                 String lastMethod = currentMethods.put(thread.getId(), currentMethod);
                 if (lastMethod == null) {
                     context.enterMethod(thread, currentMethod, true);
@@ -148,4 +229,3 @@ public class SamplingStrategy implements Strategy, Runnable {
         return stringBuilder.toString();
     }
 }
-
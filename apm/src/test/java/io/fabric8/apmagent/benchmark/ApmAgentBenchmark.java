@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.benchmark;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead the agent adds to an instrumented method, comparing a plain call with
+ * the calls generated by the trace strategy and with the former name based calls.
+ * Run the main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApmAgentBenchmark {
+
+    private static final String METHOD_NAME = "io.fabric8.apmagent.benchmark.ApmAgentBenchmark@work(long) long";
+
+    private ApmAgentContext context;
+    private int methodId;
+
+    @State(Scope.Thread)
+    public static class Input {
+        long value;
+    }
+
+    @Setup
+    public void setUp() {
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        context.start();
+        methodId = context.registerMethod(METHOD_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.shutDown();
+    }
+
+    @Benchmark
+    public long plain(Input input) {
+        return work(input.value++);
+    }
+
+    @Benchmark
+    public long instrumented(Input input) {
+        context.enterMethod(methodId);
+        long result = work(input.value++);
+        context.exitMethod(methodId);
+        return result;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long instrumentedConcurrent(Input input) {
+        return instrumented(input);
+    }
+
+    @Benchmark
+    public long instrumentedByName(Input input) {
+        Thread thread = Thread.currentThread();
+        context.enterMethod(thread, METHOD_NAME, false);
+        long result = work(input.value++);
+        context.exitMethod(thread, METHOD_NAME, false);
+        return result;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long instrumentedByNameConcurrent(Input input) {
+        return instrumentedByName(input);
+    }
+
+    private static long work(long x) {
+        return x * 31 + (x >>> 7);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ApmAgentBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CallTreeTest {
+
+    @Test
+    public void testFolded() {
+        CallTree tree = new CallTree(100);
+        tree.add(stack("a.A.run", "b.B.call", "c.C.work"));
+        tree.add(stack("a.A.run", "b.B.call", "c.C.work"));
+        tree.add(stack("a.A.run", "b.B.call"));
+        tree.add(stack("a.A.run", "d.D.wait"));
+
+        assertEquals(4, tree.getSamples());
+        assertEquals(4, tree.getNodeCount());
+        assertEquals("a.A.run;b.B.call 1\n"
+                + "a.A.run;b.B.call;c.C.work 2\n"
+                + "a.A.run;d.D.wait 1\n", tree.toFolded());
+    }
+
+    @Test
+    public void testMaxNodes() {
+        CallTree tree = new CallTree(2);
+        tree.add(stack("a.A.run", "b.B.call"));
+        // The tree is full, the samples are accounted to their deepest known frame
+        tree.add(stack("a.A.run", "b.B.call", "c.C.work"));
+        tree.add(stack("a.A.run", "d.D.wait"));
+
+        assertEquals(3, tree.getSamples());
+        assertEquals(2, tree.getTruncated());
+        assertEquals(2, tree.getNodeCount());
+        assertEquals("a.A.run 1\na.A.run;b.B.call 2\n", tree.toFolded());
+
+        // Raising the limit lets the tree grow again
+        tree.setMaxNodes(3);
+        tree.add(stack("a.A.run", "d.D.wait"));
+        assertEquals(3, tree.getNodeCount());
+        assertEquals("a.A.run 1\na.A.run;b.B.call 2\na.A.run;d.D.wait 1\n", tree.toFolded());
+
+        tree.reset();
+        assertEquals(0, tree.getSamples());
+        assertEquals(0, tree.getTruncated());
+        assertEquals(0, tree.getNodeCount());
+        assertEquals("", tree.toFolded());
+    }
+
+    /**
+     * Build a stack trace from the outermost frame, returned with the top of the stack first
+     */
+    private static StackTraceElement[] stack(String... frames) {
+        StackTraceElement[] stack = new StackTraceElement[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            String frame = frames[i];
+            int dot = frame.lastIndexOf('.');
+            stack[frames.length - 1 - i] = new StackTraceElement(frame.substring(0, dot), frame.substring(dot + 1), null, -1);
+        }
+        return stack;
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MethodRegistryTest {
+
+    @Test
+    public void testRegisterGrows() {
+        MethodRegistry registry = new MethodRegistry();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, registry.register("C.m" + i, i % 2 == 0));
+        }
+        assertEquals(1000, registry.size());
+        // Registering again returns the same id
+        assertEquals(300, registry.register("C.m300", false));
+        assertEquals(1000, registry.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, registry.getId("C.m" + i));
+            assertEquals("C.m" + i, registry.getName(i));
+            assertEquals(i % 2 == 0, registry.isActive(i));
+        }
+        assertEquals(-1, registry.getId("C.unknown"));
+        assertNull(registry.getName(1000000));
+        assertNull(registry.getName(-1));
+        assertFalse(registry.isActive(1000000));
+    }
+
+    @Test
+    public void testSetActive() {
+        MethodRegistry registry = new MethodRegistry();
+        for (int i = 0; i < 300; i++) {
+            registry.register("C.m" + i, true);
+        }
+        registry.setActive("C.m280", false);
+        assertFalse(registry.isActive(280));
+        assertTrue(registry.isActive(279));
+        // Unknown methods are ignored
+        registry.setActive("C.unknown", false);
+
+        registry.setAllActive(false);
+        for (int i = 0; i < 300; i++) {
+            assertFalse(registry.isActive(i));
+        }
+        registry.setAllActive(true);
+        assertTrue(registry.isActive(280));
+    }
+}
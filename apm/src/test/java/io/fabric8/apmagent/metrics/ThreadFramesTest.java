@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.fabric8.apmagent.ApmAgent;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThreadFramesTest {
+
+    private final List<String> samples = new ArrayList<>();
+    private ApmAgentContext context;
+    private MethodRegistry registry;
+    private ThreadFrames frames;
+    private int a, b, c, d;
+
+    @Before
+    public void setUp() {
+        context = new ApmAgentContext(ApmAgent.INSTANCE) {
+            @Override
+            void recordSample(Thread thread, int methodId, long elapsed) {
+                samples.add(getMethodRegistry().getName(methodId) + ":" + elapsed);
+            }
+        };
+        registry = context.getMethodRegistry();
+        a = registry.register("A.a", true);
+        b = registry.register("B.b", true);
+        c = registry.register("C.c", true);
+        d = registry.register("D.d", true);
+        frames = new ThreadFrames(Thread.currentThread());
+    }
+
+    @Test
+    public void testExitUnwindsToMatchingFrame() {
+        frames.enter(a, 0);
+        frames.enter(b, 10);
+        frames.enter(c, 20);
+        // An exception thrown by c and caught by a skips the exits of c and b
+        frames.exit(a, 100, registry);
+        frames.enter(d, 110);
+        frames.exit(d, 115, registry);
+
+        assertEquals(4, frames.drain(context));
+        assertEquals("[C.c:80, B.b:90, A.a:100, D.d:5]", samples.toString());
+    }
+
+    @Test
+    public void testExitOfUnknownFrameIsIgnored() {
+        frames.enter(a, 0);
+        // b was entered before the metrics were started
+        frames.exit(b, 10, registry);
+        frames.exit(a, 20, registry);
+
+        assertEquals(1, frames.drain(context));
+        assertEquals("[A.a:20]", samples.toString());
+    }
+
+    @Test
+    public void testInactiveMethodsAreNotRecorded() {
+        registry.setActive("B.b", false);
+        frames.enter(a, 0);
+        frames.enter(b, 10);
+        frames.exit(b, 20, registry);
+        frames.exit(a, 30, registry);
+
+        assertEquals(1, frames.drain(context));
+        assertEquals("[A.a:30]", samples.toString());
+    }
+
+    @Test
+    public void testSamplesAreDroppedWhenFull() {
+        for (int i = 0; i < ThreadFrames.CAPACITY + 10; i++) {
+            frames.enter(a, i);
+            frames.exit(a, i + 1, registry);
+        }
+        assertEquals(10, frames.getDropped());
+        assertEquals(ThreadFrames.CAPACITY, frames.drain(context));
+        assertEquals(ThreadFrames.CAPACITY, samples.size());
+
+        // Once drained there is room again
+        frames.enter(b, 0);
+        frames.exit(b, 1, registry);
+        assertEquals(1, frames.drain(context));
+        assertEquals(10, frames.getDropped());
+        assertEquals(0, frames.drain(context));
+    }
+
+    @Test
+    public void testReset() {
+        frames.enter(a, 0);
+        frames.enter(b, 10);
+        frames.exit(b, 20, registry);
+
+        frames.reset();
+        // The pending sample and the call stack are discarded
+        assertEquals(0, frames.drain(context));
+        frames.exit(a, 30, registry);
+        assertEquals(0, frames.drain(context));
+
+        frames.enter(c, 40);
+        frames.exit(c, 45, registry);
+        assertEquals(1, frames.drain(context));
+        assertEquals("[C.c:5]", samples.toString());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingStrategyTest {
+
+    private final ApmConfiguration configuration = ApmAgent.INSTANCE.getConfiguration();
+    private ApmAgentContext context;
+    private SamplingStrategy strategy;
+
+    private String threadNamePattern;
+    private boolean runnableOnly;
+    private int interval;
+    private int overhead;
+    private int maxNodes;
+
+    @Before
+    public void setUp() {
+        threadNamePattern = configuration.getSamplingThreadNamePattern();
+        runnableOnly = configuration.isSamplingRunnableOnly();
+        interval = configuration.getSamplingInterval();
+        overhead = configuration.getSamplingOverhead();
+        maxNodes = configuration.getSamplingMaxNodes();
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        strategy = new SamplingStrategy(context);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        strategy.stop();
+        strategy.shutDown();
+        configuration.setSamplingThreadNamePattern(threadNamePattern);
+        configuration.setSamplingRunnableOnly(runnableOnly);
+        configuration.setSamplingInterval(interval);
+        configuration.setSamplingOverhead(overhead);
+        configuration.setSamplingMaxNodes(maxNodes);
+    }
+
+    @Test
+    public void testSleepTimeFollowsConfiguration() throws Exception {
+        strategy.initialize();
+
+        // The settings changed through JMX are taken into account at once
+        configuration.setSamplingInterval(10);
+        configuration.setSamplingOverhead(0);
+        assertEquals(10, strategy.getSleepTime(TimeUnit.MILLISECONDS.toNanos(5)));
+
+        // Sampling for 5ms with a 1% budget needs 495ms of sleep
+        configuration.setSamplingOverhead(1);
+        assertEquals(495, strategy.getSleepTime(TimeUnit.MILLISECONDS.toNanos(5)));
+        assertEquals(10, strategy.getSleepTime(TimeUnit.MICROSECONDS.toNanos(50)));
+
+        configuration.setSamplingInterval(0);
+        configuration.setSamplingOverhead(0);
+        assertEquals(1, strategy.getSleepTime(0));
+    }
+
+    @Test
+    public void testMaxNodesFollowsConfiguration() throws Exception {
+        strategy.initialize();
+        configuration.setSamplingMaxNodes(1);
+        context.getCallTree().add(new StackTraceElement[] {
+                new StackTraceElement("b.B", "call", null, -1), new StackTraceElement("a.A", "run", null, -1) });
+        assertEquals(1, context.getCallTree().getNodeCount());
+        assertEquals(1, context.getCallTree().getTruncated());
+    }
+
+    @Test
+    public void testSamplesMatchingThreads() throws Exception {
+        configuration.setSamplingInterval(1);
+        configuration.setSamplingOverhead(0);
+        configuration.setSamplingRunnableOnly(true);
+        configuration.setSamplingThreadNamePattern("sampled-.*");
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread sampled = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                spin(done);
+            }
+        }, "sampled-worker");
+        Thread ignored = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                spinElsewhere(done);
+            }
+        }, "ignored-worker");
+        sampled.start();
+        ignored.start();
+        try {
+            strategy.start();
+            long end = System.currentTimeMillis() + 10000;
+            while (!isSampled(context.getCallTree().toFolded(), "spin") && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            String folded = context.getCallTree().toFolded();
+            assertTrue(folded, isSampled(folded, "spin"));
+            assertFalse(folded, folded.contains("spinElsewhere"));
+        } finally {
+            done.countDown();
+            sampled.join();
+            ignored.join();
+        }
+    }
+
+    private static boolean isSampled(String folded, String method) {
+        return folded.matches("(?s).*SamplingStrategyTest\\." + method + "[; ].*");
+    }
+
+    private static void spin(CountDownLatch done) {
+        while (done.getCount() > 0) {
+            Thread.yield();
+        }
+    }
+
+    private static void spinElsewhere(CountDownLatch done) {
+        while (done.getCount() > 0) {
+            Thread.yield();
+        }
+    }
+
+}
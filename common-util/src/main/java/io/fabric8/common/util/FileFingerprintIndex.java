@@ -0,0 +1,317 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.common.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the checksums of files, keyed by the path, size, last modification time and file key
+ * of each file, so that a file is only read again when one of them has changed.
+ * <p>
+ * The checksums are the CRC32 values computed by {@link ChecksumUtils#checksum(InputStream)}.
+ * The index can be persisted in a properties file.
+ */
+public class FileFingerprintIndex {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(FileFingerprintIndex.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Files modified less than this number of milliseconds before being read are not indexed,
+     * as a later change might not alter their size nor their modification time
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    private final File indexFile;
+    private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean dirty;
+
+    /**
+     * Creates an index which is not persisted
+     */
+    public FileFingerprintIndex() {
+        this(null);
+    }
+
+    /**
+     * Creates an index persisted in the given file, loading it if it exists
+     */
+    public FileFingerprintIndex(File indexFile) {
+        this.indexFile = indexFile;
+        if (indexFile != null && indexFile.isFile()) {
+            try {
+                load();
+            } catch (IOException e) {
+                LOG.warn("Failed to load checksum index " + indexFile + ". " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the checksum of the given file, only reading it if it changed since it was last indexed
+     */
+    public long checksum(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        BasicFileAttributes attrs = java.nio.file.Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path.toString();
+        Fingerprint fingerprint = fingerprints.get(key);
+        if (fingerprint != null && fingerprint.matches(attrs)) {
+            hits.incrementAndGet();
+            return fingerprint.checksum;
+        }
+        misses.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long checksum = crc(path);
+        if (attrs.lastModifiedTime().toMillis() < now - RACY_INTERVAL) {
+            fingerprints.put(key, new Fingerprint(attrs, checksum));
+        } else {
+            fingerprints.remove(key);
+        }
+        dirty = true;
+        return checksum;
+    }
+
+    /**
+     * Returns the checksums of the given files, reading the files which changed using up to the
+     * given number of threads.  Files which can not be read are logged and left out of the result.
+     */
+    public Map<File, Long> checksums(Collection<File> files, int threads) {
+        Map<File, Long> answer = new HashMap<File, Long>();
+        List<File> changed = new ArrayList<File>();
+        for (File file : files) {
+            Long checksum = lookup(file);
+            if (checksum != null) {
+                answer.put(file, checksum);
+            } else {
+                changed.add(file);
+            }
+        }
+        if (changed.size() <= 1 || threads <= 1) {
+            for (File file : changed) {
+                try {
+                    answer.put(file, checksum(file));
+                } catch (IOException e) {
+                    LOG.debug("Error calculating checksum for " + file, e);
+                }
+            }
+            return answer;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, changed.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fabric8-checksum");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Map<File, Future<Long>> futures = new HashMap<File, Future<Long>>();
+            for (final File file : changed) {
+                futures.put(file, executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return checksum(file);
+                    }
+                }));
+            }
+            for (Map.Entry<File, Future<Long>> entry : futures.entrySet()) {
+                try {
+                    answer.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    LOG.debug("Error calculating checksum for " + entry.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return answer;
+    }
+
+    private Long lookup(File file) {
+        try {
+            Path path = file.toPath().toAbsolutePath();
+            Fingerprint fingerprint = fingerprints.get(path.toString());
+            if (fingerprint != null && fingerprint.matches(java.nio.file.Files.readAttributes(path, BasicFileAttributes.class))) {
+                hits.incrementAndGet();
+                return fingerprint.checksum;
+            }
+        } catch (IOException e) {
+            // Let the caller read it and report the failure
+        }
+        return null;
+    }
+
+    /**
+     * Loads the index from its file, replacing the current entries
+     */
+    public synchronized void load() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(indexFile)) {
+            properties.load(is);
+        }
+        fingerprints.clear();
+        for (String key : properties.stringPropertyNames()) {
+            Fingerprint fingerprint = Fingerprint.parse(properties.getProperty(key));
+            if (fingerprint != null) {
+                fingerprints.put(key, fingerprint);
+            } else {
+                LOG.debug("Ignoring invalid checksum index entry for " + key);
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * Saves the index into its file if it changed, dropping the entries of files which no longer exist
+     */
+    public synchronized void save() throws IOException {
+        if (indexFile == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        Properties properties = new Properties();
+        for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+            if (new File(entry.getKey()).isFile()) {
+                properties.setProperty(entry.getKey(), entry.getValue().toString());
+            } else {
+                fingerprints.remove(entry.getKey());
+            }
+        }
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            properties.store(os, "Updated on " + new Date());
+        }
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                throw new IOException("Unable to rename " + tmp + " to " + indexFile);
+            }
+        }
+    }
+
+    public int size() {
+        return fingerprints.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static long crc(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    static class Fingerprint {
+
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final long checksum;
+
+        Fingerprint(BasicFileAttributes attrs, long checksum) {
+            this(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs), checksum);
+        }
+
+        Fingerprint(long size, long lastModified, String fileKey, long checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.checksum = checksum;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && lastModified == attrs.lastModifiedTime().toMillis()
+                    && fileKey.equals(fileKey(attrs));
+        }
+
+        static String fileKey(BasicFileAttributes attrs) {
+            Object key = attrs.fileKey();
+            return key != null ? key.toString() : "";
+        }
+
+        /**
+         * Parses the <code>checksum:size:lastModified:fileKey</code> form, the file key may contain colons
+         */
+        static Fingerprint parse(String value) {
+            String[] parts = value.split(":", 4);
+            if (parts.length != 4) {
+                return null;
+            }
+            try {
+                return new Fingerprint(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], Long.parseLong(parts[0]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return checksum + ":" + size + ":" + lastModified + ":" + fileKey;
+        }
+    }
+
+}
@@ -0,0 +1,567 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.common.util.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pull parser reading a JSON document one token at a time, so that it can be bound directly
+ * to typed objects without building the intermediate maps and lists of {@link JsonReader}.
+ * <p>
+ * Integral numbers are read as exact <code>long</code> values.  Instances are not thread safe.
+ */
+public class JsonStreamReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // scopes
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private int lineStart;
+
+    private int[] stack = new int[32];
+    private int stackSize;
+
+    private final StringBuilder recorder = new StringBuilder();
+    private Token peeked;
+    private String peekedString;
+    private long peekedLong;
+    private boolean peekedIntegral;
+    private boolean peekedBoolean;
+
+    public JsonStreamReader(Reader reader) {
+        this.reader = reader;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    public JsonStreamReader(InputStream is) {
+        this(new InputStreamReader(is));
+    }
+
+    /**
+     * Returns the type of the next token without consuming it
+     */
+    public Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return peekedString;
+    }
+
+    /**
+     * Returns the next string value, numbers are returned as their text
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw error("Expected a string but was " + token);
+        }
+        peeked = null;
+        return peekedString != null ? peekedString : Long.toString(peekedLong);
+    }
+
+    /**
+     * Returns the next integral value, strings holding a number are accepted too
+     */
+    public long nextLong() throws IOException {
+        Token token = peek();
+        peeked = null;
+        if (token == Token.NUMBER && peekedIntegral) {
+            return peekedLong;
+        }
+        if (token == Token.NUMBER || token == Token.STRING) {
+            try {
+                return Long.parseLong(peekedString);
+            } catch (NumberFormatException e) {
+                double value = Double.parseDouble(peekedString);
+                if (value != (long) value) {
+                    throw error("Expected a long but was " + peekedString);
+                }
+                return (long) value;
+            }
+        }
+        throw error("Expected a long but was " + token);
+    }
+
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        peeked = null;
+        if (token == Token.NUMBER && peekedIntegral) {
+            return peekedLong;
+        }
+        if (token == Token.NUMBER || token == Token.STRING) {
+            return Double.parseDouble(peekedString);
+        }
+        throw error("Expected a double but was " + token);
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, including all the nested values of an object or array
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw error("Unexpected end of input");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Reads the next value as {@link JsonReader} does: objects as maps, arrays as lists, and numbers as doubles
+     */
+    public Object nextValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> object = new HashMap<String, Object>();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    object.put(name, nextValue());
+                }
+                endObject();
+                return object;
+            case BEGIN_ARRAY:
+                Collection<Object> array = new ArrayList<Object>();
+                beginArray();
+                while (hasNext()) {
+                    array.add(nextValue());
+                }
+                endArray();
+                return array;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextDouble();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw error("Expected value");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stackSize = 0;
+        reader.close();
+    }
+
+    //
+    // Implementation
+    //
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw error("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        if (stackSize == 0) {
+            throw new IllegalStateException("JsonStreamReader is closed");
+        }
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                return readValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw expected("',' or ']'", c);
+                }
+                return readValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw expected("',' or '}'", c);
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw expected("name", c);
+                }
+                stack[stackSize - 1] = DANGLING_NAME;
+                peekedString = readString();
+                return Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                c = nextNonWhitespace();
+                if (c != ':') {
+                    throw expected("':'", c);
+                }
+                return readValue(nextNonWhitespace());
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return readValue(nextNonWhitespace());
+            default:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw error("Unexpected character");
+                }
+                return Token.END_DOCUMENT;
+        }
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                peekedString = readString();
+                return Token.STRING;
+            case 'n':
+                readKeyword("ull");
+                return Token.NULL;
+            case 't':
+                readKeyword("rue");
+                peekedBoolean = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readKeyword("alse");
+                peekedBoolean = false;
+                return Token.BOOLEAN;
+            case '-':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                readNumber(c);
+                return Token.NUMBER;
+            default:
+                throw expected("value", c);
+        }
+    }
+
+    private void readKeyword(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            int c = read();
+            if (c != rest.charAt(i)) {
+                throw expected("'" + rest.charAt(i) + "'", c);
+            }
+        }
+    }
+
+    /**
+     * Reads a number, integral values which fit in a long are computed without creating a string
+     */
+    private void readNumber(int first) throws IOException {
+        recorder.setLength(0);
+        recorder.append((char) first);
+        boolean negative = first == '-';
+        int c = first;
+        if (negative) {
+            c = read();
+            if (!isDigit(c)) {
+                throw expected("digit", c);
+            }
+            recorder.append((char) c);
+        }
+        long value = c - '0';
+        boolean overflow = false;
+        if (c != '0') {
+            while (isDigit(c = peekChar())) {
+                pos++;
+                recorder.append((char) c);
+                if (value > (Long.MAX_VALUE - 9) / 10) {
+                    overflow = true;
+                }
+                value = value * 10 + (c - '0');
+            }
+        }
+        boolean integral = true;
+        c = peekChar();
+        if (c == '.') {
+            integral = false;
+            pos++;
+            recorder.append('.');
+            readDigits();
+            c = peekChar();
+        }
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            pos++;
+            recorder.append((char) c);
+            c = peekChar();
+            if (c == '+' || c == '-') {
+                pos++;
+                recorder.append((char) c);
+            }
+            readDigits();
+        }
+        if (integral && !overflow) {
+            peekedIntegral = true;
+            peekedLong = negative ? -value : value;
+            peekedString = null;
+        } else {
+            peekedIntegral = false;
+            peekedString = recorder.toString();
+        }
+    }
+
+    private void readDigits() throws IOException {
+        int c = read();
+        if (!isDigit(c)) {
+            throw expected("digit", c);
+        }
+        recorder.append((char) c);
+        while (isDigit(c = peekChar())) {
+            pos++;
+            recorder.append((char) c);
+        }
+    }
+
+    /**
+     * Reads a string after its opening quote, copying unescaped runs straight from the buffer
+     */
+    private String readString() throws IOException {
+        recorder.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"') {
+                    recorder.append(buffer, start, pos - start);
+                    pos++;
+                    return recorder.toString();
+                } else if (c == '\\') {
+                    recorder.append(buffer, start, pos - start);
+                    pos++;
+                    readEscape();
+                    start = pos;
+                } else if (c < 0x20) {
+                    throw error("Expected valid string character");
+                } else {
+                    pos++;
+                }
+            }
+            recorder.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw error("Unexpected end of input");
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '/':
+            case '\\':
+                recorder.append((char) c);
+                break;
+            case 'b':
+                recorder.append('\b');
+                break;
+            case 'f':
+                recorder.append('\f');
+                break;
+            case 'n':
+                recorder.append('\n');
+                break;
+            case 'r':
+                recorder.append('\r');
+                break;
+            case 't':
+                recorder.append('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw error("Expected hexadecimal digit");
+                    }
+                    value = (value << 4) + digit;
+                }
+                recorder.append((char) value);
+                break;
+            default:
+                throw expected("valid escape sequence", c);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos++];
+            if (c == '\n') {
+                line++;
+                lineStart = pos;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int peekChar() throws IOException {
+        if (pos < limit || fill()) {
+            return buffer[pos];
+        }
+        return -1;
+    }
+
+    private int read() throws IOException {
+        if (pos < limit || fill()) {
+            return buffer[pos++];
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        lineStart -= limit;
+        pos = 0;
+        limit = 0;
+        int n = reader.read(buffer, 0, buffer.length);
+        if (n > 0) {
+            limit = n;
+            return true;
+        }
+        return false;
+    }
+
+    private IOException expected(String expected, int c) {
+        if (c == -1) {
+            return error("Unexpected end of input");
+        }
+        return error("Expected " + expected);
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at " + line + ":" + (pos - lineStart));
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
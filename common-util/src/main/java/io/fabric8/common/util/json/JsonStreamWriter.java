@@ -0,0 +1,178 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.common.util.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes a JSON document one token at a time, so that typed objects can be written without
+ * first copying them into the maps and lists expected by {@link JsonWriter}.
+ * Instances are not thread safe.
+ */
+public class JsonStreamWriter implements Closeable, Flushable {
+
+    private final Writer writer;
+
+    /**
+     * For each open object or array, whether a value has already been written in it
+     */
+    private boolean[] nonEmpty = new boolean[32];
+    private int depth;
+    private boolean afterName;
+
+    public JsonStreamWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonStreamWriter(OutputStream os) {
+        this(new OutputStreamWriter(os));
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        push();
+        writer.write('{');
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        pop();
+        writer.write('}');
+        return this;
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        push();
+        writer.write('[');
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        pop();
+        writer.write(']');
+        return this;
+    }
+
+    public JsonStreamWriter name(String name) throws IOException {
+        if (afterName || depth == 0) {
+            throw new IllegalStateException("Unexpected name " + name);
+        }
+        separator();
+        JsonWriter.writeString(writer, name);
+        writer.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        JsonWriter.writeString(writer, value);
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        writer.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        writer.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        beforeValue();
+        writer.write("null");
+        return this;
+    }
+
+    /**
+     * Writes any value supported by {@link JsonWriter}
+     */
+    public JsonStreamWriter value(Object value) throws IOException {
+        if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value != null && !(value instanceof Map) && !(value instanceof Collection) && !(value instanceof Number)) {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+        beforeValue();
+        JsonWriter.write(writer, value);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (depth > 0) {
+            throw new IOException("Incomplete document");
+        }
+        writer.close();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            separator();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (nonEmpty[depth - 1]) {
+            writer.write(',');
+        } else {
+            nonEmpty[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == nonEmpty.length) {
+            boolean[] newNonEmpty = new boolean[depth * 2];
+            System.arraycopy(nonEmpty, 0, newNonEmpty, 0, depth);
+            nonEmpty = newNonEmpty;
+        }
+        nonEmpty[depth++] = false;
+    }
+
+    private void pop() {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        depth--;
+    }
+
+}
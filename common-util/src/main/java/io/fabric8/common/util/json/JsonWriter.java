@@ -67,20 +67,30 @@ public class JsonWriter {
         writer.append('}');
     }
 
-    private static void writeString(Writer writer, String value) throws IOException {
+    static void writeString(Writer writer, String value) throws IOException {
         writer.append('"');
         for (int i = 0; i < value.length(); i++) {
             char c = value.charAt(i);
             switch (c) {
                 case '\"':
                 case '\\':
+                    writer.append('\\');
+                    writer.append(c);
+                    break;
                 case '\b':
+                    writer.append("\\b");
+                    break;
                 case '\f':
+                    writer.append("\\f");
+                    break;
                 case '\n':
+                    writer.append("\\n");
+                    break;
                 case '\r':
+                    writer.append("\\r");
+                    break;
                 case '\t':
-                    writer.append('\\');
-                    writer.append(c);
+                    writer.append("\\t");
                     break;
                 default:
                     if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
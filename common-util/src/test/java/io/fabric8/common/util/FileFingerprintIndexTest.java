@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.common.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileFingerprintIndexTest {
+
+    private long lastModified = System.currentTimeMillis() - 100000;
+
+    @Test
+    public void checksumTest() throws IOException {
+        File dir = new File("target/fingerprints");
+        Files.recursiveDelete(dir);
+        dir.mkdirs();
+        File file1 = write(new File(dir, "file1.jar"), "The quick brown fox jumps over the lazy dog");
+        File file2 = write(new File(dir, "file2.jar"), "");
+        File indexFile = new File(dir, "checksums.properties");
+
+        FileFingerprintIndex index = new FileFingerprintIndex(indexFile);
+        Assert.assertEquals(0x414fa339, index.checksum(file1));
+        Assert.assertEquals(0x414fa339, index.checksum(file1));
+        Assert.assertEquals(1, index.getMisses());
+        Assert.assertEquals(1, index.getHits());
+        index.save();
+
+        index = new FileFingerprintIndex(indexFile);
+        Map<File, Long> checksums = index.checksums(Arrays.asList(file1, file2, new File(dir, "missing.jar")), 4);
+        Assert.assertEquals(2, checksums.size());
+        Assert.assertEquals(0x414fa339, (long) checksums.get(file1));
+        Assert.assertEquals(0x0, (long) checksums.get(file2));
+        Assert.assertEquals(1, index.getHits());
+
+        write(file1, "The quick brown fox jumps over the lazy cat");
+        Assert.assertEquals(ChecksumUtils.checksum(new FileInputStream(file1)), index.checksum(file1));
+        Assert.assertTrue(index.checksum(file1) != 0x414fa339);
+    }
+
+    private File write(File file, String content) throws IOException {
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes("UTF-8"));
+        }
+        // make sure the file is old enough to be indexed
+        lastModified += 10000;
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+}
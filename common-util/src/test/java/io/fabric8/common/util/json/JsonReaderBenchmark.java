@@ -0,0 +1,185 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.common.util.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link JsonReader} followed by the conversion into typed maps, as the agent state storage used to do,
+ * with binding the same document directly using {@link JsonStreamReader}, and the matching writers.
+ * Run the main method with the test classpath, and -prof gc to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonReaderBenchmark {
+
+    @Param({"1000", "10000"})
+    int bundles;
+
+    private String json;
+    private Map<String, Set<Long>> managed;
+    private Map<String, Set<String>> features;
+
+    @Setup
+    public void setUp() throws IOException {
+        managed = new HashMap<>();
+        features = new HashMap<>();
+        for (int region = 0; region < 10; region++) {
+            Set<Long> ids = new TreeSet<>();
+            Set<String> names = new TreeSet<>();
+            for (int i = 0; i < bundles / 10; i++) {
+                ids.add((long) region * bundles + i);
+                names.add("feature-" + region + "-" + i + "/1.2." + i);
+            }
+            managed.put("region" + region, ids);
+            features.put("region" + region, names);
+        }
+        Map<String, Object> document = new HashMap<>();
+        document.put("managed", managed);
+        document.put("features", features);
+        StringWriter writer = new StringWriter();
+        JsonWriter.write(writer, document);
+        json = writer.toString();
+    }
+
+    @Benchmark
+    public Object readTree() throws IOException {
+        Map<?, ?> document = (Map<?, ?>) JsonReader.read(new StringReader(json));
+        Map<String, Set<Long>> ids = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) document.get("managed")).entrySet()) {
+            Set<Long> set = new TreeSet<>();
+            for (Object o : (Collection<?>) entry.getValue()) {
+                set.add(((Number) o).longValue());
+            }
+            ids.put(entry.getKey().toString(), set);
+        }
+        Map<String, Set<String>> names = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) document.get("features")).entrySet()) {
+            Set<String> set = new TreeSet<>();
+            for (Object o : (Collection<?>) entry.getValue()) {
+                set.add(o.toString());
+            }
+            names.put(entry.getKey().toString(), set);
+        }
+        return names.size() + ids.size();
+    }
+
+    @Benchmark
+    public Object readStream() throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+        Map<String, Set<Long>> ids = new HashMap<>();
+        Map<String, Set<String>> names = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            boolean longs = "managed".equals(name);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                reader.beginArray();
+                if (longs) {
+                    Set<Long> set = new TreeSet<>();
+                    while (reader.hasNext()) {
+                        set.add(reader.nextLong());
+                    }
+                    ids.put(key, set);
+                } else {
+                    Set<String> set = new TreeSet<>();
+                    while (reader.hasNext()) {
+                        set.add(reader.nextString());
+                    }
+                    names.put(key, set);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return names.size() + ids.size();
+    }
+
+    @Benchmark
+    public Object writeTree() throws IOException {
+        Map<String, Object> document = new HashMap<>();
+        document.put("managed", managed);
+        document.put("features", features);
+        StringWriter writer = new StringWriter(json.length());
+        JsonWriter.write(writer, document);
+        return writer;
+    }
+
+    @Benchmark
+    public Object writeStream() throws IOException {
+        StringWriter sw = new StringWriter(json.length());
+        JsonStreamWriter writer = new JsonStreamWriter(sw);
+        writer.beginObject();
+        writer.name("managed").beginObject();
+        for (Map.Entry<String, Set<Long>> entry : managed.entrySet()) {
+            writer.name(entry.getKey()).beginArray();
+            for (Long id : entry.getValue()) {
+                writer.value(id);
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+        writer.name("features").beginObject();
+        for (Map.Entry<String, Set<String>> entry : features.entrySet()) {
+            writer.name(entry.getKey()).beginArray();
+            for (String name : entry.getValue()) {
+                writer.value(name);
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+        writer.endObject();
+        return sw;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(JsonReaderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
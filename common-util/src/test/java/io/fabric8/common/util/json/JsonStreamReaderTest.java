@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.common.util.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonStreamReaderTest {
+
+    private static final String DOCUMENT = "{ \"bootDone\": true, \"repositories\": [\"mvn:a/b/1.0\", \"mvn:c/d/2.0\"],\n"
+            + " \"managed\": {\"root\": [12, 9007199254740993, -3]}, \"none\": null, \"empty\": {}, \"list\": [],\n"
+            + " \"escaped\": \"a\\\"b\\\\c\\nd\\u00e9\", \"double\": 1.5e3, \"nested\": [[1, {\"x\": false}]] }";
+
+    @Test
+    public void testTokens() throws Exception {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(DOCUMENT));
+        reader.beginObject();
+        assertEquals("bootDone", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        assertEquals("repositories", reader.nextName());
+        reader.beginArray();
+        assertEquals("mvn:a/b/1.0", reader.nextString());
+        assertEquals("mvn:c/d/2.0", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("managed", reader.nextName());
+        reader.beginObject();
+        assertEquals("root", reader.nextName());
+        reader.beginArray();
+        assertEquals(12L, reader.nextLong());
+        // not representable as a double
+        assertEquals(9007199254740993L, reader.nextLong());
+        assertEquals(-3L, reader.nextLong());
+        reader.endArray();
+        reader.endObject();
+        assertEquals("none", reader.nextName());
+        assertEquals(JsonStreamReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        assertEquals("empty", reader.nextName());
+        reader.skipValue();
+        assertEquals("list", reader.nextName());
+        reader.skipValue();
+        assertEquals("escaped", reader.nextName());
+        assertEquals("a\"b\\c\nd\u00e9", reader.nextString());
+        assertEquals("double", reader.nextName());
+        assertEquals(1500.0, reader.nextDouble(), 0.0);
+        assertEquals("nested", reader.nextName());
+        reader.skipValue();
+        reader.endObject();
+        assertEquals(JsonStreamReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void testNextValueMatchesJsonReader() throws Exception {
+        Object expected = JsonReader.read(new StringReader(DOCUMENT));
+        Object actual = new JsonStreamReader(new StringReader(DOCUMENT)).nextValue();
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        for (String json : Arrays.asList("{\"a\" 1}", "[1 2]", "{\"a\": tru}", "[\"abc", "{\"a\": 1} x", "[-]")) {
+            try {
+                JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+                reader.nextValue();
+                reader.peek();
+                fail("Expected an error for " + json);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testWriterRoundTrip() throws Exception {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("k", Arrays.asList("v", 2L));
+        StringWriter sw = new StringWriter();
+        JsonStreamWriter writer = new JsonStreamWriter(sw);
+        writer.beginObject();
+        writer.name("long").value(9007199254740993L);
+        writer.name("string").value("line\n\"quoted\"");
+        writer.name("bool").value(false);
+        writer.name("null").nullValue();
+        writer.name("array").beginArray().value(1L).value("two").beginObject().endObject().endArray();
+        writer.name("nested").value((Object) nested);
+        writer.endObject();
+        writer.close();
+
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(sw.toString()));
+        reader.beginObject();
+        assertEquals("long", reader.nextName());
+        assertEquals(9007199254740993L, reader.nextLong());
+        assertEquals("string", reader.nextName());
+        assertEquals("line\n\"quoted\"", reader.nextString());
+        assertEquals("bool", reader.nextName());
+        assertFalse(reader.nextBoolean());
+        assertEquals("null", reader.nextName());
+        reader.nextNull();
+        assertEquals("array", reader.nextName());
+        Collection<?> array = (Collection<?>) reader.nextValue();
+        assertEquals(3, array.size());
+        assertEquals("nested", reader.nextName());
+        Map<?, ?> map = (Map<?, ?>) reader.nextValue();
+        assertEquals(Arrays.asList("v", 2.0), map.get("k"));
+        reader.endObject();
+    }
+
+    @Test
+    public void testLargeStrings() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append((char) ('a' + i % 26));
+            if (i % 1000 == 0) {
+                sb.append('\\').append('n');
+            }
+        }
+        JsonStreamReader reader = new JsonStreamReader(new StringReader("[\"" + sb + "\"]"));
+        reader.beginArray();
+        String value = reader.nextString();
+        assertEquals(sb.toString().replace("\\n", "\n"), value);
+        reader.endArray();
+    }
+
+}
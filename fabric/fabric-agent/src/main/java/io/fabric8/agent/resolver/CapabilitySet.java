@@ -19,21 +19,36 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
 
 import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
 import org.osgi.resource.Capability;
 
+/**
+ * Matches filters against a set of capabilities.
+ * <p/>
+ * The capabilities are indexed on the given attributes, and within each indexed value sorted on their version
+ * attributes. The conjunctions are evaluated on the capabilities of their most selective indexed equality, narrowed to
+ * the range of their version constraints, e.g. <code>(&(osgi.wiring.package=p)(version>=1.0)(!(version>=2.0)))</code>
+ * only checks the capabilities exporting <code>p</code> with a version in <code>[1.0,2.0)</code>.
+ */
 public class CapabilitySet
 {
+    private static final String[] VERSION_ATTRIBUTES = {
+        Constants.VERSION_ATTRIBUTE, Constants.BUNDLE_VERSION_ATTRIBUTE };
+
     private final Map<String, Map<Object, Set<Capability>>> m_indices;
+    private final Map<String, Map<Object, VersionIndex[]>> m_versionIndices;
     private final Set<Capability> m_capSet = new HashSet<Capability>();
 
 public void dump()
@@ -65,10 +80,13 @@ public void dump()
     public CapabilitySet(List<String> indexProps)
     {
         m_indices = new TreeMap<String, Map<Object, Set<Capability>>>();
+        m_versionIndices = new HashMap<String, Map<Object, VersionIndex[]>>();
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
             m_indices.put(
                 indexProps.get(i), new HashMap<Object, Set<Capability>>());
+            m_versionIndices.put(
+                indexProps.get(i), new HashMap<Object, VersionIndex[]>());
         }
     }
 
@@ -88,25 +106,27 @@ public void dump()
                 }
 
                 Map<Object, Set<Capability>> index = entry.getValue();
+                Map<Object, VersionIndex[]> versionIndex = m_versionIndices.get(entry.getKey());
 
                 if (value instanceof Collection)
                 {
                     Collection c = (Collection) value;
                     for (Object o : c)
                     {
-                        indexCapability(index, cap, o);
+                        indexCapability(index, versionIndex, cap, o);
                     }
                 }
                 else
                 {
-                    indexCapability(index, cap, value);
+                    indexCapability(index, versionIndex, cap, value);
                 }
             }
         }
     }
 
     private void indexCapability(
-        Map<Object, Set<Capability>> index, Capability cap, Object capValue)
+        Map<Object, Set<Capability>> index, Map<Object, VersionIndex[]> versionIndex,
+        Capability cap, Object capValue)
     {
         Set<Capability> caps = index.get(capValue);
         if (caps == null)
@@ -115,6 +135,21 @@ public void dump()
             index.put(capValue, caps);
         }
         caps.add(cap);
+
+        VersionIndex[] versions = versionIndex.get(capValue);
+        if (versions == null)
+        {
+            versions = new VersionIndex[VERSION_ATTRIBUTES.length];
+            for (int i = 0; i < versions.length; i++)
+            {
+                versions[i] = new VersionIndex(VERSION_ATTRIBUTES[i]);
+            }
+            versionIndex.put(capValue, versions);
+        }
+        for (VersionIndex vi : versions)
+        {
+            vi.add(cap);
+        }
     }
 
     public void removeCapability(Capability cap)
@@ -132,18 +167,19 @@ public void dump()
                     }
 
                     Map<Object, Set<Capability>> index = entry.getValue();
+                    Map<Object, VersionIndex[]> versionIndex = m_versionIndices.get(entry.getKey());
 
                     if (value instanceof Collection)
                     {
                         Collection c = (Collection) value;
                         for (Object o : c)
                         {
-                            deindexCapability(index, cap, o);
+                            deindexCapability(index, versionIndex, cap, o);
                         }
                     }
                     else
                     {
-                        deindexCapability(index, cap, value);
+                        deindexCapability(index, versionIndex, cap, value);
                     }
                 }
             }
@@ -151,7 +187,8 @@ public void dump()
     }
 
     private void deindexCapability(
-        Map<Object, Set<Capability>> index, Capability cap, Object value)
+        Map<Object, Set<Capability>> index, Map<Object, VersionIndex[]> versionIndex,
+        Capability cap, Object value)
     {
         Set<Capability> caps = index.get(value);
         if (caps != null)
@@ -160,6 +197,14 @@ public void dump()
             if (caps.isEmpty())
             {
                 index.remove(value);
+                versionIndex.remove(value);
+            }
+            else
+            {
+                for (VersionIndex vi : versionIndex.get(value))
+                {
+                    vi.remove(cap);
+                }
             }
         }
     }
@@ -182,15 +227,32 @@ public void dump()
         }
         else if (sf.getOperation() == SimpleFilter.AND)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
             List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            Collection<Capability> candidates = getIndexedCandidates(sfs);
+            if (candidates != null)
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                // Evaluate the whole filter against the capabilities of the
+                // most selective index only.
+                for (Capability cap : candidates)
+                {
+                    if (((caps == m_capSet) || caps.contains(cap))
+                        && matchesInternal(cap, sf))
+                    {
+                        matches.add(cap);
+                    }
+                }
+            }
+            else
+            {
+                // Evaluate each subfilter against the remaining capabilities.
+                // For AND we calculate the intersection of each subfilter.
+                // We can short-circuit the AND operation if there are no
+                // remaining capabilities.
+                for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+                {
+                    matches = match(caps, sfs.get(i));
+                    caps = matches;
+                }
             }
         }
         else if (sf.getOperation() == SimpleFilter.OR)
@@ -223,7 +285,10 @@ public void dump()
                 if (existingCaps != null)
                 {
                     matches.addAll(existingCaps);
-                    matches.retainAll(caps);
+                    if (caps != m_capSet)
+                    {
+                        matches.retainAll(caps);
+                    }
                 }
             }
             else
@@ -234,7 +299,7 @@ public void dump()
                     Object lhs = cap.getAttributes().get(sf.getName());
                     if (lhs != null)
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
+                        if (compare(lhs, sf))
                         {
                             matches.add(cap);
                         }
@@ -246,6 +311,49 @@ public void dump()
         return matches;
     }
 
+    /**
+     * Returns the capabilities which may match all the given subfilters, using the smallest index
+     * of their equality subfilters, or null if none is indexed.
+     */
+    private Collection<Capability> getIndexedCandidates(List<SimpleFilter> sfs)
+    {
+        SimpleFilter best = null;
+        Set<Capability> bestCaps = null;
+        for (SimpleFilter sf : sfs)
+        {
+            Map<Object, Set<Capability>> index = (sf.getOperation() == SimpleFilter.EQ)
+                ? m_indices.get(sf.getName())
+                : null;
+            if (index != null)
+            {
+                Set<Capability> caps = index.get(sf.getValue());
+                if (caps == null)
+                {
+                    return Collections.emptySet();
+                }
+                if ((bestCaps == null) || (caps.size() < bestCaps.size()))
+                {
+                    best = sf;
+                    bestCaps = caps;
+                }
+            }
+        }
+        if (best == null)
+        {
+            return null;
+        }
+        // Narrow the candidates to the version range of the filter
+        for (VersionIndex vi : m_versionIndices.get(best.getName()).get(best.getValue()))
+        {
+            Collection<Capability> caps = vi.getCandidates(sfs);
+            if (caps != null)
+            {
+                return caps;
+            }
+        }
+        return bestCaps;
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf) && matchMandatory(cap, sf);
@@ -298,7 +406,7 @@ public void dump()
             Object lhs = cap.getAttributes().get(sf.getName());
             if (lhs != null)
             {
-                matched = compare(lhs, sf.getValue(), sf.getOperation());
+                matched = compare(lhs, sf);
             }
         }
 
@@ -372,8 +480,10 @@ public void dump()
 
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
 
-    private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    private static boolean compare(Object lhs, SimpleFilter sf)
     {
+        Object rhsUnknown = sf.getValue();
+        int op = sf.getOperation();
         if (lhs == null)
         {
             return false;
@@ -405,7 +515,7 @@ public void dump()
             {
                 try
                 {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
+                    rhs = coerceType(lhs, sf);
                 }
                 catch (Exception ex)
                 {
@@ -457,7 +567,7 @@ public void dump()
             Object rhs;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, sf);
             }
             catch (Exception ex)
             {
@@ -491,7 +601,7 @@ public void dump()
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), sf))
                 {
                     return true;
                 }
@@ -510,7 +620,7 @@ public void dump()
         // equality comparison.
         try
         {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
+            return lhs.equals(coerceType(lhs, sf));
         }
         catch (Exception ex)
         {
@@ -546,6 +656,21 @@ public void dump()
         return sb.toString();
     }
 
+    /**
+     * Converts the value of the filter to the type of the attribute, reusing the value
+     * converted by the previous comparison with an attribute of the same type.
+     */
+    private static Object coerceType(Object lhs, SimpleFilter sf) throws Exception
+    {
+        Object rhs = sf.getCoercedValue(lhs.getClass());
+        if (rhs == null)
+        {
+            rhs = coerceType(lhs, (String) sf.getValue());
+            sf.setCoercedValue(lhs.getClass(), rhs);
+        }
+        return rhs;
+    }
+
     private static Object coerceType(Object lhs, String rhsString) throws Exception
     {
         // If the LHS expects a string, then we can just return
@@ -608,4 +733,148 @@ public void dump()
         }
         return list;
     }
+
+    /**
+     * The capabilities of an indexed value sorted on one of their version attributes.
+     */
+    private static final class VersionIndex
+    {
+        private final String m_attribute;
+        private final NavigableMap<Version, Set<Capability>> m_versions = new TreeMap<Version, Set<Capability>>();
+        // Capabilities without a version attribute of type Version
+        private final Set<Capability> m_others = new HashSet<Capability>();
+
+        VersionIndex(String attribute)
+        {
+            m_attribute = attribute;
+        }
+
+        void add(Capability cap)
+        {
+            Object version = cap.getAttributes().get(m_attribute);
+            if (version instanceof Version)
+            {
+                Set<Capability> caps = m_versions.get(version);
+                if (caps == null)
+                {
+                    caps = new HashSet<Capability>();
+                    m_versions.put((Version) version, caps);
+                }
+                caps.add(cap);
+            }
+            else
+            {
+                m_others.add(cap);
+            }
+        }
+
+        void remove(Capability cap)
+        {
+            Object version = cap.getAttributes().get(m_attribute);
+            if (version instanceof Version)
+            {
+                Set<Capability> caps = m_versions.get(version);
+                if (caps != null)
+                {
+                    caps.remove(cap);
+                    if (caps.isEmpty())
+                    {
+                        m_versions.remove(version);
+                    }
+                }
+            }
+            else
+            {
+                m_others.remove(cap);
+            }
+        }
+
+        /**
+         * Returns the capabilities within the version range set by the subfilters on the version attribute,
+         * or null if the subfilters don't constrain the version.
+         */
+        Collection<Capability> getCandidates(List<SimpleFilter> sfs)
+        {
+            Version floor = null;
+            boolean floorInclusive = true;
+            Version ceiling = null;
+            boolean ceilingInclusive = true;
+            for (SimpleFilter sf : sfs)
+            {
+                boolean not = false;
+                if ((sf.getOperation() == SimpleFilter.NOT) && (((List) sf.getValue()).size() == 1))
+                {
+                    sf = (SimpleFilter) ((List) sf.getValue()).get(0);
+                    not = true;
+                }
+                if (!m_attribute.equals(sf.getName()) || !(sf.getValue() instanceof String))
+                {
+                    continue;
+                }
+                Version version;
+                try
+                {
+                    version = Version.parseVersion((String) sf.getValue());
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    continue;
+                }
+                int op = sf.getOperation();
+                if ((!not && ((op == SimpleFilter.GTE) || (op == SimpleFilter.EQ)))
+                    || (not && (op == SimpleFilter.LTE)))
+                {
+                    // version >= v, or version > v
+                    int c = (floor == null) ? 1 : version.compareTo(floor);
+                    if ((c > 0) || ((c == 0) && not))
+                    {
+                        floor = version;
+                        floorInclusive = !not;
+                    }
+                }
+                if ((!not && ((op == SimpleFilter.LTE) || (op == SimpleFilter.EQ)))
+                    || (not && (op == SimpleFilter.GTE)))
+                {
+                    // version <= v, or version < v
+                    int c = (ceiling == null) ? -1 : version.compareTo(ceiling);
+                    if ((c < 0) || ((c == 0) && not))
+                    {
+                        ceiling = version;
+                        ceilingInclusive = !not;
+                    }
+                }
+            }
+            if ((floor == null) && (ceiling == null))
+            {
+                return null;
+            }
+
+            List<Capability> candidates = new ArrayList<Capability>(m_others);
+            NavigableMap<Version, Set<Capability>> range;
+            if ((floor != null) && (ceiling != null))
+            {
+                int c = floor.compareTo(ceiling);
+                if ((c > 0) || ((c == 0) && !(floorInclusive && ceilingInclusive)))
+                {
+                    // Empty range
+                    return candidates;
+                }
+                range = m_versions.subMap(floor, floorInclusive, ceiling, ceilingInclusive);
+            }
+            else if (floor != null)
+            {
+                range = m_versions.tailMap(floor, floorInclusive);
+            }
+            else
+            {
+                range = m_versions.headMap(ceiling, ceilingInclusive);
+            }
+
+            for (Set<Capability> caps : range.values())
+            {
+                candidates.addAll(caps);
+            }
+            return candidates;
+        }
+    }
 }
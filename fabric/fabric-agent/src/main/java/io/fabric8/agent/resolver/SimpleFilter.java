@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.utils.version.VersionRange;
 
@@ -35,9 +37,15 @@ public class SimpleFilter
     public static final int PRESENT = 8;
     public static final int APPROX = 9;
 
+    // Parsed filters are shared, requirements of the same package or feature use the same filter strings
+    private static final int MAX_INTERNED_FILTERS = 16 * 1024;
+    private static final ConcurrentMap<String, SimpleFilter> INTERNED_FILTERS = new ConcurrentHashMap<String, SimpleFilter>();
+
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    // The value converted to the type of the last compared attribute, {type, value}
+    private volatile Object[] m_coercedValue;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -61,6 +69,20 @@ public class SimpleFilter
         return m_op;
     }
 
+    /**
+     * Returns the value converted to the given attribute type by a previous comparison, or null.
+     */
+    Object getCoercedValue(Class<?> type)
+    {
+        Object[] coerced = m_coercedValue;
+        return ((coerced != null) && (coerced[0] == type)) ? coerced[1] : null;
+    }
+
+    void setCoercedValue(Class<?> type, Object value)
+    {
+        m_coercedValue = new Object[] { type, value };
+    }
+
     public String toString()
     {
         String s = null;
@@ -153,7 +175,29 @@ public class SimpleFilter
         return o.toString();
     }
 
+    /**
+     * Parses the filter, or returns the filter previously parsed from the same string.
+     * The returned filter must not be modified.
+     */
     public static SimpleFilter parse(String filter)
+    {
+        if (filter == null)
+        {
+            return parseFilter(filter);
+        }
+        SimpleFilter sf = INTERNED_FILTERS.get(filter);
+        if (sf == null)
+        {
+            sf = parseFilter(filter);
+            if (INTERNED_FILTERS.size() < MAX_INTERNED_FILTERS)
+            {
+                INTERNED_FILTERS.putIfAbsent(filter, sf);
+            }
+        }
+        return sf;
+    }
+
+    private static SimpleFilter parseFilter(String filter)
     {
         int idx = skipWhitespace(filter, 0);
 
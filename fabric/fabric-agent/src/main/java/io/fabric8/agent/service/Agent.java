@@ -47,7 +47,7 @@ import io.fabric8.agent.model.Repository;
 import io.fabric8.agent.repository.StaticRepository;
 import io.fabric8.agent.resolver.ResourceBuilder;
 import io.fabric8.api.gravia.ServiceLocator;
-import io.fabric8.common.util.ChecksumUtils;
+import io.fabric8.common.util.FileFingerprintIndex;
 import io.fabric8.common.util.MultiException;
 import org.apache.felix.utils.version.VersionRange;
 import org.apache.karaf.util.bundles.BundleUtils;
@@ -88,6 +88,11 @@ public class Agent {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Agent.class);
 
+    /**
+     * Name of the checksum index, stored next to the state file
+     */
+    private static final String CHECKSUMS_FILE = "bundle-checksums.properties";
+
     private final Bundle serviceBundle;
     private final BundleContext systemBundleContext;
     private final DownloadManager manager;
@@ -116,6 +121,7 @@ public class Agent {
     private final String updateSnaphots;
 
     private final StateStorage storage;
+    private final FileFingerprintIndex checksums;
     private EnumSet<Option> options = EnumSet.noneOf(Option.class);
 
     public Agent(Bundle serviceBundle, BundleContext systemBundleContext, DownloadManager manager) {
@@ -144,6 +150,8 @@ public class Agent {
         this.bundleStartTimeout = bundleStartTimeout;
 
         final File file = stateFile;
+        checksums = new FileFingerprintIndex(stateFile != null
+                ? new File(stateFile.getAbsoluteFile().getParentFile(), CHECKSUMS_FILE) : null);
         storage = new StateStorage() {
             @Override
             protected InputStream getInputStream() throws IOException {
@@ -229,6 +237,7 @@ public class Agent {
         request.options = options;
         request.metadata = metadata;
         request.bundleStartTimeout = bundleStartTimeout;
+        request.checksums = checksums;
 
         Deployer.DeploymentState dstate = new Deployer.DeploymentState();
         // Service bundle
@@ -290,6 +299,7 @@ public class Agent {
         // This is a bit hacky, but we can't get a hold on the real bundle location
         // in a standard way in OSGi.  Therefore, hack into Felix to obtain the
         // corresponding jar url and use that one to compute the checksum of the bundle.
+        Map<Long, File> jars = new HashMap<>();
         for (Map.Entry<Long, Bundle> entry : dstate.bundles.entrySet()) {
             long id = entry.getKey();
             Bundle bundle = entry.getValue();
@@ -303,14 +313,23 @@ public class Agent {
                     if (jarUrl.startsWith("jar:")) {
                         String jar = jarUrl.substring("jar:".length(), jarUrl.indexOf("!/"));
                         jar = new URL(jar).getFile();
-                        long checksum = ChecksumUtils.checksumFile(new File(jar));
-                        state.bundleChecksums.put(id, checksum);
+                        jars.put(id, new File(jar));
                     }
                 } catch (Throwable t) {
                     LOGGER.debug("Error calculating checksum for bundle: %s", bundle, t);
                 }
             }
         }
+        if (!jars.isEmpty()) {
+            Map<File, Long> sums = checksums.checksums(jars.values(), Runtime.getRuntime().availableProcessors());
+            for (Map.Entry<Long, File> entry : jars.entrySet()) {
+                Long checksum = sums.get(entry.getValue());
+                if (checksum != null) {
+                    state.bundleChecksums.put(entry.getKey(), checksum);
+                }
+            }
+            saveChecksums();
+        }
         dstate.state = state;
 
         Set<String> prereqs = new HashSet<>();
@@ -368,6 +387,15 @@ public class Agent {
 
     protected void saveState(State newState) throws IOException {
         storage.save(newState);
+        saveChecksums();
+    }
+
+    private void saveChecksums() {
+        try {
+            checksums.save();
+        } catch (IOException e) {
+            LOGGER.warn("Error storing bundle checksums", e);
+        }
     }
 
     protected void provisionList(Set<Resource> resources) {
@@ -33,6 +33,7 @@ import io.fabric8.agent.region.SubsystemResolver;
 import io.fabric8.agent.resolver.FeatureResource;
 import io.fabric8.agent.utils.OsgiUtils;
 import io.fabric8.common.util.ChecksumUtils;
+import io.fabric8.common.util.FileFingerprintIndex;
 import io.fabric8.common.util.MultiException;
 import io.fabric8.utils.NamedThreadFactory;
 import org.apache.felix.utils.version.VersionRange;
@@ -147,6 +148,7 @@ public class Deployer {
         Map<String, Map<String, Constants.RequestedState>> stateChanges;
         EnumSet<Constants.Option> options;
         int bundleStartTimeout;
+        FileFingerprintIndex checksums;
     }
 
     static class Deployment {
@@ -246,6 +248,7 @@ public class Deployer {
             }
             newRequest.stateChanges = Collections.emptyMap();
             newRequest.updateSnaphots = request.updateSnaphots;
+            newRequest.checksums = request.checksums;
             deploy(dstate, newRequest);
             throw new PartialDeploymentException(prereqs);
         }
@@ -1203,18 +1206,14 @@ public class Deployer {
                                 deployment.toUpdate.put(bundle, resource);
                             } else if (Constants.UPDATE_SNAPSHOTS_CRC.equalsIgnoreCase(request.updateSnaphots)) {
                                 // if the checksum are different
-                                try (
-                                        InputStream is = getBundleInputStream(resource, resolver.getProviders())
-                                ) {
-                                    long newCrc = ChecksumUtils.checksum(is);
-                                    long oldCrc = dstate.state.bundleChecksums.containsKey(bundle.getBundleId())
-                                                    ? dstate.state.bundleChecksums.get(bundle.getBundleId()) : 0L;
-                                    if (newCrc != oldCrc) {
-                                        LOGGER.debug("New snapshot available for " + bundle.getLocation());
-                                        deployment.toUpdate.put(bundle, resource);
-                                    }
-                                    result.bundleChecksums.put(bundle.getBundleId(), newCrc);
+                                long newCrc = getBundleChecksum(resource, resolver.getProviders(), request.checksums);
+                                long oldCrc = dstate.state.bundleChecksums.containsKey(bundle.getBundleId())
+                                                ? dstate.state.bundleChecksums.get(bundle.getBundleId()) : 0L;
+                                if (newCrc != oldCrc) {
+                                    LOGGER.debug("New snapshot available for " + bundle.getLocation());
+                                    deployment.toUpdate.put(bundle, resource);
                                 }
+                                result.bundleChecksums.put(bundle.getBundleId(), newCrc);
                             }
                         }
                         // We're done for this resource
@@ -1401,4 +1400,23 @@ public class Deployer {
         return new FileInputStream(provider.getFile());
     }
 
+    /**
+     * Computes the checksum of the bundle, using the index to avoid reading unchanged files
+     */
+    protected long getBundleChecksum(Resource resource, Map<String, StreamProvider> providers, FileFingerprintIndex checksums) throws IOException {
+        if (checksums == null) {
+            try (
+                    InputStream is = getBundleInputStream(resource, providers)
+            ) {
+                return ChecksumUtils.checksum(is);
+            }
+        }
+        String uri = getUri(resource);
+        StreamProvider provider = uri != null ? providers.get(uri) : null;
+        if (provider == null) {
+            throw new IllegalStateException("Resource " + uri + " has no StreamProvider");
+        }
+        return checksums.checksum(provider.getFile());
+    }
+
 }
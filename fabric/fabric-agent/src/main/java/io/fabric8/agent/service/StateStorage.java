@@ -15,18 +15,24 @@
  */
 package io.fabric8.agent.service;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import io.fabric8.common.util.json.JsonReader;
-import io.fabric8.common.util.json.JsonWriter;
+import io.fabric8.common.util.json.JsonStreamReader;
+import io.fabric8.common.util.json.JsonStreamWriter;
 
+/**
+ * Loads and saves the agent {@link State} as JSON.  The document is streamed straight
+ * into and out of the state, without building intermediate maps.
+ */
 public abstract class StateStorage {
 
     public void load(State state) throws IOException {
@@ -38,14 +44,42 @@ public abstract class StateStorage {
                 InputStream is = getInputStream()
         ) {
             if (is != null) {
-                Map json = (Map) JsonReader.read(is);
-                state.bootDone.set((Boolean) json.get("bootDone"));
-                state.repositories.addAll(toStringSet((Collection) json.get("repositories")));
-                state.requirements.putAll(toStringStringSetMap((Map) json.get("features")));
-                state.installedFeatures.putAll(toStringStringSetMap((Map) json.get("installed")));
-                state.stateFeatures.putAll(toStringStringStringMapMap((Map) json.get("state")));
-                state.managedBundles.putAll(toStringLongSetMap((Map) json.get("managed")));
-                state.bundleChecksums.putAll(toLongLongMap((Map) json.get("checksums")));
+                JsonStreamReader reader = new JsonStreamReader(is);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonStreamReader.Token.NULL) {
+                        reader.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "bootDone":
+                            state.bootDone.set(reader.nextBoolean());
+                            break;
+                        case "repositories":
+                            readStringSet(reader, state.repositories);
+                            break;
+                        case "features":
+                            readStringSetMap(reader, state.requirements);
+                            break;
+                        case "installed":
+                            readStringSetMap(reader, state.installedFeatures);
+                            break;
+                        case "state":
+                            readStringStringMapMap(reader, state.stateFeatures);
+                            break;
+                        case "managed":
+                            readLongSetMap(reader, state.managedBundles);
+                            break;
+                        case "checksums":
+                            readLongLongMap(reader, state.bundleChecksums);
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
             }
         }
     }
@@ -55,15 +89,40 @@ public abstract class StateStorage {
                 OutputStream os = getOutputStream()
         ) {
             if (os != null) {
-                Map<String, Object> json = new HashMap<>();
-                json.put("bootDone", state.bootDone.get());
-                json.put("repositories", state.repositories);
-                json.put("features", state.requirements);
-                json.put("installed", state.installedFeatures);
-                json.put("state", state.stateFeatures);
-                json.put("managed", state.managedBundles);
-                json.put("checksums", toStringLongMap(state.bundleChecksums));
-                JsonWriter.write(os, json);
+                JsonStreamWriter writer = new JsonStreamWriter(new BufferedWriter(new OutputStreamWriter(os)));
+                writer.beginObject();
+                writer.name("bootDone").value(state.bootDone.get());
+                writer.name("repositories");
+                writeStrings(writer, state.repositories);
+                writer.name("features");
+                writeStringSetMap(writer, state.requirements);
+                writer.name("installed");
+                writeStringSetMap(writer, state.installedFeatures);
+                writer.name("state").beginObject();
+                for (Map.Entry<String, Map<String, String>> entry : state.stateFeatures.entrySet()) {
+                    writer.name(entry.getKey()).beginObject();
+                    for (Map.Entry<String, String> e : entry.getValue().entrySet()) {
+                        writer.name(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
+                writer.endObject();
+                writer.name("managed").beginObject();
+                for (Map.Entry<String, Set<Long>> entry : state.managedBundles.entrySet()) {
+                    writer.name(entry.getKey()).beginArray();
+                    for (Long id : entry.getValue()) {
+                        writer.value(id);
+                    }
+                    writer.endArray();
+                }
+                writer.endObject();
+                writer.name("checksums").beginObject();
+                for (Map.Entry<Long, Long> entry : state.bundleChecksums.entrySet()) {
+                    writer.name(entry.getKey().toString()).value(entry.getValue());
+                }
+                writer.endObject();
+                writer.endObject();
+                writer.flush();
             }
         }
     }
@@ -72,76 +131,80 @@ public abstract class StateStorage {
 
     protected abstract OutputStream getOutputStream() throws IOException;
 
-    static Map<String, Map<String, String>> toStringStringStringMapMap(Map<?, ?> map) {
-        Map<String, Map<String, String>> nm = new HashMap<>();
-        for (Map.Entry entry : map.entrySet()) {
-            nm.put(entry.getKey().toString(), toStringStringMap((Map) entry.getValue()));
-        }
-        return nm;
-    }
-
-    static Map<String, String> toStringStringMap(Map<?, ?> map) {
-        Map<String, String> nm = new HashMap<>();
-        for (Map.Entry entry : map.entrySet()) {
-            nm.put(entry.getKey().toString(), entry.getValue().toString());
+    static void readStringSet(JsonStreamReader reader, Collection<String> set) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            set.add(reader.nextString());
         }
-        return nm;
+        reader.endArray();
     }
 
-    static Map<String, Set<String>> toStringStringSetMap(Map<?, ?> map) {
-        Map<String, Set<String>> nm = new HashMap<>();
-        for (Map.Entry entry : map.entrySet()) {
-            nm.put(entry.getKey().toString(), toStringSet((Collection) entry.getValue()));
+    static void readStringSetMap(JsonStreamReader reader, Map<String, Set<String>> map) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            Set<String> set = new TreeSet<>();
+            readStringSet(reader, set);
+            map.put(name, set);
         }
-        return nm;
+        reader.endObject();
     }
 
-    static Map<String, Set<Long>> toStringLongSetMap(Map<?, ?> map) {
-        Map<String, Set<Long>> nm = new HashMap<>();
-        for (Map.Entry entry : map.entrySet()) {
-            nm.put(entry.getKey().toString(), toLongSet((Collection) entry.getValue()));
-        }
-        return nm;
-    }
-
-    static Set<String> toStringSet(Collection<?> col) {
-        Set<String> ns = new TreeSet<>();
-        for (Object o : col) {
-            ns.add(o.toString());
+    static void readStringStringMapMap(JsonStreamReader reader, Map<String, Map<String, String>> map) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            Map<String, String> values = new HashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                values.put(key, reader.nextString());
+            }
+            reader.endObject();
+            map.put(name, values);
         }
-        return ns;
+        reader.endObject();
     }
 
-    static Set<Long> toLongSet(Collection<?> set) {
-        Set<Long> ns = new TreeSet<>();
-        for (Object o : set) {
-            ns.add(toLong(o));
+    static void readLongSetMap(JsonStreamReader reader, Map<String, Set<Long>> map) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            Set<Long> set = new TreeSet<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                set.add(reader.nextLong());
+            }
+            reader.endArray();
+            map.put(name, set);
         }
-        return ns;
+        reader.endObject();
     }
 
-    static Map<Long, Long> toLongLongMap(Map<?, ?> map) {
-        Map<Long, Long> nm = new HashMap<>();
-        for (Map.Entry entry : map.entrySet()) {
-            nm.put(toLong(entry.getKey()), toLong(entry.getValue()));
+    static void readLongLongMap(JsonStreamReader reader, Map<Long, Long> map) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            long key = Long.parseLong(reader.nextName());
+            map.put(key, reader.nextLong());
         }
-        return nm;
+        reader.endObject();
     }
 
-    static Map<String, Long> toStringLongMap(Map<?, ?> map) {
-        Map<String, Long> nm = new HashMap<>();
-        for (Map.Entry entry : map.entrySet()) {
-            nm.put(entry.getKey().toString(), toLong(entry.getValue()));
+    static void writeStrings(JsonStreamWriter writer, Collection<String> values) throws IOException {
+        writer.beginArray();
+        for (String value : values) {
+            writer.value(value);
         }
-        return nm;
+        writer.endArray();
     }
 
-    static long toLong(Object o) {
-        if (o instanceof Number) {
-            return ((Number) o).longValue();
-        } else {
-            return Long.parseLong(o.toString());
+    static void writeStringSetMap(JsonStreamWriter writer, Map<String, Set<String>> map) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            writer.name(entry.getKey());
+            writeStrings(writer, entry.getValue());
         }
+        writer.endObject();
     }
 
 }
@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.agent.resolver;
+
+import io.fabric8.agent.repository.BaseRepository;
+import io.fabric8.agent.service.RequirementSort;
+import org.apache.felix.utils.version.VersionRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the capability lookups done while resolving a large synthetic feature repository: bundles exporting
+ * several versions of the same packages, importing them with version ranges, providing and requiring services,
+ * and features requiring bundles by identity and version range.
+ * Run the main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapabilitySetBenchmark {
+
+    private static final int BUNDLES = 3000;
+    private static final int PACKAGES = 600;
+    private static final int SERVICES = 200;
+    private static final int FEATURES = 300;
+
+    private List<Resource> resources;
+    private BaseRepository repository;
+    private List<Requirement> requirements;
+
+    @Setup
+    public void setUp() throws Exception {
+        resources = new ArrayList<>();
+        for (int i = 0; i < BUNDLES; i++) {
+            resources.add(ResourceBuilder.build("mvn:org.example/bundle" + i + "/" + version(i), headers(i)));
+        }
+        repository = new BaseRepository(resources);
+
+        requirements = new ArrayList<>();
+        for (Resource resource : resources) {
+            requirements.addAll(resource.getRequirements(null));
+        }
+        ResourceImpl feature = new ResourceImpl("features", "karaf.feature", Version.emptyVersion);
+        for (int i = 0; i < FEATURES; i++) {
+            for (int j = 0; j < 10; j++) {
+                int bundle = (i * 10 + j) % BUNDLES;
+                Map<String, Object> attrs = new LinkedHashMap<>();
+                attrs.put(IdentityNamespace.IDENTITY_NAMESPACE, "org.example.bundle" + bundle);
+                attrs.put(IdentityNamespace.CAPABILITY_VERSION_ATTRIBUTE, new VersionRange("[" + (bundle % 5) + ",100)"));
+                requirements.add(new RequirementImpl(feature, IdentityNamespace.IDENTITY_NAMESPACE,
+                        Collections.<String, String>emptyMap(), attrs));
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<Requirement, Collection<Capability>> findProviders() {
+        return repository.findProviders(requirements);
+    }
+
+    @Benchmark
+    public Collection<Resource> sortResources() {
+        return RequirementSort.sort(resources);
+    }
+
+    private static String version(int bundle) {
+        return (bundle % 5) + "." + (bundle % 7) + ".0";
+    }
+
+    private static Map<String, String> headers(int bundle) {
+        StringBuilder exports = new StringBuilder();
+        for (int j = 0; j < 5; j++) {
+            if (j > 0) {
+                exports.append(",");
+            }
+            exports.append("org.example.p").append((bundle * 5 + j) % PACKAGES).append(";version=").append(version(bundle));
+        }
+        StringBuilder imports = new StringBuilder();
+        for (int j = 0; j < 8; j++) {
+            if (j > 0) {
+                imports.append(",");
+            }
+            int major = (bundle + j) % 5;
+            imports.append("org.example.p").append((bundle * 7 + j * 13) % PACKAGES)
+                    .append(";version=\"[").append(major).append(",").append(major + 1).append(")\"");
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Bundle-ManifestVersion", "2");
+        headers.put("Bundle-SymbolicName", "org.example.bundle" + bundle);
+        headers.put("Bundle-Version", version(bundle));
+        headers.put("Export-Package", exports.toString());
+        headers.put("Import-Package", imports.toString());
+        headers.put("Provide-Capability", "osgi.service;objectClass:List<String>=\"org.example.Service" + (bundle % SERVICES) + "\"");
+        headers.put("Require-Capability", "osgi.service;filter:=\"(objectClass=org.example.Service" + ((bundle + 1) % SERVICES) + ")\";effective:=active");
+        return headers;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(CapabilitySetBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.agent.resolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the indexed lookups of the {@link CapabilitySet}, narrowed to version ranges, against a plain evaluation
+ * of every filter on every capability.
+ */
+public class CapabilitySetTest {
+
+    private static final List<String> INDEX = Arrays.asList(PackageNamespace.PACKAGE_NAMESPACE, IdentityNamespace.IDENTITY_NAMESPACE);
+    private static final String[] VERSIONS = { "0.0.0", "1.0.0", "1.5.0", "2.0.0", "2.0.1", "3.0.0" };
+    private static final String[] FILTER_VERSIONS = { "0", "1", "1.5", "2", "2.0.0", "2.0.1", "2.5", "3.0.0", "4" };
+
+    private final Random random = new Random(42);
+    private List<Capability> capabilities;
+
+    @Before
+    public void setUp() {
+        capabilities = new ArrayList<Capability>();
+        for (int i = 0; i < 600; i++) {
+            capabilities.add(capability(i));
+        }
+    }
+
+    @Test
+    public void testVersionBounds() {
+        CapabilitySet capSet = new CapabilitySet(INDEX);
+        Capability v1 = packageCapability("p", new Version(1, 0, 0));
+        Capability v2 = packageCapability("p", new Version(2, 0, 0));
+        Capability v3 = packageCapability("p", new Version(3, 0, 0));
+        Capability unversioned = packageCapability("p", null);
+        Capability text = packageCapability("p", "2.0.0");
+        Capability multiple = packageCapability("p", Arrays.asList(new Version(1, 0, 0), new Version(3, 0, 0)));
+        Capability other = packageCapability("q", new Version(2, 0, 0));
+        for (Capability cap : Arrays.asList(v1, v2, v3, unversioned, text, multiple, other)) {
+            capSet.addCapability(cap);
+        }
+
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version>=2))", v2, v3, text, multiple);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version<=2))", v1, v2, multiple);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(!(version>=2)))", v1, unversioned);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(!(version<=2)))", v3, unversioned, text);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version>=2)(!(version>=3)))", v2, text);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version>=2)(version<=2))", v2, multiple);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version>=2)(!(version<=2)))", v3, text);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(!(version<=2))(version<=2))");
+        // Each bound is matched by a different value of the list
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version>=3)(version<=1))", multiple);
+        assertMatch(capSet, "(&(osgi.wiring.package=p)(version=2.0))", v2);
+        assertMatch(capSet, "(&(osgi.wiring.package=q)(version>=1)(!(version>=2)))");
+        assertMatch(capSet, "(&(osgi.wiring.package=r)(version>=1))");
+    }
+
+    @Test
+    public void testMatchesPlainEvaluation() {
+        CapabilitySet capSet = new CapabilitySet(INDEX);
+        for (Capability cap : capabilities) {
+            capSet.addCapability(cap);
+        }
+        List<SimpleFilter> filters = new ArrayList<SimpleFilter>();
+        for (int i = 0; i < 2000; i++) {
+            filters.add(SimpleFilter.parse(randomFilter()));
+        }
+        assertMatches(capSet, filters, capabilities);
+
+        // Remove a third of the capabilities
+        List<Capability> remaining = new ArrayList<Capability>();
+        for (int i = 0; i < capabilities.size(); i++) {
+            if (i % 3 == 0) {
+                capSet.removeCapability(capabilities.get(i));
+            } else {
+                remaining.add(capabilities.get(i));
+            }
+        }
+        assertMatches(capSet, filters, remaining);
+
+        // And add them again
+        for (int i = 0; i < capabilities.size(); i += 3) {
+            capSet.addCapability(capabilities.get(i));
+        }
+        assertMatches(capSet, filters, capabilities);
+    }
+
+    private static void assertMatch(CapabilitySet capSet, String filter, Capability... expected) {
+        assertEquals(filter, new HashSet<Capability>(Arrays.asList(expected)), capSet.match(SimpleFilter.parse(filter), false));
+    }
+
+    private static void assertMatches(CapabilitySet capSet, List<SimpleFilter> filters, List<Capability> caps) {
+        for (SimpleFilter filter : filters) {
+            Set<Capability> expected = new HashSet<Capability>();
+            for (Capability cap : caps) {
+                if (CapabilitySet.matches(cap, filter)) {
+                    expected.add(cap);
+                }
+            }
+            assertEquals(filter.toString(), expected, capSet.match(filter, false));
+        }
+    }
+
+    private String randomFilter() {
+        StringBuilder sb = new StringBuilder("(&");
+        if (random.nextInt(4) == 0) {
+            sb.append("(").append(IdentityNamespace.IDENTITY_NAMESPACE).append("=bundle").append(random.nextInt(20)).append(")");
+        } else {
+            sb.append("(").append(PackageNamespace.PACKAGE_NAMESPACE).append("=p").append(random.nextInt(20)).append(")");
+        }
+        for (int i = random.nextInt(4); i > 0; i--) {
+            sb.append(randomVersionTerm());
+        }
+        return sb.append(")").toString();
+    }
+
+    private String randomVersionTerm() {
+        String attribute = random.nextInt(4) == 0 ? "bundle-version" : "version";
+        String version = FILTER_VERSIONS[random.nextInt(FILTER_VERSIONS.length)];
+        switch (random.nextInt(8)) {
+            case 0:
+                return "(" + attribute + ">=" + version + ")";
+            case 1:
+                return "(" + attribute + "<=" + version + ")";
+            case 2:
+                return "(!(" + attribute + ">=" + version + "))";
+            case 3:
+                return "(!(" + attribute + "<=" + version + "))";
+            case 4:
+                return "(" + attribute + "=" + version + ")";
+            case 5:
+                return "(!(" + attribute + "=" + version + "))";
+            case 6:
+                return "(|(" + attribute + "<=" + version + ")(" + attribute + ">=3))";
+            default:
+                return "(" + attribute + "=*)";
+        }
+    }
+
+    private Capability capability(int i) {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        String namespace;
+        if (i % 5 == 0) {
+            namespace = IdentityNamespace.IDENTITY_NAMESPACE;
+            attrs.put(IdentityNamespace.IDENTITY_NAMESPACE, "bundle" + (i % 20));
+        } else {
+            namespace = PackageNamespace.PACKAGE_NAMESPACE;
+            attrs.put(PackageNamespace.PACKAGE_NAMESPACE, "p" + (i % 20));
+            attrs.put("bundle-version", Version.parseVersion(VERSIONS[i % VERSIONS.length]));
+        }
+        Version version = Version.parseVersion(VERSIONS[(i / 7) % VERSIONS.length]);
+        switch (i % 11) {
+            case 0:
+                // No version attribute
+                break;
+            case 1:
+                attrs.put("version", version.toString());
+                break;
+            case 2:
+                attrs.put("version", Arrays.asList(version, new Version(3, 0, 0)));
+                break;
+            default:
+                attrs.put("version", version);
+        }
+        return new CapabilityImpl(null, namespace, Collections.<String, String>emptyMap(), attrs);
+    }
+
+    private static Capability packageCapability(String name, Object version) {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(PackageNamespace.PACKAGE_NAMESPACE, name);
+        if (version != null) {
+            attrs.put("version", version);
+        }
+        return new CapabilityImpl(null, PackageNamespace.PACKAGE_NAMESPACE, Collections.<String, String>emptyMap(), attrs);
+    }
+}
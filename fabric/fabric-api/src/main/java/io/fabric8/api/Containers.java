@@ -237,6 +237,39 @@ public final class Containers {
         }
     }
 
+    /**
+     * Creates <code>count</code> unique container names in one pass, excluding the names of the given containers.
+     * Returns the same names as calling {@link #createUniqueContainerName(Container[], String, NameValidator)}
+     * repeatedly while ignoring the names already chosen.
+     */
+    public static List<String> createUniqueContainerNames(Container[] containers, String currentName, int count) {
+        Set<String> usedNames = new HashSet<String>();
+        if (containers != null) {
+            for (Container container : containers) {
+                usedNames.add(container.getId());
+            }
+        }
+        List<String> answer = new ArrayList<String>(count);
+        if (count <= 0) {
+            return answer;
+        }
+        if (usedNames.add(currentName)) {
+            answer.add(currentName);
+        }
+        String namePrefix = currentName;
+        while (namePrefix.length() > 0 && Character.isDigit(namePrefix.charAt(namePrefix.length() - 1))) {
+            namePrefix = namePrefix.substring(0, namePrefix.length() - 1);
+        }
+        int idx = 1;
+        while (answer.size() < count) {
+            String name = namePrefix + Integer.toString(++idx);
+            if (usedNames.add(name)) {
+                answer.add(name);
+            }
+        }
+        return answer;
+    }
+
     private static String filterOutNonAlphaNumerics(String text) {
         StringBuilder builder = new StringBuilder();
         for (int i = 0, size = text.length(); i < size; i++) {
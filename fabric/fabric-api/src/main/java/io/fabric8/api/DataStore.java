@@ -52,6 +52,11 @@ public interface DataStore {
 
     void createContainerConfig(CreateContainerOptions options);
 
+    /**
+     * Creates the configuration of several containers at once, in a single transaction where possible.
+     */
+    void createContainerConfigs(List<CreateContainerOptions> options);
+
     void createContainerConfig(CreateContainerMetadata metadata);
 
     CreateContainerMetadata getContainerMetadata(String containerId, ClassLoader classLoader);
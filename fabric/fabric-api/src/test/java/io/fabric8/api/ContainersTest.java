@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ContainersTest {
+
+    @Test
+    public void testUniqueNamesWithoutContainers() {
+        Assert.assertEquals(Arrays.asList("child", "child2", "child3"), Containers.createUniqueContainerNames(null, "child", 3));
+        Assert.assertEquals(Arrays.asList("child", "child2", "child3"), Containers.createUniqueContainerNames(new Container[0], "child", 3));
+    }
+
+    @Test
+    public void testUniqueNamesSkipExistingNames() {
+        Container[] containers = containers("child", "child2", "child4", "child6", "other3");
+        Assert.assertEquals(Arrays.asList("child3", "child5", "child7", "child8"), Containers.createUniqueContainerNames(containers, "child", 4));
+    }
+
+    @Test
+    public void testUniqueNamesWithTrailingDigits() {
+        Assert.assertEquals(Arrays.asList("child12", "child2", "child3"), Containers.createUniqueContainerNames(containers("child1"), "child12", 3));
+        Assert.assertEquals(Arrays.asList("child3", "child4"), Containers.createUniqueContainerNames(containers("child12", "child2"), "child12", 2));
+        Assert.assertEquals(Arrays.asList("2", "3"), Containers.createUniqueContainerNames(containers("42"), "42", 2));
+    }
+
+    @Test
+    public void testUniqueNamesCount() {
+        Assert.assertEquals(0, Containers.createUniqueContainerNames(containers("child"), "child", 0).size());
+        Assert.assertEquals(Arrays.asList("child2"), Containers.createUniqueContainerNames(containers("child"), "child", 1));
+        List<String> names = Containers.createUniqueContainerNames(containers("child", "child3"), "child", 1000);
+        Assert.assertEquals(1000, names.size());
+        Assert.assertEquals(1000, new HashSet<String>(names).size());
+        Assert.assertFalse(names.contains("child"));
+        Assert.assertFalse(names.contains("child3"));
+    }
+
+    @Test
+    public void testUniqueNamesMatchRepeatedUniqueName() {
+        String[][] existing = {{}, {"child"}, {"child", "child2", "child5"}, {"child3", "child7", "child8"}, {"child12", "child2"}};
+        for (String[] ids : existing) {
+            for (String currentName : new String[]{"child", "child3", "child12"}) {
+                Container[] containers = containers(ids);
+                Assert.assertEquals(Arrays.toString(ids) + " " + currentName,
+                        createOneByOne(containers, currentName, 5), Containers.createUniqueContainerNames(containers, currentName, 5));
+            }
+        }
+    }
+
+    private static List<String> createOneByOne(Container[] containers, String currentName, int count) {
+        final Set<String> used = new HashSet<String>();
+        for (Container container : containers) {
+            used.add(container.getId());
+        }
+        NameValidator validator = new NameValidator() {
+            @Override
+            public boolean isValid(String name) {
+                return !used.contains(name);
+            }
+        };
+        List<String> answer = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            String name = Containers.createUniqueContainerName(containers, currentName, validator);
+            used.add(name);
+            answer.add(name);
+        }
+        return answer;
+    }
+
+    private static Container[] containers(String... ids) {
+        Container[] answer = new Container[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            final String id = ids[i];
+            answer[i] = (Container) Proxy.newProxyInstance(ContainersTest.class.getClassLoader(), new Class<?>[]{Container.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getId".equals(method.getName())) {
+                        return id;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+        return answer;
+    }
+}
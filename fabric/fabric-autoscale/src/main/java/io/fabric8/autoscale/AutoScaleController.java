@@ -20,7 +20,6 @@ import io.fabric8.api.AutoScaleRequest;
 import io.fabric8.api.AutoScaleStatus;
 import io.fabric8.api.Container;
 import io.fabric8.api.ContainerAutoScaler;
-import io.fabric8.api.Containers;
 import io.fabric8.api.DataStore;
 import io.fabric8.api.FabricRequirements;
 import io.fabric8.api.FabricService;
@@ -35,10 +34,16 @@ import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 import io.fabric8.groups.internal.ZooKeeperGroup;
 import io.fabric8.internal.RequirementsJson;
-import io.fabric8.internal.autoscale.AutoScalers;
+import io.fabric8.internal.autoscale.ProfileInstanceCounts;
+import io.fabric8.internal.autoscale.ProfileInstanceCounts.ContainerState;
+import io.fabric8.utils.NamedThreadFactory;
 import io.fabric8.zookeeper.ZkPath;
 import io.fabric8.zookeeper.utils.ZooKeeperMasterCache;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
@@ -51,33 +56,77 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Fabric auto-scaler which when it becomes the master auto-scales
  * profiles according to their requirements defined via
  * {@link FabricService#setRequirements(io.fabric8.api.FabricRequirements)}
+ * <p>
+ * The number of instances of each profile is kept up to date from the ZooKeeper events on the registration,
+ * alive and provision status of the containers, and only the profiles whose instances changed are checked again.
+ * Any configuration change, and the poll timer, trigger a full check of all the containers.
  */
 @ThreadSafe
 @Component(name = "io.fabric8.autoscale", label = "Fabric8 auto scaler", immediate = true,
         policy = ConfigurationPolicy.OPTIONAL, metatype = true)
-public final class AutoScaleController extends AbstractComponent implements GroupListener<AutoScalerNode> {
+public final class AutoScaleController extends AbstractComponent implements GroupListener<AutoScalerNode>, PathChildrenCacheListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(AutoScaleController.class);
 
+    /**
+     * The number of milliseconds to wait after a container event so that bursts of events are handled at once
+     */
+    private static final long EVENT_DELAY = 500;
+
+    /**
+     * The registry nodes whose children are named after the containers, and which are watched for changes
+     */
+    private static final String[] WATCHED_PATHS = {
+            ZkPath.CONTAINERS.getPath(), ZkPath.CONTAINERS_ALIVE.getPath(), ZkPath.CONTAINERS_PROVISION.getPath()
+    };
+
     @Reference(referenceInterface = CuratorFramework.class, bind = "bindCurator", unbind = "unbindCurator")
     private final ValidatingReference<CuratorFramework> curator = new ValidatingReference<CuratorFramework>();
     @Reference(referenceInterface = FabricService.class, bind = "bindFabricService", unbind = "unbindFabricService")
     private final ValidatingReference<FabricService> fabricService = new ValidatingReference<FabricService>();
 
-    @Property(name = "pollTime", longValue = 10000,
+    @Property(name = "pollTime", longValue = 60000,
             label = "Poll period",
-            description = "The number of milliseconds between polls to check if the system still has its requirements satisfied.")
-    private long pollTime = 10000;
+            description = "The number of milliseconds between full checks of the requirements of all the profiles. Changes to the containers are handled as soon as they are notified.")
+    private long pollTime = 60000;
+
+    @Property(name = "maximumConcurrentCreations", intValue = 4,
+            label = "Maximum concurrent creations",
+            description = "The maximum number of auto-scale requests creating containers at the same time.")
+    private int maximumConcurrentCreations = 4;
+
+    private final AtomicReference<ScheduledExecutorService> scheduler = new AtomicReference<ScheduledExecutorService>();
+    private final List<TreeCache> containerCaches = new CopyOnWriteArrayList<TreeCache>();
+    private volatile ExecutorService creationExecutor;
 
-    private AtomicReference<Timer> timer = new AtomicReference<Timer>();
+    private final ProfileInstanceCounts instanceCounts = new ProfileInstanceCounts();
+    private final Set<String> changedContainers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> creatingProfiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean fullCheckRequired = new AtomicBoolean(true);
+    private final AtomicBoolean checkScheduled = new AtomicBoolean();
+
+    @GuardedBy("this")
+    private final Map<String, AutoScaleProfileStatus> profileStatuses = new HashMap<String, AutoScaleProfileStatus>();
+    @GuardedBy("this")
+    private String lastStatus;
 
     @GuardedBy("volatile")
     private volatile Group<AutoScalerNode> group;
@@ -94,6 +143,7 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     void activate() {
         CuratorFramework curator = this.curator.get();
         enableMasterZkCache(curator);
+        creationExecutor = Executors.newFixedThreadPool(maximumConcurrentCreations, new NamedThreadFactory("fabric8-autoscaler-create"));
         group = new ZooKeeperGroup<AutoScalerNode>(curator, ZkPath.AUTO_SCALE_CLUSTER.getPath(), AutoScalerNode.class);
         group.add(this);
         group.update(createState());
@@ -110,6 +160,7 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         group.remove(this);
         Closeables.closeQuietly(group);
         group = null;
+        creationExecutor.shutdownNow();
     }
 
     @Override
@@ -149,6 +200,42 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         }
     }
 
+    @Override
+    public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) throws Exception {
+        switch (event.getType()) {
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+            case CHILD_REMOVED:
+                ChildData data = event.getData();
+                String containerId = data != null ? containerId(data.getPath()) : null;
+                if (containerId != null) {
+                    changedContainers.add(containerId);
+                    scheduleCheck(EVENT_DELAY);
+                }
+                break;
+            case CONNECTION_RECONNECTED:
+                fullCheckRequired.set(true);
+                scheduleCheck(EVENT_DELAY);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the id of the container of a path below the watched registry nodes
+     */
+    static String containerId(String path) {
+        for (String root : WATCHED_PATHS) {
+            if (path != null && path.startsWith(root + "/")) {
+                String id = path.substring(root.length() + 1);
+                int idx = id.indexOf('/');
+                return idx > 0 ? id.substring(0, idx) : id;
+            }
+        }
+        return null;
+    }
+
 
     protected void enableMasterZkCache(CuratorFramework curator) {
         zkMasterCache = new ZooKeeperMasterCache(curator);
@@ -161,58 +248,177 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     }
 
     protected void enableTimer() {
-        Timer newTimer = new Timer("fabric8-autoscaler");
-        if (timer.compareAndSet(null, newTimer)) {
-            TimerTask timerTask = new TimerTask() {
+        ScheduledExecutorService newScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("fabric8-autoscaler"));
+        if (scheduler.compareAndSet(null, newScheduler)) {
+            fullCheckRequired.set(true);
+            newScheduler.scheduleWithFixedDelay(new Runnable() {
                 @Override
                 public void run() {
                     LOGGER.debug("autoscale timer");
-                    autoScale();
+                    fullCheckRequired.set(true);
+                    scheduleCheck(0);
                 }
-            };
-            newTimer.schedule(timerTask, pollTime, pollTime);
+            }, pollTime, pollTime, TimeUnit.MILLISECONDS);
+            for (String path : WATCHED_PATHS) {
+                TreeCache cache = new TreeCache(curator.get(), path, false);
+                cache.getListenable().addListener(this);
+                try {
+                    cache.start(TreeCache.StartMode.NORMAL);
+                    containerCaches.add(cache);
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to watch " + path + ", relying on the poll timer. " + e, e);
+                    Closeables.closeQuietly(cache);
+                }
+            }
+        } else {
+            newScheduler.shutdown();
         }
     }
 
     protected void disableTimer() {
-        Timer oldValue = timer.getAndSet(null);
+        ScheduledExecutorService oldValue = scheduler.getAndSet(null);
         if (oldValue != null) {
-            oldValue.cancel();
+            for (TreeCache cache : containerCaches) {
+                cache.getListenable().removeListener(this);
+                Closeables.closeQuietly(cache);
+            }
+            containerCaches.clear();
+            oldValue.shutdownNow();
+            checkScheduled.set(false);
+        }
+    }
+
+    private void scheduleCheck(long delay) {
+        ScheduledExecutorService executor = scheduler.get();
+        if (executor != null && checkScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkScheduled.set(false);
+                        autoScale();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the timer has been disabled
+                checkScheduled.set(false);
+            }
         }
     }
 
 
     private void onConfigurationChanged() {
         LOGGER.debug("Configuration has changed; so checking the auto-scaling requirements");
-        autoScale();
+        // profile assignments and requirements are part of the configuration
+        fullCheckRequired.set(true);
+        scheduleCheck(0);
     }
 
-    private void autoScale() {
-        FabricService service = fabricService.get();
+    private synchronized void autoScale() {
+        FabricService service = fabricService.getOptional();
+        if (service == null) {
+            return;
+        }
+        Set<String> changed = new HashSet<>();
+        boolean fullCheck = fullCheckRequired.getAndSet(false);
+        if (fullCheck) {
+            changedContainers.clear();
+            List<ContainerState> states = new ArrayList<>();
+            for (Container container : service.getContainers()) {
+                states.add(ContainerState.of(container));
+            }
+            instanceCounts.reset(states);
+        } else {
+            for (String containerId : drain(changedContainers)) {
+                changed.addAll(updateContainer(service, containerId));
+            }
+        }
+
         FabricRequirements requirements = service.getRequirements();
         List<ProfileRequirements> profileRequirements = requirements.getProfileRequirements();
         if (profileRequirements != null && !profileRequirements.isEmpty()) {
             AutoScaleStatus status = new AutoScaleStatus();
+            Set<String> profiles = new HashSet<>();
             for (ProfileRequirements profileRequirement : profileRequirements) {
+                String profile = profileRequirement.getProfile();
+                profiles.add(profile);
+                if (!fullCheck && !changed.contains(profile) && !dependsOn(profileRequirement, changed)) {
+                    continue;
+                }
                 ContainerAutoScaler autoScaler = createAutoScaler(requirements, profileRequirement);
                 if (autoScaler != null) {
                     autoScaleProfile(service, autoScaler, requirements, profileRequirement, status);
                 } else {
-                    LOGGER.warn("No ContainerAutoScaler available for profile " + profileRequirement.getProfile());
+                    LOGGER.warn("No ContainerAutoScaler available for profile " + profile);
+                }
+                AutoScaleProfileStatus profileStatus = status.findProfileStatus(profile);
+                if (profileStatus != null) {
+                    profileStatuses.put(profile, profileStatus);
+                } else {
+                    profileStatuses.remove(profile);
                 }
             }
-            if (zkMasterCache != null) {
-                try {
-                    String json = RequirementsJson.toJSON(status);
+            profileStatuses.keySet().retainAll(profiles);
+            writeStatus(fullCheck);
+        }
+    }
+
+    private void writeStatus(boolean force) {
+        if (zkMasterCache != null) {
+            try {
+                AutoScaleStatus status = new AutoScaleStatus();
+                for (AutoScaleProfileStatus profileStatus : profileStatuses.values()) {
+                    status.addOrUpdateAutoScaleProfileStatus(profileStatus);
+                }
+                String json = RequirementsJson.toJSON(status);
+                if (force || !json.equals(lastStatus)) {
                     String zkPath = ZkPath.AUTO_SCALE_STATUS.getPath();
                     zkMasterCache.setStringData(zkPath, json, CreateMode.EPHEMERAL);
-                } catch (Exception e) {
-                    LOGGER.warn("Failed to write autoscale status " + e, e);
+                    lastStatus = json;
                 }
+            } catch (Exception e) {
+                LOGGER.warn("Failed to write autoscale status " + e, e);
+            }
+        } else {
+            LOGGER.warn("No ZooKeeperMasterCache!");
+        }
+    }
+
+    private Set<String> updateContainer(FabricService service, String containerId) {
+        DataStore dataStore = service.adapt(DataStore.class);
+        try {
+            if (dataStore.hasContainer(containerId)) {
+                return instanceCounts.update(ContainerState.of(service.getContainer(containerId)));
             } else {
-                LOGGER.warn("No ZooKeeperMasterCache!");
+                return instanceCounts.remove(containerId);
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Failed to read container " + containerId + ", checking all containers next time. " + e, e);
+            fullCheckRequired.set(true);
+            return Collections.emptySet();
+        }
+    }
+
+    private static boolean dependsOn(ProfileRequirements profileRequirement, Set<String> profiles) {
+        List<String> dependentProfiles = profileRequirement.getDependentProfiles();
+        if (dependentProfiles != null) {
+            for (String dependentProfile : dependentProfiles) {
+                if (profiles.contains(dependentProfile)) {
+                    return true;
+                }
             }
         }
+        return false;
+    }
+
+    private static Set<String> drain(Set<String> set) {
+        Set<String> answer = new HashSet<>();
+        for (String value : set) {
+            if (set.remove(value)) {
+                answer.add(value);
+            }
+        }
+        return answer;
     }
 
     private ContainerAutoScaler createAutoScaler(FabricRequirements requirements, ProfileRequirements profileRequirements) {
@@ -231,39 +437,34 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         Integer maximumInstances = profileRequirement.getMaximumInstances();
         if (maximumInstances != null || minimumInstances != null) {
             if (maximumInstances != null) {
-                List<Container> containers = Containers.aliveAndSuccessfulContainersForProfile(profile, service);
-                int count = containers.size();
+                List<String> containerIds = instanceCounts.aliveAndSuccessfulContainerIds(profile);
+                int count = containerIds.size();
                 int delta = count - maximumInstances;
                 if (delta > 0) {
-                    stopContainers(containers, autoScaler, requirements, profileRequirement, status, delta);
+                    stopContainers(containers(service, containerIds), autoScaler, requirements, profileRequirement, status, delta);
                 }
             }
             if (minimumInstances != null) {
                 // lets check if we need to provision more
-                List<Container> containers = Containers.aliveOrPendingContainersForProfile(profile, service);
-                int count = containers.size();
+                List<String> containerIds = instanceCounts.aliveOrPendingContainerIds(profile);
+                int count = containerIds.size();
                 int delta = minimumInstances - count;
                 try {
                     AutoScaleProfileStatus profileStatus = status.profileStatus(profile);
                     if (delta < 0) {
                         profileStatus.destroyingContainer();
-                        autoScaler.destroyContainers(profile, -delta, containers);
+                        autoScaler.destroyContainers(profile, -delta, containers(service, containerIds));
                     } else if (delta > 0) {
-                        if (AutoScalers.requirementsSatisfied(service, requirements, profileRequirement, status)) {
+                        if (requirementsSatisfied(requirements, profileRequirement, status)) {
                             profileStatus.creatingContainer();
-                            String requirementsVersion = requirements.getVersion();
-                            final String version = Strings.isNotBlank(requirementsVersion) ? requirementsVersion : service.getDefaultVersionId();
-                            final AutoScaleRequest command = new AutoScaleRequest(service, version, profile, delta, requirements, profileRequirement, status);
-                            new Thread("Creating container for " + command.getProfile()) {
-                                @Override
-                                public void run() {
-                                    try {
-                                        autoScaler.createContainers(command);
-                                    } catch (Exception e) {
-                                        LOGGER.error("Failed to create container of profile: " + profile + ". Caught: " + e, e);
-                                    }
-                                }
-                            }.start();
+                            if (creatingProfiles.add(profile)) {
+                                String requirementsVersion = requirements.getVersion();
+                                final String version = Strings.isNotBlank(requirementsVersion) ? requirementsVersion : service.getDefaultVersionId();
+                                final AutoScaleRequest command = new AutoScaleRequest(service, version, profile, delta, requirements, profileRequirement, status);
+                                createContainers(autoScaler, command);
+                            } else {
+                                LOGGER.debug("Containers of profile " + profile + " are already being created");
+                            }
                         }
                     } else {
                         profileStatus.provisioned();
@@ -275,6 +476,66 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         }
     }
 
+    private void createContainers(final ContainerAutoScaler autoScaler, final AutoScaleRequest command) {
+        final String profile = command.getProfile();
+        try {
+            creationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        autoScaler.createContainers(command);
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to create container of profile: " + profile + ". Caught: " + e, e);
+                    } finally {
+                        creatingProfiles.remove(profile);
+                        // check the profile again once the new containers are registered
+                        fullCheckRequired.set(true);
+                        scheduleCheck(EVENT_DELAY);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            creatingProfiles.remove(profile);
+            LOGGER.warn("Could not create containers of profile " + profile + " as the auto scaler is stopping");
+        }
+    }
+
+    /**
+     * Returns true if the requirements are satisfied for the given profile requirements; updating the auto scale status
+     * accordingly.  This is the same check as {@link io.fabric8.internal.autoscale.AutoScalers#requirementsSatisfied}
+     * using the tracked instance counts.
+     */
+    private boolean requirementsSatisfied(FabricRequirements requirements, ProfileRequirements profileRequirement, AutoScaleStatus status) {
+        String profile = profileRequirement.getProfile();
+        List<String> dependentProfiles = profileRequirement.getDependentProfiles();
+        if (dependentProfiles != null) {
+            for (String dependentProfile : dependentProfiles) {
+                ProfileRequirements dependentProfileRequirements = requirements.getOrCreateProfileRequirement(dependentProfile);
+                Integer minimumInstances = dependentProfileRequirements.getMinimumInstances();
+                if (minimumInstances != null) {
+                    int dependentSize = instanceCounts.aliveAndSuccessfulCount(dependentProfile);
+                    if (minimumInstances > dependentSize) {
+                        status.profileStatus(profile).missingDependency(dependentProfile, dependentSize, minimumInstances);
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<Container> containers(FabricService service, List<String> containerIds) {
+        List<Container> answer = new ArrayList<>(containerIds.size());
+        for (String containerId : containerIds) {
+            try {
+                answer.add(service.getContainer(containerId));
+            } catch (Exception e) {
+                LOGGER.debug("Container " + containerId + " is no longer available. " + e);
+            }
+        }
+        return answer;
+    }
+
     protected void stopContainers(List<Container> containers, ContainerAutoScaler autoScaler, FabricRequirements requirements, ProfileRequirements profileRequirement, AutoScaleStatus status, int delta) {
         final String profile = profileRequirement.getProfile();
         AutoScaleProfileStatus profileStatus = status.profileStatus(profile);
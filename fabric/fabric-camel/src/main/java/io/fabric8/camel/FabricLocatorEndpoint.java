@@ -15,14 +15,19 @@
  */
 package io.fabric8.camel;
 
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.AsyncProducerCallback;
 import org.apache.camel.Consumer;
 import org.apache.camel.Endpoint;
 import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
 import org.apache.camel.Processor;
 import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultAsyncProducer;
 import org.apache.camel.impl.DefaultEndpoint;
-import org.apache.camel.impl.DefaultProducer;
 import org.apache.camel.impl.ProducerCache;
+import org.apache.camel.util.AsyncProcessorHelper;
 import org.apache.camel.processor.loadbalancer.LoadBalancer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -102,9 +107,9 @@ public class FabricLocatorEndpoint extends DefaultEndpoint implements GroupListe
     @SuppressWarnings("unchecked")
     public Producer createProducer() throws Exception {
         final FabricLocatorEndpoint endpoint = this;
-        return new DefaultProducer(endpoint) {
-            public void process(Exchange exchange) throws Exception {
-                loadBalancer.process(exchange);
+        return new DefaultAsyncProducer(endpoint) {
+            public boolean process(Exchange exchange, AsyncCallback callback) {
+                return loadBalancer.process(exchange, callback);
             }
         };
     }
@@ -133,19 +138,24 @@ public class FabricLocatorEndpoint extends DefaultEndpoint implements GroupListe
     }
 
     public Processor getProcessor(String uri) throws URISyntaxException {
+        // Substituted on each join as the registry values may have changed, the CamelContext caches the endpoints
         uri = ZooKeeperUtils.getSubstitutedData(component.getCurator(), uri);
         LOG.info("Creating endpoint for " + uri);
         final Endpoint endpoint = getCamelContext().getEndpoint(uri);
-        return new Processor() {
+        return new AsyncProcessor() {
 
             public void process(Exchange exchange) throws Exception {
+                AsyncProcessorHelper.process(this, exchange);
+            }
+
+            public boolean process(Exchange exchange, AsyncCallback callback) {
                 ProducerCache producerCache = component.getProducerCache();
-                Producer producer = producerCache.acquireProducer(endpoint);
-                try {
-                    producer.process(exchange);
-                } finally {
-                    producerCache.releaseProducer(endpoint, producer);
-                }
+                return producerCache.doInAsyncProducer(endpoint, exchange, null, callback, new AsyncProducerCallback() {
+                    public boolean doInAsyncProducer(Producer producer, AsyncProcessor asyncProducer, Exchange exchange,
+                                                     ExchangePattern exchangePattern, AsyncCallback callback) {
+                        return asyncProducer.process(exchange, callback);
+                    }
+                });
             }
 
             @Override
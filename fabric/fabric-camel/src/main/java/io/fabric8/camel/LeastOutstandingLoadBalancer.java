@@ -0,0 +1,187 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.camel;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.processor.loadbalancer.LoadBalancerSupport;
+import org.apache.camel.util.AsyncProcessorConverterHelper;
+import org.apache.camel.util.AsyncProcessorHelper;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load balancer which picks two processors at random and sends the exchange to the one with the lowest cost,
+ * the cost being the number of outstanding exchanges of the processor weighted by its latency.
+ * <p/>
+ * The latency is a peak EWMA: a slower response is taken into account at once, while faster responses and idle
+ * time bring it down with the configured decay time, so that a slow processor is tried again from time to time.
+ * Exchanges are processed with the asynchronous routing engine, the calling thread is not blocked while waiting
+ * for a processor.
+ */
+public class LeastOutstandingLoadBalancer extends LoadBalancerSupport {
+
+    private final ConcurrentMap<Processor, ProcessorStats> stats = new ConcurrentHashMap<Processor, ProcessorStats>();
+    private long decayTime = TimeUnit.SECONDS.toNanos(10);
+
+    public long getDecayTime() {
+        return TimeUnit.NANOSECONDS.toMillis(decayTime);
+    }
+
+    /**
+     * Sets the time in milliseconds after which the latency of a processor has decayed to about a third.
+     */
+    public void setDecayTime(long decayTime) {
+        this.decayTime = TimeUnit.MILLISECONDS.toNanos(decayTime);
+    }
+
+    @Override
+    public void addProcessor(Processor processor) {
+        stats.put(processor, new ProcessorStats(AsyncProcessorConverterHelper.convert(processor)));
+        super.addProcessor(processor);
+    }
+
+    @Override
+    public void removeProcessor(Processor processor) {
+        super.removeProcessor(processor);
+        stats.remove(processor);
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        AsyncProcessorHelper.process(this, exchange);
+    }
+
+    public boolean process(final Exchange exchange, final AsyncCallback callback) {
+        final ProcessorStats chosen = choose();
+        if (chosen == null) {
+            exchange.setException(new IllegalStateException("No processors found."));
+            callback.done(true);
+            return true;
+        }
+        final long start = chosen.start();
+        return chosen.processor.process(exchange, new AsyncCallback() {
+            public void done(boolean doneSync) {
+                chosen.complete(start);
+                callback.done(doneSync);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of exchanges being processed by the given processor.
+     */
+    public int getOutstanding(Processor processor) {
+        ProcessorStats s = stats.get(processor);
+        return s != null ? s.getOutstanding() : 0;
+    }
+
+    /**
+     * Returns the latency in nanoseconds the cost of the given processor is currently computed with.
+     */
+    public double getLatency(Processor processor) {
+        ProcessorStats s = stats.get(processor);
+        return s != null ? s.getLatency(System.nanoTime()) : 0;
+    }
+
+    private ProcessorStats choose() {
+        List<Processor> list = getProcessors();
+        int size = list.size();
+        while (size > 0) {
+            try {
+                if (size == 1) {
+                    ProcessorStats only = stats.get(list.get(0));
+                    if (only != null) {
+                        return only;
+                    }
+                } else {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int first = random.nextInt(size);
+                    int second = random.nextInt(size - 1);
+                    if (second >= first) {
+                        second++;
+                    }
+                    ProcessorStats a = stats.get(list.get(first));
+                    ProcessorStats b = stats.get(list.get(second));
+                    if (a != null && b != null) {
+                        long now = System.nanoTime();
+                        return a.getCost(now) <= b.getCost(now) ? a : b;
+                    } else if (a != null || b != null) {
+                        return a != null ? a : b;
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                // A processor has been removed meanwhile
+            }
+            list = getProcessors();
+            size = list.size();
+        }
+        return null;
+    }
+
+    private final class ProcessorStats {
+
+        private final AsyncProcessor processor;
+        private int outstanding;
+        private double latency;
+        private long stamp;
+        private boolean sampled;
+
+        private ProcessorStats(AsyncProcessor processor) {
+            this.processor = processor;
+        }
+
+        synchronized long start() {
+            outstanding++;
+            return System.nanoTime();
+        }
+
+        synchronized void complete(long start) {
+            long now = System.nanoTime();
+            long rtt = now - start;
+            outstanding--;
+            if (rtt > latency) {
+                latency = rtt;
+            } else {
+                double w = Math.exp(-(now - stamp) / (double) decayTime);
+                latency = latency * w + rtt * (1 - w);
+            }
+            stamp = now;
+            sampled = true;
+        }
+
+        synchronized int getOutstanding() {
+            return outstanding;
+        }
+
+        synchronized double getLatency(long now) {
+            return latency * Math.exp(-(now - stamp) / (double) decayTime);
+        }
+
+        synchronized double getCost(long now) {
+            if (!sampled) {
+                // Until its first response, a processor is only sent a single exchange at a time
+                return outstanding == 0 ? 0 : Double.MAX_VALUE;
+            }
+            return (getLatency(now) + 1) * (outstanding + 1);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.camel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.util.AsyncProcessorHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends exchanges to simulated endpoints whose responses are completed by the test itself,
+ * so that the number of exchanges routed to each endpoint only depends on the load balancer.
+ */
+public class LeastOutstandingLoadBalancerTest {
+
+    private CamelContext context;
+    private LeastOutstandingLoadBalancer loadBalancer;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new DefaultCamelContext();
+        context.start();
+        loadBalancer = new LeastOutstandingLoadBalancer();
+        loadBalancer.setDecayTime(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.stop();
+    }
+
+    @Test
+    public void testNoProcessors() throws Exception {
+        Exchange exchange = new DefaultExchange(context);
+        loadBalancer.process(exchange);
+        assertTrue(exchange.getException() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testUnansweredEndpointOnlyGetsOneExchange() throws Exception {
+        List<SimulatedEndpoint> endpoints = createEndpoints(10);
+        SimulatedEndpoint stuck = endpoints.get(0);
+        stuck.completeAtOnce = false;
+
+        send(1000);
+
+        assertEquals(1, stuck.received);
+        assertEquals(1, loadBalancer.getOutstanding(stuck));
+        int received = 0;
+        for (SimulatedEndpoint endpoint : endpoints) {
+            received += endpoint.received;
+        }
+        assertEquals(1000, received);
+
+        stuck.completeAll();
+        assertEquals(0, loadBalancer.getOutstanding(stuck));
+    }
+
+    @Test
+    public void testSlowEndpointIsAvoided() throws Exception {
+        SimulatedEndpoint slow = addSampled(200);
+        SimulatedEndpoint fast = addSampled(0);
+        assertTrue(loadBalancer.getLatency(slow) > 21 * loadBalancer.getLatency(fast));
+
+        // Both endpoints are compared for every exchange, the fast one keeps being cheaper with 20 exchanges outstanding
+        fast.completeAtOnce = false;
+        slow.completeAtOnce = false;
+        send(20);
+
+        assertEquals(21, fast.received);
+        assertEquals(1, slow.received);
+        assertEquals(20, loadBalancer.getOutstanding(fast));
+        assertEquals(0, loadBalancer.getOutstanding(slow));
+
+        fast.completeAll();
+        assertEquals(0, loadBalancer.getOutstanding(fast));
+    }
+
+    @Test
+    public void testSlowEndpointIsTriedAgainOnceDecayed() throws Exception {
+        loadBalancer.setDecayTime(10);
+        SimulatedEndpoint slow = addSampled(50);
+        SimulatedEndpoint fast = addSampled(0);
+
+        // After 50 decay times both latencies are negligible, only the outstanding exchanges are compared
+        Thread.sleep(500);
+        fast.completeAtOnce = false;
+        slow.completeAtOnce = false;
+        send(20);
+
+        assertEquals(11, fast.received);
+        assertEquals(11, slow.received);
+        assertEquals(10, loadBalancer.getOutstanding(fast));
+        assertEquals(10, loadBalancer.getOutstanding(slow));
+    }
+
+    @Test
+    public void testRemovedEndpointIsNotUsed() throws Exception {
+        List<SimulatedEndpoint> endpoints = createEndpoints(3);
+        SimulatedEndpoint removed = endpoints.get(2);
+        loadBalancer.removeProcessor(removed);
+
+        send(100);
+
+        assertEquals(0, removed.received);
+        assertEquals(100, endpoints.get(0).received + endpoints.get(1).received);
+        assertFalse(loadBalancer.getProcessors().contains(removed));
+    }
+
+    private List<SimulatedEndpoint> createEndpoints(int count) {
+        List<SimulatedEndpoint> endpoints = new ArrayList<SimulatedEndpoint>();
+        for (int i = 0; i < count; i++) {
+            SimulatedEndpoint endpoint = new SimulatedEndpoint();
+            endpoints.add(endpoint);
+            loadBalancer.addProcessor(endpoint);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Adds an endpoint and sends it one exchange answered after the given delay, so that its latency is known.
+     * Until then the endpoint is unanswered and has no outstanding exchange, so it is cheaper than the sampled ones.
+     */
+    private SimulatedEndpoint addSampled(long millis) throws Exception {
+        SimulatedEndpoint endpoint = new SimulatedEndpoint();
+        loadBalancer.addProcessor(endpoint);
+        endpoint.completeAtOnce = false;
+        send(1);
+        assertEquals(1, endpoint.received);
+        Thread.sleep(millis);
+        endpoint.completeAll();
+        endpoint.completeAtOnce = true;
+        return endpoint;
+    }
+
+    private void send(int count) {
+        for (int i = 0; i < count; i++) {
+            loadBalancer.process(new DefaultExchange(context), new AsyncCallback() {
+                public void done(boolean doneSync) {
+                }
+            });
+        }
+    }
+
+    private static class SimulatedEndpoint implements AsyncProcessor {
+
+        private final List<AsyncCallback> pending = new ArrayList<AsyncCallback>();
+        private boolean completeAtOnce = true;
+        private int received;
+
+        public void process(Exchange exchange) throws Exception {
+            AsyncProcessorHelper.process(this, exchange);
+        }
+
+        public boolean process(Exchange exchange, AsyncCallback callback) {
+            received++;
+            if (completeAtOnce) {
+                callback.done(true);
+                return true;
+            }
+            pending.add(callback);
+            return false;
+        }
+
+        void completeAll() {
+            List<AsyncCallback> callbacks = new ArrayList<AsyncCallback>(pending);
+            pending.clear();
+            for (AsyncCallback callback : callbacks) {
+                callback.done(false);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
@@ -71,8 +72,19 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
 
     private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("fabric-configadmin"));
 
+    /**
+     * The fabric pid of each configuration managed by the bridge, keyed by configuration pid
+     */
+    private final Map<String, String> configurationPids = new HashMap<String, String>();
+    /**
+     * The profile content last applied to each fabric pid, used to skip the unchanged configurations
+     */
+    private final Map<String, Hashtable<String, Object>> appliedConfigurations = new HashMap<String, Hashtable<String, Object>>();
+
     @Activate
     void activate() {
+        // compare every configuration with the profiles on the first update
+        clearAppliedConfigurations();
         fabricService.get().trackConfiguration(this);
         activateComponent();
         submitUpdateJob();
@@ -124,44 +136,102 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         }
         Profile overlayProfile = currentContainer.getOverlayProfile();
         Profile effectiveProfile = Profiles.getEffectiveProfile(fabricService.get(), overlayProfile);
-        
+
         Map<String, Map<String, String>> configurations = effectiveProfile.getConfigurations();
-        List<Configuration> zkConfigs = asList(configAdmin.get().listConfigurations("(" + FABRIC_ZOOKEEPER_PID + "=*)"));
-        
+        List<String> deleted = applyConfigurations(configAdmin.get(), configurations, String.valueOf(effectiveProfile.getProfileHash()));
+        for (String pid : deleted) {
+            fabricService.get().getPortService().unregisterPort(currentContainer, pid);
+        }
+    }
+
+    /**
+     * Brings the configurations managed by fabric in line with the given profile configurations.  The configurations
+     * are listed once, and only the pids whose content changed since they were last applied are updated, so
+     * changes made to a configuration outside of fabric are kept until its profile content changes or the
+     * bridge is activated again.
+     *
+     * @return the pids of the deleted configurations
+     */
+    synchronized List<String> applyConfigurations(ConfigurationAdmin configAdmin, Map<String, Map<String, String>> configurations, String profileHash) throws Exception {
+        Map<String, Configuration> existing = listConfigurations(configAdmin);
+
         // FABRIC-803: the agent may use the configuration provided by features definition if not managed
         //   by fabric.  However, in order for this to work, we need to make sure managed configurations
         //   are all registered before the agent kicks in.  Hence, the agent configuration is updated
         //   after all other configurations.
-        
-        // Process all configurations but agent
-        for (String pid : configurations.keySet()) {
-            if (!pid.equals(Constants.AGENT_PID)) {
-                Hashtable<String, Object> c = new Hashtable<String, Object>();
-                c.putAll(configurations.get(pid));
-                updateConfig(zkConfigs, pid, c);
-            }
+        List<String> pids = new ArrayList<String>(configurations.keySet());
+        if (pids.remove(Constants.AGENT_PID)) {
+            pids.add(Constants.AGENT_PID);
         }
-        // Process agent configuration last
-        for (String pid : configurations.keySet()) {
+        int updated = 0;
+        for (String pid : pids) {
+            Hashtable<String, Object> c = new Hashtable<String, Object>();
+            c.putAll(configurations.get(pid));
             if (pid.equals(Constants.AGENT_PID)) {
-                Hashtable<String, Object> c = new Hashtable<String, Object>();
-                c.putAll(configurations.get(pid));
-                c.put(Profile.HASH, String.valueOf(effectiveProfile.getProfileHash()));
-                updateConfig(zkConfigs, pid, c);
+                c.put(Profile.HASH, profileHash);
+            }
+            Configuration config = existing.remove(pid);
+            if (config != null && c.equals(appliedConfigurations.get(pid))) {
+                continue;
+            }
+            appliedConfigurations.remove(pid);
+            if (config == null) {
+                String p[] = parsePid(pid);
+                config = p[1] != null ? configAdmin.createFactoryConfiguration(p[0], null) : configAdmin.getConfiguration(p[0], null);
             }
+            Hashtable<String, Object> applied = new Hashtable<String, Object>(c);
+            updateConfig(config, pid, c);
+            configurationPids.put(config.getPid(), pid);
+            appliedConfigurations.put(pid, applied);
+            updated++;
         }
-        for (Configuration config : zkConfigs) {
+
+        List<String> deleted = new ArrayList<String>();
+        for (Map.Entry<String, Configuration> entry : existing.entrySet()) {
+            Configuration config = entry.getValue();
             LOGGER.info("Deleting configuration {}", config.getPid());
-            fabricService.get().getPortService().unregisterPort(fabricService.get().getCurrentContainer(), config.getPid());
+            deleted.add(config.getPid());
+            appliedConfigurations.remove(entry.getKey());
+            configurationPids.remove(config.getPid());
             config.delete();
         }
+        LOGGER.debug("Synchronized {} configurations: {} updated, {} deleted", pids.size(), updated, deleted.size());
+        return deleted;
+    }
+
+    /**
+     * Returns the configurations managed by fabric, keyed by fabric pid.  The fabric pid of a configuration is only
+     * read from its properties the first time it is seen.
+     */
+    private Map<String, Configuration> listConfigurations(ConfigurationAdmin configAdmin) throws Exception {
+        Map<String, Configuration> answer = new HashMap<String, Configuration>();
+        Map<String, String> pids = new HashMap<String, String>();
+        for (Configuration config : asList(configAdmin.listConfigurations("(" + FABRIC_ZOOKEEPER_PID + "=*)"))) {
+            String pid = configurationPids.get(config.getPid());
+            if (pid == null) {
+                Dictionary<String, Object> props = config.getProperties();
+                Object value = props != null ? props.get(FABRIC_ZOOKEEPER_PID) : null;
+                if (value == null) {
+                    continue;
+                }
+                pid = value.toString();
+            }
+            if (answer.containsKey(pid)) {
+                // duplicates are deleted as the previous bridge did
+                answer.put(pid + "#" + config.getPid(), config);
+            } else {
+                answer.put(pid, config);
+            }
+            pids.put(config.getPid(), pid);
+        }
+        // forget the configurations deleted outside of the bridge
+        configurationPids.keySet().retainAll(pids.keySet());
+        configurationPids.putAll(pids);
+        appliedConfigurations.keySet().retainAll(answer.keySet());
+        return answer;
     }
 
-    private void updateConfig(List<Configuration> configs, String pid, Hashtable<String, Object> c) throws Exception {
-        String p[] = parsePid(pid);
-        //Get the configuration by fabric zookeeper pid, pid and factory pid.
-        Configuration config = getConfiguration(configAdmin.get(), pid, p[0], p[1]);
-        configs.remove(config);
+    private void updateConfig(Configuration config, String pid, Hashtable<String, Object> c) throws Exception {
         Dictionary<String, Object> props = config.getProperties();
         Hashtable<String, Object> old = props != null ? new Hashtable<String, Object>() : null;
         if (old != null) {
@@ -205,6 +275,11 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         }
     }
 
+    synchronized void clearAppliedConfigurations() {
+        configurationPids.clear();
+        appliedConfigurations.clear();
+    }
+
     @SuppressWarnings("unchecked")
     private <T> List<T> asList(T... a) {
         List<T> l = new ArrayList<T>();
@@ -231,22 +306,6 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         }
     }
 
-    private Configuration getConfiguration(ConfigurationAdmin configAdmin, String zooKeeperPid, String pid, String factoryPid) throws Exception {
-        String filter = "(" + FABRIC_ZOOKEEPER_PID + "=" + zooKeeperPid + ")";
-        Configuration[] oldConfiguration = configAdmin.listConfigurations(filter);
-        if (oldConfiguration != null && oldConfiguration.length > 0) {
-            return oldConfiguration[0];
-        } else {
-            Configuration newConfiguration;
-            if (factoryPid != null) {
-                newConfiguration = configAdmin.createFactoryConfiguration(pid, null);
-            } else {
-                newConfiguration = configAdmin.getConfiguration(pid, null);
-            }
-            return newConfiguration;
-        }
-    }
-
     void bindConfigAdmin(ConfigurationAdmin service) {
         this.configAdmin.bind(service);
     }
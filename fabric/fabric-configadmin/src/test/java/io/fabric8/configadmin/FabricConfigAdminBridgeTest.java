@@ -0,0 +1,273 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.configadmin;
+
+import io.fabric8.api.Constants;
+import io.fabric8.api.Profile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FabricConfigAdminBridgeTest {
+
+    private static final int PIDS = 300;
+
+    private FabricConfigAdminBridge bridge;
+    private CountingConfigAdmin configAdmin;
+    private Map<String, Map<String, String>> configurations;
+
+    @Before
+    public void setUp() {
+        bridge = new FabricConfigAdminBridge();
+        configAdmin = new CountingConfigAdmin();
+        configurations = new LinkedHashMap<String, Map<String, String>>();
+        configurations.put(Constants.AGENT_PID, config("repository.karaf", "mvn:x/y/1.0"));
+        for (int i = 0; i < PIDS; i++) {
+            configurations.put("io.fabric8.pid" + i, config("key", "value" + i));
+        }
+        configurations.put("io.fabric8.factory-one", config("name", "one"));
+    }
+
+    @Test
+    public void testInitialSync() throws Exception {
+        List<String> deleted = bridge.applyConfigurations(configAdmin, configurations, "1");
+        assertTrue(deleted.isEmpty());
+        assertEquals(1, configAdmin.lists);
+        assertEquals(PIDS + 2, configAdmin.updates);
+        assertEquals(1, configAdmin.factoryCreates);
+        assertEquals(PIDS + 2, configAdmin.configs.size());
+        // the agent configuration is updated last
+        assertEquals(Constants.AGENT_PID, configAdmin.lastUpdated.getPid());
+        assertEquals("1", configAdmin.lastUpdated.getProperties().get(Profile.HASH));
+        StubConfiguration factory = configAdmin.find("io.fabric8.factory-one");
+        assertNotNull(factory);
+        assertEquals("io.fabric8.factory", factory.factoryPid);
+    }
+
+    @Test
+    public void testUnchangedProfileDoesNotTouchConfigAdmin() throws Exception {
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        configAdmin.reset();
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        assertEquals(1, configAdmin.lists);
+        assertEquals(0, configAdmin.updates);
+        assertEquals(0, configAdmin.propertyReads);
+        assertEquals(0, configAdmin.creates + configAdmin.factoryCreates);
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        configAdmin.reset();
+
+        configurations.put("io.fabric8.pid1", config("key", "changed"));
+        configurations.put("io.fabric8.pid2", config("key", "changed"));
+        configurations.remove("io.fabric8.pid3");
+        configurations.remove("io.fabric8.pid4");
+        configurations.put("io.fabric8.new", config("key", "new"));
+        List<String> deleted = bridge.applyConfigurations(configAdmin, configurations, "2");
+
+        assertEquals(1, configAdmin.lists);
+        // two changed, one new, and the agent whose hash changed
+        assertEquals(4, configAdmin.updates);
+        assertEquals(1, configAdmin.creates);
+        assertEquals(2, configAdmin.deletes);
+        assertEquals(2, deleted.size());
+        assertTrue(deleted.contains("io.fabric8.pid3"));
+        assertEquals("changed", configAdmin.find("io.fabric8.pid1").getProperties().get("key"));
+        assertEquals(null, configAdmin.find("io.fabric8.pid4"));
+        assertEquals(PIDS + 1, configAdmin.configs.size());
+    }
+
+    @Test
+    public void testConfigurationDeletedOutsideOfBridgeIsRecreated() throws Exception {
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        configAdmin.find("io.fabric8.pid7").delete();
+        configAdmin.reset();
+
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        assertEquals(1, configAdmin.creates);
+        assertEquals(1, configAdmin.updates);
+        assertEquals("value7", configAdmin.find("io.fabric8.pid7").getProperties().get("key"));
+    }
+
+    @Test
+    public void testExistingConfigurationsAreIndexedOnce() throws Exception {
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        // a new bridge has to read the fabric pid of the existing configurations once
+        bridge = new FabricConfigAdminBridge();
+        configAdmin.reset();
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        assertEquals(0, configAdmin.updates);
+        assertEquals(0, configAdmin.creates + configAdmin.factoryCreates);
+        assertFalse(configAdmin.propertyReads == 0);
+
+        configAdmin.reset();
+        bridge.applyConfigurations(configAdmin, configurations, "1");
+        assertEquals(0, configAdmin.propertyReads);
+    }
+
+    private static Map<String, String> config(String key, String value) {
+        Map<String, String> answer = new HashMap<String, String>();
+        answer.put(key, value);
+        return answer;
+    }
+
+    static class CountingConfigAdmin implements ConfigurationAdmin {
+        final List<StubConfiguration> configs = new ArrayList<StubConfiguration>();
+        int lists;
+        int creates;
+        int factoryCreates;
+        int updates;
+        int deletes;
+        int propertyReads;
+        StubConfiguration lastUpdated;
+        private int counter;
+
+        void reset() {
+            lists = creates = factoryCreates = updates = deletes = propertyReads = 0;
+        }
+
+        StubConfiguration find(String fabricPid) {
+            for (StubConfiguration config : configs) {
+                if (config.properties != null && fabricPid.equals(config.properties.get(FabricConfigAdminBridge.FABRIC_ZOOKEEPER_PID))) {
+                    return config;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Configuration createFactoryConfiguration(String factoryPid) throws IOException {
+            return createFactoryConfiguration(factoryPid, null);
+        }
+
+        @Override
+        public Configuration createFactoryConfiguration(String factoryPid, String location) throws IOException {
+            factoryCreates++;
+            StubConfiguration config = new StubConfiguration(this, factoryPid + "." + (++counter), factoryPid);
+            configs.add(config);
+            return config;
+        }
+
+        @Override
+        public Configuration getConfiguration(String pid, String location) throws IOException {
+            for (StubConfiguration config : configs) {
+                if (config.pid.equals(pid)) {
+                    return config;
+                }
+            }
+            creates++;
+            StubConfiguration config = new StubConfiguration(this, pid, null);
+            configs.add(config);
+            return config;
+        }
+
+        @Override
+        public Configuration getConfiguration(String pid) throws IOException {
+            return getConfiguration(pid, null);
+        }
+
+        @Override
+        public Configuration[] listConfigurations(String filter) {
+            lists++;
+            assertEquals("(" + FabricConfigAdminBridge.FABRIC_ZOOKEEPER_PID + "=*)", filter);
+            List<Configuration> answer = new ArrayList<Configuration>();
+            for (StubConfiguration config : configs) {
+                if (config.properties != null && config.properties.get(FabricConfigAdminBridge.FABRIC_ZOOKEEPER_PID) != null) {
+                    answer.add(config);
+                }
+            }
+            return answer.isEmpty() ? null : answer.toArray(new Configuration[answer.size()]);
+        }
+    }
+
+    static class StubConfiguration implements Configuration {
+        private final CountingConfigAdmin configAdmin;
+        private final String pid;
+        private final String factoryPid;
+        private Hashtable<String, Object> properties;
+
+        StubConfiguration(CountingConfigAdmin configAdmin, String pid, String factoryPid) {
+            this.configAdmin = configAdmin;
+            this.pid = pid;
+            this.factoryPid = factoryPid;
+        }
+
+        @Override
+        public String getPid() {
+            return pid;
+        }
+
+        @Override
+        public Dictionary<String, Object> getProperties() {
+            configAdmin.propertyReads++;
+            return properties != null ? new Hashtable<String, Object>(properties) : null;
+        }
+
+        @Override
+        public void update(Dictionary<String, ?> props) {
+            configAdmin.updates++;
+            configAdmin.lastUpdated = this;
+            properties = new Hashtable<String, Object>();
+            for (String key : java.util.Collections.list(props.keys())) {
+                properties.put(key, props.get(key));
+            }
+            properties.put(org.osgi.framework.Constants.SERVICE_PID, pid);
+        }
+
+        @Override
+        public void delete() {
+            configAdmin.deletes++;
+            configAdmin.configs.remove(this);
+        }
+
+        @Override
+        public String getFactoryPid() {
+            return factoryPid;
+        }
+
+        @Override
+        public void update() {
+        }
+
+        @Override
+        public void setBundleLocation(String location) {
+        }
+
+        @Override
+        public String getBundleLocation() {
+            return null;
+        }
+    }
+
+}
@@ -27,12 +27,15 @@ import io.fabric8.api.ProfileRequirements;
 import io.fabric8.api.SshHostConfiguration;
 import io.fabric8.api.SshScalingRequirements;
 import io.fabric8.internal.autoscale.AutoScalers;
+import io.fabric8.internal.autoscale.HostPlacementSolver;
 import io.fabric8.internal.autoscale.HostProfileCounter;
 import io.fabric8.internal.autoscale.LoadSortedHostConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 
 /**
@@ -64,19 +67,31 @@ public class SshAutoScaler implements ContainerAutoScaler {
         HostProfileCounter hostProfileCounter = new HostProfileCounter();
         AutoScalers.createHostToProfileScaleMap(hostProfileCounter, hostConfigurations, containers);
 
-        for (int i = 0; i < count; i++) {
-            CreateSshContainerOptions.Builder builder = null;
-            NameValidator nameValidator = Containers.createNameValidator(containers);
+        // choose all the hosts up front so that the containers of this request are spread across them
+        ProfileRequirements profileRequirements = request.getProfileRequirements();
+        SshScalingRequirements sshScalingRequirements = profileRequirements.getSshScalingRequirements();
+        List<LoadSortedHostConfiguration<SshHostConfiguration>> placements = new HostPlacementSolver().place(
+                profileRequirements, sshScalingRequirements, hostProfileCounter, requirements.getSshHosts(), count);
+        if (placements.size() < count) {
+            LOG.warn("Could only place " + placements.size() + " of " + count + " container(s) of version " + version + " profile " + profile
+                    + " as no more matching hosts could be found for " + sshScalingRequirements);
+            request.getProfileAutoScaleStatus().noSuitableHost("" + sshScalingRequirements);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (LoadSortedHostConfiguration<SshHostConfiguration> placement : placements) {
+            NameValidator nameValidator = Containers.createNameValidator(containers, names);
             String name = Containers.createContainerName(containers, profile, containerProvider.getScheme(), nameValidator);
+            names.add(name);
 
             if (fabricService != null) {
-                builder = createAutoScaleOptions(request, fabricService, hostProfileCounter);
-            }
-            if (builder != null) {
+                CreateSshContainerOptions.Builder builder = CreateSshContainerOptions.builder();
+                builder.configure(placement.getConfiguration(), requirements, profileRequirements);
+                configureAutoScaleOptions(builder, fabricService);
                 final CreateSshContainerOptions.Builder configuredBuilder = builder.number(1).version(version).profiles(profile);
 
                 CreateSshContainerOptions options = configuredBuilder.name(name).build();
-                LOG.info("Creating container name " + name + " version " + version + " profile " + profile + " " + count + " container(s)");
+                LOG.info("Creating container name " + name + " version " + version + " profile " + profile + " on host " + placement.getHostAlias());
                 fabricService.createContainers(options);
             }
         }
@@ -85,6 +100,10 @@ public class SshAutoScaler implements ContainerAutoScaler {
     protected CreateSshContainerOptions.Builder createAutoScaleOptions(AutoScaleRequest request, FabricService fabricService, HostProfileCounter hostProfileCounter) {
         CreateSshContainerOptions.Builder builder = chooseHostContainerOptions(request, hostProfileCounter);
         if (builder == null) return null;
+        return configureAutoScaleOptions(builder, fabricService);
+    }
+
+    protected CreateSshContainerOptions.Builder configureAutoScaleOptions(CreateSshContainerOptions.Builder builder, FabricService fabricService) {
         String zookeeperUrl = fabricService.getZookeeperUrl();
         String zookeeperPassword = fabricService.getZookeeperPassword();
         if (builder.getProxyUri() == null) {
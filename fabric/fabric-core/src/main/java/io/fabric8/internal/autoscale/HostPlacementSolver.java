@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.internal.autoscale;
+
+import io.fabric8.api.HostConfiguration;
+import io.fabric8.api.HostScalingRequirements;
+import io.fabric8.api.ProfileRequirements;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Chooses the hosts on which to create new containers of a profile.  Containers are placed one at a time and the
+ * {@link HostProfileCounter} is updated after each placement, so that the maximum container count of the hosts and
+ * the maximum instances per host of the profile are respected across the whole request.
+ */
+public class HostPlacementSolver {
+
+    public enum Strategy {
+        /**
+         * Place each container on the least loaded host, see {@link LoadSortedHostConfiguration}
+         */
+        SPREAD,
+        /**
+         * Place each container on the most loaded host which still has capacity left, to keep hosts free
+         */
+        PACK
+    }
+
+    private final Strategy strategy;
+
+    public HostPlacementSolver() {
+        this(Strategy.SPREAD);
+    }
+
+    public HostPlacementSolver(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Returns the hosts chosen for up to <code>count</code> new containers; fewer hosts are returned if
+     * there is not enough capacity left.  The counter is updated with the chosen placements.
+     */
+    public <T extends HostConfiguration> List<LoadSortedHostConfiguration<T>> place(ProfileRequirements profileRequirements, HostScalingRequirements scalingRequirements,
+                                                                                    HostProfileCounter hostProfileCounter, List<T> hosts, int count) {
+        List<LoadSortedHostConfiguration<T>> answer = new ArrayList<>();
+        String profile = profileRequirements.getProfile();
+        for (int i = 0; i < count; i++) {
+            SortedSet<LoadSortedHostConfiguration<T>> candidates = AutoScalers.filterHosts(profileRequirements, scalingRequirements, hostProfileCounter, hosts);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            LoadSortedHostConfiguration<T> chosen = strategy == Strategy.PACK ? mostLoaded(candidates) : candidates.first();
+            String hostAlias = chosen.getHostAlias();
+            hostProfileCounter.incrementContainers(hostAlias);
+            hostProfileCounter.incrementProfileCount(hostAlias, profile);
+            answer.add(chosen);
+        }
+        return answer;
+    }
+
+    private static <T> LoadSortedHostConfiguration<T> mostLoaded(SortedSet<LoadSortedHostConfiguration<T>> candidates) {
+        // prefer the first host in list order amongst the most loaded ones
+        LoadSortedHostConfiguration<T> answer = null;
+        for (LoadSortedHostConfiguration<T> candidate : candidates) {
+            if (answer == null || candidate.getContainerCount() > answer.getContainerCount()) {
+                answer = candidate;
+            }
+        }
+        return answer;
+    }
+}
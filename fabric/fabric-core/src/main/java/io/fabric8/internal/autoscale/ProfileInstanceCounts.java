@@ -0,0 +1,255 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.internal.autoscale;
+
+import io.fabric8.api.Container;
+import io.fabric8.api.Containers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of the containers of each profile which are alive or pending and which are alive and successfully
+ * provisioned, so that the counts can be updated one container at a time rather than by scanning all the containers
+ * of the fabric for each profile.
+ */
+public class ProfileInstanceCounts {
+    private final Map<String, ContainerState> containers = new HashMap<>();
+    private final Map<String, Set<String>> aliveOrPending = new HashMap<>();
+    private final Map<String, Set<String>> aliveAndSuccessful = new HashMap<>();
+
+    /**
+     * Updates the state of a container, returning the profiles whose counts have changed
+     */
+    public synchronized Set<String> update(ContainerState state) {
+        ContainerState old = containers.put(state.getId(), state);
+        if (state.equals(old)) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = new HashSet<>(state.getProfileIds());
+        if (old != null) {
+            changed.addAll(old.getProfileIds());
+            unindex(old);
+        }
+        for (Iterator<String> iterator = changed.iterator(); iterator.hasNext(); ) {
+            String profile = iterator.next();
+            if (sameMembership(profile, state, old)) {
+                iterator.remove();
+            }
+        }
+        index(state);
+        return changed;
+    }
+
+    /**
+     * Returns true if the container is counted in the same way for the profile in both states
+     */
+    private static boolean sameMembership(String profile, ContainerState state, ContainerState old) {
+        boolean hadProfile = old != null && old.getProfileIds().contains(profile);
+        boolean hasProfile = state.getProfileIds().contains(profile);
+        return (hadProfile && old.isAliveOrPending()) == (hasProfile && state.isAliveOrPending())
+                && (hadProfile && old.isAliveAndSuccessful()) == (hasProfile && state.isAliveAndSuccessful());
+    }
+
+    /**
+     * Removes a container, returning the profiles whose counts have changed
+     */
+    public synchronized Set<String> remove(String containerId) {
+        ContainerState old = containers.remove(containerId);
+        if (old == null) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = new HashSet<>();
+        for (String profile : old.getProfileIds()) {
+            if (old.isAliveOrPending() || old.isAliveAndSuccessful()) {
+                changed.add(profile);
+            }
+        }
+        unindex(old);
+        return changed;
+    }
+
+    /**
+     * Replaces the state of all the containers, returning the profiles whose counts have changed
+     */
+    public synchronized Set<String> reset(Collection<ContainerState> states) {
+        Set<String> changed = new HashSet<>();
+        Set<String> removed = new HashSet<>(containers.keySet());
+        for (ContainerState state : states) {
+            removed.remove(state.getId());
+            changed.addAll(update(state));
+        }
+        for (String id : removed) {
+            changed.addAll(remove(id));
+        }
+        return changed;
+    }
+
+    public synchronized int size() {
+        return containers.size();
+    }
+
+    public synchronized Set<String> getContainerIds() {
+        return new HashSet<>(containers.keySet());
+    }
+
+    public synchronized int aliveOrPendingCount(String profile) {
+        return count(aliveOrPending, profile);
+    }
+
+    public synchronized int aliveAndSuccessfulCount(String profile) {
+        return count(aliveAndSuccessful, profile);
+    }
+
+    /**
+     * Returns the sorted ids of the alive or pending containers of the profile
+     */
+    public synchronized List<String> aliveOrPendingContainerIds(String profile) {
+        return ids(aliveOrPending, profile);
+    }
+
+    /**
+     * Returns the sorted ids of the alive and successfully provisioned containers of the profile
+     */
+    public synchronized List<String> aliveAndSuccessfulContainerIds(String profile) {
+        return ids(aliveAndSuccessful, profile);
+    }
+
+    private void index(ContainerState state) {
+        for (String profile : state.getProfileIds()) {
+            if (state.isAliveOrPending()) {
+                add(aliveOrPending, profile, state.getId());
+            }
+            if (state.isAliveAndSuccessful()) {
+                add(aliveAndSuccessful, profile, state.getId());
+            }
+        }
+    }
+
+    private void unindex(ContainerState state) {
+        for (String profile : state.getProfileIds()) {
+            remove(aliveOrPending, profile, state.getId());
+            remove(aliveAndSuccessful, profile, state.getId());
+        }
+    }
+
+    private static void add(Map<String, Set<String>> map, String profile, String id) {
+        Set<String> ids = map.get(profile);
+        if (ids == null) {
+            ids = new TreeSet<>();
+            map.put(profile, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void remove(Map<String, Set<String>> map, String profile, String id) {
+        Set<String> ids = map.get(profile);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            map.remove(profile);
+        }
+    }
+
+    private static int count(Map<String, Set<String>> map, String profile) {
+        Set<String> ids = map.get(profile);
+        return ids != null ? ids.size() : 0;
+    }
+
+    private static List<String> ids(Map<String, Set<String>> map, String profile) {
+        Set<String> ids = map.get(profile);
+        return ids != null ? new ArrayList<>(ids) : new ArrayList<String>();
+    }
+
+    /**
+     * The state of a container which is relevant to the auto scaler
+     */
+    public static class ContainerState {
+        private final String id;
+        private final List<String> profileIds;
+        private final boolean aliveOrPending;
+        private final boolean aliveAndSuccessful;
+
+        public ContainerState(String id, List<String> profileIds, boolean aliveOrPending, boolean aliveAndSuccessful) {
+            this.id = id;
+            this.profileIds = profileIds != null ? new ArrayList<>(profileIds) : Collections.<String>emptyList();
+            this.aliveOrPending = aliveOrPending;
+            this.aliveAndSuccessful = aliveAndSuccessful;
+        }
+
+        /**
+         * Reads the state of the given container, using the same rules as
+         * {@link Containers#aliveOrPendingContainersForProfile(String, Container[])} and
+         * {@link Containers#aliveAndSuccessfulContainersForProfile(String, Container[])}
+         */
+        public static ContainerState of(Container container) {
+            boolean alive = container.isAlive();
+            boolean pending = container.isProvisioningPending();
+            return new ContainerState(container.getId(), container.getProfileIds(), alive || pending,
+                    Containers.isAliveAndProvisionSuccess(container));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public List<String> getProfileIds() {
+            return profileIds;
+        }
+
+        public boolean isAliveOrPending() {
+            return aliveOrPending;
+        }
+
+        public boolean isAliveAndSuccessful() {
+            return aliveAndSuccessful;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ContainerState that = (ContainerState) o;
+
+            return aliveOrPending == that.aliveOrPending
+                    && aliveAndSuccessful == that.aliveAndSuccessful
+                    && id.equals(that.id)
+                    && profileIds.equals(that.profileIds);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = id.hashCode();
+            result = 31 * result + profileIds.hashCode();
+            result = 31 * result + (aliveOrPending ? 1 : 0);
+            result = 31 * result + (aliveAndSuccessful ? 1 : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "ContainerState{" + id + " profiles: " + profileIds + " aliveOrPending: " + aliveOrPending
+                    + " aliveAndSuccessful: " + aliveAndSuccessful + '}';
+        }
+    }
+}
@@ -27,7 +27,6 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SortedMap;
@@ -35,7 +34,10 @@ import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -58,7 +60,6 @@ import io.fabric8.api.FabricException;
 import io.fabric8.api.FabricRequirements;
 import io.fabric8.api.FabricService;
 import io.fabric8.api.FabricStatus;
-import io.fabric8.api.NameValidator;
 import io.fabric8.api.NullCreationStateListener;
 import io.fabric8.api.PatchService;
 import io.fabric8.api.PlaceholderResolver;
@@ -82,11 +83,11 @@ import io.fabric8.internal.ProfileDependencyConfig;
 import io.fabric8.internal.ProfileDependencyKind;
 import io.fabric8.utils.DataStoreUtils;
 import io.fabric8.utils.FabricValidations;
+import io.fabric8.utils.NamedThreadFactory;
 import io.fabric8.utils.PasswordEncoder;
 import io.fabric8.api.SystemProperties;
 import io.fabric8.zookeeper.ZkPath;
 import io.fabric8.zookeeper.bootstrap.BootstrapConfiguration;
-import io.fabric8.zookeeper.utils.InterpolationHelper;
 import io.fabric8.zookeeper.utils.ZooKeeperUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.felix.scr.annotations.Activate;
@@ -133,6 +134,12 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
     public static final String REQUIREMENTS_JSON_PATH = "/fabric/configs/io.fabric8.requirements.json";
     public static final String JVM_OPTIONS_PATH = "/fabric/configs/io.fabric8.containers.jvmOptions";
 
+    /**
+     * The property holding the maximum number of containers of a single request which are created concurrently
+     */
+    public static final String CREATE_CONTAINERS_PARALLELISM = "fabric.containers.create.parallelism";
+    private static final int DEFAULT_CREATE_CONTAINERS_PARALLELISM = 8;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(FabricServiceImpl.class);
 
     // Logical Dependencies
@@ -176,6 +183,8 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
     @Reference(referenceInterface = PlaceholderResolver.class, bind = "bindPlaceholderResolver", unbind = "unbindPlaceholderResolver", cardinality = OPTIONAL_MULTIPLE, policy = ReferencePolicy.DYNAMIC)
     private final Map<String, PlaceholderResolver> placeholderResolvers = new ConcurrentHashMap<String, PlaceholderResolver>();
 
+    private final SubstitutionEngine substitutionEngine = new SubstitutionEngine();
+
     @Reference
     private Configurer configurer;
 
@@ -191,6 +200,7 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
     @Deactivate
     void deactivate() {
         deactivateComponent();
+        substitutionEngine.clear();
     }
 
     @Override
@@ -499,7 +509,7 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
             validateProfileDependencies(options);
             ObjectMapper mapper = new ObjectMapper();
             mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            Map optionsMap = mapper.readValue(mapper.writeValueAsString(options), Map.class);
+            Map optionsMap = mapper.convertValue(options, Map.class);
             String versionId = options.getVersion() != null ? options.getVersion() : dataStore.get().getDefaultVersion();
             Set<String> profileIds = options.getProfiles();
             if (profileIds == null || profileIds.isEmpty()) {
@@ -529,8 +539,6 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
             if (orgNumber > 1) {
                 originalName = originalName + "1";
             }
-            final CountDownLatch latch = new CountDownLatch(number);
-            Set<String> ignoreContainerNames = new HashSet<>();
             Container[] containers = getContainers();
 
             // check that there is no container with the given name
@@ -540,68 +548,96 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
                 }
             }
 
-            for (int i = 1; i <= number; i++) {
-                NameValidator validator = Containers.createNameValidator(containers, ignoreContainerNames);
-                final String containerName = Containers.createUniqueContainerName(containers, originalName, validator);
-                ignoreContainerNames.add(containerName);
+            //Check if datastore configuration has been specified and fallback to current container settings.
+            if (!hasValidDataStoreProperties(optionsMap)) {
+                optionsMap.put("dataStoreProperties", profileRegistry.get().getDataStoreProperties());
+            }
+            Class cl = options.getClass().getClassLoader().loadClass(options.getClass().getName() + "$Builder");
+            String zookeeperPassword = PasswordEncoder.encode(getZookeeperPassword());
 
+            // reserve all the names at once, and register the new containers in a single transaction
+            List<CreateContainerOptions> containerOptionsList = new ArrayList<CreateContainerOptions>(number);
+            for (String containerName : Containers.createUniqueContainerNames(containers, originalName, number)) {
                 optionsMap.put("name", containerName);
-
-                //Check if datastore configuration has been specified and fallback to current container settings.
-                if (!hasValidDataStoreProperties(optionsMap)) {
-                    optionsMap.put("dataStoreProperties", profileRegistry.get().getDataStoreProperties());
-                }
-                Class cl = options.getClass().getClassLoader().loadClass(options.getClass().getName() + "$Builder");
-                CreateContainerBasicOptions.Builder builder = (CreateContainerBasicOptions.Builder) mapper.readValue(mapper.writeValueAsString(optionsMap), cl);
+                CreateContainerBasicOptions.Builder builder = (CreateContainerBasicOptions.Builder) mapper.convertValue(optionsMap, cl);
                 //We always want to pass the obfuscated version of the password to the container provider.
-                builder = (CreateContainerBasicOptions.Builder) builder.zookeeperPassword(PasswordEncoder.encode(getZookeeperPassword()));
-                final CreateContainerOptions containerOptions = builder.build();
-                final CreationStateListener containerListener = listener;
-                final FabricService fabricService = this;
-                new Thread("Creating container " + containerName) {
-                    public void run() {
-                        try {
-                            if (dataStore.get().hasContainer(containerName)) {
+                builder = (CreateContainerBasicOptions.Builder) builder.zookeeperPassword(zookeeperPassword);
+                CreateContainerOptions containerOptions = builder.build();
+                if (dataStore.get().hasContainer(containerName)) {
+                    CreateContainerBasicMetadata metadata = new CreateContainerBasicMetadata();
+                    metadata.setContainerName(containerName);
+                    metadata.setCreateOptions(containerOptions);
+                    metadata.setFailure(new IllegalArgumentException("A container with name " + containerName + " already exists."));
+                    metadatas.add(metadata);
+                } else {
+                    containerOptionsList.add(containerOptions);
+                }
+            }
+            if (containerOptionsList.isEmpty()) {
+                return metadatas.toArray(new CreateContainerMetadata[metadatas.size()]);
+            }
+            dataStore.get().createContainerConfigs(containerOptionsList);
+
+            int parallelism = Math.min(getCreateContainersParallelism(), containerOptionsList.size());
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory("fabric8-create-container"));
+            final CountDownLatch latch = new CountDownLatch(containerOptionsList.size());
+            final int total = containerOptionsList.size();
+            final AtomicInteger completed = new AtomicInteger();
+            final CreationStateListener stateListener = listener;
+            final FabricService fabricService = this;
+            try {
+                for (final CreateContainerOptions containerOptions : containerOptionsList) {
+                    final String containerName = containerOptions.getName();
+                    final CreationStateListener containerListener = total > 1 ? new ContainerCreationStateListener(containerName, stateListener) : stateListener;
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            String oldName = Thread.currentThread().getName();
+                            Thread.currentThread().setName("Creating container " + containerName);
+                            try {
+                                CreateContainerMetadata metadata = provider.create(containerOptions, containerListener);
+                                if (metadata.isSuccess()) {
+                                    Container parent = containerOptions.getParent() != null ? getContainer(containerOptions.getParent()) : null;
+                                    //An ensemble server can be created without an existing ensemble.
+                                    //In this case container config will be created by the newly created container.
+                                    //TODO: We need to make sure that this entries are somehow added even to ensemble servers.
+                                    if (!containerOptions.isEnsembleServer()) {
+                                        dataStore.get().createContainerConfig(metadata);
+                                    }
+                                    ContainerImpl container = new ContainerImpl(parent, metadata.getContainerName(), FabricServiceImpl.this);
+                                    metadata.setContainer(container);
+                                    LOGGER.info("The container " + metadata.getContainerName() + " has been successfully created");
+                                } else {
+                                    LOGGER.warn("The creation of the container " + metadata.getContainerName() + " has failed", metadata.getFailure());
+                                    dataStore.get().deleteContainer(fabricService, containerOptions.getName());
+                                }
+                                metadatas.add(metadata);
+                                if (total > 1) {
+                                    stateListener.onStateChange((metadata.isSuccess() ? "Created container " : "Failed to create container ")
+                                            + containerName + " (" + completed.incrementAndGet() + "/" + total + ")");
+                                }
+                            } catch (Throwable t) {
                                 CreateContainerBasicMetadata metadata = new CreateContainerBasicMetadata();
                                 metadata.setContainerName(containerName);
                                 metadata.setCreateOptions(containerOptions);
-                                metadata.setFailure(new IllegalArgumentException("A container with name " + containerName + " already exists."));
+                                metadata.setFailure(t);
                                 metadatas.add(metadata);
-                                return;
-                            }
-                            dataStore.get().createContainerConfig(containerOptions);
-                            CreateContainerMetadata metadata = provider.create(containerOptions, containerListener);
-                            if (metadata.isSuccess()) {
-                                Container parent = containerOptions.getParent() != null ? getContainer(containerOptions.getParent()) : null;
-                                //An ensemble server can be created without an existing ensemble.
-                                //In this case container config will be created by the newly created container.
-                                //TODO: We need to make sure that this entries are somehow added even to ensemble servers.
-                                if (!containerOptions.isEnsembleServer()) {
-                                    dataStore.get().createContainerConfig(metadata);
-                                }
-                                ContainerImpl container = new ContainerImpl(parent, metadata.getContainerName(), FabricServiceImpl.this);
-                                metadata.setContainer(container);
-                                LOGGER.info("The container " + metadata.getContainerName() + " has been successfully created");
-                            } else {
-                                LOGGER.warn("The creation of the container " + metadata.getContainerName() + " has failed", metadata.getFailure());
                                 dataStore.get().deleteContainer(fabricService, containerOptions.getName());
+                                if (total > 1) {
+                                    stateListener.onStateChange("Failed to create container " + containerName + " (" + completed.incrementAndGet() + "/" + total + ")");
+                                }
+                            } finally {
+                                Thread.currentThread().setName(oldName);
+                                latch.countDown();
                             }
-                            metadatas.add(metadata);
-                        } catch (Throwable t) {
-                            CreateContainerBasicMetadata metadata = new CreateContainerBasicMetadata();
-                            metadata.setContainerName(containerName);
-                            metadata.setCreateOptions(containerOptions);
-                            metadata.setFailure(t);
-                            metadatas.add(metadata);
-                            dataStore.get().deleteContainer(fabricService, containerOptions.getName());
-                        } finally {
-                            latch.countDown();
                         }
-                    }
-                }.start();
-            }
-            if (!latch.await(30, TimeUnit.MINUTES)) {
-                throw new FabricException("Timeout waiting for container creation");
+                    });
+                }
+                if (!latch.await(30, TimeUnit.MINUTES)) {
+                    throw new FabricException("Timeout waiting for container creation");
+                }
+            } finally {
+                executor.shutdown();
             }
             return metadatas.toArray(new CreateContainerMetadata[metadatas.size()]);
         } catch (Exception e) {
@@ -610,6 +646,36 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
         }
     }
 
+    private int getCreateContainersParallelism() {
+        String value = runtimeProperties.get().getProperty(CREATE_CONTAINERS_PARALLELISM);
+        if (!Strings.isNullOrEmpty(value)) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid value " + value + " for " + CREATE_CONTAINERS_PARALLELISM + ", using " + DEFAULT_CREATE_CONTAINERS_PARALLELISM);
+            }
+        }
+        return DEFAULT_CREATE_CONTAINERS_PARALLELISM;
+    }
+
+    /**
+     * Prefixes the state changes of a container with its name, when several containers are created at once
+     */
+    private static class ContainerCreationStateListener implements CreationStateListener {
+        private final String containerName;
+        private final CreationStateListener listener;
+
+        ContainerCreationStateListener(String containerName, CreationStateListener listener) {
+            this.containerName = containerName;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onStateChange(String message) {
+            listener.onStateChange(containerName + ": " + message);
+        }
+    }
+
     protected void validateProfileDependencies(CreateContainerOptions options) {
         Map<String, Map<String, String>> profileDependencies = Profiles.getOverlayFactoryConfigurations(this, options.getProfiles(), options.getVersion(), ProfileDependencyConfig.PROFILE_DEPENDENCY_CONFIG_PID);
         Set<Map.Entry<String, Map<String, String>>> entries = profileDependencies.entrySet();
@@ -1311,33 +1377,36 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
             throw new FabricException(sb.toString());
         }
 
-        final Map<String, Map<String, String>> mutableConfigurations = new HashMap<>();
-        for (Entry<String, Map<String, String>> entry : configurations.entrySet()) {
-            String key = entry.getKey();
-            Map<String, String> value = new HashMap<>(entry.getValue());
-            mutableConfigurations.put(key, value);
-        }
-        
         final FabricService fabricService = this;
-        for (Map.Entry<String, Map<String, String>> entry : mutableConfigurations.entrySet()) {
-            final String pid = entry.getKey();
-            Map<String, String> props = entry.getValue();
-            for (Map.Entry<String, String> e : props.entrySet()) {
-                final String key = e.getKey();
-                final String value = e.getValue();
-                props.put(key, InterpolationHelper.substVars(value, key, null, props, new InterpolationHelper.SubstitutionCallback() {
-                    public String getValue(String toSubstitute) {
-                        if (toSubstitute != null && toSubstitute.contains(":")) {
-                            String scheme = toSubstitute.substring(0, toSubstitute.indexOf(":"));
-                            return resolversSnapshot.get(scheme).resolve(fabricService, mutableConfigurations, pid, key, toSubstitute);
-                        }
-                        return substituteBundleProperty(toSubstitute, bundleContext);
-                    }
-                }));
+        return substitutionEngine.substitute(configurations, new SubstitutionEngine.Resolver() {
+            @Override
+            public String resolve(Map<String, Map<String, String>> configs, String pid, String key, String toSubstitute) {
+                if (toSubstitute != null && toSubstitute.contains(":")) {
+                    String scheme = toSubstitute.substring(0, toSubstitute.indexOf(":"));
+                    return resolversSnapshot.get(scheme).resolve(fabricService, configs, pid, key, toSubstitute);
+                }
+                return substituteBundleProperty(toSubstitute, bundleContext);
             }
-        }
-        
-        return mutableConfigurations;
+
+            @Override
+            public boolean isCurrent(Map<String, Map<String, String>> configs, String pid, String key, String toSubstitute, String value) {
+                if (toSubstitute == null || !toSubstitute.contains(":")) {
+                    return substituteBundleProperty(toSubstitute, bundleContext).equals(value);
+                }
+                String scheme = toSubstitute.substring(0, toSubstitute.indexOf(":"));
+                switch (scheme) {
+                    case ZookeeperPlaceholderResolver.RESOLVER_SCHEME:
+                    case ProfilePropertyPointerResolver.RESOLVER_SCHEME:
+                        // The zookeeper resolver serves the nodes from a cache invalidated by watches
+                        return value.equals(resolve(configs, pid, key, toSubstitute));
+                    case PortPlaceholderResolver.RESOLVER_SCHEME:
+                        // Registering the port again would return the same port as long as it is still registered
+                        return String.valueOf(getPortService().lookupPort(getCurrentContainer(), pid, key)).equals(value);
+                    default:
+                        return false;
+                }
+            }
+        });
     }
 
     void bindConfigAdmin(ConfigurationAdmin service) {
@@ -1403,9 +1472,11 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
     public void bindPlaceholderResolver(PlaceholderResolver resolver) {
         String resolverScheme = resolver.getScheme();
         placeholderResolvers.put(resolverScheme, resolver);
+        substitutionEngine.clear();
     }
     void unbindPlaceholderResolver(PlaceholderResolver resolver) {
         String resolverScheme = resolver.getScheme();
         placeholderResolvers.remove(resolverScheme);
+        substitutionEngine.clear();
     }
 }
@@ -0,0 +1,193 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import io.fabric8.zookeeper.utils.InterpolationHelper;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Substitutes the placeholders of a set of configurations with the same semantics as
+ * {@link InterpolationHelper#substVars(String, String, Map, Map, InterpolationHelper.SubstitutionCallback)},
+ * but keeps a template for each pid and key. A template records the raw value, the substituted value and the
+ * properties and placeholders it was computed from. The next substitution of the same raw value reuses the result
+ * if the recorded properties are unchanged and the {@link Resolver} confirms every recorded placeholder, so only
+ * the values depending on something that changed are substituted again.
+ */
+final class SubstitutionEngine {
+
+    private static final String PLACEHOLDER_START = "${";
+
+    /**
+     * Resolves the placeholders found in the configurations.
+     */
+    interface Resolver {
+
+        /**
+         * Resolves the placeholder expression found in the value of the key of the pid.
+         */
+        String resolve(Map<String, Map<String, String>> configurations, String pid, String key, String expression);
+
+        /**
+         * Returns true if the expression still resolves to the given value. This method must not have side effects,
+         * placeholders which can not be checked cheaply should return false.
+         */
+        boolean isCurrent(Map<String, Map<String, String>> configurations, String pid, String key, String expression, String value);
+
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Template>> templates = new ConcurrentHashMap<String, ConcurrentMap<String, Template>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns a copy of the configurations with all the placeholders substituted.
+     */
+    Map<String, Map<String, String>> substitute(Map<String, Map<String, String>> configurations, Resolver resolver) {
+        Map<String, Map<String, String>> mutableConfigurations = new HashMap<String, Map<String, String>>();
+        for (Map.Entry<String, Map<String, String>> entry : configurations.entrySet()) {
+            mutableConfigurations.put(entry.getKey(), new HashMap<String, String>(entry.getValue()));
+        }
+        for (Map.Entry<String, Map<String, String>> entry : mutableConfigurations.entrySet()) {
+            String pid = entry.getKey();
+            Map<String, String> props = entry.getValue();
+            ConcurrentMap<String, Template> pidTemplates = templates.get(pid);
+            if (pidTemplates == null) {
+                pidTemplates = new ConcurrentHashMap<String, Template>();
+                ConcurrentMap<String, Template> existing = templates.putIfAbsent(pid, pidTemplates);
+                if (existing != null) {
+                    pidTemplates = existing;
+                }
+            }
+            for (Map.Entry<String, String> e : props.entrySet()) {
+                String key = e.getKey();
+                String value = e.getValue();
+                if (value == null) {
+                    continue;
+                }
+                Template template = pidTemplates.get(key);
+                if (template != null && template.isCurrent(value, mutableConfigurations, pid, key, props, resolver)) {
+                    hits.incrementAndGet();
+                } else {
+                    misses.incrementAndGet();
+                    template = Template.create(value, mutableConfigurations, pid, key, props, resolver);
+                    if (template.cacheable) {
+                        pidTemplates.put(key, template);
+                    } else {
+                        pidTemplates.remove(key);
+                    }
+                }
+                e.setValue(template.result);
+            }
+        }
+        return mutableConfigurations;
+    }
+
+    /**
+     * Discards all the templates.
+     */
+    void clear() {
+        templates.clear();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private static final class Template {
+
+        private final String value;
+        private final String result;
+        // The properties of the pid and the placeholders read while substituting, with the value they had
+        private final Map<String, String> properties;
+        private final Map<String, String> placeholders;
+        private final boolean cacheable;
+
+        private Template(String value, String result, Map<String, String> properties, Map<String, String> placeholders, boolean cacheable) {
+            this.value = value;
+            this.result = result;
+            this.properties = properties;
+            this.placeholders = placeholders;
+            this.cacheable = cacheable;
+        }
+
+        static Template create(String value, final Map<String, Map<String, String>> configurations, final String pid, final String key, final Map<String, String> props, final Resolver resolver) {
+            if (!value.contains(PLACEHOLDER_START)) {
+                // Nothing to resolve, only the escape characters are removed
+                String result = InterpolationHelper.substVars(value, key, null, Collections.<String, String>emptyMap(), null);
+                return new Template(value, result, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap(), true);
+            }
+            final Map<String, String> properties = new HashMap<String, String>();
+            final Map<String, String> placeholders = new HashMap<String, String>();
+            final boolean[] cacheable = {true};
+            Map<String, String> recordingProps = new AbstractMap<String, String>() {
+                @Override
+                public String get(Object name) {
+                    String result = props.get(name);
+                    properties.put((String) name, result);
+                    return result;
+                }
+
+                @Override
+                public Set<Entry<String, String>> entrySet() {
+                    return props.entrySet();
+                }
+            };
+            String result = InterpolationHelper.substVars(value, key, null, recordingProps, new InterpolationHelper.SubstitutionCallback() {
+                @Override
+                public String getValue(String expression) {
+                    String result = resolver.resolve(configurations, pid, key, expression);
+                    if (result == null) {
+                        // Falls back to the system properties
+                        cacheable[0] = false;
+                    }
+                    placeholders.put(expression, result);
+                    return result;
+                }
+            });
+            return new Template(value, result, properties, placeholders, cacheable[0]);
+        }
+
+        boolean isCurrent(String value, Map<String, Map<String, String>> configurations, String pid, String key, Map<String, String> props, Resolver resolver) {
+            if (!this.value.equals(value)) {
+                return false;
+            }
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (!Objects.equals(props.get(entry.getKey()), entry.getValue())) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, String> entry : placeholders.entrySet()) {
+                if (!resolver.isCurrent(configurations, pid, key, entry.getKey(), entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
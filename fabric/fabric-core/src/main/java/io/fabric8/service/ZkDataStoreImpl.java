@@ -49,10 +49,13 @@ import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,6 +64,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
 import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
@@ -85,6 +90,13 @@ import org.slf4j.LoggerFactory;
 public final class ZkDataStoreImpl extends AbstractComponent implements DataStore, PathChildrenCacheListener {
     
     private static final transient Logger LOGGER = LoggerFactory.getLogger(ZkDataStoreImpl.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The maximum number of nodes written in one transaction, to stay below the maximum request size of ZooKeeper
+     */
+    private static final int MAX_TRANSACTION_NODES = 500;
     
     private static final String JVM_OPTIONS_PATH = "/fabric/configs/io.fabric8.containers.jvmOptions";
     private static final String REQUIREMENTS_JSON_PATH = "/fabric/configs/io.fabric8.requirements.json";
@@ -289,26 +301,124 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public void createContainerConfig(CreateContainerOptions options) {
         assertValid();
         try {
-            String parent = options.getParent();
-            String containerId = options.getName();
-            String versionId = options.getVersion();
-            Set<String> profileIds = options.getProfiles();
-            StringBuilder sb = new StringBuilder();
-            for (String profileId : profileIds) {
-                if (sb.length() > 0) {
-                    sb.append(" ");
-                }
-                sb.append(profileId);
+            for (Map.Entry<String, String> entry : containerConfigData(options).entrySet()) {
+                setData(curator.get(), entry.getKey(), entry.getValue());
             }
-
-            setData(curator.get(), ZkPath.CONFIG_CONTAINER.getPath(containerId), versionId);
-            setData(curator.get(), ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), sb.toString());
-            setData(curator.get(), ZkPath.CONTAINER_PARENT.getPath(containerId), parent);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
     }
 
+    @Override
+    public void createContainerConfigs(List<CreateContainerOptions> options) {
+        assertValid();
+        CuratorFramework curator = this.curator.get();
+        Map<String, String> data = new LinkedHashMap<>();
+        for (CreateContainerOptions containerOptions : options) {
+            data.putAll(containerConfigData(containerOptions));
+        }
+        try {
+            // the children of each directory are read once, instead of checking every node for existence
+            Map<String, Set<String>> children = new HashMap<>();
+            List<Map.Entry<String, String>> entries = new ArrayList<>(data.entrySet());
+            for (int from = 0; from < entries.size(); from += MAX_TRANSACTION_NODES) {
+                List<Map.Entry<String, String>> chunk = entries.subList(from, Math.min(entries.size(), from + MAX_TRANSACTION_NODES));
+                CuratorTransaction transaction = curator.inTransaction();
+                for (Map.Entry<String, String> entry : chunk) {
+                    byte[] value = entry.getValue() != null ? entry.getValue().getBytes(UTF_8) : null;
+                    if (nodeExists(curator, children, entry.getKey())) {
+                        transaction = transaction.setData().forPath(entry.getKey(), value).and();
+                    } else {
+                        transaction = createParents(curator, transaction, entry.getKey(), children);
+                        transaction = transaction.create().forPath(entry.getKey(), value).and();
+                        created(children, entry.getKey());
+                    }
+                }
+                ((CuratorTransactionFinal) transaction).commit();
+            }
+        } catch (Exception e) {
+            // a concurrent change made the transaction fail, fall back to the individual writes
+            LOGGER.debug("Failed to create the configuration of {} containers in a transaction, creating them one by one. {}", options.size(), e.toString());
+            for (CreateContainerOptions containerOptions : options) {
+                createContainerConfig(containerOptions);
+            }
+        }
+    }
+
+    private static CuratorTransaction createParents(CuratorFramework curator, CuratorTransaction transaction, String path, Map<String, Set<String>> children) throws Exception {
+        List<String> parents = new ArrayList<>();
+        for (int idx = path.lastIndexOf('/'); idx > 0; idx = path.lastIndexOf('/', idx - 1)) {
+            String parent = path.substring(0, idx);
+            if (nodeExists(curator, children, parent)) {
+                break;
+            }
+            parents.add(parent);
+        }
+        Collections.reverse(parents);
+        for (String parent : parents) {
+            transaction = transaction.create().forPath(parent, new byte[0]).and();
+            created(children, parent);
+        }
+        return transaction;
+    }
+
+    private static boolean nodeExists(CuratorFramework curator, Map<String, Set<String>> children, String path) throws Exception {
+        int idx = path.lastIndexOf('/');
+        Set<String> siblings = getChildren(curator, children, idx > 0 ? path.substring(0, idx) : "/");
+        return siblings != null && siblings.contains(path.substring(idx + 1));
+    }
+
+    /**
+     * Returns the children of the node, read from the registry only the first time and only when
+     * the node exists, or null when it does not exist
+     */
+    private static Set<String> getChildren(CuratorFramework curator, Map<String, Set<String>> children, String path) throws Exception {
+        if (children.containsKey(path)) {
+            return children.get(path);
+        }
+        Set<String> answer = null;
+        if ("/".equals(path) || nodeExists(curator, children, path)) {
+            try {
+                answer = new HashSet<>(curator.getChildren().forPath(path));
+            } catch (KeeperException.NoNodeException e) {
+                // deleted in the meantime
+            }
+        }
+        children.put(path, answer);
+        return answer;
+    }
+
+    /**
+     * Records a node added to the transaction, whose parent is known to exist
+     */
+    private static void created(Map<String, Set<String>> children, String path) {
+        int idx = path.lastIndexOf('/');
+        children.get(idx > 0 ? path.substring(0, idx) : "/").add(path.substring(idx + 1));
+        children.put(path, new HashSet<String>());
+    }
+
+    /**
+     * Returns the registry nodes and values describing a new container
+     */
+    private static Map<String, String> containerConfigData(CreateContainerOptions options) {
+        String parent = options.getParent();
+        String containerId = options.getName();
+        String versionId = options.getVersion();
+        Set<String> profileIds = options.getProfiles();
+        StringBuilder sb = new StringBuilder();
+        for (String profileId : profileIds) {
+            if (sb.length() > 0) {
+                sb.append(" ");
+            }
+            sb.append(profileId);
+        }
+        Map<String, String> answer = new LinkedHashMap<>();
+        answer.put(ZkPath.CONFIG_CONTAINER.getPath(containerId), versionId);
+        answer.put(ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), sb.toString());
+        answer.put(ZkPath.CONTAINER_PARENT.getPath(containerId), parent);
+        return answer;
+    }
+
     @Override
     public void createContainerConfig(CreateContainerMetadata metadata) {
         assertValid();
@@ -23,8 +23,12 @@ import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.zookeeper.ZkPath;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
@@ -32,9 +36,15 @@ import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Resolves <code>zk:</code> placeholders. The nodes read are kept in a cache together with the values
+ * resolved from them, a watch is left on every cached node and removes it from the cache once it changes.
+ */
 @ThreadSafe
 @Component(name = "io.fabric8.placholder.resolver.zookeeper", label = "Fabric8 ZooKeeper Placeholder Resolver", metatype = false)
 @Service({ PlaceholderResolver.class, ZookeeperPlaceholderResolver.class })
@@ -45,6 +55,26 @@ public final class ZookeeperPlaceholderResolver extends AbstractComponent implem
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ZookeeperPlaceholderResolver.class);
 
+    private final ConcurrentMap<String, CachedNode> nodes = new ConcurrentHashMap<String, CachedNode>();
+    // Incremented by every watch notification, a node read while it changed is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile CuratorFramework cachedCurator;
+
+    private final CuratorWatcher watcher = new CuratorWatcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            invalidations.incrementAndGet();
+            if (event.getType() == Watcher.Event.EventType.None) {
+                // Watches do not survive an expired session and changes may be missed while disconnected
+                if (event.getState() == Watcher.Event.KeeperState.Expired || event.getState() == Watcher.Event.KeeperState.Disconnected) {
+                    nodes.clear();
+                }
+            } else if (event.getPath() != null) {
+                nodes.remove(event.getPath());
+            }
+        }
+    };
+
     @Activate
     void activate() {
         activateComponent();
@@ -53,6 +83,8 @@ public final class ZookeeperPlaceholderResolver extends AbstractComponent implem
     @Deactivate
     void deactivate() {
         deactivateComponent();
+        nodes.clear();
+        cachedCurator = null;
     }
 
     @Override
@@ -63,12 +95,57 @@ public final class ZookeeperPlaceholderResolver extends AbstractComponent implem
     @Override
     public String resolve(FabricService fabricService, Map<String, Map<String, String>> configs, String pid, String key, String value) {
         try {
-            return new String(ZkPath.loadURL(fabricService.adapt(CuratorFramework.class), value), "UTF-8");
-        } catch (KeeperException.NoNodeException e) {
-            LOGGER.warn("Could not load property value: {}. Ignoring.", value, e);
-            return "";
+            CachedNode node = getNode(fabricService.adapt(CuratorFramework.class), ZkPath.getURLPath(value));
+            if (node.data == null) {
+                LOGGER.warn("Could not load property value: {}. Ignoring.", value);
+                return "";
+            }
+            String result = node.values.get(value);
+            if (result == null) {
+                result = new String(ZkPath.loadURL(value, node.data), "UTF-8");
+                node.values.put(value, result);
+            }
+            return result;
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
     }
+
+    private CachedNode getNode(CuratorFramework curator, String path) throws Exception {
+        if (curator != cachedCurator) {
+            nodes.clear();
+            cachedCurator = curator;
+        }
+        CachedNode node = nodes.get(path);
+        if (node == null) {
+            long generation = invalidations.get();
+            byte[] data;
+            try {
+                data = getData(curator, path);
+            } catch (KeeperException.NoNodeException e) {
+                // Watch for the creation of the node, unless it has been created meanwhile
+                data = curator.checkExists().usingWatcher(watcher).forPath(path) != null ? getData(curator, path) : null;
+            }
+            node = new CachedNode(data);
+            if (generation == invalidations.get()) {
+                nodes.put(path, node);
+            }
+        }
+        return node;
+    }
+
+    private byte[] getData(CuratorFramework curator, String path) throws Exception {
+        byte[] data = curator.getData().usingWatcher(watcher).forPath(path);
+        return data != null ? data : new byte[0];
+    }
+
+    private static final class CachedNode {
+        // null if the node does not exist
+        private final byte[] data;
+        private final ConcurrentMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+        private CachedNode(byte[] data) {
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,215 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.internal.autoscale;
+
+import io.fabric8.api.FabricRequirements;
+import io.fabric8.api.ProfileRequirements;
+import io.fabric8.api.SshHostConfiguration;
+import io.fabric8.internal.autoscale.ProfileInstanceCounts.ContainerState;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays random container events against {@link ProfileInstanceCounts} and {@link HostPlacementSolver}
+ * for a large fabric, checking them against a recount from scratch.
+ */
+public class AutoScaleSimulationTest {
+
+    private static final int CONTAINERS = 1000;
+    private static final int HOSTS = 50;
+    private static final int PROFILES = 20;
+    private static final int EVENTS = 20000;
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void testIncrementalCountsMatchRecount() throws Exception {
+        Map<String, ContainerState> containers = new HashMap<>();
+        for (int i = 0; i < CONTAINERS; i++) {
+            ContainerState state = randomState("c" + i);
+            containers.put(state.getId(), state);
+        }
+        ProfileInstanceCounts counts = new ProfileInstanceCounts();
+        counts.reset(containers.values());
+        assertCounts(containers, counts);
+
+        int nextId = CONTAINERS;
+        for (int i = 0; i < EVENTS; i++) {
+            Map<String, int[]> before = recount(containers);
+            Set<String> changed;
+            int action = random.nextInt(10);
+            if (action == 0 && !containers.isEmpty()) {
+                String id = randomId(containers);
+                containers.remove(id);
+                changed = counts.remove(id);
+            } else if (action == 1) {
+                ContainerState state = randomState("c" + nextId++);
+                containers.put(state.getId(), state);
+                changed = counts.update(state);
+            } else if (!containers.isEmpty()) {
+                ContainerState state = randomState(randomId(containers));
+                containers.put(state.getId(), state);
+                changed = counts.update(state);
+            } else {
+                continue;
+            }
+            Map<String, int[]> after = recount(containers);
+            Set<String> profiles = new HashSet<>(before.keySet());
+            profiles.addAll(after.keySet());
+            for (String profile : profiles) {
+                int[] b = before.containsKey(profile) ? before.get(profile) : new int[2];
+                int[] a = after.containsKey(profile) ? after.get(profile) : new int[2];
+                if (a[0] != b[0] || a[1] != b[1]) {
+                    assertTrue("Event " + i + " should report a change of " + profile, changed.contains(profile));
+                }
+            }
+            if (i % 1000 == 0) {
+                assertCounts(containers, counts);
+            }
+        }
+        assertCounts(containers, counts);
+        assertEquals(containers.size(), counts.size());
+    }
+
+    @Test
+    public void testPlacementRespectsHostLimits() throws Exception {
+        FabricRequirements requirements = new FabricRequirements();
+        requirements.sshConfiguration().defaultUsername("root");
+        int capacity = 0;
+        for (int i = 0; i < HOSTS; i++) {
+            int max = 1 + random.nextInt(40);
+            capacity += max;
+            requirements.sshHost("host" + i).hostName("host" + i).maximumContainerCount(max);
+        }
+        List<SshHostConfiguration> hosts = requirements.getSshConfiguration().getHosts();
+        HostProfileCounter counter = new HostProfileCounter();
+        HostPlacementSolver solver = new HostPlacementSolver();
+
+        int placed = 0;
+        for (int p = 0; p < PROFILES; p++) {
+            ProfileRequirements profile = requirements.profile("profile" + p);
+            if (p % 2 == 0) {
+                profile.maximumInstancesPerHost(1 + random.nextInt(3));
+            }
+            int count = 1 + random.nextInt(100);
+            List<LoadSortedHostConfiguration<SshHostConfiguration>> answer = solver.place(profile, profile.getSshScalingRequirements(), counter, hosts, count);
+            assertTrue(answer.size() <= count);
+            placed += answer.size();
+            if (profile.getMaximumInstancesPerHost() == null && placed < capacity) {
+                assertEquals("All containers of " + profile.getProfile() + " should be placed", count, answer.size());
+            }
+        }
+        int total = 0;
+        for (SshHostConfiguration host : hosts) {
+            String hostAlias = host.getHostName();
+            int containers = counter.containerCount(hostAlias);
+            assertTrue("Host " + hostAlias + " has too many containers", containers <= host.getMaximumContainerCount());
+            total += containers;
+            for (int p = 0; p < PROFILES; p++) {
+                Integer maximum = requirements.getOrCreateProfileRequirement("profile" + p).getMaximumInstancesPerHost();
+                if (maximum != null) {
+                    assertTrue(counter.profileCount(hostAlias, "profile" + p) <= maximum);
+                }
+            }
+        }
+        assertEquals(placed, total);
+    }
+
+    @Test
+    public void testPackFillsHostsInOrder() throws Exception {
+        FabricRequirements requirements = new FabricRequirements();
+        requirements.sshConfiguration().defaultUsername("root");
+        for (int i = 0; i < 4; i++) {
+            requirements.sshHost("host" + i).hostName("host" + i).maximumContainerCount(3);
+        }
+        List<SshHostConfiguration> hosts = requirements.getSshConfiguration().getHosts();
+        ProfileRequirements profile = requirements.profile("profile");
+
+        HostProfileCounter spread = new HostProfileCounter();
+        new HostPlacementSolver().place(profile, null, spread, hosts, 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1, spread.containerCount("host" + i));
+        }
+
+        HostProfileCounter pack = new HostProfileCounter();
+        new HostPlacementSolver(HostPlacementSolver.Strategy.PACK).place(profile, null, pack, hosts, 4);
+        assertEquals(3, pack.containerCount("host0"));
+        assertEquals(1, pack.containerCount("host1"));
+        assertEquals(0, pack.containerCount("host2"));
+    }
+
+    private ContainerState randomState(String id) {
+        List<String> profiles = new ArrayList<>();
+        int size = 1 + random.nextInt(3);
+        for (int i = 0; i < size; i++) {
+            String profile = "profile" + random.nextInt(PROFILES);
+            if (!profiles.contains(profile)) {
+                profiles.add(profile);
+            }
+        }
+        boolean aliveOrPending = random.nextInt(5) != 0;
+        boolean aliveAndSuccessful = aliveOrPending && random.nextBoolean();
+        return new ContainerState(id, profiles, aliveOrPending, aliveAndSuccessful);
+    }
+
+    private String randomId(Map<String, ContainerState> containers) {
+        List<String> ids = new ArrayList<>(containers.keySet());
+        Collections.sort(ids);
+        return ids.get(random.nextInt(ids.size()));
+    }
+
+    private static Map<String, int[]> recount(Map<String, ContainerState> containers) {
+        Map<String, int[]> answer = new HashMap<>();
+        for (ContainerState state : containers.values()) {
+            for (String profile : state.getProfileIds()) {
+                int[] count = answer.get(profile);
+                if (count == null) {
+                    count = new int[2];
+                    answer.put(profile, count);
+                }
+                if (state.isAliveOrPending()) {
+                    count[0]++;
+                }
+                if (state.isAliveAndSuccessful()) {
+                    count[1]++;
+                }
+            }
+        }
+        return answer;
+    }
+
+    private static void assertCounts(Map<String, ContainerState> containers, ProfileInstanceCounts counts) {
+        Map<String, int[]> expected = recount(containers);
+        for (int p = 0; p < PROFILES; p++) {
+            String profile = "profile" + p;
+            int[] count = expected.containsKey(profile) ? expected.get(profile) : new int[2];
+            assertEquals("alive or pending " + profile, count[0], counts.aliveOrPendingCount(profile));
+            assertEquals("alive and successful " + profile, count[1], counts.aliveAndSuccessfulCount(profile));
+            assertEquals(count[0], counts.aliveOrPendingContainerIds(profile).size());
+        }
+    }
+}
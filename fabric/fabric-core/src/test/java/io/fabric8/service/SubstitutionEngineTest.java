@@ -0,0 +1,169 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import io.fabric8.zookeeper.utils.InterpolationHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SubstitutionEngineTest {
+
+    private final Map<String, String> nodes = new HashMap<>();
+    private int reads;
+    private SubstitutionEngine engine;
+    private SubstitutionEngine.Resolver resolver;
+
+    @Before
+    public void setUp() {
+        nodes.clear();
+        reads = 0;
+        engine = new SubstitutionEngine();
+        resolver = new SubstitutionEngine.Resolver() {
+            @Override
+            public String resolve(Map<String, Map<String, String>> configurations, String pid, String key, String expression) {
+                if (expression.startsWith("zk:")) {
+                    reads++;
+                    String value = nodes.get(expression.substring(3));
+                    return value != null ? value : "";
+                } else if (expression.startsWith("profile:")) {
+                    String[] parts = expression.substring(8).split("/");
+                    Map<String, String> props = configurations.get(parts[0]);
+                    return props != null && props.containsKey(parts[1]) ? props.get(parts[1]) : "";
+                } else if (expression.startsWith("volatile:")) {
+                    return expression.substring(9);
+                }
+                return "bundle-" + expression;
+            }
+
+            @Override
+            public boolean isCurrent(Map<String, Map<String, String>> configurations, String pid, String key, String expression, String value) {
+                if (expression.startsWith("zk:")) {
+                    String current = nodes.get(expression.substring(3));
+                    return value.equals(current != null ? current : "");
+                } else if (expression.startsWith("volatile:")) {
+                    return false;
+                }
+                return value.equals(resolve(configurations, pid, key, expression));
+            }
+        };
+    }
+
+    @Test
+    public void testSameResultAsInterpolationHelper() {
+        nodes.put("/a", "alpha");
+        nodes.put("/b", "${zk:/a}-beta");
+        Map<String, Map<String, String>> configurations = new HashMap<>();
+        Map<String, String> pid1 = new HashMap<>();
+        pid1.put("plain", "value");
+        pid1.put("escaped", "a\\{b\\}");
+        pid1.put("zk", "${zk:/a}");
+        pid1.put("nested", "x ${zk:/b} y");
+        pid1.put("local", "${plain}/${zk}");
+        pid1.put("bundle", "${karaf.home}/etc");
+        pid1.put("missing", "${zk:/none}!");
+        pid1.put("name", "${zk:${plain}}");
+        configurations.put("pid1", pid1);
+        Map<String, String> pid2 = new HashMap<>();
+        pid2.put("pointer", "${profile:pid1/plain}");
+        pid2.put("volatile", "${volatile:v}");
+        configurations.put("pid2", pid2);
+
+        Map<String, Map<String, String>> expected = substituteWithInterpolationHelper(configurations);
+        assertEquals(expected, engine.substitute(configurations, resolver));
+        assertEquals(expected, engine.substitute(configurations, resolver));
+        assertEquals(expected.get("pid1").get("nested"), "x alpha-beta y");
+    }
+
+    @Test
+    public void testRepeatedSubstitutionIsServedFromTemplates() {
+        Map<String, Map<String, String>> configurations = createConfigurations(500);
+        Map<String, Map<String, String>> first = engine.substitute(configurations, resolver);
+        int firstReads = reads;
+        assertEquals(1000, firstReads);
+
+        reads = 0;
+        assertEquals(first, engine.substitute(configurations, resolver));
+        assertEquals(0, reads);
+        assertEquals(1500, engine.getHits());
+    }
+
+    @Test
+    public void testChangeOnlyResolvesDependentValues() {
+        Map<String, Map<String, String>> configurations = createConfigurations(500);
+        engine.substitute(configurations, resolver);
+        long misses = engine.getMisses();
+
+        nodes.put("/shared", "changed");
+        reads = 0;
+        Map<String, Map<String, String>> result = engine.substitute(configurations, resolver);
+        assertEquals("changed:pid7", result.get("pid7").get("address"));
+        // Every value reading the shared node is substituted again, the other ones are reused
+        assertEquals(500, engine.getMisses() - misses);
+        assertEquals(500, reads);
+        assertEquals(substituteWithInterpolationHelper(configurations), result);
+    }
+
+    @Test
+    public void testChangedPropertyInvalidatesTemplate() {
+        Map<String, Map<String, String>> configurations = createConfigurations(1);
+        engine.substitute(configurations, resolver);
+        configurations.get("pid0").put("name", "renamed");
+        Map<String, Map<String, String>> result = engine.substitute(configurations, resolver);
+        assertEquals("shared:renamed", result.get("pid0").get("address"));
+    }
+
+    private Map<String, Map<String, String>> createConfigurations(int count) {
+        nodes.put("/shared", "shared");
+        Map<String, Map<String, String>> configurations = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String pid = "pid" + i;
+            nodes.put("/pids/" + pid, "port-" + i);
+            Map<String, String> props = new HashMap<>();
+            props.put("name", pid);
+            props.put("address", "${zk:/shared}:${name}");
+            props.put("port", "${zk:/pids/" + pid + "}");
+            configurations.put(pid, props);
+        }
+        return configurations;
+    }
+
+    private Map<String, Map<String, String>> substituteWithInterpolationHelper(Map<String, Map<String, String>> configurations) {
+        final Map<String, Map<String, String>> mutableConfigurations = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : configurations.entrySet()) {
+            mutableConfigurations.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        for (Map.Entry<String, Map<String, String>> entry : mutableConfigurations.entrySet()) {
+            final String pid = entry.getKey();
+            Map<String, String> props = entry.getValue();
+            for (Map.Entry<String, String> e : props.entrySet()) {
+                final String key = e.getKey();
+                props.put(key, InterpolationHelper.substVars(e.getValue(), key, null, props, new InterpolationHelper.SubstitutionCallback() {
+                    @Override
+                    public String getValue(String toSubstitute) {
+                        return resolver.resolve(mutableConfigurations, pid, key, toSubstitute);
+                    }
+                }));
+            }
+        }
+        return mutableConfigurations;
+    }
+}
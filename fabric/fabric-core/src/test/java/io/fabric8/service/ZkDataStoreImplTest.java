@@ -0,0 +1,187 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.fabric8.api.CreateChildContainerOptions;
+import io.fabric8.api.CreateContainerOptions;
+import io.fabric8.api.RuntimeProperties;
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerConfig;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ZkDataStoreImplTest {
+
+    private NIOServerCnxnFactory cnxnFactory;
+    private CuratorFramework curator;
+    private ZkDataStoreImpl dataStore;
+
+    /**
+     * Calls made on the curator by the test thread, leaving out the ones of the caches
+     */
+    private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+    @Before
+    public void init() throws Exception {
+        int port = findFreePort();
+        cnxnFactory = startZooKeeper(port);
+
+        curator = CuratorFrameworkFactory.builder()
+                .connectString("localhost:" + port)
+                .retryPolicy(new RetryOneTime(1000))
+                .build();
+        curator.start();
+        curator.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        RuntimeProperties runtimeProperties = Mockito.mock(RuntimeProperties.class);
+        Mockito.when(runtimeProperties.getRuntimeIdentity()).thenReturn("root");
+
+        dataStore = new ZkDataStoreImpl();
+        dataStore.bindCurator(countingCurator(curator, Thread.currentThread()));
+        dataStore.bindRuntimeProperties(runtimeProperties);
+        dataStore.activate();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        dataStore.deactivate();
+        curator.close();
+        cnxnFactory.shutdown();
+    }
+
+    @Test
+    public void createContainerConfigsInChunks() throws Exception {
+        // 3 nodes per container, so 700 containers need 2100 nodes, and 5 transactions of at most 500 nodes
+        List<CreateContainerOptions> options = createOptions(700);
+        calls.clear();
+        dataStore.createContainerConfigs(options);
+
+        assertThat(count("inTransaction"), equalTo(5));
+        for (int i = 0; i < 700; i++) {
+            assertContainerConfig("child" + i, "1.0", "default mq-amq");
+        }
+        // the children of each directory are read once, whatever the number of containers
+        assertTrue("Too many round trips: " + calls, count("getChildren") + count("checkExists") <= 20);
+    }
+
+    @Test
+    public void createContainerConfigsUpdatesExistingNodes() throws Exception {
+        curator.create().creatingParentsIfNeeded().forPath("/fabric/configs/containers/child1", "1.1".getBytes("UTF-8"));
+        curator.create().creatingParentsIfNeeded().forPath("/fabric/registry/containers/config/child2/parent", "other".getBytes("UTF-8"));
+        curator.create().creatingParentsIfNeeded().forPath("/fabric/configs/versions/1.0/containers/child3", "".getBytes("UTF-8"));
+
+        dataStore.createContainerConfigs(createOptions(5));
+
+        for (int i = 0; i < 5; i++) {
+            assertContainerConfig("child" + i, "1.0", "default mq-amq");
+        }
+    }
+
+    @Test
+    public void createContainerConfigsWithoutContainers() throws Exception {
+        calls.clear();
+        dataStore.createContainerConfigs(new ArrayList<CreateContainerOptions>());
+
+        assertThat(count("inTransaction"), equalTo(0));
+        assertThat(curator.checkExists().forPath("/fabric/configs/containers"), nullValue());
+    }
+
+    private List<CreateContainerOptions> createOptions(int count) {
+        List<CreateContainerOptions> answer = new ArrayList<CreateContainerOptions>();
+        for (int i = 0; i < count; i++) {
+            answer.add(CreateChildContainerOptions.builder().name("child" + i).parent("root").version("1.0").profiles("default", "mq-amq").build());
+        }
+        return answer;
+    }
+
+    private void assertContainerConfig(String containerId, String version, String profiles) throws Exception {
+        assertThat(new String(curator.getData().forPath("/fabric/configs/containers/" + containerId), "UTF-8"), equalTo(version));
+        assertThat(new String(curator.getData().forPath("/fabric/configs/versions/" + version + "/containers/" + containerId), "UTF-8"), equalTo(profiles));
+        assertThat(new String(curator.getData().forPath("/fabric/registry/containers/config/" + containerId + "/parent"), "UTF-8"), equalTo("root"));
+    }
+
+    private int count(String method) {
+        AtomicInteger count = calls.get(method);
+        return count != null ? count.get() : 0;
+    }
+
+    private CuratorFramework countingCurator(final CuratorFramework curator, final Thread thread) {
+        return (CuratorFramework) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{CuratorFramework.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (Thread.currentThread() == thread) {
+                    calls.putIfAbsent(method.getName(), new AtomicInteger());
+                    calls.get(method.getName()).incrementAndGet();
+                }
+                try {
+                    return method.invoke(curator, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    private int findFreePort() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        int port = ss.getLocalPort();
+        ss.close();
+        return port;
+    }
+
+    private NIOServerCnxnFactory startZooKeeper(int port) throws Exception {
+        String testDirectory = "target/zk-datastore/data" + System.currentTimeMillis();
+        FileUtils.deleteDirectory(new File(testDirectory));
+        ServerConfig cfg = new ServerConfig();
+        cfg.parse(new String[]{Integer.toString(port), testDirectory});
+
+        ZooKeeperServer zkServer = new ZooKeeperServer();
+        FileTxnSnapLog ftxn = new FileTxnSnapLog(new File(cfg.getDataLogDir()), new File(cfg.getDataDir()));
+        zkServer.setTxnLogFactory(ftxn);
+        zkServer.setTickTime(cfg.getTickTime());
+        zkServer.setMinSessionTimeout(cfg.getMinSessionTimeout());
+        zkServer.setMaxSessionTimeout(cfg.getMaxSessionTimeout());
+        NIOServerCnxnFactory cnxnFactory = new NIOServerCnxnFactory();
+        cnxnFactory.configure(cfg.getClientPortAddress(), cfg.getMaxClientCnxns());
+        cnxnFactory.startup(zkServer);
+        return cnxnFactory;
+    }
+}
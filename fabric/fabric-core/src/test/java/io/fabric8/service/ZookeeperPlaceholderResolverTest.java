@@ -0,0 +1,253 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.fabric8.api.FabricService;
+import io.fabric8.zookeeper.ZkPath;
+import io.fabric8.zookeeper.utils.InterpolationHelper;
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerConfig;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Counts the ZooKeeper reads needed to substitute a profile of 500 pids, with the former substitution reading a node
+ * for every placeholder and with the {@link SubstitutionEngine} and the caching {@link ZookeeperPlaceholderResolver}.
+ */
+public class ZookeeperPlaceholderResolverTest {
+
+    public static Logger LOG = LoggerFactory.getLogger(ZookeeperPlaceholderResolverTest.class);
+
+    private static final int PIDS = 500;
+    private static final String ENSEMBLE = "/fabric/test/ensemble.properties";
+
+    private NIOServerCnxnFactory cnxnFactory;
+    private CuratorFramework curator;
+    private CuratorFramework countingCurator;
+    private final AtomicInteger reads = new AtomicInteger();
+    private FabricService fabricService;
+    private ZookeeperPlaceholderResolver resolver;
+
+    @Before
+    public void init() throws Exception {
+        int port = findFreePort();
+        cnxnFactory = startZooKeeper(port);
+
+        curator = CuratorFrameworkFactory.builder()
+                .connectString("localhost:" + port)
+                .retryPolicy(new RetryOneTime(1000))
+                .build();
+        curator.start();
+        curator.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        curator.create().creatingParentsIfNeeded().forPath(ENSEMBLE, "host=zk1\nport=2181".getBytes("UTF-8"));
+        for (int i = 0; i < PIDS; i++) {
+            curator.create().creatingParentsIfNeeded().forPath("/fabric/test/pids/pid" + i, ("value" + i).getBytes("UTF-8"));
+        }
+
+        countingCurator = counting(CuratorFramework.class, curator);
+        fabricService = Mockito.mock(FabricService.class);
+        Mockito.when(fabricService.adapt(CuratorFramework.class)).thenReturn(countingCurator);
+
+        resolver = new ZookeeperPlaceholderResolver();
+        resolver.activate();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        resolver.deactivate();
+        curator.close();
+        cnxnFactory.shutdown();
+    }
+
+    @Test
+    public void countReads() throws Exception {
+        Map<String, Map<String, String>> configurations = createConfigurations();
+
+        reads.set(0);
+        Map<String, Map<String, String>> expected = substituteReadingEveryPlaceholder(configurations);
+        int before = reads.get();
+        LOG.info("Substitution reading every placeholder: {} reads", before);
+        assertThat(before, equalTo(4 * PIDS));
+
+        SubstitutionEngine engine = new SubstitutionEngine();
+        reads.set(0);
+        assertThat(engine.substitute(configurations, engineResolver()), equalTo(expected));
+        int first = reads.get();
+        LOG.info("First substitution with templates: {} reads", first);
+        assertThat(first, equalTo(PIDS + 1));
+
+        reads.set(0);
+        assertThat(engine.substitute(configurations, engineResolver()), equalTo(expected));
+        LOG.info("Repeated substitution with templates: {} reads", reads.get());
+        assertThat(reads.get(), equalTo(0));
+
+        // A change of the ensemble node only substitutes the values depending on it again
+        curator.setData().forPath(ENSEMBLE, "host=zk2\nport=2181".getBytes("UTF-8"));
+        reads.set(0);
+        long misses = engine.getMisses();
+        Map<String, Map<String, String>> result = engine.substitute(configurations, engineResolver());
+        for (int i = 0; i < 50 && result.get("pid0").get("host").equals("zk1"); i++) {
+            Thread.sleep(100);
+            result = engine.substitute(configurations, engineResolver());
+        }
+        // In case the watch fired while the values were substituted
+        result = engine.substitute(configurations, engineResolver());
+        LOG.info("Substitution after a change: {} reads, {} values substituted", reads.get(), engine.getMisses() - misses);
+        assertThat(result.get("pid0").get("url"), equalTo("http://zk2:2181/value0"));
+        assertThat(reads.get(), equalTo(1));
+        assertThat(engine.getMisses() - misses, equalTo((long) 2 * PIDS));
+    }
+
+    private Map<String, Map<String, String>> createConfigurations() {
+        Map<String, Map<String, String>> configurations = new HashMap<>();
+        for (int i = 0; i < PIDS; i++) {
+            Map<String, String> props = new HashMap<>();
+            props.put("name", "pid" + i);
+            props.put("host", "${zk:" + ENSEMBLE + "#host}");
+            props.put("url", "http://${zk:" + ENSEMBLE + "#host}:${zk:" + ENSEMBLE + "#port}/${zk:/fabric/test/pids/${name}}");
+            configurations.put("pid" + i, props);
+        }
+        return configurations;
+    }
+
+    private SubstitutionEngine.Resolver engineResolver() {
+        return new SubstitutionEngine.Resolver() {
+            @Override
+            public String resolve(Map<String, Map<String, String>> configurations, String pid, String key, String expression) {
+                return resolver.resolve(fabricService, configurations, pid, key, expression);
+            }
+
+            @Override
+            public boolean isCurrent(Map<String, Map<String, String>> configurations, String pid, String key, String expression, String value) {
+                return value.equals(resolve(configurations, pid, key, expression));
+            }
+        };
+    }
+
+    private Map<String, Map<String, String>> substituteReadingEveryPlaceholder(Map<String, Map<String, String>> configurations) throws Exception {
+        Map<String, Map<String, String>> result = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : configurations.entrySet()) {
+            Map<String, String> props = new HashMap<>(entry.getValue());
+            for (Map.Entry<String, String> e : props.entrySet()) {
+                props.put(e.getKey(), InterpolationHelper.substVars(e.getValue(), e.getKey(), null, props, new InterpolationHelper.SubstitutionCallback() {
+                    @Override
+                    public String getValue(String key) {
+                        try {
+                            return new String(ZkPath.loadURL(countingCurator, key), "UTF-8");
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }));
+            }
+            result.put(entry.getKey(), props);
+        }
+        return result;
+    }
+
+    /**
+     * Wraps the client so that every node read through getData() or checkExists() is counted.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T counting(Class<T> type, final T delegate) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result;
+                try {
+                    result = method.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                String name = method.getName();
+                if (name.equals("getData") || name.equals("checkExists")) {
+                    return countingReads(method.getReturnType(), result);
+                }
+                return result;
+            }
+        });
+    }
+
+    private Object countingReads(final Class<?> type, final Object delegate) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("forPath")) {
+                    reads.incrementAndGet();
+                }
+                Object result;
+                try {
+                    result = method.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result != null && method.getReturnType().isInterface()) {
+                    return countingReads(method.getReturnType(), result);
+                }
+                return result;
+            }
+        });
+    }
+
+    private int findFreePort() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        int port = ss.getLocalPort();
+        ss.close();
+        return port;
+    }
+
+    private NIOServerCnxnFactory startZooKeeper(int port) throws Exception {
+        String testDirectory = "target/zk-placeholders/data" + System.currentTimeMillis();
+        FileUtils.deleteDirectory(new File(testDirectory));
+        ServerConfig cfg = new ServerConfig();
+        cfg.parse(new String[]{Integer.toString(port), testDirectory});
+
+        ZooKeeperServer zkServer = new ZooKeeperServer();
+        FileTxnSnapLog ftxn = new FileTxnSnapLog(new File(cfg.getDataLogDir()), new File(cfg.getDataDir()));
+        zkServer.setTxnLogFactory(ftxn);
+        zkServer.setTickTime(cfg.getTickTime());
+        zkServer.setMinSessionTimeout(cfg.getMinSessionTimeout());
+        zkServer.setMaxSessionTimeout(cfg.getMaxSessionTimeout());
+        NIOServerCnxnFactory cnxnFactory = new NIOServerCnxnFactory();
+        cnxnFactory.configure(cfg.getClientPortAddress(), cfg.getMaxClientCnxns());
+        cnxnFactory.startup(zkServer);
+        return cnxnFactory;
+    }
+}
@@ -22,13 +22,14 @@ import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class FabricLoadBalanceStrategySupport implements LoadBalanceStrategy {
     private static final transient Log LOG = LogFactory.getLog(FabricLoadBalanceStrategySupport.class);
     protected Group<CxfNodeState> group;
-    protected List<String> alternateAddressList = new CopyOnWriteArrayList<String>();
+    // An immutable snapshot of the addresses, replaced as a whole on every membership change
+    protected volatile List<String> alternateAddressList = Collections.emptyList();
 
     public void setGroup(final Group<CxfNodeState> group) throws Exception {
         this.group = group;
@@ -45,27 +46,26 @@ public abstract class FabricLoadBalanceStrategySupport implements LoadBalanceStr
     }
 
     protected void onUpdate(Group<CxfNodeState> group) {
-        synchronized(alternateAddressList) {
-            alternateAddressList.clear();
-            for (CxfNodeState node : group.members().values()) {
-                if (node.services != null) {
-                    for (String url : node.services) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Added the CXF endpoint address " + url);
-                        }
-                        alternateAddressList.add(url);
+        List<String> addresses = new ArrayList<String>();
+        for (CxfNodeState node : group.members().values()) {
+            if (node.services != null) {
+                for (String url : node.services) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Added the CXF endpoint address " + url);
                     }
+                    addresses.add(url);
                 }
             }
         }
+        alternateAddressList = Collections.unmodifiableList(addresses);
     }
-    
+
     public Group<CxfNodeState> getGroup() {
         return group;
     }
 
     public List<String> getAlternateAddressList() {
-        return new ArrayList<String>(alternateAddressList);
+        return alternateAddressList;
     }
 
 }
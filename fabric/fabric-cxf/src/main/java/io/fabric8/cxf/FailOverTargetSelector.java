@@ -92,7 +92,9 @@ public class FailOverTargetSelector extends LoadBalanceTargetSelector {
         invocation = inProgress.get(key);
 
         boolean failOver = false;
-        if (requiresFailOver(exchange)) {
+        boolean requiresFailOver = requiresFailOver(exchange);
+        reportResult(exchange, requiresFailOver || getException(exchange) != null);
+        if (requiresFailOver) {
             Endpoint failOverTarget = getFailOverTarget(exchange, invocation);
             if (failOverTarget != null) {
                 setEndpoint(failOverTarget);
@@ -152,14 +154,7 @@ public class FailOverTargetSelector extends LoadBalanceTargetSelector {
 
     // Now we just fail over on the exceptions
     protected boolean requiresFailOver(Exchange exchange) {
-        Exception ex = null;
-        if (exchange.getOutMessage().getContent(Exception.class) != null) {
-            ex = exchange.getOutMessage().getContent(Exception.class);
-        } else if (exchange.get(Exception.class) != null) {
-            ex = exchange.get(Exception.class);
-        } else if (exchange.getInFaultMessage() != null) {
-            ex = exchange.getInFaultMessage().getContent(Exception.class);
-        }
+        Exception ex = getException(exchange);
         getLogger().log(Level.FINE,
                         "Check last invoke failed " + ex);
         Throwable curr = ex;
@@ -186,9 +181,15 @@ public class FailOverTargetSelector extends LoadBalanceTargetSelector {
 
         Endpoint failOverTarget = null;
         if (invocation.getAlternateAddresses() == null) {
-            invocation.setAlternateAddresses(getLoadBalanceStrategy().getAlternateAddressList());
-            // Remove the first one as it is used
-            invocation.getAlternateAddresses().remove(0);
+            List<String> alternates = new ArrayList<String>(getLoadBalanceStrategy().getAlternateAddressList());
+            // Remove the one which has been used, the first one if it is unknown
+            String used = (String) exchange.get(SELECTED_ADDRESS);
+            if (used != null) {
+                alternates.remove(used);
+            } else if (!alternates.isEmpty()) {
+                alternates.remove(0);
+            }
+            invocation.setAlternateAddresses(alternates);
         }
         String alternateAddress = null;
         if (invocation.getAlternateAddresses().size() > 0) {
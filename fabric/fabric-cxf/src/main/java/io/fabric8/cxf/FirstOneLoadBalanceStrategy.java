@@ -15,6 +15,8 @@
  */
 package io.fabric8.cxf;
 
+import java.util.List;
+
 /**
  * Always return the first physical address from the locator
  */
@@ -22,12 +24,11 @@ public class FirstOneLoadBalanceStrategy extends FabricLoadBalanceStrategySuppor
 
     @Override
     public String getNextAlternateAddress() {
-        synchronized(alternateAddressList) {
-            if (alternateAddressList.size() > 0) {
-                return alternateAddressList.get(0);
-            } else {
-                throw new IllegalArgumentException("The AlternateAddressList is empty, please fresh the list shortly.");
-            }
+        List<String> addresses = alternateAddressList;
+        if (addresses.size() > 0) {
+            return addresses.get(0);
+        } else {
+            throw new IllegalArgumentException("The AlternateAddressList is empty, please fresh the list shortly.");
         }
     }
 }
@@ -0,0 +1,38 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cxf;
+
+/**
+ * A {@link LoadBalanceStrategy} which is told by the {@link LoadBalanceTargetSelector} the outcome of every
+ * invocation sent to one of its addresses.
+ */
+public interface HealthAwareLoadBalanceStrategy extends LoadBalanceStrategy {
+
+    /**
+     * Called when an invocation sent to the address completed.
+     * @param address   The address the invocation was sent to.
+     * @param latency   The time the invocation took in nanoseconds.
+     */
+    void onSuccess(String address, long latency);
+
+    /**
+     * Called when an invocation sent to the address failed.
+     * @param address   The address the invocation was sent to.
+     * @param latency   The time until the failure in nanoseconds.
+     */
+    void onFailure(String address, long latency);
+
+}
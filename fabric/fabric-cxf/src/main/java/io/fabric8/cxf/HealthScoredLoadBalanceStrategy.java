@@ -0,0 +1,324 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cxf;
+
+import io.fabric8.groups.Group;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the error rate and the latency of every address and picks the healthier of two random addresses.
+ * Failures weigh as a latency penalty fading away with time, so that an avoided address is eventually tried again.
+ * <p/>
+ * An address failing <code>failureThreshold</code> times in a row, having an error rate above
+ * <code>errorRateThreshold</code>, or, when a <code>latencyOutlierFactor</code> is set, being that many times
+ * slower than the median of the addresses is ejected for a backoff period, which doubles with each ejection up to
+ * <code>maxEjectionTime</code>. Ejected addresses are only used when no other address is available, and come
+ * last in the {@link #getAlternateAddressList()} used by the {@link FailOverTargetSelector}, so that retries go
+ * to healthy addresses first.
+ */
+public class HealthScoredLoadBalanceStrategy extends FabricLoadBalanceStrategySupport implements HealthAwareLoadBalanceStrategy {
+    private static final transient Log LOG = LogFactory.getLog(HealthScoredLoadBalanceStrategy.class);
+
+    // Weight of the last invocation in the error rate and the latency
+    private static final double ALPHA = 0.2;
+    // Invocations before the error rate and the latency of an address are trusted
+    private static final int MIN_SAMPLES = 5;
+    // Latency added to the score of an address always failing, so that fast failures don't look healthy
+    private static final double FAILURE_PENALTY = TimeUnit.SECONDS.toNanos(1);
+    // Time after which the failures of an address not invoked anymore weigh about a third in its score
+    private static final double FAILURE_DECAY_TIME = TimeUnit.SECONDS.toNanos(10);
+
+    private final ConcurrentMap<String, AddressHealth> health = new ConcurrentHashMap<String, AddressHealth>();
+
+    private int failureThreshold = 3;
+    private double errorRateThreshold = 0.5;
+    // Disabled by default, a stalled address usually shows as failures once the client times out
+    private double latencyOutlierFactor;
+    private long baseEjectionTime = TimeUnit.SECONDS.toNanos(10);
+    private long maxEjectionTime = TimeUnit.MINUTES.toNanos(5);
+
+    @Override
+    protected void onUpdate(Group<CxfNodeState> group) {
+        super.onUpdate(group);
+        health.keySet().retainAll(alternateAddressList);
+    }
+
+    public String getNextAlternateAddress() {
+        List<String> addresses = alternateAddressList;
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("The AlternateAddressList is empty, please fresh the list shortly.");
+        }
+        long now = System.nanoTime();
+        List<String> available = new ArrayList<String>(addresses.size());
+        for (String address : addresses) {
+            if (!getHealth(address).isEjected(now)) {
+                available.add(address);
+            }
+        }
+        if (available.isEmpty()) {
+            return getOrderedAddresses(addresses, now).get(0);
+        } else if (available.size() == 1) {
+            return available.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        String a = available.get(first);
+        String b = available.get(second);
+        return getHealth(a).getScore(now) <= getHealth(b).getScore(now) ? a : b;
+    }
+
+    /**
+     * Returns the addresses ordered from the healthiest to the least healthy, ejected addresses coming last.
+     */
+    @Override
+    public List<String> getAlternateAddressList() {
+        return Collections.unmodifiableList(getOrderedAddresses(alternateAddressList, System.nanoTime()));
+    }
+
+    public void onSuccess(String address, long latency) {
+        AddressHealth h = health.get(address);
+        if (h != null) {
+            h.record(false, latency, System.nanoTime());
+            checkLatencyOutliers();
+        }
+    }
+
+    public void onFailure(String address, long latency) {
+        AddressHealth h = health.get(address);
+        if (h != null && h.record(true, latency, System.nanoTime()) >= failureThreshold) {
+            eject(address, h, "failed " + failureThreshold + " times in a row");
+        } else if (h != null && h.getSamples() >= MIN_SAMPLES && h.getErrorRate() > errorRateThreshold) {
+            eject(address, h, "has an error rate of " + h.getErrorRate());
+        } else if (h != null) {
+            checkLatencyOutliers();
+        }
+    }
+
+    /**
+     * Returns true if the address is currently ejected.
+     */
+    public boolean isEjected(String address) {
+        AddressHealth h = health.get(address);
+        return h != null && h.isEjected(System.nanoTime());
+    }
+
+    private AddressHealth getHealth(String address) {
+        AddressHealth h = health.get(address);
+        if (h == null) {
+            h = new AddressHealth();
+            AddressHealth existing = health.putIfAbsent(address, h);
+            if (existing != null) {
+                h = existing;
+            }
+        }
+        return h;
+    }
+
+    private List<String> getOrderedAddresses(List<String> addresses, long now) {
+        // Sort on a snapshot as the health of the addresses keeps changing
+        final Map<String, double[]> keys = new HashMap<String, double[]>();
+        for (String address : addresses) {
+            AddressHealth h = getHealth(address);
+            keys.put(address, new double[]{h.getEjectedUntil(now), h.getScore(now)});
+        }
+        List<String> ordered = new ArrayList<String>(addresses);
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                double[] ka = keys.get(a);
+                double[] kb = keys.get(b);
+                // Not ejected first, then the ones coming back first, then the healthiest
+                int answer = Double.compare(ka[0], kb[0]);
+                return answer != 0 ? answer : Double.compare(ka[1], kb[1]);
+            }
+        });
+        return ordered;
+    }
+
+    private void checkLatencyOutliers() {
+        if (latencyOutlierFactor <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        List<String> addresses = alternateAddressList;
+        List<Double> latencies = new ArrayList<Double>(addresses.size());
+        for (String address : addresses) {
+            AddressHealth h = getHealth(address);
+            if (!h.isEjected(now) && h.getSamples() >= MIN_SAMPLES) {
+                latencies.add(h.getLatency());
+            }
+        }
+        if (latencies.size() < 3) {
+            return;
+        }
+        Collections.sort(latencies);
+        double median = latencies.get(latencies.size() / 2);
+        for (String address : addresses) {
+            AddressHealth h = getHealth(address);
+            if (!h.isEjected(now) && h.getSamples() >= MIN_SAMPLES && h.getLatency() > median * latencyOutlierFactor) {
+                eject(address, h, "is " + (long) (h.getLatency() / median) + " times slower than the median");
+            }
+        }
+    }
+
+    private void eject(String address, AddressHealth h, String reason) {
+        // Never eject all the addresses
+        long now = System.nanoTime();
+        int available = 0;
+        for (String other : alternateAddressList) {
+            if (!getHealth(other).isEjected(now)) {
+                available++;
+            }
+        }
+        if (available > 1 && h.eject(now, baseEjectionTime, maxEjectionTime)) {
+            LOG.warn("Ejected the CXF endpoint address " + address + " which " + reason);
+        }
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public double getErrorRateThreshold() {
+        return errorRateThreshold;
+    }
+
+    public void setErrorRateThreshold(double errorRateThreshold) {
+        this.errorRateThreshold = errorRateThreshold;
+    }
+
+    public double getLatencyOutlierFactor() {
+        return latencyOutlierFactor;
+    }
+
+    public void setLatencyOutlierFactor(double latencyOutlierFactor) {
+        this.latencyOutlierFactor = latencyOutlierFactor;
+    }
+
+    public long getBaseEjectionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(baseEjectionTime);
+    }
+
+    /**
+     * Sets the time in milliseconds an address is ejected for the first time.
+     */
+    public void setBaseEjectionTime(long baseEjectionTime) {
+        this.baseEjectionTime = TimeUnit.MILLISECONDS.toNanos(baseEjectionTime);
+    }
+
+    public long getMaxEjectionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxEjectionTime);
+    }
+
+    /**
+     * Sets the maximum time in milliseconds an address is ejected for.
+     */
+    public void setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = TimeUnit.MILLISECONDS.toNanos(maxEjectionTime);
+    }
+
+    private static final class AddressHealth {
+        private int samples;
+        private int consecutiveFailures;
+        private double errorRate;
+        private double latency;
+        private boolean ejected;
+        private long ejectedUntil;
+        private int ejections;
+        private long lastInvocation;
+
+        synchronized int record(boolean failure, long rtt, long now) {
+            samples++;
+            lastInvocation = now;
+            errorRate += ALPHA * ((failure ? 1 : 0) - errorRate);
+            latency = latency == 0 ? rtt : latency + ALPHA * (rtt - latency);
+            consecutiveFailures = failure ? consecutiveFailures + 1 : 0;
+            return consecutiveFailures;
+        }
+
+        synchronized boolean eject(long now, long baseEjectionTime, long maxEjectionTime) {
+            if (isEjected(now)) {
+                return false;
+            }
+            if (ejected && now - ejectedUntil > maxEjectionTime) {
+                // Healthy for long enough, start again with the base ejection time
+                ejections = 0;
+            }
+            long time = baseEjectionTime;
+            for (int i = 0; i < ejections && time < maxEjectionTime; i++) {
+                time *= 2;
+            }
+            ejections++;
+            ejected = true;
+            ejectedUntil = now + Math.min(time, maxEjectionTime);
+            // Start again from a clean state once back, the latency is kept so that a slow address stays last
+            samples = 0;
+            consecutiveFailures = 0;
+            errorRate = 0;
+            return true;
+        }
+
+        synchronized boolean isEjected(long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        /**
+         * Returns 0 if the address is not ejected, otherwise the time in nanoseconds until it comes back.
+         */
+        synchronized long getEjectedUntil(long now) {
+            return isEjected(now) ? ejectedUntil - now : 0;
+        }
+
+        synchronized int getSamples() {
+            return samples;
+        }
+
+        synchronized double getErrorRate() {
+            return errorRate;
+        }
+
+        synchronized double getLatency() {
+            return latency;
+        }
+
+        synchronized double getScore(long now) {
+            // Addresses without any invocation yet get tried first, the failures fade away with time so that an
+            // address which stopped being picked gets another chance
+            double failures = errorRate * Math.exp(-(now - lastInvocation) / FAILURE_DECAY_TIME);
+            return latency + FAILURE_PENALTY * failures;
+        }
+    }
+}
@@ -25,6 +25,9 @@ public interface LoadBalanceStrategy {
 
     Group<CxfNodeState> getGroup();
 
+    /**
+     * Returns the current addresses, as an immutable snapshot.
+     */
     List<String> getAlternateAddressList();
 
     String getNextAlternateAddress();
@@ -36,6 +36,9 @@ public class LoadBalanceTargetSelector extends AbstractConduitSelector {
     protected LoadBalanceStrategy loadBalanceStrategy;
     
     public static final String OVERRIDE_ADDRESS = LoadBalanceTargetSelector.class.getName() + ".OVERRIDE_ADDRESS";
+    // The address the exchange is sent to and when, reported to a HealthAwareLoadBalanceStrategy on completion
+    public static final String SELECTED_ADDRESS = LoadBalanceTargetSelector.class.getName() + ".SELECTED_ADDRESS";
+    public static final String SELECTED_TIME = LoadBalanceTargetSelector.class.getName() + ".SELECTED_TIME";
 
     private static final Logger LOG =
             LogUtils.getL7dLogger(FailOverTargetSelector.class);
@@ -63,6 +66,7 @@ public class LoadBalanceTargetSelector extends AbstractConduitSelector {
     }
 
     public void complete(Exchange exchange) {
+        reportResult(exchange, getException(exchange) != null);
         super.complete(exchange);
         // here we just reset the selectConduit for next around connection
         selectedConduit = null;
@@ -90,10 +94,15 @@ public class LoadBalanceTargetSelector extends AbstractConduitSelector {
         Exchange exchange = message.getExchange();
         EndpointInfo ei = endpoint.getEndpointInfo();
         String address = loadBalanceStrategy.getNextAlternateAddress();
+        String selectedAddress = address;
         if (overrideAddress(message)) {
             // We need to override the Endpoint Address here
             message.put(Message.ENDPOINT_ADDRESS, address);
+        } else if (message.get(Message.ENDPOINT_ADDRESS) != null) {
+            selectedAddress = (String) message.get(Message.ENDPOINT_ADDRESS);
         }
+        exchange.put(SELECTED_ADDRESS, selectedAddress);
+        exchange.put(SELECTED_TIME, System.nanoTime());
         try {
             ConduitInitiatorManager conduitInitiatorMgr = exchange.getBus()
                     .getExtension(ConduitInitiatorManager.class);
@@ -127,6 +136,37 @@ public class LoadBalanceTargetSelector extends AbstractConduitSelector {
         return answer;
     }
 
+    /**
+     * Returns the exception the exchange failed with, or null.
+     */
+    protected Exception getException(Exchange exchange) {
+        if (exchange.getOutMessage() != null && exchange.getOutMessage().getContent(Exception.class) != null) {
+            return exchange.getOutMessage().getContent(Exception.class);
+        } else if (exchange.get(Exception.class) != null) {
+            return exchange.get(Exception.class);
+        } else if (exchange.getInFaultMessage() != null) {
+            return exchange.getInFaultMessage().getContent(Exception.class);
+        }
+        return null;
+    }
+
+    /**
+     * Tells a {@link HealthAwareLoadBalanceStrategy} the outcome of the invocation, only once per selected address.
+     */
+    protected void reportResult(Exchange exchange, boolean failed) {
+        String address = (String) exchange.get(SELECTED_ADDRESS);
+        Long start = (Long) exchange.remove(SELECTED_TIME);
+        if (address != null && start != null && loadBalanceStrategy instanceof HealthAwareLoadBalanceStrategy) {
+            HealthAwareLoadBalanceStrategy strategy = (HealthAwareLoadBalanceStrategy) loadBalanceStrategy;
+            long latency = System.nanoTime() - start;
+            if (failed) {
+                strategy.onFailure(address, latency);
+            } else {
+                strategy.onSuccess(address, latency);
+            }
+        }
+    }
+
     public LoadBalanceStrategy getLoadBalanceStrategy() {
         return loadBalanceStrategy;
     }
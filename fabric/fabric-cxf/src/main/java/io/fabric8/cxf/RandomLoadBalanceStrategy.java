@@ -15,6 +15,7 @@
  */
 package io.fabric8.cxf;
 
+import java.util.List;
 import java.util.Random;
 
 public class RandomLoadBalanceStrategy extends FabricLoadBalanceStrategySupport {
@@ -25,12 +26,11 @@ public class RandomLoadBalanceStrategy extends FabricLoadBalanceStrategySupport
     }
 
     public String getNextAlternateAddress() {
-        synchronized(alternateAddressList) {
-            if (alternateAddressList.size() > 0) {
-                return alternateAddressList.get(random.nextInt(alternateAddressList.size()));
-            } else {
-                throw new IllegalArgumentException("The AlternateAddressList is empty, please fresh the list shortly.");
-            }
+        List<String> addresses = alternateAddressList;
+        if (addresses.size() > 0) {
+            return addresses.get(random.nextInt(addresses.size()));
+        } else {
+            throw new IllegalArgumentException("The AlternateAddressList is empty, please fresh the list shortly.");
         }
     }
 }
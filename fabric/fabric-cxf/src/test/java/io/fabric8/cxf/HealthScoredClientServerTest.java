@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cxf;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.feature.AbstractFeature;
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
+import org.apache.cxf.jaxws.JaxWsServerFactoryBean;
+import org.apache.cxf.message.Message;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@ContextConfiguration(locations = {"HealthScoredContext.xml"})
+public class HealthScoredClientServerTest extends AbstractJUnit4SpringContextTests {
+
+    private static final String FAIL_ADDRESS = "http://localhost:9000/fail/server";
+    private static final String[] ADDRESSES = {FAIL_ADDRESS, "http://localhost:9000/simple/server", "http://localhost:9000/other/server"};
+
+    @Autowired
+    protected Bus bus;
+    @Autowired
+    protected FabricLoadBalancerFeature feature;
+
+    @After
+    public void shutdown() throws Exception {
+        if (applicationContext instanceof DisposableBean) {
+            ((DisposableBean) applicationContext).destroy();
+        }
+    }
+
+    @Test
+    public void testFailingEndpointIsAvoided() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        HealthScoredLoadBalanceStrategy strategy = new HealthScoredLoadBalanceStrategy() {
+            @Override
+            public void onFailure(String address, long latency) {
+                if (FAIL_ADDRESS.equals(address)) {
+                    failures.incrementAndGet();
+                }
+                super.onFailure(address, latency);
+            }
+        };
+        strategy.setBaseEjectionTime(60 * 1000);
+        feature.setLoadBalanceStrategy(strategy);
+
+        for (String address : ADDRESSES) {
+            JaxWsServerFactoryBean factory = new JaxWsServerFactoryBean();
+            factory.setServiceBean(new HelloImpl());
+            factory.setAddress(address);
+            factory.setBus(bus);
+            factory.create();
+        }
+
+        // sleep a while to let the services be published
+        for (int i = 0; i < 100; i++) {
+            if (feature.getLoadBalanceStrategy().getAlternateAddressList().size() == ADDRESSES.length) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(ADDRESSES.length, strategy.getAlternateAddressList().size());
+
+        JaxWsProxyFactoryBean clientFactory = new JaxWsProxyFactoryBean();
+        clientFactory.setServiceClass(Hello.class);
+        // The address is not the actual address that the client will access
+        clientFactory.setAddress("http://someotherplace");
+
+        List<AbstractFeature> features = new ArrayList<AbstractFeature>();
+        features.add(feature);
+        clientFactory.setFeatures(features);
+        // set this interceptor to simulate the Transport level exception
+        List<Interceptor<? extends Message>> outInterceptor = new ArrayList<Interceptor<? extends Message>>();
+        outInterceptor.add(new TransportFailureInterceptor());
+        clientFactory.setOutInterceptors(outInterceptor);
+
+        Hello hello = clientFactory.create(Hello.class);
+        for (int i = 0; i < 30; i++) {
+            assertEquals("Get a wrong response", "Hello", hello.sayHello());
+        }
+
+        // Untried endpoints get picked first, then the failing endpoint is avoided and retried last
+        assertTrue("The failing endpoint has not been tried", failures.get() > 0);
+        assertTrue("Too many invocations sent to the failing endpoint: " + failures.get(), failures.get() <= strategy.getFailureThreshold());
+        List<String> ordered = strategy.getAlternateAddressList();
+        assertEquals(FAIL_ADDRESS, ordered.get(ordered.size() - 1));
+        assertFalse(strategy.isEjected(ADDRESSES[1]));
+        assertFalse(strategy.isEjected(ADDRESSES[2]));
+    }
+
+}
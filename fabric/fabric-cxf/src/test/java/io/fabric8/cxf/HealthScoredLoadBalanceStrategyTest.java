@@ -0,0 +1,222 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cxf;
+
+import io.fabric8.groups.Group;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the ejection and ordering rules of {@link HealthScoredLoadBalanceStrategy}, reporting the outcome of the
+ * invocations directly instead of going through CXF.
+ */
+public class HealthScoredLoadBalanceStrategyTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private HealthScoredLoadBalanceStrategy strategy;
+
+    @Before
+    public void setUp() {
+        strategy = new HealthScoredLoadBalanceStrategy();
+        strategy.setBaseEjectionTime(60 * 1000);
+    }
+
+    @Test
+    public void testConsecutiveFailuresEject() {
+        // Only the failures in a row count here
+        strategy.setErrorRateThreshold(1);
+        update("a", "b", "c");
+        strategy.onFailure("a", MILLIS);
+        strategy.onFailure("a", MILLIS);
+        assertFalse(strategy.isEjected("a"));
+        strategy.onSuccess("a", MILLIS);
+        strategy.onFailure("a", MILLIS);
+        strategy.onFailure("a", MILLIS);
+        assertFalse(strategy.isEjected("a"));
+        strategy.onFailure("a", MILLIS);
+        assertTrue(strategy.isEjected("a"));
+        assertFalse(strategy.isEjected("b"));
+        assertFalse(strategy.isEjected("c"));
+    }
+
+    @Test
+    public void testErrorRateEjects() {
+        update("a", "b", "c");
+        // Never 3 failures in a row, the error rate goes above 0.5 with the 5th invocation
+        strategy.onFailure("a", MILLIS);
+        strategy.onFailure("a", MILLIS);
+        strategy.onSuccess("a", MILLIS);
+        strategy.onFailure("a", MILLIS);
+        assertFalse(strategy.isEjected("a"));
+        strategy.onFailure("a", MILLIS);
+        assertTrue(strategy.isEjected("a"));
+    }
+
+    @Test
+    public void testNeverEjectAll() {
+        update("a", "b");
+        fail("a", 3);
+        assertTrue(strategy.isEjected("a"));
+        fail("b", 10);
+        assertFalse(strategy.isEjected("b"));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", strategy.getNextAlternateAddress());
+        }
+    }
+
+    @Test
+    public void testEjectionBackoff() throws Exception {
+        strategy.setBaseEjectionTime(200);
+        update("a", "b", "c");
+
+        fail("a", 3);
+        assertTrue(strategy.isEjected("a"));
+        Thread.sleep(250);
+        assertFalse(strategy.isEjected("a"));
+
+        // Ejected again, for twice as long
+        fail("a", 3);
+        assertTrue(strategy.isEjected("a"));
+        Thread.sleep(250);
+        assertTrue(strategy.isEjected("a"));
+        Thread.sleep(250);
+        assertFalse(strategy.isEjected("a"));
+    }
+
+    @Test
+    public void testEjectionTimeIsBounded() throws Exception {
+        strategy.setBaseEjectionTime(200);
+        strategy.setMaxEjectionTime(300);
+        update("a", "b", "c");
+
+        fail("a", 3);
+        Thread.sleep(250);
+        fail("a", 3);
+        assertTrue(strategy.isEjected("a"));
+        Thread.sleep(350);
+        assertFalse(strategy.isEjected("a"));
+    }
+
+    @Test
+    public void testEjectedAddressesAreNotPicked() {
+        update("a", "b", "c");
+        fail("a", 3);
+        for (int i = 0; i < 100; i++) {
+            String address = strategy.getNextAlternateAddress();
+            assertTrue(address, address.equals("b") || address.equals("c"));
+        }
+    }
+
+    @Test
+    public void testHealthierAddressIsPicked() {
+        update("a", "b");
+        succeed("a", 10 * MILLIS, 5);
+        succeed("b", MILLIS, 5);
+        // Both addresses are compared every time with only two of them
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", strategy.getNextAlternateAddress());
+        }
+    }
+
+    @Test
+    public void testAlternateAddressOrdering() {
+        update("a", "b", "c", "d");
+        succeed("a", 10 * MILLIS, 5);
+        succeed("b", MILLIS, 5);
+        fail("c", 3);
+        // A single failure weighs more than a slower latency
+        succeed("d", MILLIS, 4);
+        strategy.onFailure("d", MILLIS);
+
+        assertEquals(Arrays.asList("b", "a", "d", "c"), strategy.getAlternateAddressList());
+    }
+
+    @Test
+    public void testLatencyOutliers() {
+        update("a", "b", "c", "d");
+        succeed("a", MILLIS, 5);
+        succeed("b", MILLIS, 5);
+        succeed("c", MILLIS, 5);
+        succeed("d", 10 * MILLIS, 5);
+        assertFalse("Latency outliers are only ejected when enabled", strategy.isEjected("d"));
+
+        strategy.setLatencyOutlierFactor(3);
+        strategy.onSuccess("d", 10 * MILLIS);
+        assertTrue(strategy.isEjected("d"));
+        assertFalse(strategy.isEjected("a"));
+    }
+
+    @Test
+    public void testRemovedAddressIsForgotten() {
+        update("a", "b", "c");
+        fail("a", 3);
+        assertTrue(strategy.isEjected("a"));
+
+        update("b", "c");
+        assertEquals(Arrays.asList("b", "c"), strategy.getAlternateAddressList());
+        update("a", "b", "c");
+        assertFalse(strategy.isEjected("a"));
+    }
+
+    private void fail(String address, int count) {
+        for (int i = 0; i < count; i++) {
+            strategy.onFailure(address, MILLIS);
+        }
+    }
+
+    private void succeed(String address, long latency, int count) {
+        for (int i = 0; i < count; i++) {
+            strategy.onSuccess(address, latency);
+        }
+    }
+
+    /**
+     * Publishes one member per address, and creates their health by listing them as the target selector does.
+     */
+    @SuppressWarnings("unchecked")
+    private void update(String... addresses) {
+        final Map<String, CxfNodeState> members = new LinkedHashMap<String, CxfNodeState>();
+        for (String address : addresses) {
+            CxfNodeState state = new CxfNodeState(address);
+            state.services = new String[]{address};
+            members.put(address, state);
+        }
+        Group<CxfNodeState> group = (Group<CxfNodeState>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Group.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("members".equals(method.getName())) {
+                    return members;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        strategy.onUpdate(group);
+        strategy.getAlternateAddressList();
+    }
+}
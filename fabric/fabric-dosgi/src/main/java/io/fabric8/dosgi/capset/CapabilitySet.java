@@ -19,6 +19,7 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -195,10 +196,26 @@ public class CapabilitySet<C extends Capability>
             // We can short-circuit the AND operation if there are no
             // remaining capabilities.
             List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            Set<C> candidates = getIndexedCandidates(sfs);
+            if (candidates != null)
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                // Only verify the capabilities of the most selective index
+                // instead of evaluating each subfilter against all of them.
+                for (C cap : candidates)
+                {
+                    if (((caps == m_capSet) || caps.contains(cap)) && matchesInternal(cap, sf))
+                    {
+                        matches.add(cap);
+                    }
+                }
+            }
+            else
+            {
+                for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+                {
+                    matches = match(caps, sfs.get(i));
+                    caps = matches;
+                }
             }
         }
         else if (sf.getOperation() == SimpleFilter.OR)
@@ -231,7 +248,10 @@ public class CapabilitySet<C extends Capability>
                 if (existingCaps != null)
                 {
                     matches.addAll(existingCaps);
-                    matches.retainAll(caps);
+                    if (caps != m_capSet)
+                    {
+                        matches.retainAll(caps);
+                    }
                 }
             }
             else
@@ -255,6 +275,45 @@ public class CapabilitySet<C extends Capability>
         return matches;
     }
 
+    /**
+     * Returns the capabilities of the smallest index bucket among the
+     * equality subfilters on an indexed attribute, an empty set if one of
+     * these buckets does not exist, or null if none of the subfilters
+     * can use an index.
+     */
+    private Set<C> getIndexedCandidates(List<SimpleFilter> sfs)
+    {
+        Set<C> candidates = null;
+        for (SimpleFilter sf : sfs)
+        {
+            if (sf.getOperation() == SimpleFilter.EQ)
+            {
+                Map<Object, Set<C>> index = m_indices.get(sf.getName());
+                if (index != null)
+                {
+                    Set<C> existingCaps = index.get(sf.getValue());
+                    if (existingCaps == null)
+                    {
+                        return Collections.emptySet();
+                    }
+                    if ((candidates == null) || (existingCaps.size() < candidates.size()))
+                    {
+                        candidates = existingCaps;
+                    }
+                }
+            }
+            else if (sf.getOperation() == SimpleFilter.AND)
+            {
+                Set<C> nested = getIndexedCandidates((List<SimpleFilter>) sf.getValue());
+                if ((nested != null) && ((candidates == null) || (nested.size() < candidates.size())))
+                {
+                    candidates = nested;
+                }
+            }
+        }
+        return candidates;
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf);
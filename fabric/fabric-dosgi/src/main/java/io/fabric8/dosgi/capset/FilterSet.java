@@ -0,0 +1,290 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.capset;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A set of keyed filters which finds the filters matching a capability,
+ * the counterpart of {@link CapabilitySet}.
+ *
+ * Filters requiring an equality on one of the indexed attributes are only
+ * evaluated against the capabilities carrying that value, the other ones
+ * are evaluated against every capability.
+ */
+public class FilterSet<K>
+{
+    private final Map<String, Map<String, Set<K>>> m_indices;
+    private final Map<K, SimpleFilter> m_filters = new HashMap<K, SimpleFilter>();
+    private final Set<K> m_unindexed = new HashSet<K>();
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    public FilterSet(List<String> indexProps, boolean caseSensitive)
+    {
+        m_indices = (caseSensitive)
+            ? new TreeMap<String, Map<String, Set<K>>>()
+            : new TreeMap<String, Map<String, Set<K>>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
+        {
+            m_indices.put(indexProps.get(i), new HashMap<String, Set<K>>());
+        }
+    }
+
+    /**
+     * Adds or replaces the filter of the given key.
+     */
+    public void put(K key, SimpleFilter sf)
+    {
+        m_lock.writeLock().lock();
+        try
+        {
+            doRemove(key);
+            m_filters.put(key, sf);
+            Map<String, List<String>> terms = getIndexTerms(sf);
+            if (terms == null)
+            {
+                m_unindexed.add(key);
+            }
+            else
+            {
+                for (Map.Entry<String, List<String>> term : terms.entrySet())
+                {
+                    Map<String, Set<K>> index = m_indices.get(term.getKey());
+                    for (String value : term.getValue())
+                    {
+                        Set<K> keys = index.get(value);
+                        if (keys == null)
+                        {
+                            keys = new HashSet<K>();
+                            index.put(value, keys);
+                        }
+                        keys.add(key);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the filter of the given key and returns it, or null if there
+     * was none.
+     */
+    public SimpleFilter remove(K key)
+    {
+        m_lock.writeLock().lock();
+        try
+        {
+            return doRemove(key);
+        }
+        finally
+        {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    private SimpleFilter doRemove(K key)
+    {
+        SimpleFilter sf = m_filters.remove(key);
+        if (sf != null && !m_unindexed.remove(key))
+        {
+            for (Map.Entry<String, List<String>> term : getIndexTerms(sf).entrySet())
+            {
+                Map<String, Set<K>> index = m_indices.get(term.getKey());
+                for (String value : term.getValue())
+                {
+                    Set<K> keys = index.get(value);
+                    if (keys != null)
+                    {
+                        keys.remove(key);
+                        if (keys.isEmpty())
+                        {
+                            index.remove(value);
+                        }
+                    }
+                }
+            }
+        }
+        return sf;
+    }
+
+    public SimpleFilter get(K key)
+    {
+        m_lock.readLock().lock();
+        try
+        {
+            return m_filters.get(key);
+        }
+        finally
+        {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    public int size()
+    {
+        m_lock.readLock().lock();
+        try
+        {
+            return m_filters.size();
+        }
+        finally
+        {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the keys of the filters matching the given capability.
+     */
+    public Set<K> match(Capability cap)
+    {
+        m_lock.readLock().lock();
+        try
+        {
+            Set<K> candidates = new HashSet<K>(m_unindexed);
+            for (Map.Entry<String, Map<String, Set<K>>> entry : m_indices.entrySet())
+            {
+                Map<String, Set<K>> index = entry.getValue();
+                Attribute capAttr = index.isEmpty() ? null : cap.getAttribute(entry.getKey());
+                if (capAttr != null)
+                {
+                    addCandidates(index, capAttr.getValue(), candidates);
+                }
+            }
+            Set<K> matches = new HashSet<K>();
+            for (K key : candidates)
+            {
+                if (CapabilitySet.matches(cap, m_filters.get(key)))
+                {
+                    matches.add(key);
+                }
+            }
+            return matches;
+        }
+        finally
+        {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    private void addCandidates(Map<String, Set<K>> index, Object capValue, Set<K> candidates)
+    {
+        if (capValue.getClass().isArray())
+        {
+            for (int i = 0, len = Array.getLength(capValue); i < len; i++)
+            {
+                addCandidates(index, Array.get(capValue, i), candidates);
+            }
+        }
+        else if (capValue instanceof Collection)
+        {
+            for (Object o : (Collection) capValue)
+            {
+                addCandidates(index, o, candidates);
+            }
+        }
+        else if (capValue instanceof String)
+        {
+            Set<K> keys = index.get(capValue);
+            if (keys != null)
+            {
+                candidates.addAll(keys);
+            }
+        }
+        else
+        {
+            // The filter values are only coerced to the type of the
+            // attribute when matching, so check all the filters on it.
+            for (Set<K> keys : index.values())
+            {
+                candidates.addAll(keys);
+            }
+        }
+    }
+
+    /**
+     * Returns the indexed attribute values one of which a capability must
+     * have to match the given filter, or null if there is no such values.
+     */
+    private Map<String, List<String>> getIndexTerms(SimpleFilter sf)
+    {
+        if (sf.getOperation() == SimpleFilter.EQ)
+        {
+            if (m_indices.containsKey(sf.getName()) && (sf.getValue() instanceof String))
+            {
+                Map<String, List<String>> terms = new LinkedHashMap<String, List<String>>();
+                List<String> values = new ArrayList<String>();
+                values.add((String) sf.getValue());
+                terms.put(sf.getName(), values);
+                return terms;
+            }
+        }
+        else if (sf.getOperation() == SimpleFilter.AND)
+        {
+            // Any of the subfilters will do, pick the first indexed one
+            for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
+            {
+                Map<String, List<String>> terms = getIndexTerms(sub);
+                if (terms != null)
+                {
+                    return terms;
+                }
+            }
+        }
+        else if (sf.getOperation() == SimpleFilter.OR)
+        {
+            // All the subfilters must be indexed
+            Map<String, List<String>> terms = new LinkedHashMap<String, List<String>>();
+            for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
+            {
+                Map<String, List<String>> subTerms = getIndexTerms(sub);
+                if (subTerms == null)
+                {
+                    return null;
+                }
+                for (Map.Entry<String, List<String>> term : subTerms.entrySet())
+                {
+                    List<String> values = terms.get(term.getKey());
+                    if (values == null)
+                    {
+                        terms.put(term.getKey(), term.getValue());
+                    }
+                    else
+                    {
+                        values.addAll(term.getValue());
+                    }
+                }
+            }
+            return terms.isEmpty() ? null : terms;
+        }
+        return null;
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.zookeeper.KeeperException;
 import io.fabric8.dosgi.api.Dispatched;
 import io.fabric8.dosgi.api.SerializationStrategy;
 import io.fabric8.dosgi.capset.CapabilitySet;
+import io.fabric8.dosgi.capset.FilterSet;
 import io.fabric8.dosgi.capset.SimpleFilter;
 import io.fabric8.dosgi.io.ClientInvoker;
 import io.fabric8.dosgi.io.ServerInvoker;
@@ -108,7 +109,7 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
     private final Map<EndpointDescription, Map<Long, ImportRegistration>> importedServices;
 
-    private final Map<ListenerInfo, SimpleFilter> listeners;
+    private final FilterSet<ListenerInfo> listeners;
 
     private final Map<String, SerializationStrategy> serializationStrategies;
 
@@ -133,10 +134,11 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         this.queue = Dispatch.createQueue();
         this.importedServices = new ConcurrentHashMap<EndpointDescription, Map<Long, ImportRegistration>>();
         this.exportedServices = new ConcurrentHashMap<ServiceReference, ExportRegistration>();
-        this.listeners = new ConcurrentHashMap<ListenerInfo, SimpleFilter>();
         this.serializationStrategies = new ConcurrentHashMap<String, SerializationStrategy>();
         this.remoteEndpoints = new CapabilitySet<EndpointDescription>(
                 Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID), false);
+        this.listeners = new FilterSet<ListenerInfo>(
+                Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID), false);
         this.bundleContext = context;
         this.curator = curator;
         this.uri = uri;
@@ -429,11 +431,9 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
                 EndpointDescription endpoint = Utils.getEndpointDescription(new String(event.getData().getData()));
                 remoteEndpoints.addCapability(endpoint);
-                // Check existing listeners
-                for (Map.Entry<ListenerInfo, SimpleFilter> entry : listeners.entrySet()) {
-                    if (CapabilitySet.matches(endpoint, entry.getValue())) {
-                        doImportService(endpoint, entry.getKey());
-                    }
+                // Check the existing listeners which may match
+                for (ListenerInfo listener : listeners.match(endpoint)) {
+                    doImportService(endpoint, listener);
                 }
             }
             break;
@@ -0,0 +1,139 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.capset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.dosgi.impl.EndpointDescription;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Constants;
+
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.ENDPOINT_FRAMEWORK_UUID;
+
+/**
+ * Measures the matching done by the manager with 5000 remote endpoints and 500 service listeners: the listeners
+ * to notify when an endpoint appears, and the endpoints to import when a listener is added, comparing the indexed
+ * lookups with evaluating every filter against every endpoint.
+ * Run the main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterSetBenchmark {
+
+    private static final int ENDPOINTS = 5000;
+    private static final int LISTENERS = 500;
+
+    private List<EndpointDescription> endpoints;
+    private List<SimpleFilter> filters;
+    private CapabilitySet<EndpointDescription> remoteEndpoints;
+    private FilterSet<Integer> listeners;
+    private Map<Integer, SimpleFilter> listenerMap;
+
+    @State(Scope.Thread)
+    public static class Input {
+        int index;
+    }
+
+    @Setup
+    public void setUp() {
+        List<String> index = Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID);
+        remoteEndpoints = new CapabilitySet<EndpointDescription>(index, false);
+        endpoints = new ArrayList<EndpointDescription>();
+        for (int i = 0; i < ENDPOINTS; i++) {
+            EndpointDescription endpoint = FilterSetTest.endpoint(i);
+            endpoints.add(endpoint);
+            remoteEndpoints.addCapability(endpoint);
+        }
+        listeners = new FilterSet<Integer>(index, false);
+        listenerMap = new LinkedHashMap<Integer, SimpleFilter>();
+        filters = new ArrayList<SimpleFilter>();
+        for (int i = 0; i < LISTENERS; i++) {
+            // Same shape as the filters registered by the manager for the service listeners
+            String filter = i % 10 == 0
+                    ? "(region=" + FilterSetTest.region(i % 3) + ")"
+                    : "(" + Constants.OBJECTCLASS + "=" + FilterSetTest.service(i % 50) + ")";
+            SimpleFilter sf = SimpleFilter.parse("(&" + filter + "(!(" + ENDPOINT_FRAMEWORK_UUID + "=fw0)))");
+            filters.add(sf);
+            listeners.put(i, sf);
+            listenerMap.put(i, sf);
+        }
+    }
+
+    @Benchmark
+    public Set<Integer> endpointAdded(Input input) {
+        return listeners.match(endpoints.get(input.index++ % ENDPOINTS));
+    }
+
+    @Benchmark
+    public Set<Integer> endpointAddedFullScan(Input input) {
+        EndpointDescription endpoint = endpoints.get(input.index++ % ENDPOINTS);
+        Set<Integer> matches = new HashSet<Integer>();
+        for (Map.Entry<Integer, SimpleFilter> entry : listenerMap.entrySet()) {
+            if (CapabilitySet.matches(endpoint, entry.getValue())) {
+                matches.add(entry.getKey());
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public Set<EndpointDescription> listenerAdded(Input input) {
+        return remoteEndpoints.match(filters.get(input.index++ % LISTENERS));
+    }
+
+    @Benchmark
+    public Set<EndpointDescription> listenerAddedFullScan(Input input) {
+        SimpleFilter filter = filters.get(input.index++ % LISTENERS);
+        Set<EndpointDescription> matches = new HashSet<EndpointDescription>();
+        for (EndpointDescription endpoint : endpoints) {
+            if (CapabilitySet.matches(endpoint, filter)) {
+                matches.add(endpoint);
+            }
+        }
+        return matches;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(FilterSetBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.capset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import io.fabric8.dosgi.impl.EndpointDescription;
+import io.fabric8.dosgi.impl.Manager;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.ENDPOINT_FRAMEWORK_UUID;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.ENDPOINT_ID;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED_CONFIGS;
+
+public class FilterSetTest {
+
+    private static final List<String> INDEX = Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID);
+
+    private final Random random = new Random(42);
+    private List<EndpointDescription> endpoints;
+    private List<SimpleFilter> filters;
+
+    @Before
+    public void setUp() {
+        endpoints = new ArrayList<EndpointDescription>();
+        for (int i = 0; i < 500; i++) {
+            endpoints.add(endpoint(i));
+        }
+        filters = new ArrayList<SimpleFilter>();
+        for (int i = 0; i < 300; i++) {
+            filters.add(SimpleFilter.parse("(&" + randomFilter() + "(!(" + ENDPOINT_FRAMEWORK_UUID + "=fw0)))"));
+        }
+    }
+
+    @Test
+    public void testMatchListeners() {
+        FilterSet<Integer> listeners = new FilterSet<Integer>(INDEX, false);
+        for (int i = 0; i < filters.size(); i++) {
+            listeners.put(i, filters.get(i));
+        }
+        for (EndpointDescription endpoint : endpoints) {
+            assertEquals(endpoint.toString(), matchingFilters(endpoint), listeners.match(endpoint));
+        }
+
+        // Remove half of the filters and replace some others
+        for (int i = 0; i < filters.size(); i += 2) {
+            assertEquals(filters.get(i), listeners.remove(i));
+            assertNull(listeners.remove(i));
+        }
+        for (int i = 1; i < filters.size(); i += 4) {
+            filters.set(i, SimpleFilter.parse(randomFilter()));
+            listeners.put(i, filters.get(i));
+        }
+        assertEquals(filters.size() / 2, listeners.size());
+        for (EndpointDescription endpoint : endpoints) {
+            Set<Integer> expected = matchingFilters(endpoint);
+            for (int i = 0; i < filters.size(); i += 2) {
+                expected.remove(i);
+            }
+            assertEquals(endpoint.toString(), expected, listeners.match(endpoint));
+        }
+    }
+
+    @Test
+    public void testMatchEndpoints() {
+        CapabilitySet<EndpointDescription> capabilities = new CapabilitySet<EndpointDescription>(INDEX, false);
+        for (EndpointDescription endpoint : endpoints) {
+            capabilities.addCapability(endpoint);
+        }
+        for (int i = 0; i < endpoints.size(); i += 3) {
+            capabilities.removeCapability(endpoints.get(i));
+        }
+        for (SimpleFilter filter : filters) {
+            Set<EndpointDescription> expected = new HashSet<EndpointDescription>();
+            for (int i = 0; i < endpoints.size(); i++) {
+                if (i % 3 != 0 && CapabilitySet.matches(endpoints.get(i), filter)) {
+                    expected.add(endpoints.get(i));
+                }
+            }
+            assertEquals(filter.toString(), expected, capabilities.match(filter));
+        }
+    }
+
+    private Set<Integer> matchingFilters(EndpointDescription endpoint) {
+        Set<Integer> answer = new HashSet<Integer>();
+        for (int i = 0; i < filters.size(); i++) {
+            if (CapabilitySet.matches(endpoint, filters.get(i))) {
+                answer.add(i);
+            }
+        }
+        return answer;
+    }
+
+    private String randomFilter() {
+        switch (random.nextInt(8)) {
+            case 0:
+                return "(" + Constants.OBJECTCLASS + "=" + service(random.nextInt(60)) + ")";
+            case 1:
+                return "(&(" + Constants.OBJECTCLASS + "=" + service(random.nextInt(60)) + ")(region=" + region(random.nextInt(3)) + "))";
+            case 2:
+                return "(|(objectclass=" + service(random.nextInt(60)) + ")(" + Constants.OBJECTCLASS + "=" + service(random.nextInt(60)) + "))";
+            case 3:
+                return "(region=" + region(random.nextInt(3)) + ")";
+            case 4:
+                return "(|(" + Constants.OBJECTCLASS + "=" + service(random.nextInt(60)) + ")(region=" + region(random.nextInt(3)) + "))";
+            case 5:
+                return "(" + ENDPOINT_FRAMEWORK_UUID + "=fw" + random.nextInt(10) + ")";
+            case 6:
+                return "(&(" + Constants.OBJECTCLASS + "=org.example.Common)(weight>=" + random.nextInt(5) + "))";
+            default:
+                return "(&(" + Constants.OBJECTCLASS + "=" + service(random.nextInt(60)) + ")(" + Constants.OBJECTCLASS + "=org.example.Common))";
+        }
+    }
+
+    static EndpointDescription endpoint(int i) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        if (i % 4 == 0) {
+            props.put(Constants.OBJECTCLASS, new String[] { service(i % 50), "org.example.Common" });
+        } else {
+            props.put(Constants.OBJECTCLASS, new String[] { service(i % 50) });
+        }
+        props.put(ENDPOINT_ID, "endpoint" + i);
+        props.put(ENDPOINT_FRAMEWORK_UUID, "fw" + (i % 10));
+        props.put(SERVICE_IMPORTED_CONFIGS, Manager.CONFIG);
+        props.put("region", region(i % 3));
+        props.put("weight", i % 5);
+        return new EndpointDescription(props);
+    }
+
+    static String service(int i) {
+        return "org.example.Service" + i;
+    }
+
+    static String region(int i) {
+        return i == 0 ? "eu" : i == 1 ? "us" : "apac";
+    }
+
+}
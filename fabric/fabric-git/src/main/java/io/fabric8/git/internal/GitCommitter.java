@@ -0,0 +1,225 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stages and commits the changes made by the data store operations.
+ * <p/>
+ * Only the paths reported through {@link #touch(String)} are staged. Commits of the same thread on the same branch
+ * within the batch window amend the previous commit, as long as it has not been pushed, so that bursts of small
+ * profile edits end up in a single commit and a single push. The repository is packed in the background every
+ * <code>maxCommitsWithoutGC</code> commits, without any data store lock.
+ * <p/>
+ * Apart from the background packing, all the methods must be called with the data store write lock.
+ */
+final class GitCommitter {
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(GitCommitter.class);
+
+    private final ExecutorService gcExecutor;
+    private final int maxCommitsWithoutGC;
+    private final Set<String> touchedPaths = new LinkedHashSet<>();
+    private final AtomicBoolean gcRunning = new AtomicBoolean();
+
+    private long batchWindow;
+    private int commitsWithoutGC;
+    private Batch batch;
+    private boolean pushPending;
+
+    GitCommitter(ExecutorService gcExecutor, int maxCommitsWithoutGC) {
+        this.gcExecutor = gcExecutor;
+        this.maxCommitsWithoutGC = maxCommitsWithoutGC;
+    }
+
+    /**
+     * Sets the time in milliseconds during which the commits of a caller are coalesced, 0 to disable batching.
+     */
+    void setBatchWindow(long batchWindow) {
+        this.batchWindow = TimeUnit.MILLISECONDS.toNanos(batchWindow);
+    }
+
+    long getBatchWindow() {
+        return TimeUnit.NANOSECONDS.toMillis(batchWindow);
+    }
+
+    /**
+     * Records a path relative to the root of the repository, which has been added, modified or deleted.
+     */
+    void touch(String path) {
+        touchedPaths.add(path);
+    }
+
+    /**
+     * Stages the touched paths, or the whole working tree if none has been reported and <code>all</code> is true.
+     */
+    void stage(Git git, boolean all) throws GitAPIException {
+        if (touchedPaths.isEmpty()) {
+            if (all) {
+                // git add --all
+                git.add().addFilepattern(".").call();
+            }
+            return;
+        }
+        // git add <paths> && git add --update <paths>, the latter stages the deletions
+        AddCommand add = git.add();
+        AddCommand update = git.add().setUpdate(true);
+        for (String path : touchedPaths) {
+            add.addFilepattern(path);
+            update.addFilepattern(path);
+        }
+        touchedPaths.clear();
+        add.call();
+        update.call();
+    }
+
+    /**
+     * Stages the changes and commits them, or amends the commit of the current batch.
+     *
+     * @param batchable true if the commit may join a batch, which implies that its push can be deferred
+     * @return true if the commit belongs to a batch whose push is pending
+     */
+    boolean commit(Git git, String message, boolean batchable) throws GitAPIException, IOException {
+        stage(git, true);
+        Repository repository = git.getRepository();
+        String branch = repository.getFullBranch();
+        long now = System.nanoTime();
+        if (batchable && batch != null && batch.accepts(branch, repository.resolve(Constants.HEAD), now)) {
+            // git commit --amend -m message
+            String batchMessage = batch.message + "\n" + message;
+            batch.amended(git.commit().setAmend(true).setMessage(batchMessage).call(), batchMessage);
+        } else {
+            // git commit -m message
+            RevCommit commit = git.commit().setMessage(message).call();
+            batch = batchable && batchWindow > 0 ? new Batch(branch, commit, message, now + batchWindow) : null;
+            if (++commitsWithoutGC >= maxCommitsWithoutGC) {
+                commitsWithoutGC = 0;
+                gc(git);
+            }
+        }
+        pushPending |= batch != null;
+        return batch != null;
+    }
+
+    /**
+     * Returns true if a batch of commits has not been pushed yet.
+     */
+    boolean isPushPending() {
+        return pushPending;
+    }
+
+    /**
+     * Called after a push, the pushed commits can't be amended anymore.
+     */
+    void pushed() {
+        batch = null;
+        pushPending = false;
+    }
+
+    /**
+     * Packs the repository in the background, unless it is already being packed or the executor has been shut down.
+     */
+    void gc(final Git git) {
+        if (!gcRunning.compareAndSet(false, true)) {
+            LOGGER.debug("Skip 'git gc' as it is already running");
+            return;
+        }
+        try {
+            gcExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // jgit loads resources with the TCCL, see GitDataStoreImpl.executeInternal()
+                    ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+                    long before = System.currentTimeMillis();
+                    try {
+                        Thread.currentThread().setContextClassLoader(GitCommitter.class.getClassLoader());
+                        Repository repository = git.getRepository();
+                        if (repository instanceof FileRepository) {
+                            // Packing the refs would lock them and make concurrent commits fail, and objects written
+                            // while packing are not pruned as they are more recent than the prune expiry
+                            GC gc = new GC((FileRepository) repository);
+                            gc.repack();
+                            gc.prune(Collections.<ObjectId>emptySet());
+                        } else {
+                            git.gc().call();
+                        }
+                        LOGGER.debug("git gc took " + (System.currentTimeMillis() - before) + " ms.");
+                    } catch (Exception e) {
+                        LOGGER.debug("git gc threw an exception!", e);
+                    } finally {
+                        Thread.currentThread().setContextClassLoader(tccl);
+                        gcRunning.set(false);
+                    }
+                }
+
+                @Override
+                public String toString() {
+                    return "GitGcTask";
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The data store is being deactivated
+            gcRunning.set(false);
+        }
+    }
+
+    /**
+     * The commit of a caller which following commits may amend.
+     */
+    private static final class Batch {
+        private final Thread owner = Thread.currentThread();
+        private final String branch;
+        private final long deadline;
+        private ObjectId commitId;
+        private String message;
+
+        Batch(String branch, RevCommit commit, String message, long deadline) {
+            this.branch = branch;
+            this.deadline = deadline;
+            this.commitId = commit.getId();
+            this.message = message;
+        }
+
+        boolean accepts(String branch, ObjectId head, long now) {
+            return owner == Thread.currentThread() && this.branch.equals(branch) && commitId.equals(head) && now - deadline < 0;
+        }
+
+        void amended(RevCommit commit, String message) {
+            this.commitId = commit.getId();
+            this.message = message;
+        }
+    }
+}
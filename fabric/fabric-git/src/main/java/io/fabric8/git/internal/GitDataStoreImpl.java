@@ -76,9 +76,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
@@ -140,6 +142,7 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     private static final String GIT_GC_ON_LOAD = "gitGcOnLoad";
     private static final int GIT_COMMIT_SHORT_LENGTH = 7;
     private static final int MAX_COMMITS_WITHOUT_GC = 40;
+    private static final long GC_TERMINATION_TIMEOUT = 60;
     private static final long AQUIRE_LOCK_TIMEOUT = 25 * 1000L;
 
     @Reference(referenceInterface = CuratorFramework.class)
@@ -159,13 +162,15 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     private Configurer configurer;
     
     private final ScheduledExecutorService threadPool = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService gcExecutor = Executors.newSingleThreadExecutor();
 
     private final ImportExportHandler importExportHandler = new ImportExportHandler();
     private final GitDataStoreListener gitListener = new GitDataStoreListener();
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final boolean strictLockAssert = true;
+    private final GitCommitter committer = new GitCommitter(gcExecutor, MAX_COMMITS_WITHOUT_GC);
+    private final AtomicBoolean batchPushScheduled = new AtomicBoolean();
 
-    private int commitsWithoutGC = MAX_COMMITS_WITHOUT_GC;
     private Map<String, String> dataStoreProperties;
     private ProxySelector defaultProxySelector;
     private PullPushPolicy pullPushPolicy;
@@ -183,6 +188,8 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     private long gitRemotePollInterval = 60 * 1000L;
     @Property(name = GIT_GC_ON_LOAD, label = "Run Git GC", description = "Whether or not to run Git GC on load of the Git repo", boolValue = false)
     private boolean gitGcOnLoad = false;
+    @Property(name = "gitCommitBatchWindow", label = "Commit Batch Window", description = "The time during which the successive commits of a caller are coalesced into a single commit and push (value in millis, 0 to disable)")
+    private long gitCommitBatchWindow = 0;
     
     private final LoadingCache<String, Version> versionCache = CacheBuilder.newBuilder().build(new VersionCacheLoader());
     private final Set<String> versions = new HashSet<String>();
@@ -204,6 +211,7 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         }
         this.dataStoreProperties = Collections.unmodifiableMap(properties);
         this.pullPushPolicy = new DefaultPullPushPolicy(getGit(), GitHelpers.REMOTE_ORIGIN, gitTimeout);
+        this.committer.setBatchWindow(gitCommitBatchWindow);
 
         // DataStore activation accesses public API that is private by {@link AbstractComponent#assertValid()).
         // We activate the component first and rollback on error
@@ -331,24 +339,8 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         }
 
         if (gitGcOnLoad) {
-            LockHandle writeLock = aquireWriteLock();
-            try {
-                GitOperation<Void> gitop = new GitOperation<Void>() {
-                    public Void call(Git git, GitContext context) throws Exception {
-                            long before = System.currentTimeMillis();
-                            try {
-                                git.gc().call();
-                                LOGGER.debug("git gc took " + ((System.currentTimeMillis() - before)) + " ms.");
-                            } catch (GitAPIException e) {
-                                LOGGER.debug("git gc threw an exception!", e);                    
-                            }
-                            return null;
-                    }
-                };      
-                executeInternal(new GitContext(), null, gitop);
-            } finally {
-                writeLock.unlock();
-            }
+            // Runs in the background without the write lock
+            committer.gc(getGit());
         }
     
         //It is not safe to assume that we will get notified by the ShareCounter, if the component is not activated
@@ -362,16 +354,26 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         
         // Remove the GitListener
         gitService.get().removeGitListener(gitListener);
-        
-        // Shutdown the thread pool
+
+        // Push the pending batch of commits
+        doBatchPush();
+
+        // Shutdown the thread pools
+        gcExecutor.shutdown();
         threadPool.shutdown();
         try {
             // Give some time to the running task to complete.
             if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
                 threadPool.shutdownNow();
             }
+            // A running git gc must not outlive the data store, the repository is closed once it is deactivated
+            if (!gcExecutor.awaitTermination(GC_TERMINATION_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.warn("git gc still running after " + GC_TERMINATION_TIMEOUT + " seconds, interrupting it");
+                gcExecutor.shutdownNow();
+            }
         } catch (InterruptedException ex) {
             threadPool.shutdownNow();
+            gcExecutor.shutdownNow();
             // Preserve interrupt status.
             Thread.currentThread().interrupt();
         } catch (Exception ex) {
@@ -869,7 +871,7 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
                 }
             }
             file.delete();
-            git.rm().addFilepattern(relativePath).call();
+            committer.touch(relativePath);
         }
     }
     
@@ -1000,13 +1002,16 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
 
             T result = operation.call(git, context);
 
+            boolean pushDeferred = false;
             if (context.isRequireCommit()) {
-                doCommit(git, context);
+                pushDeferred = doCommit(git, context);
                 versionCache.invalidateAll();
                 notificationRequired = true;
+            } else {
+                committer.stage(git, false);
             }
 
-            if (context.isRequirePush()) {
+            if (context.isRequirePush() && !pushDeferred) {
                 PushPolicyResult pushResult = doPushInternal(context, getCredentialsProvider());
                 if (!pushResult.getRejectedUpdates().isEmpty()) {
                     Exception gitex = pushResult.getLastException();
@@ -1037,27 +1042,54 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         return profileId;
     }
     
-    private void doCommit(Git git, GitContext context) {
+    /**
+     * Commits the touched paths and returns true if the commit joined a batch, which is pushed later on.
+     */
+    private boolean doCommit(Git git, GitContext context) {
         try {
             String message = context.getCommitMessage();
             IllegalStateAssertion.assertTrue(message.length() > 0, "Empty commit message");
-            
-            // git add --all
-            git.add().addFilepattern(".").call();
-            
-            // git commit -m message
-            git.commit().setMessage(message).call();
 
-            if (--commitsWithoutGC < 0) {
-                commitsWithoutGC = MAX_COMMITS_WITHOUT_GC;
-                LOGGER.debug("Performing 'git gc' after {} commits", MAX_COMMITS_WITHOUT_GC);
-                git.gc().call();
+            boolean batched = committer.commit(git, message, context.isRequirePush());
+            if (batched && batchPushScheduled.compareAndSet(false, true)) {
+                threadPool.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        batchPushScheduled.set(false);
+                        doBatchPush();
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "BatchPushTask";
+                    }
+                }, committer.getBatchWindow(), TimeUnit.MILLISECONDS);
             }
-        } catch (GitAPIException ex) {
+            return batched;
+        } catch (GitAPIException | IOException ex) {
             throw FabricException.launderThrowable(ex);
         }
     }
 
+    private void doBatchPush() {
+        try {
+            LockHandle writeLock = aquireWriteLock();
+            try {
+                if (committer.isPushPending()) {
+                    PushPolicyResult pushResult = doPushInternal(new GitContext(), getCredentialsProvider());
+                    if (!pushResult.getRejectedUpdates().isEmpty()) {
+                        LOGGER.warn("Batch push rejected: " + pushResult.getRejectedUpdates());
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (Throwable e) {
+            LOGGER.debug("Error during batch push due " + e.getMessage(), e);
+            LOGGER.warn("Error during batch push due " + e.getMessage() + ". This exception is ignored.");
+        }
+    }
+
     private void doPullInternal() {
         LockHandle writeLock = aquireWriteLock();
         try {
@@ -1092,7 +1124,12 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     }
 
     private PushPolicyResult doPushInternal(GitContext context, CredentialsProvider credentialsProvider) {
-        return pullPushPolicy.doPush(context, credentialsProvider);
+        try {
+            return pullPushPolicy.doPush(context, credentialsProvider);
+        } finally {
+            // Pushed or not, the commits can't be amended anymore
+            committer.pushed();
+        }
     }
 
     /**
@@ -1122,11 +1159,13 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         return null;
     }
     
-    private void addFiles(Git git, File... files) throws GitAPIException, IOException {
+    /**
+     * Records the files to be staged before the commit
+     */
+    private void addFiles(Git git, File... files) throws IOException {
         File rootDir = GitHelpers.getRootGitDirectory(git);
         for (File file : files) {
-            String relativePath = getFilePattern(rootDir, file);
-            git.add().addFilepattern(relativePath).call();
+            committer.touch(getFilePattern(rootDir, file));
         }
     }
 
@@ -0,0 +1,302 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the staging, the batching and the background packing of the {@link GitCommitter}. The benchmark comparing
+ * 1,000 sequential profile edits committed the former way (git add --all and a synchronous git gc every 40 commits)
+ * with the committer is not part of the build, run it manually.
+ */
+public class GitCommitterTest {
+
+    private static final int PROFILES = 200;
+    private static final int EDITS = 1000;
+    private static final int MAX_COMMITS_WITHOUT_GC = 40;
+
+    private File dir;
+    private Git git;
+    private ExecutorService gcExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/git-committer-test");
+        FileUtils.deleteDirectory(dir);
+        git = Git.init().setDirectory(dir).call();
+        for (int i = 0; i < PROFILES; i++) {
+            writeProfile(i, "initial");
+            write("fabric/profiles/profile" + i + ".profile/io.fabric8.agent.properties", "#Profile:profile" + i + "\n");
+        }
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("Initial commit").call();
+        gcExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gcExecutor.shutdown();
+        gcExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        git.getRepository().close();
+    }
+
+    @Test
+    public void testStagesTouchedPaths() throws Exception {
+        GitCommitter committer = new GitCommitter(gcExecutor, MAX_COMMITS_WITHOUT_GC);
+        committer.touch(writeProfile(0, "changed"));
+        String deleted = "fabric/profiles/profile1.profile/profile1.properties";
+        assertTrue(new File(dir, deleted).delete());
+        committer.touch(deleted);
+        // Not touched, so not committed
+        writeProfile(2, "untouched");
+
+        assertFalse(committer.commit(git, "Update profiles", true));
+
+        assertEquals("changed", read("fabric/profiles/profile0.profile/profile0.properties"));
+        assertNull(read(deleted));
+        assertEquals("initial", read("fabric/profiles/profile2.profile/profile2.properties"));
+    }
+
+    @Test
+    public void testBatchesCommitsOfTheSameCaller() throws Exception {
+        GitCommitter committer = new GitCommitter(gcExecutor, MAX_COMMITS_WITHOUT_GC);
+        committer.setBatchWindow(60 * 1000);
+        RevCommit parent = git.log().call().iterator().next();
+
+        committer.touch(writeProfile(0, "first"));
+        assertTrue(committer.commit(git, "First", true));
+        committer.touch(writeProfile(1, "second"));
+        assertTrue(committer.commit(git, "Second", true));
+        assertTrue(committer.isPushPending());
+
+        RevCommit head = git.log().call().iterator().next();
+        assertEquals(parent, head.getParent(0));
+        assertEquals("First\nSecond", head.getFullMessage());
+        assertEquals("first", read("fabric/profiles/profile0.profile/profile0.properties"));
+        assertEquals("second", read("fabric/profiles/profile1.profile/profile1.properties"));
+
+        // Pushed commits are never amended
+        committer.pushed();
+        committer.touch(writeProfile(2, "third"));
+        assertTrue(committer.commit(git, "Third", true));
+        assertEquals(head, git.log().call().iterator().next().getParent(0));
+    }
+
+    @Test
+    public void testBatchEndsWithTheWindow() throws Exception {
+        GitCommitter committer = new GitCommitter(gcExecutor, MAX_COMMITS_WITHOUT_GC);
+        committer.setBatchWindow(50);
+        RevCommit parent = git.log().call().iterator().next();
+
+        committer.touch(writeProfile(0, "first"));
+        assertTrue(committer.commit(git, "First", true));
+        Thread.sleep(100);
+        committer.touch(writeProfile(1, "second"));
+        assertTrue(committer.commit(git, "Second", true));
+
+        RevCommit head = git.log().call().iterator().next();
+        assertEquals("Second", head.getFullMessage());
+        assertNotEquals(parent, head.getParent(0));
+        assertEquals(parent, head.getParent(0).getParent(0));
+    }
+
+    @Test
+    public void testBatchBelongsToTheCaller() throws Exception {
+        final GitCommitter committer = new GitCommitter(gcExecutor, MAX_COMMITS_WITHOUT_GC);
+        committer.setBatchWindow(60 * 1000);
+        RevCommit parent = git.log().call().iterator().next();
+
+        committer.touch(writeProfile(0, "first"));
+        assertTrue(committer.commit(git, "First", true));
+        // The data store write lock serializes the callers, the other thread runs while this one waits
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    committer.touch(writeProfile(1, "second"));
+                    committer.commit(git, "Second", true);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        other.start();
+        other.join();
+        // Not batchable, such as a commit followed by a push
+        committer.touch(writeProfile(2, "third"));
+        assertFalse(committer.commit(git, "Third", false));
+
+        RevCommit head = git.log().call().iterator().next();
+        assertEquals("Third", head.getFullMessage());
+        assertEquals("Second", head.getParent(0).getFullMessage());
+        assertEquals(parent, head.getParent(0).getParent(0).getParent(0));
+    }
+
+    @Test
+    public void testPacksInTheBackground() throws Exception {
+        GitCommitter committer = new GitCommitter(gcExecutor, 5);
+        File objects = new File(dir, ".git/objects");
+        assertTrue(countLooseObjects(objects) > 0);
+        for (int i = 0; i < 5; i++) {
+            committer.touch(writeProfile(i, "packed " + i));
+            committer.commit(git, "Edit " + i, false);
+        }
+        gcExecutor.shutdown();
+        assertTrue(gcExecutor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(0, countLooseObjects(objects));
+        File[] packs = new File(objects, "pack").listFiles();
+        assertTrue(packs != null && packs.length > 0);
+        // The refs are left loose so that concurrent commits can update them
+        assertFalse(new File(dir, ".git/packed-refs").exists());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("packed " + i, read("fabric/profiles/profile" + i + ".profile/profile" + i + ".properties"));
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark of 3,000 commits, run it manually")
+    public void testProfileEditsBenchmark() throws Exception {
+        Result former = run("git add --all and synchronous gc", null);
+        Result touched = run("touched paths and background gc", 0L);
+        Result batched = run("touched paths, background gc and 50ms batches", 50L);
+        System.out.println(former);
+        System.out.println(touched);
+        System.out.println(batched);
+
+        assertEquals(EDITS, former.commits);
+        assertEquals(EDITS, touched.commits);
+        assertTrue("Edits not coalesced: " + batched.commits, batched.commits < EDITS);
+    }
+
+    private Result run(String name, Long batchWindow) throws Exception {
+        GitCommitter committer = new GitCommitter(gcExecutor, MAX_COMMITS_WITHOUT_GC);
+        if (batchWindow != null) {
+            committer.setBatchWindow(batchWindow);
+        }
+        int commitsWithoutGC = 0;
+        RevCommit start = git.log().call().iterator().next();
+        long maxPause = 0;
+        long before = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) {
+            long editStart = System.nanoTime();
+            String path = writeProfile(i % PROFILES, name + " " + i);
+            if (batchWindow == null) {
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("Edit " + i).call();
+                if (++commitsWithoutGC >= MAX_COMMITS_WITHOUT_GC) {
+                    commitsWithoutGC = 0;
+                    git.gc().call();
+                }
+            } else {
+                committer.touch(path);
+                committer.commit(git, "Edit " + i, true);
+            }
+            maxPause = Math.max(maxPause, System.nanoTime() - editStart);
+        }
+        long elapsed = System.nanoTime() - before;
+        committer.pushed();
+
+        int commits = 0;
+        for (RevCommit commit : git.log().call()) {
+            if (commit.equals(start)) {
+                break;
+            }
+            commits++;
+        }
+        for (int i = EDITS - PROFILES; i < EDITS; i++) {
+            assertEquals(name + " " + i, read("fabric/profiles/profile" + (i % PROFILES) + ".profile/profile" + (i % PROFILES) + ".properties"));
+        }
+        return new Result(name, commits, elapsed, maxPause);
+    }
+
+    private static int countLooseObjects(File objects) {
+        int count = 0;
+        for (File child : objects.listFiles()) {
+            if (child.isDirectory() && child.getName().length() == 2) {
+                count += child.list().length;
+            }
+        }
+        return count;
+    }
+
+    private String writeProfile(int profile, String value) throws IOException {
+        String path = "fabric/profiles/profile" + profile + ".profile/profile" + profile + ".properties";
+        write(path, value);
+        return path;
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the content of the path in the HEAD commit
+     */
+    private String read(String path) throws IOException {
+        Repository repository = git.getRepository();
+        TreeWalk walk = TreeWalk.forPath(repository, path, repository.resolve(Constants.HEAD + "^{tree}"));
+        if (walk == null) {
+            return null;
+        }
+        return new String(repository.open(walk.getObjectId(0)).getBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static final class Result {
+        private final String name;
+        private final int commits;
+        private final long elapsed;
+        private final long maxPause;
+
+        Result(String name, int commits, long elapsed, long maxPause) {
+            this.name = name;
+            this.commits = commits;
+            this.elapsed = elapsed;
+            this.maxPause = maxPause;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d edits in %d commits, %.0f edits/s, worst pause %d ms", name, EDITS, commits,
+                    EDITS * 1e9 / elapsed, TimeUnit.NANOSECONDS.toMillis(maxPause));
+        }
+    }
+}
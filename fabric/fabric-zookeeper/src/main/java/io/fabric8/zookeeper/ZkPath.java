@@ -28,6 +28,7 @@ import io.fabric8.zookeeper.internal.SimplePathTemplate;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Pattern;
@@ -85,8 +86,10 @@ public enum ZkPath {
     CONTAINER                      ("/fabric/registry/containers/config/{container}"),
     CONTAINER_DOMAINS              ("/fabric/registry/containers/domains/{container}"),
     CONTAINER_DOMAIN               ("/fabric/registry/containers/domains/{container}/{domain}"),
+    CONTAINERS_ALIVE               ("/fabric/registry/containers/alive"),
     CONTAINER_ALIVE                ("/fabric/registry/containers/alive/{container}"),
     CONTAINER_PROCESS_ID           ("/fabric/registry/containers/status/{container}/pid"),
+    CONTAINERS_PROVISION           ("/fabric/registry/containers/provision"),
     CONTAINER_PROVISION            ("/fabric/registry/containers/provision/{container}"),
     CONTAINER_PROVISION_LIST       ("/fabric/registry/containers/provision/{container}/list"),
     CONTAINER_PROVISION_CHECKSUMS  ("/fabric/registry/containers/provision/{container}/checksums"),
@@ -191,15 +194,27 @@ public enum ZkPath {
      * Loads a zoo keeper URL content using the provided ZooKeeper client.
      */
     public static byte[] loadURL(CuratorFramework curator, String url) throws Exception {
-        URI uri = new URI(url);
-        String ref = uri.getFragment();
-        String path = uri.getSchemeSpecificPart();
-        path = path.trim();
+        return loadURL(url, curator.getData().forPath(getURLPath(url)));
+    }
+
+    /**
+     * Returns the path of the node a zoo keeper URL points to.
+     */
+    public static String getURLPath(String url) throws URISyntaxException {
+        String path = new URI(url).getSchemeSpecificPart().trim();
         if( !path.startsWith("/") ) {
             path = ZkPath.CONTAINER.getPath(path);
         }
+        return path;
+    }
 
-        byte rc [] = curator.getData().forPath(path);
+    /**
+     * Extracts the content of a zoo keeper URL from the data of the node it points to.
+     */
+    public static byte[] loadURL(String url, byte[] data) throws Exception {
+        String ref = new URI(url).getFragment();
+        String path = getURLPath(url);
+        byte rc [] = data;
         if( ref!=null ) {
             if( path.endsWith(".properties") ) {
                 Properties properties = new Properties();
@@ -372,7 +372,7 @@ public final class ZooKeeperUtils {
         if (normalized != null && exists(curator, normalized) != null) {
             byte[] data = ZkPath.loadURL(curator, path);
             if (data != null && data.length > 0) {
-                String str = new String(ZkPath.loadURL(curator, path), "UTF-8");
+                String str = new String(data, "UTF-8");
                 return getSubstitutedData(curator, str);
             }
         }
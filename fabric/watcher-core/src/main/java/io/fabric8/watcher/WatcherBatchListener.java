@@ -0,0 +1,30 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.watcher;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+
+/**
+ * A {@link WatcherListener} which is notified once per batch of changes rather than once per path
+ */
+public interface WatcherBatchListener extends WatcherListener {
+    /**
+     * Fired when a batch of paths have changed, with the last event kind of each path
+     */
+    void onWatchEvents(Map<Path, WatchEvent.Kind> events);
+}
@@ -17,6 +17,7 @@ package io.fabric8.watcher.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -30,13 +31,17 @@ import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import io.fabric8.watcher.Processor;
 import io.fabric8.watcher.matchers.Matchers;
@@ -52,6 +57,11 @@ import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 /**
  * A File watching service
+ * <p>
+ * Events are merged per path until no event has been received for the quiet period, then the
+ * resulting batch is delivered at once.  Files which have not changed since they were last processed
+ * are dropped from the batch: their size and modification time are compared first, and their content
+ * is only read when the size is the same but the modification time is not conclusive.
  */
 public class FileWatcher extends WatcherSupport {
 
@@ -68,6 +78,18 @@ public class FileWatcher extends WatcherSupport {
     private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
     private volatile long lastModified;
     private final Map<Path, Boolean> processedMap = new ConcurrentHashMap<Path, Boolean>();
+    private final Map<Path, Fingerprint> fingerprints = new ConcurrentHashMap<Path, Fingerprint>();
+    private long quietPeriod = 250;
+    private long maxBatchDelay = 5000;
+
+    // only accessed from the event processing thread
+    private final Map<Path, WatchEvent.Kind> pending = new LinkedHashMap<Path, WatchEvent.Kind>();
+    private long firstPendingTime;
+    private long lastPendingTime;
+
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong eventsUnchanged = new AtomicLong();
+    private final AtomicLong batchesDelivered = new AtomicLong();
 
     public void init() throws IOException {
         if (root == null) {
@@ -128,6 +150,27 @@ public class FileWatcher extends WatcherSupport {
         return lastModified;
     }
 
+    /**
+     * The number of watch events received from the file system
+     */
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    /**
+     * The number of changed files dropped as their content was the same as when last processed
+     */
+    public long getEventsUnchanged() {
+        return eventsUnchanged.get();
+    }
+
+    /**
+     * The number of batches of changes delivered to the listeners and processor
+     */
+    public long getBatchesDelivered() {
+        return batchesDelivered.get();
+    }
+
     // Properties
     //-------------------------------------------------------------------------
 
@@ -198,6 +241,29 @@ public class FileWatcher extends WatcherSupport {
         this.fileMatcher = fileMatcher;
     }
 
+    public long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * Sets the time in milliseconds without any event after which the pending changes are delivered,
+     * a value of zero delivers each event as soon as it is received
+     */
+    public void setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    public long getMaxBatchDelay() {
+        return maxBatchDelay;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a change waits for the quiet period when events keep coming
+     */
+    public void setMaxBatchDelay(long maxBatchDelay) {
+        this.maxBatchDelay = maxBatchDelay;
+    }
+
     public ExecutorService getExecutor() {
         return executor;
     }
@@ -236,7 +302,17 @@ public class FileWatcher extends WatcherSupport {
         while (true) {
             WatchKey key;
             try {
-                key = watcher.take();
+                if (pending.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    long now = System.currentTimeMillis();
+                    long wait = Math.min(lastPendingTime + quietPeriod, firstPendingTime + maxBatchDelay) - now;
+                    key = wait > 0 ? watcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        flush();
+                        continue;
+                    }
+                }
             } catch (InterruptedException e) {
                 return;
             }
@@ -258,28 +334,42 @@ public class FileWatcher extends WatcherSupport {
                 Path child = dir.resolve(name);
 
                 LOGGER.debug("Processing event {} on path {}", kind, child);
+                eventsReceived.incrementAndGet();
 
                 if (kind == OVERFLOW) {
 //                    rescan();
                     continue;
                 }
 
+                boolean batch = quietPeriod > 0;
                 try {
                     if (kind == ENTRY_CREATE) {
                         if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
 
                             // if directory is created, and watching recursively, then
                             // register it and its sub-directories
-                            Files.walkFileTree(child, new FilteringFileVisitor());
+                            Files.walkFileTree(child, new FilteringFileVisitor(batch));
                         } else if (Files.isRegularFile(child, NOFOLLOW_LINKS)) {
-                            scan(child);
+                            if (batch) {
+                                enqueue(child, kind);
+                            } else {
+                                scan(child);
+                            }
                         }
                     } else if (kind == ENTRY_MODIFY) {
                         if (Files.isRegularFile(child, NOFOLLOW_LINKS)) {
-                            scan(child);
+                            if (batch) {
+                                enqueue(child, kind);
+                            } else {
+                                scan(child);
+                            }
                         }
                     } else if (kind == ENTRY_DELETE) {
-                        unscan(child);
+                        if (batch) {
+                            enqueueRemoved(child);
+                        } else {
+                            unscan(child);
+                        }
                     }
                 } catch (IOException x) {
                     // ignore to keep sample readbale
@@ -303,12 +393,142 @@ public class FileWatcher extends WatcherSupport {
 
     private void scan(final Path file) throws IOException {
         if (isMatchesFile(file)) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                fingerprints.put(file, new Fingerprint(attrs, Fingerprint.UNKNOWN));
+            } catch (IOException e) {
+                fingerprints.remove(file);
+            }
             fireListeners(file, ENTRY_MODIFY);
             process(file);
             processedMap.put(file, Boolean.TRUE);
         }
     }
 
+    private void enqueue(Path file, WatchEvent.Kind kind) {
+        if (!isMatchesFile(file)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (pending.isEmpty()) {
+            firstPendingTime = now;
+        }
+        lastPendingTime = now;
+        WatchEvent.Kind previous = pending.get(file);
+        if (previous == ENTRY_CREATE && kind == ENTRY_MODIFY) {
+            // still a new file
+            return;
+        }
+        if (previous == ENTRY_CREATE && kind == ENTRY_DELETE && !processedMap.containsKey(file)) {
+            // created and removed within the same batch
+            pending.remove(file);
+            return;
+        }
+        pending.put(file, kind);
+    }
+
+    private void enqueueRemoved(Path path) {
+        if (isMatchesFile(path)) {
+            enqueue(path, ENTRY_DELETE);
+        } else {
+            // lets find all the files that now no longer exist
+            for (Path file : processedMap.keySet()) {
+                if (!Files.exists(file)) {
+                    enqueue(file, ENTRY_DELETE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the pending changes, dropping the files whose content has not changed
+     */
+    private void flush() {
+        Map<Path, WatchEvent.Kind> batch = new LinkedHashMap<Path, WatchEvent.Kind>();
+        for (Map.Entry<Path, WatchEvent.Kind> entry : pending.entrySet()) {
+            Path file = entry.getKey();
+            if (Files.isRegularFile(file, NOFOLLOW_LINKS)) {
+                try {
+                    if (hasChanged(file) || !processedMap.containsKey(file)) {
+                        batch.put(file, ENTRY_MODIFY);
+                    } else {
+                        LOGGER.debug("File has not changed: " + file);
+                        eventsUnchanged.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Could not read file " + file + ": " + e);
+                }
+            } else if (!Files.exists(file, NOFOLLOW_LINKS)) {
+                LOGGER.debug("File has been deleted: " + file);
+                fingerprints.remove(file);
+                if (processedMap.remove(file) != null || entry.getValue() == ENTRY_DELETE) {
+                    batch.put(file, ENTRY_DELETE);
+                }
+            }
+        }
+        pending.clear();
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchesDelivered.incrementAndGet();
+        fireListeners(batch);
+        Processor processor = getProcessor();
+        for (Map.Entry<Path, WatchEvent.Kind> entry : batch.entrySet()) {
+            Path file = entry.getKey();
+            if (entry.getValue() == ENTRY_DELETE) {
+                if (processor != null) {
+                    processor.onRemove(file);
+                }
+                lastModified = System.currentTimeMillis();
+            } else {
+                try {
+                    process(file);
+                    processedMap.put(file, Boolean.TRUE);
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to process " + file + ": " + e, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the fingerprint of the file, returning true if it differs from the previous one.
+     * <p>
+     * A different size is a change.  The same size and modification time is not, unless the file was
+     * modified again within the granularity of the file system timestamps.  Otherwise the checksum of
+     * the content is computed, and compared to the previous one when known.
+     */
+    private boolean hasChanged(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        Fingerprint previous = fingerprints.get(file);
+        if (previous == null || previous.size != attrs.size()) {
+            fingerprints.put(file, new Fingerprint(attrs, Fingerprint.UNKNOWN));
+            return true;
+        }
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (previous.lastModified == lastModified && previous.recorded - lastModified > Fingerprint.TIMESTAMP_GRANULARITY) {
+            return false;
+        }
+        Fingerprint current = new Fingerprint(attrs, checksum(file));
+        fingerprints.put(file, current);
+        return previous.checksum == Fingerprint.UNKNOWN || previous.checksum != current.checksum;
+    }
+
+    /**
+     * Computes the checksum of the content of the file
+     */
+    protected long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try (InputStream is = Files.newInputStream(file)) {
+            int len;
+            while ((len = is.read(buffer)) > 0) {
+                crc.update(buffer, 0, len);
+            }
+        }
+        return crc.getValue();
+    }
+
     protected boolean isMatchesFile(Path file) {
         boolean matches = true;
         if (fileMatcher != null) {
@@ -320,10 +540,13 @@ public class FileWatcher extends WatcherSupport {
 
     private void unscan(final Path file) throws IOException {
         if (isMatchesFile(file)) {
+            fingerprints.remove(file);
+            processedMap.remove(file);
             Processor processor = getProcessor();
             if (processor != null) {
                 processor.onRemove(file);
             }
+            fireListeners(file, ENTRY_DELETE);
             lastModified = System.currentTimeMillis();
         } else {
             // lets find all the files that now no longer exist
@@ -332,6 +555,7 @@ public class FileWatcher extends WatcherSupport {
                 if (!Files.exists(path)) {
                     LOGGER.debug("File has been deleted: " + path);
                     processedMap.remove(path);
+                    fingerprints.remove(path);
                     if (isMatchesFile(path)) {
                         Processor processor = getProcessor();
                         if (processor != null) {
@@ -389,8 +613,37 @@ public class FileWatcher extends WatcherSupport {
         return FileSystems.getDefault();
     }
 
+    /**
+     * The size and modification time of a file, and the checksum of its content once it had to be computed
+     */
+    private static final class Fingerprint {
+        static final long UNKNOWN = -1;
+        static final long TIMESTAMP_GRANULARITY = 2000;
+
+        final long size;
+        final long lastModified;
+        final long checksum;
+        final long recorded = System.currentTimeMillis();
+
+        Fingerprint(BasicFileAttributes attrs, long checksum) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.checksum = checksum;
+        }
+    }
+
     public class FilteringFileVisitor implements FileVisitor<Path> {
 
+        private final boolean batch;
+
+        public FilteringFileVisitor() {
+            this(false);
+        }
+
+        public FilteringFileVisitor(boolean batch) {
+            this.batch = batch;
+        }
+
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
             if (Thread.interrupted()) {
@@ -411,7 +664,11 @@ public class FileWatcher extends WatcherSupport {
             if (Thread.interrupted()) {
                 throw new InterruptedIOException();
             }
-            scan(file);
+            if (batch) {
+                enqueue(file, ENTRY_CREATE);
+            } else {
+                scan(file);
+            }
             return FileVisitResult.CONTINUE;
         }
 
@@ -19,11 +19,13 @@ import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.fabric8.common.util.Objects;
 import io.fabric8.watcher.Processor;
 import io.fabric8.watcher.Watcher;
+import io.fabric8.watcher.WatcherBatchListener;
 import io.fabric8.watcher.WatcherListener;
 
 /**
@@ -61,4 +63,17 @@ public abstract class WatcherSupport implements Watcher {
             listener.onWatchEvent(child, kind);
         }
     }
+
+    protected void fireListeners(Map<Path, WatchEvent.Kind> events) {
+        List<WatcherListener> list = getListeners();
+        for (WatcherListener listener : list) {
+            if (listener instanceof WatcherBatchListener) {
+                ((WatcherBatchListener) listener).onWatchEvents(events);
+            } else {
+                for (Map.Entry<Path, WatchEvent.Kind> entry : events.entrySet()) {
+                    listener.onWatchEvent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,249 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.watcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.fabric8.common.util.Files;
+import io.fabric8.common.util.IOHelpers;
+import io.fabric8.watcher.file.FileWatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the debouncing and batching of the changes delivered by the {@link FileWatcher}, and its counters
+ */
+public class FileWatcherBatchTest {
+
+    private File dataDir;
+    private CountingFileWatcher watcher;
+    private BatchListener batchListener = new BatchListener();
+    private MockWatchListener listener = new MockWatchListener();
+    private MockProcessor processor = new MockProcessor();
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = new File(FileWatcherTest.getBaseDir(), "target/test-fileWatcherBatchDir");
+        Files.recursiveDelete(dataDir);
+        dataDir.mkdirs();
+
+        watcher = new CountingFileWatcher();
+        watcher.setRootDirectory(dataDir);
+        watcher.setFileMatchPattern("glob:**.txt");
+        watcher.setQuietPeriod(300);
+        watcher.addListener(batchListener);
+        watcher.addListener(listener);
+        watcher.setProcessor(processor);
+    }
+
+    @After
+    public void tearDown() {
+        watcher.destroy();
+    }
+
+    @Test
+    public void testInitialScanDoesNotReadFiles() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            IOHelpers.writeTo(new File(dataDir, "file" + i + ".txt"), "content " + i);
+        }
+        watcher.init();
+        await(new Callable<Boolean>() {
+            public Boolean call() {
+                return processor.getProcessPaths().size() == 10;
+            }
+        });
+        assertEquals(0, watcher.checksums.get());
+        assertEquals(0, watcher.getBatchesDelivered());
+    }
+
+    @Test
+    public void testDebouncing() throws Exception {
+        watcher.init();
+        // let the initial scan complete, so that it does not process the new file itself
+        Thread.sleep(500);
+        File file = new File(dataDir, "file.txt");
+        for (int i = 0; i < 5; i++) {
+            IOHelpers.writeTo(file, "content " + i);
+            Thread.sleep(50);
+        }
+        awaitBatches(1);
+        Thread.sleep(600);
+
+        assertEquals(1, watcher.getBatchesDelivered());
+        assertEquals(1, batchListener.batches.size());
+        assertEquals(1, batchListener.batches.get(0).size());
+        assertEquals(ENTRY_MODIFY, batchListener.batches.get(0).get(file.toPath()));
+        assertEquals(1, processor.getProcessPaths().size());
+        assertTrue(watcher.getEventsReceived() >= 5);
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        watcher.init();
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(dataDir, "dir" + i + "/file.txt");
+            files[i].getParentFile().mkdirs();
+        }
+        // let the initial scan complete and the new directories be watched before writing into them
+        Thread.sleep(500);
+        for (File file : files) {
+            IOHelpers.writeTo(file, "content");
+        }
+        IOHelpers.writeTo(new File(dataDir, "ignored.xml"), "ignored");
+        awaitBatches(1);
+        Thread.sleep(600);
+
+        assertEquals(1, batchListener.batches.size());
+        Map<Path, WatchEvent.Kind> batch = batchListener.batches.get(0);
+        assertEquals(3, batch.size());
+        for (File file : files) {
+            assertEquals(ENTRY_MODIFY, batch.get(file.toPath()));
+        }
+        // a plain listener gets each path of the batch
+        for (File file : files) {
+            assertTrue(listener.findEventForPath(file.toPath()) != null);
+        }
+        assertEquals(3, processor.getProcessPaths().size());
+
+        listener.clearEvents();
+        for (File file : files) {
+            file.delete();
+        }
+        await(new Callable<Boolean>() {
+            public Boolean call() {
+                return processor.getOnRemovePaths().size() == 3;
+            }
+        });
+        assertEquals(2, batchListener.batches.size());
+        batch = batchListener.batches.get(1);
+        assertEquals(3, batch.size());
+        for (File file : files) {
+            assertEquals(ENTRY_DELETE, batch.get(file.toPath()));
+        }
+    }
+
+    @Test
+    public void testMaxBatchDelay() throws Exception {
+        watcher.setQuietPeriod(500);
+        watcher.setMaxBatchDelay(1000);
+        watcher.init();
+        Thread.sleep(500);
+        File file = new File(dataDir, "file.txt");
+        long end = System.currentTimeMillis() + 3000;
+        for (int i = 0; System.currentTimeMillis() < end; i++) {
+            IOHelpers.writeTo(file, "content " + i);
+            Thread.sleep(100);
+        }
+        // changes kept coming faster than the quiet period, yet were delivered
+        assertTrue("Delivered " + watcher.getBatchesDelivered() + " batches", watcher.getBatchesDelivered() >= 2);
+    }
+
+    @Test
+    public void testUnchangedContent() throws Exception {
+        File file = new File(dataDir, "file.txt");
+        IOHelpers.writeTo(file, "content 1");
+        watcher.init();
+        await(new Callable<Boolean>() {
+            public Boolean call() {
+                return processor.getProcessPaths().size() == 1;
+            }
+        });
+
+        // same size, but the content was never read: the checksum is computed and the file is processed
+        IOHelpers.writeTo(file, "content 1");
+        awaitBatches(1);
+        assertEquals(1, watcher.checksums.get());
+
+        // same content again: dropped from the batch
+        IOHelpers.writeTo(file, "content 1");
+        await(new Callable<Boolean>() {
+            public Boolean call() {
+                return watcher.getEventsUnchanged() == 1;
+            }
+        });
+        assertEquals(2, watcher.checksums.get());
+        assertEquals(1, watcher.getBatchesDelivered());
+
+        // same size, different content
+        IOHelpers.writeTo(file, "content 2");
+        awaitBatches(2);
+        assertEquals(3, watcher.checksums.get());
+
+        // a different size is a change without reading the content
+        IOHelpers.writeTo(file, "content 10");
+        awaitBatches(3);
+        assertEquals(3, watcher.checksums.get());
+
+        await(new Callable<Boolean>() {
+            public Boolean call() {
+                return processor.getProcessPaths().size() == 4;
+            }
+        });
+        assertEquals(1, watcher.getEventsUnchanged());
+    }
+
+    private void awaitBatches(final int batches) throws Exception {
+        await(new Callable<Boolean>() {
+            public Boolean call() {
+                return watcher.getBatchesDelivered() >= batches;
+            }
+        });
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.call()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static class CountingFileWatcher extends FileWatcher {
+        final AtomicInteger checksums = new AtomicInteger();
+
+        @Override
+        protected long checksum(Path file) throws IOException {
+            checksums.incrementAndGet();
+            return super.checksum(file);
+        }
+    }
+
+    private static class BatchListener implements WatcherBatchListener {
+        final List<Map<Path, WatchEvent.Kind>> batches = new CopyOnWriteArrayList<Map<Path, WatchEvent.Kind>>();
+
+        public void onWatchEvents(Map<Path, WatchEvent.Kind> events) {
+            batches.add(events);
+        }
+
+        public void onWatchEvent(Path path, WatchEvent.Kind kind) {
+        }
+    }
+}
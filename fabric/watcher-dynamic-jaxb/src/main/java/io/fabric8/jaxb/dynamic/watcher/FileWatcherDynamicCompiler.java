@@ -18,6 +18,8 @@ package io.fabric8.jaxb.dynamic.watcher;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -29,19 +31,22 @@ import io.fabric8.jaxb.dynamic.CompileResults;
 import io.fabric8.jaxb.dynamic.CompileResultsHandler;
 import io.fabric8.jaxb.dynamic.DefaultDynamicCompiler;
 import io.fabric8.jaxb.dynamic.DynamicCompiler;
-import io.fabric8.watcher.Processor;
+import io.fabric8.watcher.WatcherBatchListener;
 import io.fabric8.watcher.file.FileWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static io.fabric8.watcher.PathHelper.toUrlString;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 
 /**
  * A {@link FileWatcher} which implements the {@link DynamicCompiler} API by
  * watching for XSD files and recompiling the JAXB context via XJC whenever a
  * new schema is added, updated or removed.
+ * <p>
+ * The schemas of a batch of changes are recompiled at once.
  */
-public class FileWatcherDynamicCompiler extends FileWatcher implements DynamicCompiler {
+public class FileWatcherDynamicCompiler extends FileWatcher implements DynamicCompiler, WatcherBatchListener {
     private static final transient Logger LOG = LoggerFactory.getLogger(FileWatcherDynamicCompiler.class);
 
     private CompileResults compileResults;
@@ -53,15 +58,7 @@ public class FileWatcherDynamicCompiler extends FileWatcher implements DynamicCo
 
     public FileWatcherDynamicCompiler() {
         setFileMatchPattern("glob:**.xsd");
-        setProcessor(new Processor() {
-            public void process(Path path) {
-                addCompilePath(path);
-            }
-
-            public void onRemove(Path path) {
-                removeCompilePath(path);
-            }
-        });
+        addListener(this);
     }
 
     public void setHandler(CompileResultsHandler handler) throws Exception {
@@ -105,29 +102,60 @@ public class FileWatcherDynamicCompiler extends FileWatcher implements DynamicCo
         this.compileDelayMillis = compileDelayMillis;
     }
 
+    /**
+     * Recompiles when a schema is added or removed, a single event being fired for each file found by the initial scan
+     */
+    @Override
+    public void onWatchEvent(Path path, WatchEvent.Kind kind) {
+        boolean changed = kind == ENTRY_DELETE ? removeCompilePath(path) : addCompilePath(path);
+        if (changed) {
+            scheduleRecompile();
+        }
+    }
+
+    /**
+     * Recompiles once for the whole batch, as the schemas of a batch have been added, removed or their content changed
+     */
+    @Override
+    public void onWatchEvents(Map<Path, WatchEvent.Kind> events) {
+        for (Map.Entry<Path, WatchEvent.Kind> entry : events.entrySet()) {
+            if (entry.getValue() == ENTRY_DELETE) {
+                removeCompilePath(entry.getKey());
+            } else {
+                addCompilePath(entry.getKey());
+            }
+        }
+        if (!events.isEmpty()) {
+            scheduleRecompile();
+        }
+    }
+
     // Implementation
     //-------------------------------------------------------------------------
-    protected void addCompilePath(Path path) {
+
+    /**
+     * @return true if the schema was not compiled yet
+     */
+    protected boolean addCompilePath(Path path) {
         try {
             String url = toUrlString(path);
-            Path old = urlMap.put(url, path);
-            if (old == null) {
-                scheduleRecompile();
-            }
+            return urlMap.put(url, path) == null;
         } catch (MalformedURLException e) {
             LOG.warn("Ignored path " + path + " due to: " + e, e);
+            return false;
         }
     }
 
-    protected void removeCompilePath(Path path) {
+    /**
+     * @return true if the schema was compiled
+     */
+    protected boolean removeCompilePath(Path path) {
         try {
             String url = toUrlString(path);
-            Path old = urlMap.remove(url);
-            if (old != null) {
-                scheduleRecompile();
-            }
+            return urlMap.remove(url) != null;
         } catch (MalformedURLException e) {
             LOG.warn("Ignored path " + path + " due to: " + e, e);
+            return false;
         }
     }
 
@@ -37,6 +37,7 @@ import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
 import org.vertx.java.core.streams.Pump;
 import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.streams.WriteStream;
 
 import javax.net.ssl.SSLContext;
 import java.net.InetSocketAddress;
@@ -60,11 +61,12 @@ public class DetectingGateway implements DetectingGatewayMBean {
     LoadBalancer serviceLoadBalancer;
     String defaultVirtualHost;
     ArrayList<Protocol> protocols;
-    int maxProtocolIdentificationLength;
+    ProtocolDetector protocolDetector;
     ClientRequestFacadeFactory clientRequestFacadeFactory = new ClientRequestFacadeFactory("PROTOCOL_SESSION_ID, PROTOCOL_CLIENT_ID, REMOTE_ADDRESS");
     final AtomicReference<InetSocketAddress> httpGateway = new AtomicReference<InetSocketAddress>();
     SslConfig sslConfig;
     long connectionTimeout = 5000;
+    int maxConnectBytes = 128 * 1024;
 
     final AtomicLong receivedConnectionAttempts = new AtomicLong();
     final AtomicLong successfulConnectionAttempts = new AtomicLong();
@@ -162,13 +164,7 @@ public class DetectingGateway implements DetectingGatewayMBean {
 
     public void setProtocols(ArrayList<Protocol> protocols) {
         this.protocols = new ArrayList<Protocol>(protocols);
-        int max = 0;
-        for (Protocol protocol : protocols) {
-            if( protocol.getMaxIdentificationLength() > max ) {
-                max = protocol.getMaxIdentificationLength();
-            }
-        }
-        maxProtocolIdentificationLength = max;
+        protocolDetector = new ProtocolDetector(this.protocols);
     }
 
     public Collection<String> getProtocolNames() {
@@ -230,89 +226,181 @@ public class DetectingGateway implements DetectingGatewayMBean {
                 handleConnectFailure(socket, String.format("Gateway client '%s' closed the connection before it could be routed.", socket.remoteAddress()));
             }
         });
-        readStream.dataHandler(new Handler<Buffer>() {
-            Buffer received = new Buffer();
+        readStream.dataHandler(new ConnectingHandler(socket));
+    }
 
-            @Override
-            public void handle(Buffer event) {
+    /**
+     * Detects the protocol of a connecting client, then feeds the snooped bytes to the protocol decoder until the
+     * client can be routed. The client is disconnected once it sent more than maxConnectBytes before being routed.
+     */
+    class ConnectingHandler implements Handler<Buffer> {
+
+        private final SocketWrapper socket;
+        private Buffer received;
+        private long receivedBytes;
+        private Handler<Buffer> snoopHandler;
+
+        ConnectingHandler(SocketWrapper socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void handle(Buffer event) {
+            receivedBytes += event.length();
+            if (maxConnectBytes > 0 && receivedBytes > maxConnectBytes) {
+                handleConnectFailure(socket, String.format("Gateway client '%s' sent more than %d bytes before it could be routed.", socket.remoteAddress(), maxConnectBytes));
+                return;
+            }
+            if (snoopHandler != null) {
+                snoopHandler.handle(event);
+                return;
+            }
+
+            // Keep the first buffer as it is, it usually holds all the bytes needed to detect the protocol
+            if (received == null) {
+                received = event;
+            } else {
                 received.appendBuffer(event);
-                for (final Protocol protocol : protocols) {
-                    if (protocol.matches(received)) {
-                        if ("ssl".equals(protocol.getProtocolName())) {
-
-                            LOG.info(String.format("SSL Connection from '%s'", socket.remoteAddress()));
-                            String disabledCypherSuites=null;
-                            String enabledCipherSuites=null;
-                            if (sslConfig != null) {
-                                disabledCypherSuites = sslConfig.getDisabledCypherSuites();
-                                enabledCipherSuites = sslConfig.getEnabledCipherSuites();
-                            }
-                            if (sslContext == null) {
-                                try {
-                                    if (sslConfig != null) {
-                                        sslContext = SSLContext.getInstance(sslConfig.getProtocol());
-                                        sslContext.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
-                                    } else {
-                                        sslContext = SSLContext.getDefault();
-                                    }
-                                } catch (Exception e) {
-                                    handleConnectFailure(socket, "Could initialize SSL: " + e);
-                                    return;
-                                }
-                            }
+            }
+            final Protocol protocol = protocolDetector.detect(received);
+            if (protocol == null) {
+                if (protocolDetector.isUnknown(received)) {
+                    handleConnectFailure(socket, "Connection did not use one of the enabled protocols " + getProtocolNames());
+                }
+                return;
+            }
 
-                            // lets wrap it up in a SslSocketWrapper.
-                            SslSocketWrapper sslSocketWrapper = new SslSocketWrapper(socket);
-                            sslSocketWrapper.putBackHeader(received);
-                            sslSocketWrapper.initServer(sslContext, clientAuth, disabledCypherSuites, enabledCipherSuites);
-
-                            // Undo initial connection accounting since we will be redoing @ the SSL level.
-                            socketsConnecting.remove(socket);
-                            receivedConnectionAttempts.decrementAndGet();
-
-                            DetectingGateway.this.handle(sslSocketWrapper);
-                            return;
-
-                        } else if ("http".equals(protocol.getProtocolName())) {
-                            InetSocketAddress target = getHttpGateway();
-                            if (target != null) {
-                                try {
-                                    URI url = new URI("http://" + target.getHostString() + ":" + target.getPort());
-                                    LOG.info(String.format("Connecting '%s' to '%s:%d' using the http protocol",
-                                            socket.remoteAddress(), url.getHost(), url.getPort()));
-                                    ConnectionParameters params = new ConnectionParameters();
-                                    params.protocol = "http";
-                                    createClient(params, socket, url, received);
-                                    return;
-                                } catch (URISyntaxException e) {
-                                    handleConnectFailure(socket, "Could not build valid connect URI: "+e);
-                                    return;
-                                }
-                            } else {
-                                handleConnectFailure(socket, "No http gateway available for the http protocol");
-                                return;
-                            }
+            if ("ssl".equals(protocol.getProtocolName())) {
+
+                LOG.info(String.format("SSL Connection from '%s'", socket.remoteAddress()));
+                String disabledCypherSuites=null;
+                String enabledCipherSuites=null;
+                if (sslConfig != null) {
+                    disabledCypherSuites = sslConfig.getDisabledCypherSuites();
+                    enabledCipherSuites = sslConfig.getEnabledCipherSuites();
+                }
+                if (sslContext == null) {
+                    try {
+                        if (sslConfig != null) {
+                            sslContext = SSLContext.getInstance(sslConfig.getProtocol());
+                            sslContext.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
                         } else {
-                            protocol.snoopConnectionParameters(socket, received, new Handler<ConnectionParameters>() {
-                                @Override
-                                public void handle(ConnectionParameters connectionParameters) {
-                                    // this will install a new dataHandler on the socket.
-                                    if (connectionParameters.protocol == null)
-                                        connectionParameters.protocol = protocol.getProtocolName();
-                                    if (connectionParameters.protocolSchemes == null)
-                                        connectionParameters.protocolSchemes = protocol.getProtocolSchemes();
-                                    route(socket, connectionParameters, received);
-                                }
-                            });
-                            return;
+                            sslContext = SSLContext.getDefault();
                         }
+                    } catch (Exception e) {
+                        handleConnectFailure(socket, "Could initialize SSL: " + e);
+                        return;
                     }
                 }
-                if (received.length() >= maxProtocolIdentificationLength) {
-                    handleConnectFailure(socket, "Connection did not use one of the enabled protocols " + getProtocolNames());
+
+                // lets wrap it up in a SslSocketWrapper.
+                SslSocketWrapper sslSocketWrapper = new SslSocketWrapper(socket);
+                sslSocketWrapper.putBackHeader(received);
+                sslSocketWrapper.initServer(sslContext, clientAuth, disabledCypherSuites, enabledCipherSuites);
+
+                // Undo initial connection accounting since we will be redoing @ the SSL level.
+                socketsConnecting.remove(socket);
+                receivedConnectionAttempts.decrementAndGet();
+
+                DetectingGateway.this.handle(sslSocketWrapper);
+
+            } else if ("http".equals(protocol.getProtocolName())) {
+                InetSocketAddress target = getHttpGateway();
+                if (target != null) {
+                    try {
+                        URI url = new URI("http://" + target.getHostString() + ":" + target.getPort());
+                        LOG.info(String.format("Connecting '%s' to '%s:%d' using the http protocol",
+                                socket.remoteAddress(), url.getHost(), url.getPort()));
+                        ConnectionParameters params = new ConnectionParameters();
+                        params.protocol = "http";
+                        createClient(params, socket, url, received);
+                    } catch (URISyntaxException e) {
+                        handleConnectFailure(socket, "Could not build valid connect URI: "+e);
+                    }
+                } else {
+                    handleConnectFailure(socket, "No http gateway available for the http protocol");
                 }
+            } else {
+                final Buffer snooped = received;
+                protocol.snoopConnectionParameters(new SnoopingSocket(), snooped, new Handler<ConnectionParameters>() {
+                    @Override
+                    public void handle(ConnectionParameters connectionParameters) {
+                        // this will install a new dataHandler on the socket.
+                        if (connectionParameters.protocol == null)
+                            connectionParameters.protocol = protocol.getProtocolName();
+                        if (connectionParameters.protocolSchemes == null)
+                            connectionParameters.protocolSchemes = protocol.getProtocolSchemes();
+                        route(socket, connectionParameters, snooped);
+                    }
+                });
             }
-        });
+        }
+
+        /**
+         * The socket handed to the protocol while it snoops the connection parameters, so that the bytes
+         * read by its decoder still go through this handler.
+         */
+        class SnoopingSocket extends SocketWrapper implements ReadStream<SnoopingSocket> {
+
+            @Override
+            public SnoopingSocket dataHandler(Handler<Buffer> handler) {
+                snoopHandler = handler;
+                return this;
+            }
+
+            @Override
+            public SnoopingSocket endHandler(Handler<Void> handler) {
+                // the gateway keeps handling the end of the stream until the client is routed
+                return this;
+            }
+
+            @Override
+            public SnoopingSocket exceptionHandler(Handler<Throwable> handler) {
+                return this;
+            }
+
+            @Override
+            public SnoopingSocket pause() {
+                socket.readStream().pause();
+                return this;
+            }
+
+            @Override
+            public SnoopingSocket resume() {
+                socket.readStream().resume();
+                return this;
+            }
+
+            @Override
+            public ReadStream readStream() {
+                return this;
+            }
+
+            @Override
+            public WriteStream writeStream() {
+                return socket.writeStream();
+            }
+
+            @Override
+            public void close() {
+                socket.close();
+            }
+
+            @Override
+            public Object stream() {
+                return socket.stream();
+            }
+
+            @Override
+            public InetSocketAddress localAddress() {
+                return socket.localAddress();
+            }
+
+            @Override
+            public InetSocketAddress remoteAddress() {
+                return socket.remoteAddress();
+            }
+        }
     }
 
     private void handleConnectFailure(SocketWrapper socket, String reason) {
@@ -490,6 +578,17 @@ public class DetectingGateway implements DetectingGatewayMBean {
         this.connectionTimeout = connectionTimeout;
     }
 
+    public int getMaxConnectBytes() {
+        return maxConnectBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes a client can send before it is routed, 0 for no limit.
+     */
+    public void setMaxConnectBytes(int maxConnectBytes) {
+        this.maxConnectBytes = maxConnectBytes;
+    }
+
     public int getPort() {
         return port;
     }
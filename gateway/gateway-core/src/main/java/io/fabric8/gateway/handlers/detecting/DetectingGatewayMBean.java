@@ -34,5 +34,7 @@ public interface DetectingGatewayMBean {
     public String[] getConnectedClients();
     public long getConnectionTimeout();
     public void setConnectionTimeout(long connectionTimeout);
+    public int getMaxConnectBytes();
+    public void setMaxConnectBytes(int maxConnectBytes);
 
 }
@@ -28,6 +28,12 @@ public interface Protocol {
     public String[] getProtocolSchemes();
     public String getProtocolName();
     public int getMaxIdentificationLength();
+
+    /**
+     * Returns the values the first byte sent by a client of this protocol can have, or null if it can have any value.
+     * The gateway only offers a connection to the protocols which accept its first byte.
+     */
+    public byte[] getFirstBytes();
     public boolean matches(Buffer buffer);
     public void snoopConnectionParameters(final SocketWrapper socket, Buffer received, Handler<ConnectionParameters> handler);
 
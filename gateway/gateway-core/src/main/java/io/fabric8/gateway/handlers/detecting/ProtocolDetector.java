@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects the protocol used by a client in a single pass over the bytes it sent: the first byte selects
+ * the protocols which can match, so that the others never look at the connection, and bounds the number
+ * of bytes needed to tell the protocol.
+ */
+public class ProtocolDetector {
+
+    private final Protocol[][] candidates = new Protocol[256][];
+    private final int[] maxIdentificationLengths = new int[256];
+
+    public ProtocolDetector(List<Protocol> protocols) {
+        for (int i = 0; i < candidates.length; i++) {
+            ArrayList<Protocol> matching = new ArrayList<Protocol>();
+            int max = 0;
+            for (Protocol protocol : protocols) {
+                if (acceptsFirstByte(protocol, (byte) i)) {
+                    matching.add(protocol);
+                    max = Math.max(max, protocol.getMaxIdentificationLength());
+                }
+            }
+            candidates[i] = matching.toArray(new Protocol[matching.size()]);
+            maxIdentificationLengths[i] = max;
+        }
+    }
+
+    private static boolean acceptsFirstByte(Protocol protocol, byte value) {
+        byte[] firstBytes = protocol.getFirstBytes();
+        if (firstBytes == null) {
+            return true;
+        }
+        for (byte firstByte : firstBytes) {
+            if (firstByte == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first protocol, in the order they were registered, matching the received bytes or null
+     * if none matches yet.
+     */
+    public Protocol detect(Buffer received) {
+        if (received.length() == 0) {
+            return null;
+        }
+        for (Protocol protocol : candidates[received.getByte(0) & 0xFF]) {
+            if (protocol.matches(received)) {
+                return protocol;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if no protocol can match the received bytes, whatever the client sends next.
+     */
+    public boolean isUnknown(Buffer received) {
+        return received.length() > 0 && received.length() >= maxIdentificationLengths[received.getByte(0) & 0xFF];
+    }
+
+}
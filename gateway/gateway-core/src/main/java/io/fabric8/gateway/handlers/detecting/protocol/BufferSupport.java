@@ -73,11 +73,11 @@ public class BufferSupport {
     }
 
     static public boolean startsWith(Buffer self, Buffer needle) {
-        return indexOf(self, 0, needle.length(), needle) == 0;
+        return startsWith(self, 0, needle);
     }
 
     static public boolean startsWith(Buffer self, int start, Buffer needle) {
-        return indexOf(self, start, start+needle.length(), needle) == 0;
+        return self.length() >= start + needle.length() && matches(self, start, needle);
     }
 
     static public int indexOf(Buffer self, int start, Buffer needle) {
@@ -54,20 +54,22 @@ public class AmqpProtocol implements Protocol {
         return PROTOCOL_MAGIC.length();
     }
 
+    private static final byte[] FIRST_BYTES = new byte[]{ 'A' };
+
+    @Override
+    public byte[] getFirstBytes() {
+        return FIRST_BYTES;
+    }
+
     @Override
     public boolean matches(Buffer header) {
-      if (header.length() < PROTOCOL_MAGIC.length()) {
-        return false;
-      } else {
-        return startsWith(header ,PROTOCOL_MAGIC);
-      }
+        return startsWith(header, PROTOCOL_MAGIC);
     }
 
     @Override
     public void snoopConnectionParameters(final SocketWrapper socket, final Buffer received, final Handler<ConnectionParameters> handler) {
 
         // We can't yet snoop the virtual host info from a AMQP connection..
-        final AmqpProtocolDecoder h = new AmqpProtocolDecoder(this);
         handler.handle(new ConnectionParameters());
 
     }
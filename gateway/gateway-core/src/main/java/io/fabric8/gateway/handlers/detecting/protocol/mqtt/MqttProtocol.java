@@ -56,17 +56,26 @@ public class MqttProtocol implements Protocol {
         return 13;
     }
 
+    private static final byte[] FIRST_BYTES = new byte[]{ 0x10 };
+
+    @Override
+    public byte[] getFirstBytes() {
+        return FIRST_BYTES;
+    }
+
     @Override
     public boolean matches(Buffer header) {
-        if (header.length() < 10) {
-          return false;
-        } else {
-          return BufferSupport.startsWith(header, HEAD_MAGIC) && (
-              BufferSupport.indexOf(header, 2, MQTT31_TAIL_MAGIC)< 6
-              ||
-              BufferSupport.indexOf(header, 2, MQTT311_TAIL_MAGIC) < 6
-          );
+        if (!BufferSupport.startsWith(header, HEAD_MAGIC)) {
+            return false;
+        }
+        // The protocol name follows the 1 to 4 bytes of the remaining length
+        int pos = 1;
+        while (pos < 4 && pos < header.length() && (header.getByte(pos) & 0x80) != 0) {
+            pos++;
         }
+        pos++;
+        return BufferSupport.startsWith(header, pos, MQTT31_TAIL_MAGIC) ||
+               BufferSupport.startsWith(header, pos, MQTT311_TAIL_MAGIC);
     }
 
     static void append(Buffer self, MQTTFrame value) {
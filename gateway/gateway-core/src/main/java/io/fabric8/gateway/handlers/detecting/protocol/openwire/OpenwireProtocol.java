@@ -27,7 +27,7 @@ import org.vertx.java.core.buffer.Buffer;
 
 import java.io.IOException;
 
-import static io.fabric8.gateway.handlers.detecting.protocol.BufferSupport.indexOf;
+import static io.fabric8.gateway.handlers.detecting.protocol.BufferSupport.startsWith;
 
 /**
  */
@@ -55,9 +55,18 @@ public class OpenwireProtocol implements Protocol {
         return 5+MAGIC.length();
     }
 
+    // The high byte of the size prefix of the initial WireFormatInfo
+    private static final byte[] FIRST_BYTES = new byte[]{ 0x00 };
+
+    @Override
+    public byte[] getFirstBytes() {
+        return FIRST_BYTES;
+    }
+
     @Override
     public boolean matches(Buffer buffer) {
-        return buffer.length() >= 4 + MAGIC.length() && indexOf(buffer, 5, MAGIC) >= 0;
+        // The magic follows the size prefix and the data type of the WireFormatInfo
+        return startsWith(buffer, 5, MAGIC);
     }
 
     @Override
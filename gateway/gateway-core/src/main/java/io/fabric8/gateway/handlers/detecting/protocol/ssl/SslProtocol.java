@@ -48,6 +48,20 @@ public class SslProtocol implements Protocol {
         return 6;
     }
 
+    private static final byte[] FIRST_BYTES = new byte[1 + 0x40];
+    static {
+        // A TLS handshake record, or a SSLv2 record header with its high bit set
+        FIRST_BYTES[0] = 0x16;
+        for (int i = 0; i < 0x40; i++) {
+            FIRST_BYTES[i + 1] = (byte) (0x80 + i);
+        }
+    }
+
+    @Override
+    public byte[] getFirstBytes() {
+        return FIRST_BYTES;
+    }
+
     @Override
     public boolean matches(Buffer buffer) {
         if( buffer.length() >= 6 ) {
@@ -53,6 +53,13 @@ public class StompProtocol implements Protocol {
         return 10;
     }
 
+    private static final byte[] FIRST_BYTES = new byte[]{ 'C', 'S' };
+
+    @Override
+    public byte[] getFirstBytes() {
+        return FIRST_BYTES;
+    }
+
     @Override
     public boolean matches(Buffer header) {
         return startsWith(header, 0, CONNECT.toBuffer()) ||
@@ -55,6 +55,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -405,6 +406,102 @@ public class DetectingGatewayTest {
 
     }
 
+    /**
+     * Bytes no protocol can start with should get rejected without waiting for more.
+     */
+    @Test
+    public void rejectsGarbageAtOnce() throws Exception {
+
+        final DetectingGateway gateway = createGateway();
+        final Socket socket = new Socket("localhost", gateway.getBoundPort());
+
+        long start = System.currentTimeMillis();
+        socket.getOutputStream().write(new byte[]{ (byte) 0xFF });
+        long duration = waitForClose(socket, start);
+        socket.close();
+
+        // Well before the connection timeout at the 5000 ms mark
+        assertTrue("Closed after " + duration + "ms", duration < 1000);
+        assertRejected(gateway);
+    }
+
+    /**
+     * A CONNECT frame with a client id where the MQTT protocol name is expected is not MQTT,
+     * so it should get rejected once the bytes identifying the protocol are received rather
+     * than snooped until the connection timeout while waiting for the rest of its body.
+     */
+    @Test
+    public void rejectsMqttConnectWithoutProtocolName() throws Exception {
+
+        final DetectingGateway gateway = createGateway();
+        final Socket socket = new Socket("localhost", gateway.getBoundPort());
+
+        long start = System.currentTimeMillis();
+        socket.getOutputStream().write(new byte[]{ 0x10, 0x40, 0x00, 0x04, 'a', 'b', 'c', 'd', 0x04, 0x02, 0x00, 0x3C, 0x00 });
+        long duration = waitForClose(socket, start);
+        socket.close();
+
+        assertTrue("Closed after " + duration + "ms", duration < 1000);
+        assertRejected(gateway);
+        assertEquals(0, getConnectionsOnBroker(0));
+        assertEquals(0, getConnectionsOnBroker(1));
+    }
+
+    /**
+     * A client should not be able to send more than maxConnectBytes before it is routed,
+     * the bytes read while the protocol snoops the connection parameters included.
+     */
+    @Test
+    public void closesClientsSendingTooMuchBeforeBeingRouted() throws Exception {
+
+        final DetectingGateway gateway = createGateway();
+        gateway.setMaxConnectBytes(1024);
+        final Socket socket = new Socket("localhost", gateway.getBoundPort());
+        final OutputStream outputStream = socket.getOutputStream();
+
+        // A MQTT CONNECT frame announcing a 100000 bytes body, which is snooped until it is complete
+        long start = System.currentTimeMillis();
+        outputStream.write(new byte[]{ 0x10, (byte) 0xA0, (byte) 0x8D, 0x06, 0x00, 0x04, 'M', 'Q', 'T', 'T', 0x04, 0x02, 0x00, 0x3C });
+        outputStream.flush();
+        Thread.sleep(200);
+        assertEquals(1, gateway.getConnectingClients().length);
+
+        outputStream.write(new byte[2048]);
+        long duration = waitForClose(socket, start);
+        socket.close();
+
+        assertTrue("Closed after " + duration + "ms", duration < 2000);
+        assertRejected(gateway);
+    }
+
+    /**
+     * Waits for the gateway to close the connection, returns the time since start.
+     */
+    private static long waitForClose(Socket socket, long start) throws IOException {
+        socket.setSoTimeout(10000);
+        try {
+            while (socket.getInputStream().read() != -1) {
+            }
+        } catch (SocketException e) {
+            // reset, the gateway closed it without reading all the bytes
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private void assertRejected(final DetectingGateway gateway) throws Exception {
+        within(1, TimeUnit.SECONDS, new Callable<Object>(){
+            @Override
+            public Object call() throws Exception {
+                assertEquals(1, gateway.getReceivedConnectionAttempts());
+                assertEquals(1, gateway.getFailedConnectionAttempts());
+                assertEquals(0, gateway.getSuccessfulConnectionAttempts());
+                assertEquals(0, gateway.getConnectingClients().length);
+                assertEquals(0, gateway.getConnectedClients().length);
+                return null;
+            }
+        });
+    }
+
     private <T> T within(int timeout, TimeUnit unit, Callable<T> action) throws Exception {
         long remaining = unit.toMillis(timeout);
         Throwable lastError=null;
@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting;
+
+import io.fabric8.gateway.handlers.detecting.protocol.amqp.AmqpProtocol;
+import io.fabric8.gateway.handlers.detecting.protocol.http.HttpProtocol;
+import io.fabric8.gateway.handlers.detecting.protocol.mqtt.MqttProtocol;
+import io.fabric8.gateway.handlers.detecting.protocol.openwire.OpenwireProtocol;
+import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslProtocol;
+import io.fabric8.gateway.handlers.detecting.protocol.stomp.StompProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates a connection storm on the detecting gateway: every operation detects the protocol of the
+ * first packet of a new connection, comparing the former loop offering a copy of the bytes to every
+ * protocol with the {@link ProtocolDetector}. Clients not using an enabled protocol are part of the mix.
+ * Run the main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolDetectionBenchmark {
+
+    private ArrayList<Protocol> protocols;
+    private ProtocolDetector detector;
+    private int maxProtocolIdentificationLength;
+    private byte[][] packets;
+
+    @State(Scope.Thread)
+    public static class Connections {
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        protocols = new ArrayList<Protocol>();
+        protocols.add(new StompProtocol());
+        protocols.add(new MqttProtocol());
+        protocols.add(new AmqpProtocol());
+        protocols.add(new OpenwireProtocol());
+        protocols.add(new HttpProtocol());
+        protocols.add(new SslProtocol());
+        detector = new ProtocolDetector(protocols);
+        for (Protocol protocol : protocols) {
+            maxProtocolIdentificationLength = Math.max(maxProtocolIdentificationLength, protocol.getMaxIdentificationLength());
+        }
+
+        packets = new byte[][]{
+            ascii("CONNECT\naccept-version:1.1\nhost:broker\n\n\0"),
+            new byte[]{0x10, 0x0C, 0x00, 0x04, 'M', 'Q', 'T', 'T', 0x04, 0x02, 0x00, 0x3C, 0x00, 0x00},
+            new byte[]{'A', 'M', 'Q', 'P', 0x03, 0x01, 0x00, 0x00},
+            new byte[]{0x00, 0x00, 0x01, 0x06, 0x01, 'A', 'c', 't', 'i', 'v', 'e', 'M', 'Q', 0x00, 0x00, 0x00, 0x0A},
+            ascii("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"),
+            new byte[]{0x16, 0x03, 0x01, 0x00, (byte) 0xC8, 0x01, 0x00, 0x00, (byte) 0xC4, 0x03, 0x03},
+            ascii("SSH-2.0-OpenSSH_6.6\r\n"),
+            new byte[]{0x7F, 0x45, 0x4C, 0x46, 0x02, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00},
+        };
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] rc = new byte[value.length()];
+        for (int i = 0; i < rc.length; i++) {
+            rc[i] = (byte) value.charAt(i);
+        }
+        return rc;
+    }
+
+    private Buffer nextPacket(Connections connections) {
+        // Vert.x hands a new buffer to the data handler for every read
+        return new Buffer(packets[connections.next++ % packets.length]);
+    }
+
+    @Benchmark
+    public Object protocolLoop(Connections connections) {
+        Buffer received = new Buffer();
+        received.appendBuffer(nextPacket(connections));
+        for (Protocol protocol : protocols) {
+            if (protocol.matches(received)) {
+                return protocol;
+            }
+        }
+        return received.length() >= maxProtocolIdentificationLength ? null : received;
+    }
+
+    @Benchmark
+    public Object detector(Connections connections) {
+        Buffer received = nextPacket(connections);
+        Protocol protocol = detector.detect(received);
+        if (protocol != null) {
+            return protocol;
+        }
+        return detector.isUnknown(received) ? null : received;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object protocolLoopConcurrent(Connections connections) {
+        return protocolLoop(connections);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object detectorConcurrent(Connections connections) {
+        return detector(connections);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ProtocolDetectionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -15,44 +15,39 @@
  */
 package io.fabric8.gateway.servlet;
 
-import io.fabric8.common.util.IOHelpers;
 import io.fabric8.gateway.model.HttpProxyRule;
 import io.fabric8.gateway.model.HttpProxyRuleBase;
+import io.fabric8.gateway.servlet.support.BufferPool;
 import io.fabric8.gateway.servlet.support.NonBindingSocketFactory;
 import io.fabric8.gateway.servlet.support.ProxySupport;
-import org.apache.commons.fileupload.FileItem;
-import org.apache.commons.fileupload.FileUploadException;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
-import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.OptionsMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
-import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
-import org.apache.commons.httpclient.methods.multipart.FilePart;
-import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
-import org.apache.commons.httpclient.methods.multipart.Part;
-import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.protocol.Protocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -60,9 +55,27 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Based on code from http://edwardstx.net/2010/06/http-proxy-servlet/
+ * <p/>
+ * The upstream requests go through a pooled HttpClient keeping the connections alive, bounded by the
+ * <code>maxConnectionsPerHost</code> and <code>maxTotalConnections</code> init parameters. The bodies are streamed
+ * with pooled buffers. When the servlet is registered with async support, the requests are proxied on a bounded
+ * pool of <code>proxyThreads</code> threads so that slow upstreams don't tie up the container threads, answering
+ * with a 503 when <code>proxyQueueSize</code> requests are already waiting. The upstream request is aborted with a 504
+ * when the upstream response headers are not received <code>responseTimeout</code> milliseconds after the request
+ * was sent, the body of the response then being streamed for as long as it takes.
  */
 public abstract class ProxyServlet extends HttpServlet {
     private static final transient Logger LOG = LoggerFactory.getLogger(ProxyServlet.class);
@@ -92,17 +105,21 @@ public abstract class ProxyServlet extends HttpServlet {
      * Key for host header
      */
     private static final String STRING_HOST_HEADER_NAME = "Host";
+
     /**
-     * The directory to use to temporarily store uploaded files
+     * Request attribute holding the upstream request in progress, aborted when the client connection fails
      */
-    private static final File FILE_UPLOAD_TEMP_DIRECTORY = new File(System.getProperty("java.io.tmpdir"));
+    private static final String PROXY_METHOD_ATTRIBUTE = ProxyServlet.class.getName() + ".method";
 
     private HttpMappingRuleResolver resolver = new HttpMappingRuleResolver();
 
-    /**
-     * The maximum size for uploaded files in bytes. Default value is 5MB.
-     */
-    private int intMaxFileUploadSize = 5 * 1024 * 1024;
+    private final BufferPool bufferPool = new BufferPool(8 * 1024, 256);
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+    private HttpClient httpClient;
+    private ExecutorService executor;
+    private ScheduledThreadPoolExecutor timer;
+    private long responseTimeout;
 
     /**
      * Initialize the <code>ProxyServlet</code>
@@ -116,6 +133,71 @@ public abstract class ProxyServlet extends HttpServlet {
         resolver.setMappingRules(ruleBase);
         Protocol.registerProtocol("http", new Protocol("http", new NonBindingSocketFactory(), 80));
         Protocol.registerProtocol("https", new Protocol("https", new NonBindingSocketFactory(), 443));
+
+        int connectionTimeout = getIntParameter(config, "connectionTimeout", 30000);
+        int socketTimeout = getIntParameter(config, "socketTimeout", 60000);
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(getIntParameter(config, "maxConnectionsPerHost", 20));
+        params.setMaxTotalConnections(getIntParameter(config, "maxTotalConnections", 200));
+        params.setConnectionTimeout(connectionTimeout);
+        params.setSoTimeout(socketTimeout);
+        params.setStaleCheckingEnabled(true);
+        httpClient = new HttpClient(connectionManager);
+        // Don't wait forever for a pooled connection when the upstream is saturated
+        httpClient.getParams().setConnectionManagerTimeout(connectionTimeout);
+
+        int proxyThreads = getIntParameter(config, "proxyThreads", 50);
+        if (proxyThreads > 0) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(proxyThreads, proxyThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(getIntParameter(config, "proxyQueueSize", 1000)), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "gateway-proxy-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        responseTimeout = getIntParameter(config, "responseTimeout", socketTimeout);
+        if (responseTimeout > 0) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "gateway-proxy-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Most deadlines are cancelled when the upstream answers, don't keep them until they are due
+            timer.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+        }
+        super.destroy();
+    }
+
+    private static int getIntParameter(ServletConfig config, String name, int defaultValue) {
+        String value = config != null ? config.getInitParameter(name) : null;
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
     }
 
     /**
@@ -123,6 +205,57 @@ public abstract class ProxyServlet extends HttpServlet {
      */
     protected abstract void loadRuleBase(ServletConfig config, HttpProxyRuleBase ruleBase) throws ServletException;
 
+    /**
+     * Proxies the request on the proxy thread pool when async processing is supported, otherwise on the calling
+     * container thread.
+     */
+    @Override
+    protected void service(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse)
+            throws ServletException, IOException {
+        if (executor == null || !httpServletRequest.isAsyncSupported()) {
+            try {
+                super.service(httpServletRequest, httpServletResponse);
+            } catch (UpstreamTimeoutException e) {
+                sendError(httpServletResponse, HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+            }
+            return;
+        }
+        AsyncContext asyncContext = httpServletRequest.startAsync(httpServletRequest, httpServletResponse);
+        // The upstream request has its own deadline, the container must not cut long responses being streamed
+        asyncContext.setTimeout(0);
+        final ProxyExchange exchange = new ProxyExchange(asyncContext, httpServletRequest, httpServletResponse);
+        asyncContext.addListener(exchange);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ProxyServlet.super.service(httpServletRequest, httpServletResponse);
+                    } catch (UpstreamTimeoutException e) {
+                        exchange.complete(HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+                    } catch (Exception e) {
+                        LOG.warn("Failed to proxy " + httpServletRequest.getRequestURI() + ": " + e, e);
+                        exchange.complete(HttpServletResponse.SC_BAD_GATEWAY, "Failed to proxy the request");
+                    } finally {
+                        exchange.complete(0, null);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            exchange.complete(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests being proxied");
+        }
+    }
+
+    private static void sendError(HttpServletResponse httpServletResponse, int status, String message) {
+        try {
+            if (!httpServletResponse.isCommitted()) {
+                httpServletResponse.sendError(status, message);
+            }
+        } catch (IOException | IllegalStateException e) {
+            LOG.debug("Could not send the error " + status + " to the client: " + e, e);
+        }
+    }
+
     /**
      * Performs an HTTP GET request
      *
@@ -168,12 +301,7 @@ public abstract class ProxyServlet extends HttpServlet {
             PostMethod postMethodProxyRequest = new PostMethod(proxyDetails.getStringProxyURL());
             // Forward the request headers
             setProxyRequestHeaders(proxyDetails, httpServletRequest, postMethodProxyRequest);
-            // Check if this is a mulitpart (file upload) POST
-            if (ServletFileUpload.isMultipartContent(httpServletRequest)) {
-                this.handleMultipartPost(postMethodProxyRequest, httpServletRequest);
-            } else {
-                this.handleEntity(postMethodProxyRequest, httpServletRequest);
-            }
+            this.handleEntity(postMethodProxyRequest, httpServletRequest);
             // Execute the proxy request
             this.executeProxyRequest(proxyDetails, postMethodProxyRequest, httpServletRequest, httpServletResponse);
         }
@@ -197,11 +325,7 @@ public abstract class ProxyServlet extends HttpServlet {
         } else {
             PutMethod putMethodProxyRequest = new PutMethod(proxyDetails.getStringProxyURL());
             setProxyRequestHeaders(proxyDetails, httpServletRequest, putMethodProxyRequest);
-            if (ServletFileUpload.isMultipartContent(httpServletRequest)) {
-                handleMultipartPost(putMethodProxyRequest, httpServletRequest);
-            } else {
-                handleEntity(putMethodProxyRequest, httpServletRequest);
-            }
+            handleEntity(putMethodProxyRequest, httpServletRequest);
             executeProxyRequest(proxyDetails, putMethodProxyRequest, httpServletRequest, httpServletResponse);
         }
     }
@@ -260,74 +384,9 @@ public abstract class ProxyServlet extends HttpServlet {
 
 
     /**
-     * Sets up the given {@link EntityEnclosingMethod} to send the same multipart
-     * data as was sent in the given {@link javax.servlet.http.HttpServletRequest}
-     *
-     * @param entityEnclosingMethod The {@link EntityEnclosingMethod} that we are
-     *                               configuring to send a multipart request
-     * @param httpServletRequest     The {@link javax.servlet.http.HttpServletRequest} that contains
-     *                               the mutlipart data to be sent via the {@link EntityEnclosingMethod}
-     */
-    private void handleMultipartPost(EntityEnclosingMethod entityEnclosingMethod, HttpServletRequest httpServletRequest)
-            throws ServletException {
-        // Create a factory for disk-based file items
-        DiskFileItemFactory diskFileItemFactory = new DiskFileItemFactory();
-        // Set factory constraints
-        diskFileItemFactory.setSizeThreshold(this.getMaxFileUploadSize());
-        diskFileItemFactory.setRepository(FILE_UPLOAD_TEMP_DIRECTORY);
-        // Create a new file upload handler
-        ServletFileUpload servletFileUpload = new ServletFileUpload(diskFileItemFactory);
-        // Parse the request
-        try {
-            // Get the multipart items as a list
-            List<FileItem> listFileItems = (List<FileItem>) servletFileUpload.parseRequest(httpServletRequest);
-            // Create a list to hold all of the parts
-            List<Part> listParts = new ArrayList<Part>();
-            // Iterate the multipart items list
-            for (FileItem fileItemCurrent : listFileItems) {
-                // If the current item is a form field, then create a string part
-                if (fileItemCurrent.isFormField()) {
-                    StringPart stringPart = new StringPart(
-                            fileItemCurrent.getFieldName(), // The field name
-                            fileItemCurrent.getString()     // The field value
-                    );
-                    // Add the part to the list
-                    listParts.add(stringPart);
-                } else {
-                    // The item is a file upload, so we create a FilePart
-                    FilePart filePart = new FilePart(
-                            fileItemCurrent.getFieldName(),    // The field name
-                            new ByteArrayPartSource(
-                                    fileItemCurrent.getName(), // The uploaded file name
-                                    fileItemCurrent.get()      // The uploaded file contents
-                            )
-                    );
-                    // Add the part to the list
-                    listParts.add(filePart);
-                }
-            }
-            MultipartRequestEntity multipartRequestEntity = new MultipartRequestEntity(
-                    listParts.toArray(new Part[]{}),
-                    entityEnclosingMethod.getParams()
-            );
-            entityEnclosingMethod.setRequestEntity(multipartRequestEntity);
-            // The current content-type header (received from the client) IS of
-            // type "multipart/form-data", but the content-type header also
-            // contains the chunk boundary string of the chunks. Currently, this
-            // header is using the boundary of the client request, since we
-            // blindly copied all headers from the client request to the proxy
-            // request. However, we are creating a new request with a new chunk
-            // boundary string, so it is necessary that we re-set the
-            // content-type string to reflect the new chunk boundary string
-            entityEnclosingMethod.setRequestHeader(STRING_CONTENT_TYPE_HEADER_NAME, multipartRequestEntity.getContentType());
-        } catch (FileUploadException fileUploadException) {
-            throw new ServletException(fileUploadException);
-        }
-    }
-
-    /**
-     * Sets up the given {@link PostMethod} to send the same standard
-     * data as was sent in the given {@link javax.servlet.http.HttpServletRequest}
+     * Sets up the given {@link EntityEnclosingMethod} to send the same body as was sent in the given
+     * {@link javax.servlet.http.HttpServletRequest}, multipart ones included, streaming it rather than
+     * reading it in memory
      *
      * @param entityEnclosingMethod The {@link EntityEnclosingMethod} that we are
      *                               configuring to send a standard request
@@ -336,39 +395,20 @@ public abstract class ProxyServlet extends HttpServlet {
      */
     @SuppressWarnings("unchecked")
     private void handleEntity(EntityEnclosingMethod entityEnclosingMethod, HttpServletRequest httpServletRequest) throws IOException {
-        // Get the client POST data as a Map
-        Map<String, String[]> mapPostParameters = (Map<String, String[]>) httpServletRequest.getParameterMap();
-        // Create a List to hold the NameValuePairs to be passed to the PostMethod
-        List<NameValuePair> listNameValuePairs = new ArrayList<NameValuePair>();
-        // Iterate the parameter names
-        for (String stringParameterName : mapPostParameters.keySet()) {
-            // Iterate the values for each parameter name
-            String[] stringArrayParameterValues = mapPostParameters.get(stringParameterName);
-            for (String stringParamterValue : stringArrayParameterValues) {
-                // Create a NameValuePair and store in list
-                NameValuePair nameValuePair = new NameValuePair(stringParameterName, stringParamterValue);
-                listNameValuePairs.add(nameValuePair);
-            }
-        }
-        RequestEntity entity = null;
-        String contentType = httpServletRequest.getContentType();
-        if (contentType != null) {
-            contentType = contentType.toLowerCase();
-            if (contentType.contains("json") || contentType.contains("xml") || contentType.contains("application") || contentType.contains("text")) {
-                String body = IOHelpers.readFully(httpServletRequest.getReader());
-                entity = new StringRequestEntity(body, contentType, httpServletRequest.getCharacterEncoding());
-                entityEnclosingMethod.setRequestEntity(entity);
-            }
-        }
-        NameValuePair[] parameters = listNameValuePairs.toArray(new NameValuePair[]{});
-        if (entity != null) {
-            // TODO add as URL parameters?
-            //postMethodProxyRequest.addParameters(parameters);
-        } else {
-            // Set the proxy request POST data
-            if (entityEnclosingMethod instanceof PostMethod) {
-                ((PostMethod)entityEnclosingMethod).setRequestBody(parameters);
+        if (httpServletRequest.getContentLength() > 0 || httpServletRequest.getHeader("Transfer-Encoding") != null) {
+            // An unknown length is sent chunked
+            entityEnclosingMethod.setRequestEntity(new InputStreamRequestEntity(
+                    httpServletRequest.getInputStream(), httpServletRequest.getContentLength(), httpServletRequest.getContentType()));
+        } else if (entityEnclosingMethod instanceof PostMethod) {
+            // Without a body, send the request parameters as the POST data
+            Map<String, String[]> mapPostParameters = (Map<String, String[]>) httpServletRequest.getParameterMap();
+            List<NameValuePair> listNameValuePairs = new ArrayList<NameValuePair>();
+            for (Map.Entry<String, String[]> entry : mapPostParameters.entrySet()) {
+                for (String stringParamterValue : entry.getValue()) {
+                    listNameValuePairs.add(new NameValuePair(entry.getKey(), stringParamterValue));
+                }
             }
+            ((PostMethod) entityEnclosingMethod).setRequestBody(listNameValuePairs.toArray(new NameValuePair[listNameValuePairs.size()]));
         }
     }
 
@@ -384,19 +424,43 @@ public abstract class ProxyServlet extends HttpServlet {
      * @throws javax.servlet.ServletException Can be thrown to indicate that another error has occurred
      */
     private void executeProxyRequest(
-            ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest,
+            ProxyDetails proxyDetails, HttpMethodBase httpMethodProxyRequest,
             HttpServletRequest httpServletRequest,
             HttpServletResponse httpServletResponse)
             throws IOException, ServletException {
         httpMethodProxyRequest.setDoAuthentication(false);
         httpMethodProxyRequest.setFollowRedirects(false);
 
-        // Create a default HttpClient
-        HttpClient httpClient = proxyDetails.createHttpClient(httpMethodProxyRequest);
-
-        // Execute the request
-        int intProxyResponseCode = httpClient.executeMethod(httpMethodProxyRequest);
+        httpServletRequest.setAttribute(PROXY_METHOD_ATTRIBUTE, httpMethodProxyRequest);
+        ResponseDeadline deadline = new ResponseDeadline(httpMethodProxyRequest);
+        try {
+            int intProxyResponseCode;
+            try {
+                intProxyResponseCode = getHttpClient().executeMethod(httpMethodProxyRequest);
+            } catch (IOException | IllegalStateException e) {
+                if (deadline.isExpired()) {
+                    throw new UpstreamTimeoutException();
+                }
+                throw e;
+            }
+            if (!deadline.cancel()) {
+                // Expired while the headers were being read, the body can't be read anymore
+                throw new UpstreamTimeoutException();
+            }
+            doExecuteProxyRequest(proxyDetails, httpMethodProxyRequest, intProxyResponseCode, httpServletRequest, httpServletResponse);
+        } finally {
+            deadline.cancel();
+            // Give the connection back to the pool
+            httpMethodProxyRequest.releaseConnection();
+            httpServletRequest.removeAttribute(PROXY_METHOD_ATTRIBUTE);
+        }
+    }
 
+    private void doExecuteProxyRequest(
+            ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest, int intProxyResponseCode,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse)
+            throws IOException, ServletException {
         // Check if the proxy response is a redirect
         // The following code is adapted from org.tigris.noodle.filters.CheckForRedirect
         // Hooray for open source software
@@ -452,21 +516,18 @@ public abstract class ProxyServlet extends HttpServlet {
         int code = httpMethodProxyRequest.getStatusCode();
         boolean noData = code == HttpStatus.SC_NO_CONTENT;
         if (!noData) {
-            String length = httpServletRequest.getHeader(STRING_CONTENT_LENGTH_HEADER_NAME);
-            if (length != null && "0".equals(length.trim())) {
+            Header length = httpMethodProxyRequest.getResponseHeader(STRING_CONTENT_LENGTH_HEADER_NAME);
+            if (length != null && "0".equals(length.getValue().trim())) {
                 noData = true;
             }
         }
         LOG.trace("Response has data? {}", !noData);
 
         if (!noData) {
-            // Send the content to the client
+            // Stream the content to the client
             InputStream inputStreamProxyResponse = httpMethodProxyRequest.getResponseBodyAsStream();
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStreamProxyResponse);
-            OutputStream outputStreamClientResponse = httpServletResponse.getOutputStream();
-            int intNextByte;
-            while ((intNextByte = bufferedInputStream.read()) != -1) {
-                outputStreamClientResponse.write(intNextByte);
+            if (inputStreamProxyResponse != null) {
+                bufferPool.copy(inputStreamProxyResponse, httpServletResponse.getOutputStream());
             }
         }
     }
@@ -480,6 +541,13 @@ public abstract class ProxyServlet extends HttpServlet {
         return resolver;
     }
 
+    /**
+     * Returns the pooled client used for all the upstream requests
+     */
+    protected HttpClient getHttpClient() {
+        return httpClient;
+    }
+
     /**
      * Retrieves all of the headers from the servlet request and sets them on
      * the proxy request
@@ -511,6 +579,10 @@ public abstract class ProxyServlet extends HttpServlet {
                 // the correct virtual server
                 if (stringHeaderName.equalsIgnoreCase(STRING_HOST_HEADER_NAME)) {
                     stringHeaderValue = proxyDetails.getProxyHostAndPort();
+                    if (stringHeaderValue == null) {
+                        // Let the client set the host of the upstream
+                        continue;
+                    }
                 }
                 Header header = new Header(stringHeaderName, stringHeaderValue);
                 // Set the same header on the proxy request
@@ -520,11 +592,152 @@ public abstract class ProxyServlet extends HttpServlet {
     }
 
 
-    private int getMaxFileUploadSize() {
-        return this.intMaxFileUploadSize;
+    /**
+     * Aborts the upstream request when its response headers are not received in time. The deadline starts once the
+     * request body is sent, so that slow uploads are not cut.
+     */
+    private class ResponseDeadline implements Runnable {
+        private final HttpMethodBase method;
+        private final AtomicBoolean expired = new AtomicBoolean();
+        private ScheduledFuture<?> future;
+
+        ResponseDeadline(HttpMethodBase method) {
+            this.method = method;
+            RequestEntity entity = method instanceof EntityEnclosingMethod ? ((EntityEnclosingMethod) method).getRequestEntity() : null;
+            if (entity != null) {
+                ((EntityEnclosingMethod) method).setRequestEntity(new DeadlineRequestEntity(entity, this));
+            } else {
+                start();
+            }
+        }
+
+        synchronized void start() {
+            if (timer != null && future == null) {
+                future = timer.schedule(this, responseTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * @return false if the deadline had already expired
+         */
+        synchronized boolean cancel() {
+            if (future != null) {
+                future.cancel(false);
+            }
+            return !expired.get();
+        }
+
+        boolean isExpired() {
+            return expired.get();
+        }
+
+        @Override
+        public void run() {
+            expired.set(true);
+            method.abort();
+        }
+    }
+
+    /**
+     * Starts the response deadline once the request body is written.
+     */
+    private static class DeadlineRequestEntity implements RequestEntity {
+        private final RequestEntity entity;
+        private final ResponseDeadline deadline;
+
+        DeadlineRequestEntity(RequestEntity entity, ResponseDeadline deadline) {
+            this.entity = entity;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return entity.isRepeatable();
+        }
+
+        @Override
+        public void writeRequest(OutputStream out) throws IOException {
+            entity.writeRequest(out);
+            deadline.start();
+        }
+
+        @Override
+        public long getContentLength() {
+            return entity.getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            return entity.getContentType();
+        }
+    }
+
+    private static class UpstreamTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UpstreamTimeoutException() {
+            super("The upstream did not answer in time");
+        }
     }
 
-    private void setMaxFileUploadSize(int intMaxFileUploadSizeNew) {
-        this.intMaxFileUploadSize = intMaxFileUploadSizeNew;
+    /**
+     * An async request being proxied. Either the proxy thread or the container, when the client connection fails,
+     * ends it, and only the first one writes the error and completes the async context.
+     */
+    private static class ProxyExchange implements AsyncListener {
+        private final AsyncContext asyncContext;
+        private final HttpServletRequest httpServletRequest;
+        private final HttpServletResponse httpServletResponse;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        ProxyExchange(AsyncContext asyncContext, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
+            this.asyncContext = asyncContext;
+            this.httpServletRequest = httpServletRequest;
+            this.httpServletResponse = httpServletResponse;
+        }
+
+        /**
+         * Sends the error if the status is not 0 and completes the async context, unless the exchange was already
+         * completed.
+         */
+        void complete(int status, String message) {
+            if (completed.compareAndSet(false, true)) {
+                if (status != 0) {
+                    sendError(httpServletResponse, status, message);
+                }
+                try {
+                    asyncContext.complete();
+                } catch (IllegalStateException e) {
+                    LOG.debug("Could not complete the request: " + e, e);
+                }
+            }
+        }
+
+        private void abort() {
+            Object method = httpServletRequest.getAttribute(PROXY_METHOD_ATTRIBUTE);
+            if (method instanceof HttpMethodBase) {
+                ((HttpMethodBase) method).abort();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            abort();
+            complete(HttpServletResponse.SC_GATEWAY_TIMEOUT, "The upstream did not answer in time");
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            abort();
+            complete(0, null);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
     }
 }
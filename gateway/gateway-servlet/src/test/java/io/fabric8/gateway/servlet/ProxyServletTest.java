@@ -0,0 +1,226 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.servlet;
+
+import io.fabric8.gateway.model.HttpProxyRuleBase;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of the proxy servlet against a local Jetty upstream, checking large payloads are streamed both ways
+ * while many requests go through, and that a slow upstream doesn't hold the client forever.
+ */
+public class ProxyServletTest {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ProxyServletTest.class);
+
+    private static final int LARGE_SIZE = 16 * 1024 * 1024;
+
+    private Server upstream;
+    private Server gateway;
+    private int gatewayPort;
+
+    @Before
+    public void setUp() throws Exception {
+        upstream = new Server(0);
+        upstream.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                response.setContentType("application/octet-stream");
+                if (target.equals("/large")) {
+                    // No content length, so that the response is chunked
+                    OutputStream out = response.getOutputStream();
+                    byte[] chunk = new byte[8 * 1024];
+                    for (int i = 0; i < LARGE_SIZE; i += chunk.length) {
+                        fill(chunk, i);
+                        out.write(chunk);
+                    }
+                } else if (target.equals("/count")) {
+                    // The proxy only reads the response once the request is sent, so the body is not echoed
+                    response.getWriter().write(Long.toString(readAndVerify(request.getInputStream())));
+                } else if (target.equals("/trickle")) {
+                    // The headers come at once, the body for longer than the response timeout
+                    OutputStream out = response.getOutputStream();
+                    byte[] chunk = new byte[1024];
+                    for (int i = 0; i < 20 * chunk.length; i += chunk.length) {
+                        fill(chunk, i);
+                        out.write(chunk);
+                        out.flush();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                } else if (target.equals("/slow")) {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    response.getWriter().write("too late");
+                } else {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                }
+            }
+        });
+        upstream.start();
+        final int upstreamPort = upstream.getConnectors()[0].getLocalPort();
+
+        gateway = new Server(0);
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        ServletHolder holder = new ServletHolder(new ProxyServlet() {
+            @Override
+            protected void loadRuleBase(ServletConfig config, HttpProxyRuleBase ruleBase) throws ServletException {
+                ruleBase.rule("/upstream/{path}").to("http://localhost:" + upstreamPort + "/{path}");
+            }
+        });
+        holder.setAsyncSupported(true);
+        holder.setInitParameter("maxConnectionsPerHost", "8");
+        holder.setInitParameter("proxyThreads", "8");
+        holder.setInitParameter("responseTimeout", "1000");
+        context.addServlet(holder, "/*");
+        gateway.setHandler(context);
+        gateway.start();
+        gatewayPort = gateway.getConnectors()[0].getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gateway.stop();
+        upstream.stop();
+    }
+
+    @Test
+    public void testLargeDownloadsUnderLoad() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 64; i++) {
+                results.add(clients.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        HttpURLConnection connection = open("/upstream/large");
+                        assertEquals(200, connection.getResponseCode());
+                        return readAndVerify(connection.getInputStream());
+                    }
+                }));
+            }
+            for (Future<Long> result : results) {
+                assertEquals(LARGE_SIZE, result.get().longValue());
+            }
+            long time = System.currentTimeMillis() - start;
+            LOG.info("Proxied " + results.size() + " responses of " + LARGE_SIZE + " bytes in " + time + "ms, "
+                    + (results.size() * (long) LARGE_SIZE / 1024 / 1024 * 1000 / Math.max(time, 1)) + "MB/s");
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLargeUploadIsStreamed() throws Exception {
+        HttpURLConnection connection = open("/upstream/count");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setChunkedStreamingMode(8 * 1024);
+        OutputStream out = connection.getOutputStream();
+        byte[] chunk = new byte[8 * 1024];
+        for (int i = 0; i < LARGE_SIZE; i += chunk.length) {
+            fill(chunk, i);
+            out.write(chunk);
+        }
+        out.close();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(Integer.toString(LARGE_SIZE), new Scanner(connection.getInputStream(), "UTF-8").useDelimiter("\\A").next());
+    }
+
+    @Test
+    public void testSlowBodyIsNotCut() throws Exception {
+        HttpURLConnection connection = open("/upstream/trickle");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(20 * 1024, readAndVerify(connection.getInputStream()));
+    }
+
+    @Test
+    public void testSlowUpstreamTimesOut() throws Exception {
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = open("/upstream/slow");
+        assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, connection.getResponseCode());
+        assertTrue("Answered after " + (System.currentTimeMillis() - start) + "ms",
+                System.currentTimeMillis() - start < 4000);
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + gatewayPort + path).openConnection();
+        connection.setReadTimeout(30000);
+        return connection;
+    }
+
+    private static void fill(byte[] chunk, int offset) {
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) ((offset + i) % 251);
+        }
+    }
+
+    private static long readAndVerify(InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            long count = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != (byte) ((count + i) % 251)) {
+                        throw new IOException("Unexpected byte at " + (count + i));
+                    }
+                }
+                count += n;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -23,9 +23,16 @@ import java.util.LinkedList;
 import java.util.Map;
 
 /**
- *
+ * The profiling state of an exchange, kept as a property of the exchange itself.
  */
 public class ExchangeData implements Synchronization {
+
+    /**
+     * The exchange property holding the {@link ExchangeData}, or the exchange id if the exchange is not sampled
+     */
+    public static final String PROPERTY = "CamelInsightProfilerData";
+
+    final String exchangeId;
     final Map<Stats, ProcessorData> data = new HashMap<Stats, ProcessorData>();
     final LinkedList<Stats> queue = new LinkedList<Stats>();
     long last;
@@ -37,6 +44,9 @@ public class ExchangeData implements Synchronization {
         long total;
     }
 
+    public ExchangeData(String exchangeId) {
+        this.exchangeId = exchangeId;
+    }
 
     @Override
     public void onComplete(Exchange exchange) {
@@ -19,6 +19,7 @@ import io.fabric8.insight.camel.base.SwitchableContainerStrategy;
 import org.apache.camel.CamelContext;
 import org.apache.camel.CamelContextAware;
 import org.apache.camel.Processor;
+import org.apache.camel.api.management.ManagedAttribute;
 import org.apache.camel.api.management.ManagedResource;
 import org.apache.camel.model.ProcessorDefinition;
 import org.apache.camel.model.ProcessorDefinitionHelper;
@@ -27,12 +28,17 @@ import org.apache.camel.model.RouteDefinitionHelper;
 import org.apache.camel.spi.ProcessorFactory;
 import org.apache.camel.spi.RouteContext;
 import org.apache.camel.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  *
@@ -40,8 +46,12 @@ import java.util.concurrent.ConcurrentHashMap;
 @ManagedResource(description = "Profiler")
 public class Profiler extends SwitchableContainerStrategy implements ProfilerMBean {
 
-    private final Map<ProcessorDefinition<?>, Stats> statistics = new LinkedHashMap<ProcessorDefinition<?>, Stats>();
-    private final Map<String, ExchangeData> exchanges = new ConcurrentHashMap<String, ExchangeData>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(Profiler.class);
+
+    private final ConcurrentMap<ProcessorDefinition<?>, Stats> statistics = new ConcurrentHashMap<ProcessorDefinition<?>, Stats>();
+    // The stats in creation order, so that the dumps list the processors in route order
+    private final List<Stats> orderedStatistics = new CopyOnWriteArrayList<Stats>();
+    private volatile int sampling = 1;
 
     public Profiler() {
         disable();
@@ -76,7 +86,7 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
                 RouteDefinitionHelper.forceAssignIds(routeContext.getCamelContext(), route);
             }
         }
-        ProfilerProcessor profilerProcessor = new ProfilerProcessor(this, processor, getStats(definition), exchanges);
+        ProfilerProcessor profilerProcessor = new ProfilerProcessor(this, processor, getStats(definition));
         profilerProcessor.setCamelContext(routeContext.getCamelContext());
         if (processor instanceof CamelContextAware) {
             ((CamelContextAware) processor).setCamelContext(routeContext.getCamelContext());
@@ -84,10 +94,44 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
         return profilerProcessor;
     }
 
+    @Override
+    public void update(Map<String, String> properties) {
+        super.update(properties);
+        // Keep the sampling set through JMX when the configuration does not define it
+        String value = properties != null ? properties.get("sampling") : null;
+        if (value != null) {
+            try {
+                setSampling(Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring invalid profiler sampling: " + value);
+            }
+        }
+    }
+
+    /**
+     * Decide whether a new exchange should be profiled
+     */
+    boolean sample() {
+        int n = sampling;
+        return n <= 1 || ThreadLocalRandom.current().nextInt(n) == 0;
+    }
+
+    @Override
+    @ManagedAttribute(description = "Profile one exchange out of the given number")
+    public int getSampling() {
+        return sampling;
+    }
+
+    @Override
+    @ManagedAttribute(description = "Profile one exchange out of the given number")
+    public void setSampling(int sampling) {
+        this.sampling = Math.max(1, sampling);
+    }
+
     public String dumpStatsAsXml(String routeId) {
-        Set<RouteDefinition> routes = new HashSet<RouteDefinition>();
-        for (ProcessorDefinition<?> definition : statistics.keySet()) {
-            RouteDefinition route = ProcessorDefinitionHelper.getRoute(definition);
+        Set<RouteDefinition> routes = new LinkedHashSet<RouteDefinition>();
+        for (Stats stats : orderedStatistics) {
+            RouteDefinition route = ProcessorDefinitionHelper.getRoute(stats.getDefinition());
             routes.add(route);
         }
         StringBuilder sb = new StringBuilder();
@@ -125,10 +169,14 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
             sb.append(" count=\"").append(stats.getCount()).append("\"");
             sb.append(" self=\"").append(stats.getSelf()).append("\"");
             sb.append(" total=\"").append(stats.getTotal()).append("\"");
+            sb.append(" p50=\"").append(stats.getPercentile(50)).append("\"");
+            sb.append(" p90=\"").append(stats.getPercentile(90)).append("\"");
+            sb.append(" p99=\"").append(stats.getPercentile(99)).append("\"");
+            sb.append(" max=\"").append(stats.getMax()).append("\"");
             sb.append(">");
-            for (ProcessorDefinition<?> child : statistics.keySet()) {
-                if (child.getParent() == definition) {
-                    appendStats(sb, child);
+            for (Stats child : orderedStatistics) {
+                if (child.getDefinition().getParent() == definition) {
+                    appendStats(sb, child.getDefinition());
                 }
             }
             sb.append("</processor>");
@@ -137,20 +185,25 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
 
     public Stats getStats(ProcessorDefinition<?> definition) {
         if (definition != null) {
-            synchronized (statistics) {
-                Stats stats = statistics.get(definition);
-                if (stats == null) {
-                    stats = new Stats(definition, getStats(definition.getParent()));
-                    statistics.put(definition, stats);
+            Stats stats = statistics.get(definition);
+            if (stats == null) {
+                Stats parent = getStats(definition.getParent());
+                synchronized (orderedStatistics) {
+                    stats = statistics.get(definition);
+                    if (stats == null) {
+                        stats = new Stats(definition, parent);
+                        statistics.put(definition, stats);
+                        orderedStatistics.add(stats);
+                    }
                 }
-                return stats;
             }
+            return stats;
         }
         return null;
     }
 
     public void reset() {
-        for (Stats stats : statistics.values()) {
+        for (Stats stats : orderedStatistics) {
             stats.reset();
         }
     }
@@ -26,4 +26,8 @@ public interface ProfilerMBean extends SwitchableContainerStrategyMBean {
 
     String dumpStatsAsXml(String routeId);
 
+    int getSampling();
+
+    void setSampling(int sampling);
+
 }
@@ -18,22 +18,18 @@ package io.fabric8.insight.camel.profiler;
 import org.apache.camel.*;
 import org.apache.camel.processor.DelegateAsyncProcessor;
 
-import java.util.Map;
-
 /**
  *
  */
 public class ProfilerProcessor extends DelegateAsyncProcessor implements CamelContextAware {
     private final Profiler profiler;
     private final Stats stats;
-    private final Map<String, ExchangeData> exchanges;
     private CamelContext camelContext;
 
-    public ProfilerProcessor(Profiler profiler, Processor processor, Stats stats, Map<String, ExchangeData> exchanges) {
+    public ProfilerProcessor(Profiler profiler, Processor processor, Stats stats) {
         super(processor);
         this.profiler = profiler;
         this.stats = stats;
-        this.exchanges = exchanges;
     }
 
     @Override
@@ -41,13 +37,10 @@ public class ProfilerProcessor extends DelegateAsyncProcessor implements CamelCo
         if (!profiler.isEnabled(exchange)) {
             return processor.process(exchange, callback);
         }
-        ExchangeData data = exchanges.get(exchange.getExchangeId());
-        if (data == null) {
-            data = new ExchangeData();
-            exchanges.put(exchange.getExchangeId(), data);
-            exchange.addOnCompletion(data);
+        final ExchangeData ed = getExchangeData(exchange);
+        if (ed == null) {
+            return processor.process(exchange, callback);
         }
-        final ExchangeData ed = data;
         ed.start(stats);
         try {
             return processor.process(exchange, new AsyncCallback() {
@@ -57,17 +50,36 @@ public class ProfilerProcessor extends DelegateAsyncProcessor implements CamelCo
                     try {
                         callback.done(doneSync);
                     } finally {
-                        if (ed.stop(stats)) {
-                            exchanges.remove(exchange.getExchangeId());
-                        }
+                        ed.stop(stats);
                     }
                 }
             });
         } finally {
-            if (ed.stop(stats)) {
-                exchanges.remove(exchange.getExchangeId());
-            }
+            ed.stop(stats);
+        }
+    }
+
+    /**
+     * Return the profiling state of the exchange, or <code>null</code> if the exchange is not sampled.
+     * Properties are copied to the exchanges created by splitters and the like, so the state is only
+     * used if it belongs to this very exchange.
+     */
+    protected ExchangeData getExchangeData(Exchange exchange) {
+        String exchangeId = exchange.getExchangeId();
+        Object property = exchange.getProperty(ExchangeData.PROPERTY);
+        if (property instanceof ExchangeData && exchangeId.equals(((ExchangeData) property).exchangeId)) {
+            return (ExchangeData) property;
+        } else if (property instanceof String && exchangeId.equals(property)) {
+            return null;
+        }
+        if (!profiler.sample()) {
+            exchange.setProperty(ExchangeData.PROPERTY, exchangeId);
+            return null;
         }
+        ExchangeData data = new ExchangeData(exchangeId);
+        exchange.setProperty(ExchangeData.PROPERTY, data);
+        exchange.addOnCompletion(data);
+        return data;
     }
 
     @Override
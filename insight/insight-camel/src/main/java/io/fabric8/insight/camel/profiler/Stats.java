@@ -17,15 +17,15 @@ package io.fabric8.insight.camel.profiler;
 
 import org.apache.camel.model.ProcessorDefinition;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 /**
- *
+ * The statistics of a processor.  Updates do not lock, so that exchanges completing
+ * concurrently on the same processor do not contend with each other.
  */
 public class Stats {
-    final AtomicLong count = new AtomicLong();
-    final AtomicLong self = new AtomicLong();
-    final AtomicLong total = new AtomicLong();
+    final StripedCounter count = new StripedCounter();
+    final StripedCounter self = new StripedCounter();
+    final StripedCounter total = new StripedCounter();
+    final Histogram histogram = new Histogram();
     final Stats parent;
     final ProcessorDefinition definition;
 
@@ -34,32 +34,49 @@ public class Stats {
         this.parent = parent;
     }
 
-    public synchronized void addTime(long self, long total) {
-        this.count.incrementAndGet();
-        this.self.addAndGet(self);
-        this.total.addAndGet(total);
+    public void addTime(long self, long total) {
+        this.count.increment();
+        this.self.add(self);
+        this.total.add(total);
+        this.histogram.record(total);
     }
 
     public Stats getParent() {
         return parent;
     }
 
+    public ProcessorDefinition getDefinition() {
+        return definition;
+    }
+
     public long getCount() {
-        return count.get();
+        return count.sum();
     }
 
     public long getSelf() {
-        return self.get();
+        return self.sum();
     }
 
     public long getTotal() {
-        return total.get();
+        return total.sum();
+    }
+
+    /**
+     * The total time in nanoseconds below which the given percentage of the exchanges completed
+     */
+    public long getPercentile(double percentile) {
+        return histogram.getPercentile(percentile);
+    }
+
+    public long getMax() {
+        return histogram.getMax();
     }
 
     public void reset() {
-        count.set(0);
-        self.set(0);
-        total.set(0);
+        count.reset();
+        self.reset();
+        total.reset();
+        histogram.reset();
     }
 
     public String toString() {
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.camel.profiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProfilerTest {
+
+    @Test
+    public void testSamplingConfiguration() {
+        Profiler profiler = new Profiler();
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("sampling", " 10 ");
+        profiler.update(properties);
+        assertEquals(10, profiler.getSampling());
+
+        // A rate set through JMX is kept by updates not defining it
+        profiler.setSampling(5);
+        profiler.update(new HashMap<String, String>());
+        assertEquals(5, profiler.getSampling());
+
+        // Invalid values are ignored
+        properties.put("sampling", "often");
+        profiler.update(properties);
+        assertEquals(5, profiler.getSampling());
+    }
+
+}
@@ -18,13 +18,11 @@ package io.fabric8.insight.elasticsearch;
 import io.fabric8.insight.metrics.model.MetricsStorageService;
 import io.fabric8.insight.metrics.model.QueryResult;
 import io.fabric8.insight.metrics.mvel.MetricsStorageServiceImpl;
-import io.fabric8.insight.storage.StorageService;
+import io.fabric8.insight.storage.BoundedStorageService;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequest;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequestBuilder;
-import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.node.Node;
@@ -33,26 +31,114 @@ import org.slf4j.LoggerFactory;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public abstract class AbstractElasticsearchStorage implements StorageService, MetricsStorageService, Runnable {
+public abstract class AbstractElasticsearchStorage implements BoundedStorageService, MetricsStorageService, ElasticsearchStorageMBean, Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractElasticsearchStorage.class);
 
-    private static final SimpleDateFormat indexFormat = new SimpleDateFormat("yyyy.MM.dd");
+    public static final String BULK_ACTIONS = "bulk.actions";
+    public static final String BULK_SIZE = "bulk.size";
+    public static final String BULK_LINGER = "bulk.linger";
+    public static final String BULK_CONCURRENT_REQUESTS = "bulk.concurrent.requests";
+    public static final String BULK_RETRIES = "bulk.retries";
+    public static final String BULK_BACKOFF = "bulk.backoff";
 
-    private int max = 1000;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static final long POLL_INTERVAL = 1000;
+    private static final long STOP_TIMEOUT = 5000;
+
+    private static final ThreadLocal<SimpleDateFormat> indexFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+
+    private int maxActions = 1000;
+
+    private long maxBytes = 5 * 1024 * 1024;
+
+    private long linger = 200;
+
+    private BulkIndexer indexer;
 
     protected Thread thread;
 
     protected volatile boolean running;
 
-    private BlockingQueue<ActionRequest> queue = new LinkedBlockingQueue<ActionRequest>();
+    private final BlockingQueue<ActionRequest> queue;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong refused = new AtomicLong();
 
     private MetricsStorageService metricsStorage = new MetricsStorageServiceImpl(this);
 
+    protected AbstractElasticsearchStorage() {
+        this(DEFAULT_QUEUE_SIZE);
+    }
+
+    protected AbstractElasticsearchStorage(int queueSize) {
+        this.queue = new ArrayBlockingQueue<ActionRequest>(queueSize);
+    }
+
+    /**
+     * Start the thread which sends the queued documents, using the bulk settings from the component configuration.
+     */
+    protected void start(String name, Map<String, ?> configuration) {
+        maxActions = getInt(configuration, BULK_ACTIONS, 1000);
+        maxBytes = getLong(configuration, BULK_SIZE, 5 * 1024 * 1024);
+        linger = getLong(configuration, BULK_LINGER, 200);
+        indexer = new BulkIndexer(this,
+                getInt(configuration, BULK_CONCURRENT_REQUESTS, 2),
+                getInt(configuration, BULK_RETRIES, 3),
+                getLong(configuration, BULK_BACKOFF, 100));
+        indexer.start(name);
+        running = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    protected void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (indexer != null) {
+            try {
+                indexer.stop(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int getInt(Map<String, ?> configuration, String key, int defaultValue) {
+        Object value = configuration != null ? configuration.get(key) : null;
+        return value != null ? Integer.parseInt(value.toString().trim()) : defaultValue;
+    }
+
+    private static long getLong(Map<String, ?> configuration, String key, long defaultValue) {
+        Object value = configuration != null ? configuration.get(key) : null;
+        return value != null ? Long.parseLong(value.toString().trim()) : defaultValue;
+    }
+
     protected void putInsightTemplate() {
         IndicesAdminClient indicesAdminClient = getNode().client().admin().indices();
 
@@ -70,44 +156,170 @@ public abstract class AbstractElasticsearchStorage implements StorageService, Me
         metricsStorage.store(type, timestamp, queryResult);
     }
 
+    /**
+     * Queue the document for indexing. When too many documents are already waiting to be sent,
+     * the oldest one is dropped and counted as rejected, so that callers are never blocked or failed.
+     * Callers able to keep the document elsewhere should use {@link #offer(String, long, String)}.
+     */
     @Override
     public void store(String type, long timestamp, String jsonData) {
-        Date ts = new Date(timestamp);
-        Date utc = new Date(ts.getTime() + ts.getTimezoneOffset() * 60000);
-        IndexRequest ir = new IndexRequest()
-                .index("insight-"+ indexFormat.format(utc))
+        IndexRequest ir = createRequest(type, timestamp, jsonData);
+        while (!queue.offer(ir)) {
+            if (queue.poll() != null) {
+                rejected.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Queue the document for indexing, unless too many documents are already waiting to be sent,
+     * which happens when the cluster is not able to keep up or is not available.
+     */
+    @Override
+    public boolean offer(String type, long timestamp, String jsonData) {
+        if (!queue.offer(createRequest(type, timestamp, jsonData))) {
+            refused.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private IndexRequest createRequest(String type, long timestamp, String jsonData) {
+        return new IndexRequest()
+                .index("insight-"+ indexFormat.get().format(new Date(timestamp)))
                 .type(type)
                 .source(jsonData)
                 .create(true);
-        queue.add(ir);
     }
 
+    /**
+     * Collect the queued documents into bulk requests, sent when reaching the maximum
+     * number of actions or size, or when the oldest document has waited for the linger time.
+     * The documents still pending are sent when stopping.
+     */
     public void run() {
+        BulkRequest bulk = new BulkRequest();
+        long first = 0;
         while (running) {
             try {
-                ActionRequest req = queue.take();
-                // Send data
-                BulkRequest bulk = new BulkRequest();
-                int nb = 0;
-                while (req != null && (nb == 0 || nb < max)) {
+                long timeout = bulk.numberOfActions() == 0 ? POLL_INTERVAL : first + linger - System.currentTimeMillis();
+                ActionRequest req = timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS) : queue.poll();
+                while (req != null) {
+                    if (bulk.numberOfActions() == 0) {
+                        first = System.currentTimeMillis();
+                    }
                     bulk.add(req);
-                    nb++;
+                    if (bulk.numberOfActions() >= maxActions || bulk.estimatedSizeInBytes() >= maxBytes) {
+                        break;
+                    }
                     req = queue.poll();
                 }
-                if (bulk.numberOfActions() > 0) {
-                    BulkResponse rep = getNode().client().bulk(bulk).actionGet();
-                    for (BulkItemResponse bir : rep.getItems()) {
-                        if (bir.isFailed()) {
-                            LOGGER.warn("Error executing request: {}", bir.getFailureMessage());
-                        }
-                    }
+                if (bulk.numberOfActions() > 0
+                        && (bulk.numberOfActions() >= maxActions
+                            || bulk.estimatedSizeInBytes() >= maxBytes
+                            || System.currentTimeMillis() - first >= linger)) {
+                    // Only replaced once sent, so that an interrupted bulk is flushed when stopping
+                    indexer.execute(bulk);
+                    bulk = new BulkRequest();
                 }
+            } catch (InterruptedException e) {
+                // Check if we are still running
             } catch (Exception e) {
+                // The indexer counted the documents of the bulk as failed
+                bulk = new BulkRequest();
                 if (running) {
                     LOGGER.warn("Error while sending requests", e);
                 }
             }
         }
+        // Clear the interruption from stop() before sending the last documents
+        Thread.interrupted();
+        flush(bulk);
+    }
+
+    private void flush(BulkRequest bulk) {
+        try {
+            ActionRequest req;
+            while ((req = queue.poll()) != null) {
+                bulk.add(req);
+                if (bulk.numberOfActions() >= maxActions || bulk.estimatedSizeInBytes() >= maxBytes) {
+                    indexer.execute(bulk);
+                    bulk = new BulkRequest();
+                }
+            }
+            if (bulk.numberOfActions() > 0) {
+                indexer.execute(bulk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.warn("Error while sending the remaining requests", e);
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getRefused() {
+        return refused.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        return indexer != null ? indexer.getInFlight() : 0;
+    }
+
+    @Override
+    public long getBulkCount() {
+        return indexer != null ? indexer.getBulkCount() : 0;
+    }
+
+    @Override
+    public long getIndexed() {
+        return indexer != null ? indexer.getIndexed() : 0;
+    }
+
+    @Override
+    public long getRetried() {
+        return indexer != null ? indexer.getRetried() : 0;
+    }
+
+    @Override
+    public long getFailed() {
+        return indexer != null ? indexer.getFailed() : 0;
+    }
+
+    @Override
+    public double getAverageBulkActions() {
+        return indexer != null ? indexer.getAverageBulkActions() : 0.0;
+    }
+
+    @Override
+    public double getAverageBulkBytes() {
+        return indexer != null ? indexer.getAverageBulkBytes() : 0.0;
+    }
+
+    @Override
+    public double getAverageBulkLatency() {
+        return indexer != null ? indexer.getAverageBulkLatency() : 0.0;
+    }
+
+    @Override
+    public long getMaxBulkLatency() {
+        return indexer != null ? indexer.getMaxBulkLatency() : 0;
+    }
+
+    @Override
+    public long getLastBulkLatency() {
+        return indexer != null ? indexer.getLastBulkLatency() : 0;
     }
 
     public abstract Node getNode();
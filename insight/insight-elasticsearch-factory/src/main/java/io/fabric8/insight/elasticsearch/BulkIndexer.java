@@ -0,0 +1,285 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.elasticsearch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes bulk requests asynchronously, with a bounded number of requests in flight.
+ * Documents rejected by the cluster are sent again with an exponential backoff.
+ */
+public class BulkIndexer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkIndexer.class);
+
+    private final AbstractElasticsearchStorage storage;
+    private final int concurrentRequests;
+    private final int maxRetries;
+    private final long backoff;
+    private final Semaphore semaphore;
+
+    private ScheduledExecutorService scheduler;
+    private final Set<Retry> pendingRetries = Collections.newSetFromMap(new ConcurrentHashMap<Retry, Boolean>());
+
+    private final AtomicLong bulkCount = new AtomicLong();
+    private final AtomicLong bulkActions = new AtomicLong();
+    private final AtomicLong bulkBytes = new AtomicLong();
+    private final AtomicLong bulkLatency = new AtomicLong();
+    private final AtomicLong maxBulkLatency = new AtomicLong();
+    private volatile long lastBulkLatency;
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public BulkIndexer(AbstractElasticsearchStorage storage, int concurrentRequests, int maxRetries, long backoff) {
+        this.storage = storage;
+        this.concurrentRequests = concurrentRequests;
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+        this.semaphore = new Semaphore(concurrentRequests);
+    }
+
+    public synchronized void start(final String name) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name + "-retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop retrying and wait for the requests in flight to complete.
+     * The documents waiting for a retry are counted as failed.
+     */
+    public synchronized void stop(long timeout) throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        long dropped = 0;
+        for (Retry retry : pendingRetries) {
+            if (pendingRetries.remove(retry)) {
+                dropped += retry.bulk.numberOfActions();
+            }
+        }
+        if (dropped > 0) {
+            failed.addAndGet(dropped);
+            LOGGER.warn("Dropped {} documents waiting to be sent again", dropped);
+        }
+        if (semaphore.tryAcquire(concurrentRequests, timeout, TimeUnit.MILLISECONDS)) {
+            semaphore.release(concurrentRequests);
+        }
+    }
+
+    /**
+     * Send the bulk request, blocking while the maximum number of requests are in flight.
+     */
+    public void execute(BulkRequest bulk) throws InterruptedException {
+        execute(bulk, 0);
+    }
+
+    private void execute(final BulkRequest bulk, final int attempt) throws InterruptedException {
+        semaphore.acquire();
+        final long start = System.nanoTime();
+        final int actions = bulk.numberOfActions();
+        bulkCount.incrementAndGet();
+        bulkActions.addAndGet(actions);
+        bulkBytes.addAndGet(bulk.estimatedSizeInBytes());
+        try {
+            Client client = storage.getNode().client();
+            client.bulk(bulk, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    semaphore.release();
+                    recordLatency(start);
+                    BulkRequest retry = null;
+                    List<ActionRequest> requests = bulk.requests();
+                    for (BulkItemResponse bir : response.getItems()) {
+                        if (!bir.isFailed()) {
+                            indexed.incrementAndGet();
+                        } else if (isRejected(bir) && attempt < maxRetries) {
+                            if (retry == null) {
+                                retry = new BulkRequest();
+                            }
+                            retry.add(requests.get(bir.getItemId()));
+                        } else {
+                            failed.incrementAndGet();
+                            LOGGER.warn("Error executing request: {}", bir.getFailureMessage());
+                        }
+                    }
+                    if (retry != null) {
+                        retry(retry, attempt + 1);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    semaphore.release();
+                    recordLatency(start);
+                    if (attempt < maxRetries) {
+                        LOGGER.debug("Error while sending requests, retrying", e);
+                        retry(bulk, attempt + 1);
+                    } else {
+                        failed.addAndGet(actions);
+                        LOGGER.warn("Error while sending requests", e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            semaphore.release();
+            failed.addAndGet(actions);
+            throw e;
+        }
+    }
+
+    private void retry(final BulkRequest bulk, final int attempt) {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = this.scheduler;
+        }
+        int actions = bulk.numberOfActions();
+        if (scheduler == null) {
+            failed.addAndGet(actions);
+            return;
+        }
+        retried.addAndGet(actions);
+        long delay = backoff << Math.min(attempt - 1, 16);
+        Retry retry = new Retry(bulk, attempt);
+        pendingRetries.add(retry);
+        try {
+            scheduler.schedule(retry, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Scheduler has been shut down
+            if (pendingRetries.remove(retry)) {
+                failed.addAndGet(actions);
+            }
+        }
+    }
+
+    private class Retry implements Runnable {
+        private final BulkRequest bulk;
+        private final int attempt;
+
+        Retry(BulkRequest bulk, int attempt) {
+            this.bulk = bulk;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            // Already counted as failed if stopping
+            if (!pendingRetries.remove(this)) {
+                return;
+            }
+            try {
+                execute(bulk, attempt);
+            } catch (InterruptedException e) {
+                failed.addAndGet(bulk.numberOfActions());
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.warn("Error while sending requests", e);
+            }
+        }
+    }
+
+    private static boolean isRejected(BulkItemResponse bir) {
+        BulkItemResponse.Failure failure = bir.getFailure();
+        return failure != null
+                && (failure.getStatus() == RestStatus.TOO_MANY_REQUESTS
+                    || (failure.getMessage() != null && failure.getMessage().contains(EsRejectedExecutionException.class.getSimpleName())));
+    }
+
+    private void recordLatency(long start) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastBulkLatency = latency;
+        bulkLatency.addAndGet(latency);
+        long max;
+        while ((max = maxBulkLatency.get()) < latency) {
+            if (maxBulkLatency.compareAndSet(max, latency)) {
+                break;
+            }
+        }
+    }
+
+    public int getInFlight() {
+        return concurrentRequests - semaphore.availablePermits();
+    }
+
+    public long getBulkCount() {
+        return bulkCount.get();
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public double getAverageBulkActions() {
+        long count = bulkCount.get();
+        return count > 0 ? (double) bulkActions.get() / count : 0.0;
+    }
+
+    public double getAverageBulkBytes() {
+        long count = bulkCount.get();
+        return count > 0 ? (double) bulkBytes.get() / count : 0.0;
+    }
+
+    public double getAverageBulkLatency() {
+        long count = bulkCount.get();
+        return count > 0 ? (double) bulkLatency.get() / count : 0.0;
+    }
+
+    public long getMaxBulkLatency() {
+        return maxBulkLatency.get();
+    }
+
+    public long getLastBulkLatency() {
+        return lastBulkLatency;
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.elasticsearch;
+
+public interface ElasticsearchStorageMBean {
+
+    /**
+     * The number of documents waiting to be added to a bulk request
+     */
+    int getQueueSize();
+
+    /**
+     * The number of queued documents dropped because the queue was full
+     */
+    long getRejected();
+
+    /**
+     * The number of offered documents refused because the queue was full
+     */
+    long getRefused();
+
+    /**
+     * The number of bulk requests currently being executed
+     */
+    int getInFlight();
+
+    /**
+     * The number of bulk requests sent, including retries
+     */
+    long getBulkCount();
+
+    /**
+     * The number of documents indexed successfully
+     */
+    long getIndexed();
+
+    /**
+     * The number of documents sent again after being rejected
+     */
+    long getRetried();
+
+    /**
+     * The number of documents which could not be indexed
+     */
+    long getFailed();
+
+    /**
+     * The average number of documents per bulk request
+     */
+    double getAverageBulkActions();
+
+    /**
+     * The average estimated size in bytes of a bulk request
+     */
+    double getAverageBulkBytes();
+
+    /**
+     * The average time in milliseconds taken by a bulk request
+     */
+    double getAverageBulkLatency();
+
+    /**
+     * The maximum time in milliseconds taken by a bulk request
+     */
+    long getMaxBulkLatency();
+
+    /**
+     * The time in milliseconds taken by the last bulk request
+     */
+    long getLastBulkLatency();
+
+}
@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.elasticsearch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkIndexerTest {
+
+    private TestStorage storage;
+
+    @After
+    public void tearDown() {
+        if (storage != null) {
+            storage.stop();
+        }
+    }
+
+    @Test
+    public void testFlushOnSize() throws Exception {
+        storage = new TestStorage(false);
+        storage.start(5, 60000, 0, 100);
+        for (int i = 0; i < 12; i++) {
+            storage.store("test", System.currentTimeMillis(), "{\"n\":" + i + "}");
+        }
+        // Full bulks are sent at once, the remaining documents wait for the linger time
+        waitFor(storage, 10);
+        assertEquals(Arrays.asList(5, 5), storage.getBulkSizes());
+
+        storage.stop();
+        assertEquals(Arrays.asList(5, 5, 2), storage.getBulkSizes());
+        assertEquals(12, storage.getIndexed());
+    }
+
+    @Test
+    public void testFlushOnInterval() throws Exception {
+        storage = new TestStorage(false);
+        storage.start(1000, 300, 0, 100);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            storage.store("test", System.currentTimeMillis(), "{\"n\":" + i + "}");
+        }
+        waitFor(storage, 3);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("The bulk should wait for the linger time, sent after " + elapsed + "ms", elapsed >= 300);
+        assertEquals(Collections.singletonList(3), storage.getBulkSizes());
+    }
+
+    @Test
+    public void testFlushOnStop() throws Exception {
+        storage = new TestStorage(false);
+        storage.start(1000, 60000, 0, 100);
+        for (int i = 0; i < 3; i++) {
+            storage.store("test", System.currentTimeMillis(), "{\"n\":" + i + "}");
+        }
+        storage.stop();
+        assertEquals(3, storage.getIndexed());
+        assertEquals(0, storage.getQueueSize());
+        assertEquals(0, storage.getFailed());
+    }
+
+    @Test
+    public void testFailedRetries() throws Exception {
+        storage = new TestStorage(true);
+        storage.start(1000, 0, 2, 10);
+        for (int i = 0; i < 3; i++) {
+            storage.store("test", System.currentTimeMillis(), "{\"n\":" + i + "}");
+        }
+        // Each rejected document is sent twice again, then counted as failed
+        long end = System.currentTimeMillis() + 10000;
+        while (storage.getFailed() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, storage.getFailed());
+        assertEquals(6, storage.getRetried());
+        assertEquals(0, storage.getIndexed());
+    }
+
+    @Test
+    public void testPendingRetriesFailedOnStop() throws Exception {
+        storage = new TestStorage(true);
+        storage.start(1000, 0, 3, 60000);
+        for (int i = 0; i < 3; i++) {
+            storage.store("test", System.currentTimeMillis(), "{\"n\":" + i + "}");
+        }
+        long end = System.currentTimeMillis() + 10000;
+        while (storage.getRetried() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, storage.getRetried());
+        assertEquals(0, storage.getFailed());
+
+        // The documents waiting for their retry are not silently lost
+        storage.stop();
+        assertEquals(3, storage.getFailed());
+        assertEquals(0, storage.getIndexed());
+    }
+
+    private static void waitFor(TestStorage storage, int documents) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (storage.getIndexed() < documents) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A storage answering bulk requests at once, either indexing all documents or rejecting them all.
+     */
+    private static class TestStorage extends AbstractElasticsearchStorage implements InvocationHandler {
+
+        private final boolean reject;
+        private final List<Integer> bulkSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        private final Node node = (Node) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Node.class }, this);
+        private final Client client = (Client) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Client.class }, this);
+
+        TestStorage(boolean reject) {
+            this.reject = reject;
+        }
+
+        void start(int actions, long linger, int retries, long backoff) {
+            Map<String, Object> configuration = new HashMap<String, Object>();
+            configuration.put(BULK_ACTIONS, Integer.toString(actions));
+            configuration.put(BULK_LINGER, Long.toString(linger));
+            configuration.put(BULK_RETRIES, Integer.toString(retries));
+            configuration.put(BULK_BACKOFF, Long.toString(backoff));
+            start("test", configuration);
+        }
+
+        List<Integer> getBulkSizes() {
+            return new ArrayList<Integer>(bulkSizes);
+        }
+
+        @Override
+        public Node getNode() {
+            return node;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            if (method.getName().equals("client")) {
+                return client;
+            }
+            if (method.getName().equals("bulk") && args != null && args.length == 2) {
+                respond((BulkRequest) args[0], (ActionListener<BulkResponse>) args[1]);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        private void respond(BulkRequest bulk, ActionListener<BulkResponse> listener) {
+            List<ActionRequest> requests = bulk.requests();
+            bulkSizes.add(requests.size());
+            BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+            for (int i = 0; i < items.length; i++) {
+                IndexRequest request = (IndexRequest) requests.get(i);
+                if (reject) {
+                    items[i] = new BulkItemResponse(i, "create", new BulkItemResponse.Failure(request.index(), request.type(), null,
+                            "EsRejectedExecutionException[rejected execution]", RestStatus.TOO_MANY_REQUESTS));
+                } else {
+                    items[i] = new BulkItemResponse(i, "create", new IndexResponse(request.index(), request.type(), "id" + i, 1, true));
+                }
+            }
+            listener.onResponse(new BulkResponse(items, 1));
+        }
+    }
+
+}
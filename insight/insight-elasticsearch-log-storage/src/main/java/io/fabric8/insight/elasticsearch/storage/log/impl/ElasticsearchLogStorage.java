@@ -16,11 +16,18 @@
 package io.fabric8.insight.elasticsearch.storage.log.impl;
 
 import io.fabric8.api.scr.ValidatingReference;
+import io.fabric8.common.util.JMXUtils;
 import io.fabric8.insight.elasticsearch.AbstractElasticsearchStorage;
+import io.fabric8.insight.elasticsearch.ElasticsearchStorageMBean;
 import io.fabric8.insight.storage.StorageService;
 import org.apache.felix.scr.annotations.*;
 import org.elasticsearch.node.Node;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.util.Map;
+
 @Component(immediate = true, name = "io.fabric8.insight.log.elasticsearch")
 @Service({StorageService.class})
 public class ElasticsearchLogStorage extends AbstractElasticsearchStorage {
@@ -28,20 +35,20 @@ public class ElasticsearchLogStorage extends AbstractElasticsearchStorage {
     @Reference(name = "node", referenceInterface = org.elasticsearch.node.Node.class, target = "(cluster.name=insight)")
     private final ValidatingReference<Node> node = new ValidatingReference<>();
 
+    @Reference
+    private MBeanServer mbeanServer;
+
     @Activate
-    public void activate() {
-        running = true;
+    public void activate(Map<String, ?> configuration) throws Exception {
         putInsightTemplate();
-        thread = new Thread(this, "ElasticStorage");
-        thread.start();
+        start("ElasticStorage", configuration);
+        JMXUtils.registerMBean(new StandardMBean(this, ElasticsearchStorageMBean.class), mbeanServer, new ObjectName("io.fabric8.insight:type=ElasticsearchStorage,name=log"));
     }
 
     @Deactivate
-    public void deactivate() {
-        running = false;
-        if (thread != null) {
-            thread.interrupt();
-        }
+    public void deactivate() throws Exception {
+        JMXUtils.unregisterMBean(mbeanServer, new ObjectName("io.fabric8.insight:type=ElasticsearchStorage,name=log"));
+        stop();
     }
 
     private void bindNode(Node node) {
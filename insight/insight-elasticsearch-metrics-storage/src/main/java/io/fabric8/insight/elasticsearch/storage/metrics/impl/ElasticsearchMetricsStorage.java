@@ -16,28 +16,35 @@
 package io.fabric8.insight.elasticsearch.storage.metrics.impl;
 
 import io.fabric8.api.scr.ValidatingReference;
+import io.fabric8.common.util.JMXUtils;
 import io.fabric8.insight.elasticsearch.AbstractElasticsearchStorage;
+import io.fabric8.insight.elasticsearch.ElasticsearchStorageMBean;
 import io.fabric8.insight.metrics.model.MetricsStorageService;
 import org.apache.felix.scr.annotations.*;
 import org.elasticsearch.node.Node;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.util.Map;
+
 @Component(immediate = true, name = "io.fabric8.insight.metrics.elasticsearch")
 @Service({MetricsStorageService.class})
 public class ElasticsearchMetricsStorage extends AbstractElasticsearchStorage {
 
+    @Reference
+    private MBeanServer mbeanServer;
+
     @Activate
-    public void activate() {
-        running = true;
-        thread = new Thread(this, "ElasticMetricsStorage");
-        thread.start();
+    public void activate(Map<String, ?> configuration) throws Exception {
+        start("ElasticMetricsStorage", configuration);
+        JMXUtils.registerMBean(new StandardMBean(this, ElasticsearchStorageMBean.class), mbeanServer, new ObjectName("io.fabric8.insight:type=ElasticsearchStorage,name=metrics"));
     }
 
     @Deactivate
-    public void deactivate() {
-        running = false;
-        if (thread != null) {
-            thread.interrupt();
-        }
+    public void deactivate() throws Exception {
+        JMXUtils.unregisterMBean(mbeanServer, new ObjectName("io.fabric8.insight:type=ElasticsearchStorage,name=metrics"));
+        stop();
     }
 
     @Reference(name = "node", referenceInterface = org.elasticsearch.node.Node.class, target = "(cluster.name=insight)")
@@ -18,14 +18,10 @@ package io.fabric8.insight.influxdb;
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.api.scr.ValidatingReference;
-import io.fabric8.insight.metrics.model.MBeanAttrResult;
-import io.fabric8.insight.metrics.model.MBeanAttrsResult;
-import io.fabric8.insight.metrics.model.MBeanOperResult;
-import io.fabric8.insight.metrics.model.MBeanOpersResult;
-import io.fabric8.insight.metrics.model.Metrics;
+import io.fabric8.insight.metrics.model.MetricPoint;
 import io.fabric8.insight.metrics.model.MetricsStorageService;
+import io.fabric8.insight.metrics.model.MetricsWriteBehind;
 import io.fabric8.insight.metrics.model.QueryResult;
-import io.fabric8.insight.metrics.model.Result;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
@@ -42,12 +38,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanRegistrationException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 @ThreadSafe
@@ -62,96 +56,64 @@ public class InfluxDBMetricsStorage extends AbstractComponent implements Metrics
     @Reference(referenceInterface = InfluxDB.class)
     private ValidatingReference<InfluxDB> influxDB = new ValidatingReference<>();
 
+    private final MetricsWriteBehind writeBehind = new MetricsWriteBehind("InfluxDBMetricsStorage", new MetricsWriteBehind.Writer() {
+        @Override
+        public void write(List<MetricPoint> points) {
+            writeSeries(points);
+        }
+    });
+
     @Activate
     void activate() throws Exception {
         activateComponent();
+        writeBehind.start();
     }
 
 
     @Deactivate
     void deactivate() throws MBeanRegistrationException, InstanceNotFoundException {
+        writeBehind.stop();
         deactivateComponent();
     }
 
     @Override
     public void store(String type, long timestamp, QueryResult queryResult) {
         assertValid();
-        if (influxDB == null) {
+        writeBehind.store(type, timestamp, queryResult);
+    }
+
+    /**
+     * Write the points as one serie per timestamp, with a column per metric id.
+     */
+    protected void writeSeries(List<MetricPoint> points) {
+        InfluxDB db = influxDB.getOptional();
+        if (db == null) {
             throw new IllegalStateException("No influxDB available!");
         }
-        List<Serie> series = new LinkedList<>();
-
-        Map<String, Result<?>> results = queryResult.getResults();
-        if (results != null) {
-            Map<String, Object> data = new HashMap<>();
-
-            Set<Map.Entry<String, Result<?>>> entries = results.entrySet();
-            for (Map.Entry<String, Result<?>> entry : entries) {
-                String key = entry.getKey();
-                Result<?> result = entry.getValue();
-                if (result instanceof MBeanOpersResult) {
-                    MBeanOpersResult opersResult = (MBeanOpersResult) result;
-                    List<MBeanOperResult> operResults = opersResult.getResults();
-                    if (operResults != null) {
-                        for (MBeanOperResult operResult : operResults) {
-                            Object value = operResult.getValue();
-                            Double doubleValue = toDouble(value);
-                            if (doubleValue != null) {
-                                String id = Metrics.metricId(type, opersResult.getRequest());
-                                data.put(id, doubleValue);
-                            }
-                        }
-                    }
-
-                } else if (result instanceof MBeanAttrsResult) {
-                    MBeanAttrsResult attrsResult = (MBeanAttrsResult) result;
-                    List<MBeanAttrResult> attrResults = attrsResult.getResults();
-                    if (attrResults != null) {
-                        for (MBeanAttrResult attrResult : attrResults) {
-                            Map<String, Object> attrs = attrResult.getAttrs();
-                            if (attrs != null) {
-                                Set<Map.Entry<String, Object>> attrEntries = attrs.entrySet();
-                                for (Map.Entry<String, Object> attrEntry : attrEntries) {
-                                    String attributeName = attrEntry.getKey();
-                                    Object value = attrEntry.getValue();
-                                    Double doubleValue = toDouble(value);
-                                    if (doubleValue != null) {
-                                        String id = Metrics.metricId(type, attrsResult.getRequest(), attributeName);
-                                        data.put(id, doubleValue);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-
-                if (!data.isEmpty()) {
-                    data.put("time", timestamp);
-                    series.add(new Serie.Builder("insight")
-                                    .columns(data.keySet().toArray(new String[data.size()]))
-                                    .values(data.values().toArray(new Object[data.size()]))
-                                    .build()
-
-                    );
-                }
+        List<Serie> series = new ArrayList<>();
+        int start = 0;
+        while (start < points.size()) {
+            long time = points.get(start).getTimestamp();
+            int end = start + 1;
+            while (end < points.size() && points.get(end).getTimestamp() == time) {
+                end++;
             }
-            if (!series.isEmpty()) {
-                influxDB.get().write("fabric", TimeUnit.MILLISECONDS, series.toArray(new Serie[series.size()]));
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("added " + series.size() + " metrics");
-                }
+            // Several MBeans matching the same pattern share the same metric id, the last value wins
+            Map<String, Object> data = new LinkedHashMap<>(2 * (end - start + 1));
+            for (int i = start; i < end; i++) {
+                data.put(points.get(i).getId(), points.get(i).getValue());
             }
+            data.put("time", time);
+            series.add(new Serie.Builder("insight")
+                            .columns(data.keySet().toArray(new String[data.size()]))
+                            .values(data.values().toArray(new Object[data.size()]))
+                            .build()
+            );
+            start = end;
         }
-    }
-
-    protected Double toDouble(Object value) {
-        if (value instanceof Double) {
-            return (Double) value;
-        } else if (value instanceof Number) {
-            Number number = (Number) value;
-            return number.doubleValue();
-        } else {
-            return null;
+        db.write("fabric", TimeUnit.MILLISECONDS, series.toArray(new Serie[series.size()]));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("added " + points.size() + " metrics in " + series.size() + " series");
         }
     }
 
@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads values written by a {@link BitWriter} from a {@link ByteBuffer}.
+ */
+public class BitReader {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private long position;
+
+    /**
+     * @param buffer the buffer, which is read using absolute positions only
+     * @param offset the index of the first byte to read
+     */
+    public BitReader(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    public boolean readBit() {
+        return read(1) != 0;
+    }
+
+    /**
+     * Read <code>n</code> bits, most significant bit first.
+     */
+    public long read(int n) {
+        long value = 0;
+        while (n > 0) {
+            int index = offset + (int) (position >>> 3);
+            int used = (int) (position & 7);
+            int available = 8 - used;
+            int take = Math.min(available, n);
+            int b = buffer.get(index) & 0xFF;
+            int chunk = (b >>> (available - take)) & ((1 << take) - 1);
+            value = (value << take) | chunk;
+            position += take;
+            n -= take;
+        }
+        return value;
+    }
+
+}
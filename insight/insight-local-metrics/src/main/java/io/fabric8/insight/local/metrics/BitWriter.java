@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Appends values of up to 64 bits to a growable bit buffer.
+ */
+public class BitWriter {
+
+    private long[] words;
+    private long bits;
+
+    public BitWriter() {
+        this(4);
+    }
+
+    public BitWriter(int initialWords) {
+        this.words = new long[Math.max(1, initialWords)];
+    }
+
+    /**
+     * Append the <code>n</code> lowest bits of <code>value</code>, most significant bit first.
+     */
+    public void write(long value, int n) {
+        if (n <= 0) {
+            return;
+        }
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int index = (int) (bits >>> 6);
+        int used = (int) (bits & 63);
+        int free = 64 - used;
+        ensureCapacity(index + 2);
+        if (n <= free) {
+            words[index] |= value << (free - n);
+        } else {
+            words[index] |= value >>> (n - free);
+            words[index + 1] |= value << (64 - (n - free));
+        }
+        bits += n;
+    }
+
+    public void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    public long getBitLength() {
+        return bits;
+    }
+
+    public int getByteLength() {
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    /**
+     * Copy the written bits, padded with zeros to a whole number of bytes.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[getByteLength()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        }
+        return bytes;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > words.length) {
+            words = Arrays.copyOf(words, Math.max(size, words.length * 2));
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import io.fabric8.api.jcip.ThreadSafe;
+import io.fabric8.api.scr.AbstractComponent;
+import io.fabric8.api.scr.Configurer;
+import io.fabric8.common.util.JMXUtils;
+import io.fabric8.common.util.Strings;
+import io.fabric8.insight.metrics.model.MetricPoint;
+import io.fabric8.insight.metrics.model.MetricPoints;
+import io.fabric8.insight.metrics.model.MetricsStorageService;
+import io.fabric8.insight.metrics.model.QueryResult;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link MetricsStorageService} keeping the metrics in compressed segment files on the local disk,
+ * so that a container can answer range queries without an external time series database.
+ * The metrics collector stores the metrics into every registered storage, so the local history
+ * is kept alongside any other storage.
+ */
+@ThreadSafe
+@Component(name = "io.fabric8.insight.local.metrics", label = "Fabric8 Local Metrics Storage", policy = ConfigurationPolicy.OPTIONAL, immediate = true, metatype = true)
+@Service(MetricsStorageService.class)
+public class LocalMetricsStorage extends AbstractComponent implements MetricsStorageService, LocalMetricsStorageMBean {
+    private static final transient Logger LOG = LoggerFactory.getLogger(LocalMetricsStorage.class);
+
+    private static final String OBJECT_NAME = "io.fabric8.insight:type=LocalMetricsStorage";
+
+    @Reference
+    private Configurer configurer;
+    @Reference
+    private MBeanServer mbeanServer;
+
+    @Property(name = "directory", label = "Directory", description = "The directory holding the segment files, defaults to ${karaf.data}/insight/metrics")
+    private String directory;
+
+    @Property(name = "checkpointInterval", label = "Checkpoint Interval", description = "The number of seconds between two checkpoints of the current windows", intValue = 60)
+    private int checkpointInterval = 60;
+
+    @Property(name = "rawRetention", label = "Raw Retention", description = "The number of hours raw points are kept", intValue = 24)
+    private int rawRetention = 24;
+
+    @Property(name = "minuteRetention", label = "Minute Retention", description = "The number of hours per minute averages are kept", intValue = 168)
+    private int minuteRetention = 168;
+
+    @Property(name = "hourRetention", label = "Hour Retention", description = "The number of hours per hour averages are kept", intValue = 8760)
+    private int hourRetention = 8760;
+
+    private TimeSeriesStore store;
+    private ScheduledExecutorService executor;
+
+    @Activate
+    void activate(Map<String, ?> configuration) throws Exception {
+        configurer.configure(configuration, this);
+        File dir = Strings.isNotBlank(directory)
+                ? new File(directory)
+                : new File(System.getProperty("karaf.data", "data"), "insight" + File.separator + "metrics");
+        store = new TimeSeriesStore(dir);
+        store.setRetention(Resolution.RAW, TimeUnit.HOURS.toMillis(rawRetention));
+        store.setRetention(Resolution.MINUTE, TimeUnit.HOURS.toMillis(minuteRetention));
+        store.setRetention(Resolution.HOUR, TimeUnit.HOURS.toMillis(hourRetention));
+        store.open(System.currentTimeMillis());
+        LOG.info("Storing metrics in " + dir);
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LocalMetricsStorage");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store.maintain(System.currentTimeMillis());
+                } catch (Throwable t) {
+                    LOG.warn("Error while checkpointing metrics", t);
+                }
+            }
+        }, checkpointInterval, checkpointInterval, TimeUnit.SECONDS);
+
+        JMXUtils.registerMBean(new StandardMBean(this, LocalMetricsStorageMBean.class), mbeanServer, new ObjectName(OBJECT_NAME));
+        activateComponent();
+    }
+
+    @Deactivate
+    void deactivate() throws Exception {
+        deactivateComponent();
+        JMXUtils.unregisterMBean(mbeanServer, new ObjectName(OBJECT_NAME));
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    @Override
+    public void store(String type, long timestamp, QueryResult queryResult) {
+        assertValid();
+        List<MetricPoint> points = new ArrayList<MetricPoint>();
+        MetricPoints.collect(type, timestamp, queryResult, points);
+        try {
+            for (MetricPoint point : points) {
+                store.add(point.getId(), point.getTimestamp(), point.getValue());
+            }
+        } catch (IOException e) {
+            LOG.warn("Error storing metrics", e);
+        }
+    }
+
+    @Override
+    public String getDirectory() {
+        return store.getDirectory().getAbsolutePath();
+    }
+
+    @Override
+    public String[] getMetricIds() {
+        Set<String> names = store.getNames();
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public String query(String id, long from, long to, String resolution) {
+        Resolution res = Strings.isNullOrBlank(resolution) || "auto".equalsIgnoreCase(resolution)
+                ? store.select(from, System.currentTimeMillis())
+                : Resolution.fromId(resolution);
+        StringBuilder sb = new StringBuilder("[");
+        for (MetricPoint point : store.query(id, from, to, res)) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('[').append(point.getTimestamp()).append(',');
+            double value = point.getValue();
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                sb.append("null");
+            } else {
+                sb.append(value);
+            }
+            sb.append(']');
+        }
+        return sb.append(']').toString();
+    }
+
+    @Override
+    public long getStoredPoints() {
+        return store.getStored();
+    }
+
+    @Override
+    public long getLatePoints() {
+        return store.getLate();
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return store.getSegmentCount();
+    }
+
+    @Override
+    public long getDiskUsage() {
+        return store.getDiskUsage();
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+public interface LocalMetricsStorageMBean {
+
+    /**
+     * The directory holding the segment files
+     */
+    String getDirectory();
+
+    /**
+     * The ids of the stored metrics
+     */
+    String[] getMetricIds();
+
+    /**
+     * Return the points of a metric as a JSON array of <code>[timestamp, value]</code> pairs.
+     *
+     * @param id         the metric id
+     * @param from       the start of the range, in milliseconds since the epoch
+     * @param to         the end of the range, in milliseconds since the epoch
+     * @param resolution <code>raw</code>, <code>minute</code>, <code>hour</code>, or <code>auto</code> to use
+     *                   the finest resolution still retained at <code>from</code>
+     */
+    String query(String id, long from, long to, String resolution);
+
+    /**
+     * The number of raw points stored
+     */
+    long getStoredPoints();
+
+    /**
+     * The number of raw points ignored because their window had already been sealed
+     */
+    long getLatePoints();
+
+    /**
+     * The number of sealed segment files
+     */
+    int getSegmentCount();
+
+    /**
+     * The size in bytes of the sealed segment files
+     */
+    long getDiskUsage();
+
+}
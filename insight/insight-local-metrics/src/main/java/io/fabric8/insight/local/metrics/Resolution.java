@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resolutions at which points are kept. Raw points are averaged into minute and hour
+ * buckets as they arrive, and each resolution is stored in segments covering a fixed window.
+ */
+public enum Resolution {
+
+    RAW("raw", 0, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(24)),
+    MINUTE("minute", TimeUnit.MINUTES.toMillis(1), TimeUnit.DAYS.toMillis(1), TimeUnit.DAYS.toMillis(7)),
+    HOUR("hour", TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(7), TimeUnit.DAYS.toMillis(365));
+
+    private final String id;
+    private final long step;
+    private final long window;
+    private final long defaultRetention;
+
+    Resolution(String id, long step, long window, long defaultRetention) {
+        this.id = id;
+        this.step = step;
+        this.window = window;
+        this.defaultRetention = defaultRetention;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The width in milliseconds of the buckets points are averaged into, <code>0</code> for raw points
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * The time span in milliseconds covered by a segment
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    public long getDefaultRetention() {
+        return defaultRetention;
+    }
+
+    public long windowStart(long timestamp) {
+        return timestamp - floorMod(timestamp, window);
+    }
+
+    public long bucketStart(long timestamp) {
+        return step > 0 ? timestamp - floorMod(timestamp, step) : timestamp;
+    }
+
+    public static Resolution fromId(String id) {
+        for (Resolution resolution : values()) {
+            if (resolution.id.equalsIgnoreCase(id) || resolution.name().equalsIgnoreCase(id)) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unknown resolution: " + id);
+    }
+
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+
+}
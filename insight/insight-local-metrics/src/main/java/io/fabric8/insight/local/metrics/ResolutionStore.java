@@ -0,0 +1,314 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import io.fabric8.insight.metrics.model.MetricPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The segments of one {@link Resolution}.  Points are appended to the encoders of the current
+ * window, the points added since the previous checkpoint are appended to the journal of that
+ * window at each checkpoint, and the window is sealed into an immutable {@link Segment} once a
+ * point for a later window arrives.
+ * <p>
+ * This class is not thread safe, access is synchronized by the {@link TimeSeriesStore}.
+ */
+public class ResolutionStore {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(ResolutionStore.class);
+
+    static final String SUFFIX = ".seg";
+    static final String JOURNAL_SUFFIX = ".jnl";
+
+    private final File directory;
+    private final Resolution resolution;
+    private final TreeMap<Long, Segment> sealed = new TreeMap<Long, Segment>();
+
+    private Map<String, TimeSeriesEncoder> active = new LinkedHashMap<String, TimeSeriesEncoder>();
+    private long activeStart = -1;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long late;
+
+    public ResolutionStore(File directory, Resolution resolution) {
+        this.directory = directory;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Load the existing segments and journals, the window covering <code>now</code> becomes the
+     * current window again and the journals of the previous windows are sealed into segments.
+     */
+    public void open(long now) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        long current = resolution.windowStart(now);
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX + ".tmp")) {
+                file.delete();
+            } else if (file.getName().endsWith(SUFFIX)) {
+                Segment segment;
+                try {
+                    segment = Segment.open(file);
+                } catch (IOException e) {
+                    LOG.warn("Ignoring unreadable segment " + file + ": " + e);
+                    continue;
+                }
+                if (segment.getWindowStart() == current) {
+                    restore(segment);
+                } else {
+                    sealed.put(segment.getWindowStart(), segment);
+                }
+            }
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(JOURNAL_SUFFIX)) {
+                continue;
+            }
+            long start;
+            try {
+                start = Long.parseLong(file.getName().substring(0, file.getName().length() - JOURNAL_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring unknown journal " + file);
+                continue;
+            }
+            if (start == current) {
+                activeStart = current;
+                replay(file, active);
+            } else if (sealed.containsKey(start)) {
+                // The segment was written but the journal not deleted yet
+                file.delete();
+            } else {
+                Map<String, TimeSeriesEncoder> series = new LinkedHashMap<String, TimeSeriesEncoder>();
+                replay(file, series);
+                if (!series.isEmpty()) {
+                    Segment.write(file(start), resolution, start, series);
+                    sealed.put(start, Segment.open(file(start)));
+                }
+                file.delete();
+            }
+        }
+    }
+
+    private void restore(Segment segment) {
+        activeStart = segment.getWindowStart();
+        for (String name : segment.getNames()) {
+            TimeSeriesDecoder decoder = segment.decoder(name);
+            TimeSeriesEncoder encoder = new TimeSeriesEncoder();
+            while (decoder.next()) {
+                encoder.append(decoder.getTimestamp(), decoder.getValue());
+            }
+            active.put(name, encoder);
+        }
+    }
+
+    private static void replay(File journal, Map<String, TimeSeriesEncoder> series) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            while (true) {
+                String name;
+                long timestamp;
+                double value;
+                try {
+                    name = in.readUTF();
+                    timestamp = in.readLong();
+                    value = in.readDouble();
+                } catch (EOFException e) {
+                    // End of the journal, or a truncated record written during a crash
+                    break;
+                }
+                TimeSeriesEncoder encoder = series.get(name);
+                if (encoder == null) {
+                    encoder = new TimeSeriesEncoder();
+                    series.put(name, encoder);
+                }
+                encoder.append(timestamp, value);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the point belongs to a window which has already been sealed
+     */
+    public boolean append(String name, long timestamp, double value) throws IOException {
+        long start = resolution.windowStart(timestamp);
+        if (activeStart < 0) {
+            if (!sealed.isEmpty() && start <= sealed.lastKey()) {
+                // Reopening a window sealed by roll() would overwrite its segment when sealed again
+                late++;
+                return false;
+            }
+            activeStart = start;
+        } else if (start > activeStart) {
+            seal();
+            activeStart = start;
+        } else if (start < activeStart) {
+            late++;
+            return false;
+        }
+        TimeSeriesEncoder encoder = active.get(name);
+        if (encoder == null) {
+            encoder = new TimeSeriesEncoder();
+            active.put(name, encoder);
+        }
+        if (!encoder.append(timestamp, value)) {
+            late++;
+            return false;
+        }
+        pendingOut.writeUTF(name);
+        pendingOut.writeLong(timestamp);
+        pendingOut.writeDouble(value);
+        return true;
+    }
+
+    /**
+     * Seal the current window if <code>now</code> is past its end, even if no new point has arrived.
+     */
+    public void roll(long now) throws IOException {
+        if (activeStart >= 0 && resolution.windowStart(now) > activeStart) {
+            seal();
+            activeStart = -1;
+        }
+    }
+
+    /**
+     * Append the points added to the current window since the last checkpoint to its journal.
+     */
+    public void checkpoint() throws IOException {
+        if (pending.size() > 0) {
+            FileOutputStream fos = new FileOutputStream(journal(activeStart), true);
+            try {
+                pending.writeTo(fos);
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            pending.reset();
+        }
+    }
+
+    private void seal() throws IOException {
+        if (!active.isEmpty()) {
+            File file = file(activeStart);
+            Segment.write(file, resolution, activeStart, active);
+            sealed.put(activeStart, Segment.open(file));
+        }
+        File journal = journal(activeStart);
+        if (journal.exists() && !journal.delete()) {
+            LOG.debug("Unable to delete journal " + journal);
+        }
+        active = new LinkedHashMap<String, TimeSeriesEncoder>();
+        pending.reset();
+    }
+
+    /**
+     * Delete the segments which ended more than <code>retention</code> milliseconds before <code>now</code>.
+     *
+     * @return the number of deleted segments
+     */
+    public int expire(long now, long retention) {
+        int count = 0;
+        Iterator<Segment> it = sealed.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.getWindowEnd() > now - retention) {
+                break;
+            }
+            it.remove();
+            if (!segment.getFile().delete()) {
+                LOG.debug("Unable to delete expired segment " + segment.getFile());
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public void query(String name, long from, long to, List<MetricPoint> points) {
+        if (from > to) {
+            return;
+        }
+        Long first = sealed.floorKey(from);
+        for (Segment segment : sealed.subMap(first != null ? first : from, true, to, true).values()) {
+            segment.query(name, from, to, points);
+        }
+        if (activeStart >= 0 && activeStart <= to && activeStart + resolution.getWindow() > from) {
+            TimeSeriesEncoder encoder = active.get(name);
+            if (encoder != null) {
+                Segment.decode(name, new TimeSeriesDecoder(encoder.toByteArray(), encoder.getCount()), from, to, points);
+            }
+        }
+    }
+
+    public void collectNames(Set<String> names) {
+        for (Segment segment : sealed.values()) {
+            names.addAll(segment.getNames());
+        }
+        names.addAll(active.keySet());
+    }
+
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    public int getSegmentCount() {
+        return sealed.size();
+    }
+
+    public long getDiskUsage() {
+        long size = 0;
+        for (Segment segment : sealed.values()) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    private File file(long windowStart) {
+        return new File(directory, windowStart + SUFFIX);
+    }
+
+    private File journal(long windowStart) {
+        return new File(directory, windowStart + JOURNAL_SUFFIX);
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.fabric8.insight.metrics.model.MetricPoint;
+
+/**
+ * An immutable file holding the compressed series of one resolution for one time window.
+ * <p>
+ * The file starts with a header and an index giving, for each series, the number of points,
+ * the time range and the location of the compressed data which follows.  Files are memory
+ * mapped read-only, and only the series requested by a query are decoded.
+ */
+public class Segment {
+
+    static final int MAGIC = 0x46384d53;
+    static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Resolution resolution;
+    private final long windowStart;
+    private final long windowEnd;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> index;
+
+    private Segment(File file, Resolution resolution, long windowStart, long windowEnd, MappedByteBuffer buffer, Map<String, Entry> index) {
+        this.file = file;
+        this.resolution = resolution;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.buffer = buffer;
+        this.index = index;
+    }
+
+    /**
+     * Write the series to a temporary file which is then renamed, so that a reader never sees a partial file.
+     */
+    public static void write(File file, Resolution resolution, long windowStart, Map<String, TimeSeriesEncoder> series) throws IOException {
+        Map<String, byte[]> names = new LinkedHashMap<String, byte[]>();
+        Map<String, byte[]> data = new LinkedHashMap<String, byte[]>();
+        int headerSize = 4 + 4 + 4 + 8 + 8 + 4;
+        for (Map.Entry<String, TimeSeriesEncoder> entry : series.entrySet()) {
+            if (entry.getValue().getCount() == 0) {
+                continue;
+            }
+            byte[] name = entry.getKey().getBytes(UTF8);
+            names.put(entry.getKey(), name);
+            data.put(entry.getKey(), entry.getValue().toByteArray());
+            headerSize += 2 + name.length + 4 + 8 + 8 + 4 + 4;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(resolution.ordinal());
+            out.writeLong(windowStart);
+            out.writeLong(windowStart + resolution.getWindow());
+            out.writeInt(names.size());
+            int offset = headerSize;
+            for (Map.Entry<String, byte[]> entry : names.entrySet()) {
+                TimeSeriesEncoder encoder = series.get(entry.getKey());
+                int length = data.get(entry.getKey()).length;
+                out.writeShort(entry.getValue().length);
+                out.write(entry.getValue());
+                out.writeInt(encoder.getCount());
+                out.writeLong(encoder.getFirstTimestamp());
+                out.writeLong(encoder.getLastTimestamp());
+                out.writeInt(offset);
+                out.writeInt(length);
+                offset += length;
+            }
+            for (byte[] bytes : data.values()) {
+                out.write(bytes);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    public static Segment open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a metrics segment: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported segment version " + version + ": " + file);
+            }
+            Resolution resolution = Resolution.values()[buffer.getInt()];
+            long windowStart = buffer.getLong();
+            long windowEnd = buffer.getLong();
+            int count = buffer.getInt();
+            Map<String, Entry> index = new LinkedHashMap<String, Entry>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                Entry entry = new Entry(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+                index.put(new String(name, UTF8), entry);
+            }
+            return new Segment(file, resolution, windowStart, windowEnd, buffer, index);
+        } finally {
+            // The mapping stays valid once the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Add the points of the given series within <code>[from, to]</code>
+     */
+    public void query(String name, long from, long to, List<MetricPoint> points) {
+        Entry entry = index.get(name);
+        if (entry == null || entry.maxTs < from || entry.minTs > to) {
+            return;
+        }
+        decode(name, new TimeSeriesDecoder(buffer, entry.offset, entry.count), from, to, points);
+    }
+
+    /**
+     * Decode a whole series, used to restore the window being written after a restart
+     */
+    public TimeSeriesDecoder decoder(String name) {
+        Entry entry = index.get(name);
+        return entry != null ? new TimeSeriesDecoder(buffer, entry.offset, entry.count) : null;
+    }
+
+    static void decode(String name, TimeSeriesDecoder decoder, long from, long to, List<MetricPoint> points) {
+        while (decoder.next()) {
+            long ts = decoder.getTimestamp();
+            if (ts > to) {
+                break;
+            }
+            if (ts >= from) {
+                points.add(new MetricPoint(name, ts, decoder.getValue()));
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public long getSize() {
+        return buffer.capacity();
+    }
+
+    private static class Entry {
+        final int count;
+        final long minTs;
+        final long maxTs;
+        final int offset;
+        final int length;
+
+        Entry(int count, long minTs, long maxTs, int offset, int length) {
+            this.count = count;
+            this.minTs = minTs;
+            this.maxTs = maxTs;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+}
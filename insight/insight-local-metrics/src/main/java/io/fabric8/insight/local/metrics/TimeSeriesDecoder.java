@@ -0,0 +1,99 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a series written by a {@link TimeSeriesEncoder}.
+ */
+public class TimeSeriesDecoder {
+
+    private final BitReader in;
+    private final int count;
+    private int read;
+    private long timestamp;
+    private long delta;
+    private long value;
+    private int leading;
+    private int trailing;
+
+    public TimeSeriesDecoder(ByteBuffer buffer, int offset, int count) {
+        this.in = new BitReader(buffer, offset);
+        this.count = count;
+    }
+
+    public TimeSeriesDecoder(byte[] data, int count) {
+        this(ByteBuffer.wrap(data), 0, count);
+    }
+
+    /**
+     * Move to the next point.
+     *
+     * @return <code>false</code> if there are no more points
+     */
+    public boolean next() {
+        if (read >= count) {
+            return false;
+        }
+        if (read == 0) {
+            timestamp = in.read(64);
+            value = in.read(64);
+        } else {
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+            readValue();
+        }
+        read++;
+        return true;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getValue() {
+        return Double.longBitsToDouble(value);
+    }
+
+    private long readDeltaOfDelta() {
+        if (!in.readBit()) {
+            return 0;
+        } else if (!in.readBit()) {
+            return in.read(7) - 63;
+        } else if (!in.readBit()) {
+            return in.read(9) - 255;
+        } else if (!in.readBit()) {
+            return in.read(12) - 2047;
+        } else {
+            return in.read(64);
+        }
+    }
+
+    private void readValue() {
+        if (!in.readBit()) {
+            return;
+        }
+        if (in.readBit()) {
+            leading = (int) in.read(5);
+            int significant = (int) in.read(6) + 1;
+            trailing = 64 - leading - significant;
+        }
+        long xor = in.read(64 - leading - trailing) << trailing;
+        value ^= xor;
+    }
+
+}
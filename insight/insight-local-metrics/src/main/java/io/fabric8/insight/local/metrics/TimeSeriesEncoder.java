@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+/**
+ * Compresses a series of (timestamp, value) pairs using delta-of-delta encoded timestamps
+ * and XOR encoded doubles, as described in the Facebook Gorilla paper.
+ * Points must be appended in increasing timestamp order.
+ */
+public class TimeSeriesEncoder {
+
+    private final BitWriter out;
+    private int count;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValue;
+    private int lastLeading = -1;
+    private int lastTrailing;
+
+    public TimeSeriesEncoder() {
+        this.out = new BitWriter();
+    }
+
+    /**
+     * @return <code>false</code> if the point is older than the last appended point and has been ignored
+     */
+    public boolean append(long timestamp, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            out.write(timestamp, 64);
+            out.write(bits, 64);
+            firstTimestamp = timestamp;
+        } else {
+            if (timestamp < lastTimestamp) {
+                return false;
+            }
+            long delta = timestamp - lastTimestamp;
+            writeTimestamp(delta - lastDelta);
+            writeValue(bits ^ lastValue);
+            lastDelta = delta;
+        }
+        lastTimestamp = timestamp;
+        lastValue = bits;
+        count++;
+        return true;
+    }
+
+    private void writeTimestamp(long dod) {
+        if (dod == 0) {
+            out.write(0, 1);
+        } else if (dod >= -63 && dod <= 64) {
+            out.write(2, 2);
+            out.write(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            out.write(6, 3);
+            out.write(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            out.write(14, 4);
+            out.write(dod + 2047, 12);
+        } else {
+            out.write(15, 4);
+            out.write(dod, 64);
+        }
+    }
+
+    private void writeValue(long xor) {
+        if (xor == 0) {
+            out.write(0, 1);
+            return;
+        }
+        out.write(1, 1);
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            // Meaningful bits fit in the previous window
+            out.write(0, 1);
+            out.write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            int significant = 64 - leading - trailing;
+            out.write(1, 1);
+            out.write(leading, 5);
+            out.write(significant - 1, 6);
+            out.write(xor >>> trailing, significant);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public int getByteLength() {
+        return out.getByteLength();
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.fabric8.insight.metrics.model.MetricPoint;
+
+/**
+ * An embedded time series store keeping each metric at the {@link Resolution}s raw, minute
+ * and hour.  Raw points are averaged into minute and hour buckets as they are added, so that
+ * long ranges can be queried without decoding the raw points, and each resolution has its own retention.
+ */
+public class TimeSeriesStore {
+
+    private final File directory;
+    private final Map<Resolution, ResolutionStore> stores = new EnumMap<Resolution, ResolutionStore>(Resolution.class);
+    private final Map<Resolution, Long> retention = new EnumMap<Resolution, Long>(Resolution.class);
+    private final Map<Resolution, Map<String, Bucket>> buckets = new EnumMap<Resolution, Map<String, Bucket>>(Resolution.class);
+
+    private long stored;
+
+    public TimeSeriesStore(File directory) {
+        this.directory = directory;
+        for (Resolution resolution : Resolution.values()) {
+            stores.put(resolution, new ResolutionStore(new File(directory, resolution.getId()), resolution));
+            retention.put(resolution, resolution.getDefaultRetention());
+            if (resolution.getStep() > 0) {
+                buckets.put(resolution, new HashMap<String, Bucket>());
+            }
+        }
+    }
+
+    public synchronized void setRetention(Resolution resolution, long millis) {
+        retention.put(resolution, millis);
+    }
+
+    public synchronized long getRetention(Resolution resolution) {
+        return retention.get(resolution);
+    }
+
+    public synchronized void open(long now) throws IOException {
+        for (ResolutionStore store : stores.values()) {
+            store.open(now);
+        }
+    }
+
+    /**
+     * Write the current windows to disk.  The partially filled minute and hour buckets are not
+     * persisted, they are lost on restart.
+     */
+    public synchronized void close() throws IOException {
+        for (ResolutionStore store : stores.values()) {
+            store.checkpoint();
+        }
+    }
+
+    public synchronized void add(String name, long timestamp, double value) throws IOException {
+        if (stores.get(Resolution.RAW).append(name, timestamp, value)) {
+            stored++;
+        }
+        for (Map.Entry<Resolution, Map<String, Bucket>> entry : buckets.entrySet()) {
+            Resolution resolution = entry.getKey();
+            long start = resolution.bucketStart(timestamp);
+            Bucket bucket = entry.getValue().get(name);
+            if (bucket == null) {
+                bucket = new Bucket(start);
+                entry.getValue().put(name, bucket);
+            } else if (start > bucket.start) {
+                stores.get(resolution).append(name, bucket.start, bucket.average());
+                bucket.reset(start);
+            } else if (start < bucket.start) {
+                continue;
+            }
+            bucket.add(value);
+        }
+    }
+
+    /**
+     * Flush the buckets which stopped receiving points, seal the finished windows once their
+     * last buckets are flushed, checkpoint the current ones and delete the expired segments.
+     */
+    public synchronized void maintain(long now) throws IOException {
+        for (Map.Entry<Resolution, Map<String, Bucket>> entry : buckets.entrySet()) {
+            Resolution resolution = entry.getKey();
+            Iterator<Map.Entry<String, Bucket>> it = entry.getValue().entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Bucket> e = it.next();
+                // Leave a whole step for late points before giving up on a bucket
+                if (e.getValue().start + 2 * resolution.getStep() <= now) {
+                    stores.get(resolution).append(e.getKey(), e.getValue().start, e.getValue().average());
+                    it.remove();
+                }
+            }
+        }
+        for (Map.Entry<Resolution, ResolutionStore> entry : stores.entrySet()) {
+            ResolutionStore store = entry.getValue();
+            // Keep a window open until the bucket of its last step has been flushed
+            store.roll(now - 2 * entry.getKey().getStep());
+            store.checkpoint();
+            store.expire(now, retention.get(entry.getKey()));
+        }
+    }
+
+    public synchronized List<MetricPoint> query(String name, long from, long to, Resolution resolution) {
+        List<MetricPoint> points = new ArrayList<MetricPoint>();
+        stores.get(resolution).query(name, from, to, points);
+        return points;
+    }
+
+    /**
+     * Return the finest resolution whose retention still covers <code>from</code>.
+     */
+    public synchronized Resolution select(long from, long now) {
+        for (Resolution resolution : Resolution.values()) {
+            if (from >= now - retention.get(resolution)) {
+                return resolution;
+            }
+        }
+        return Resolution.HOUR;
+    }
+
+    public synchronized Set<String> getNames() {
+        Set<String> names = new TreeSet<String>();
+        stores.get(Resolution.RAW).collectNames(names);
+        stores.get(Resolution.HOUR).collectNames(names);
+        return names;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getStored() {
+        return stored;
+    }
+
+    public synchronized long getLate() {
+        return stores.get(Resolution.RAW).getLate();
+    }
+
+    public synchronized int getSegmentCount() {
+        int count = 0;
+        for (ResolutionStore store : stores.values()) {
+            count += store.getSegmentCount();
+        }
+        return count;
+    }
+
+    public synchronized long getDiskUsage() {
+        long size = 0;
+        for (ResolutionStore store : stores.values()) {
+            size += store.getDiskUsage();
+        }
+        return size;
+    }
+
+    private static class Bucket {
+        long start;
+        double sum;
+        int count;
+
+        Bucket(long start) {
+            this.start = start;
+        }
+
+        void add(double value) {
+            sum += value;
+            count++;
+        }
+
+        double average() {
+            return sum / count;
+        }
+
+        void reset(long start) {
+            this.start = start;
+            this.sum = 0;
+            this.count = 0;
+        }
+    }
+
+}
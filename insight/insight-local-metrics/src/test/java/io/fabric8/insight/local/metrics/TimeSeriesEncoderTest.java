@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesEncoderTest {
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(1);
+        int count = 10000;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        long ts = 1420070400000L;
+        double value = 100.0;
+        for (int i = 0; i < count; i++) {
+            // Mostly regular intervals, with some jitter and a few large gaps
+            ts += i % 1000 == 999 ? 3600000 + random.nextInt(100000) : 5000 + (random.nextInt(10) == 0 ? random.nextInt(3000) - 1500 : 0);
+            value = random.nextInt(4) == 0 ? value : random.nextInt(5) == 0 ? random.nextDouble() * 1e9 : value + random.nextInt(100) - 50;
+            timestamps[i] = ts;
+            values[i] = value;
+        }
+        values[10] = Double.NaN;
+        values[11] = -0.0;
+        values[12] = Double.MAX_VALUE;
+
+        TimeSeriesEncoder encoder = new TimeSeriesEncoder();
+        for (int i = 0; i < count; i++) {
+            assertTrue(encoder.append(timestamps[i], values[i]));
+        }
+        assertFalse(encoder.append(timestamps[0], 1.0));
+        assertEquals(count, encoder.getCount());
+        assertEquals(timestamps[0], encoder.getFirstTimestamp());
+        assertEquals(timestamps[count - 1], encoder.getLastTimestamp());
+
+        TimeSeriesDecoder decoder = new TimeSeriesDecoder(encoder.toByteArray(), encoder.getCount());
+        for (int i = 0; i < count; i++) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.getValue()));
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void testRegularSeriesCompression() {
+        TimeSeriesEncoder encoder = new TimeSeriesEncoder();
+        for (int i = 0; i < 720; i++) {
+            encoder.append(1420070400000L + i * 5000L, 42.0);
+        }
+        // 16 bytes for the first point, 68 bits for the first delta, then 2 bits per point
+        assertTrue(encoder.getByteLength() <= 16 + 9 + 720 / 4);
+    }
+
+}
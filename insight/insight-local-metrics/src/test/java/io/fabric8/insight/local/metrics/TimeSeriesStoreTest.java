@@ -0,0 +1,191 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.local.metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.insight.metrics.model.MetricPoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesStoreTest {
+
+    private static final long START = 1420070400000L;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File("target/test-data/" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void testSealAndQuery() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        store.open(START);
+        // Three hours of points every 10 seconds, the first two windows get sealed
+        for (long ts = START; ts < START + 3 * HOUR; ts += 10000) {
+            store.add("cpu", ts, ts % 60000 / 1000);
+            store.add("mem", ts, 1.0);
+        }
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(2 * 3 * 360, store.getStored());
+
+        List<MetricPoint> points = store.query("cpu", START + HOUR - 30000, START + HOUR + 30000, Resolution.RAW);
+        assertEquals(7, points.size());
+        assertEquals(START + HOUR - 30000, points.get(0).getTimestamp());
+        assertEquals(30.0, points.get(0).getValue(), 0.0);
+        // An inverted range is empty
+        assertTrue(store.query("cpu", START + HOUR + 30000, START + HOUR - 30000, Resolution.RAW).isEmpty());
+
+        // The minute averages of 0, 10, 20, 30, 40, 50
+        List<MetricPoint> minutes = store.query("cpu", START, START + 3 * HOUR, Resolution.MINUTE);
+        assertEquals(3 * 60 - 1, minutes.size());
+        assertEquals(25.0, minutes.get(0).getValue(), 0.0);
+
+        // Points of a sealed window are refused
+        store.add("cpu", START, 1.0);
+        assertEquals(1, store.getLate());
+
+        // Reopen: sealed segments are mapped, the current window is restored
+        store.close();
+        store = new TimeSeriesStore(directory);
+        store.open(START + 3 * HOUR - 1);
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(3 * 360, store.query("mem", START, START + 3 * HOUR, Resolution.RAW).size());
+        assertEquals(Resolution.RAW, store.select(START, START + 3 * HOUR));
+        assertTrue(store.getNames().contains("cpu"));
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        store.setRetention(Resolution.RAW, 2 * HOUR);
+        store.open(START);
+        for (long ts = START; ts < START + 5 * HOUR; ts += 60000) {
+            store.add("cpu", ts, 1.0);
+        }
+        store.maintain(START + 5 * HOUR);
+        assertEquals(2, store.query("cpu", START, START + 5 * HOUR, Resolution.RAW).size() / 60);
+        assertFalse(new File(directory, "raw/" + START + ResolutionStore.SUFFIX).exists());
+        assertEquals(Resolution.MINUTE, store.select(START, START + 5 * HOUR));
+        store.close();
+    }
+
+    @Test
+    public void testCheckpointAppendsToJournal() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        store.open(START);
+        for (long ts = START; ts < START + 600000; ts += 10000) {
+            store.add("cpu", ts, 1.0);
+        }
+        store.maintain(START + 600000);
+        File journal = new File(directory, "raw/" + START + ResolutionStore.JOURNAL_SUFFIX);
+        long size = journal.length();
+        assertTrue(size > 0);
+
+        // Only the points added since the previous checkpoint are written
+        store.add("cpu", START + 600000, 2.0);
+        store.maintain(START + 610000);
+        assertEquals(size + size / 60, journal.length());
+        store.maintain(START + 620000);
+        assertEquals(size + size / 60, journal.length());
+
+        // Without closing the store, the current window is restored from its journal
+        store = new TimeSeriesStore(directory);
+        store.open(START + 620000);
+        List<MetricPoint> points = store.query("cpu", START, START + HOUR, Resolution.RAW);
+        assertEquals(61, points.size());
+        assertEquals(2.0, points.get(60).getValue(), 0.0);
+        store.add("cpu", START + 630000, 3.0);
+        store.close();
+
+        // The journal of a finished window is sealed into a segment when opening
+        store = new TimeSeriesStore(directory);
+        store.open(START + 3 * HOUR);
+        assertFalse(journal.exists());
+        assertTrue(new File(directory, "raw/" + START + ResolutionStore.SUFFIX).exists());
+        assertEquals(62, store.query("cpu", START, START + HOUR, Resolution.RAW).size());
+        store.close();
+    }
+
+    @Test
+    public void testWindowBoundaryWithPendingBucket() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        store.open(START);
+        // A day of points every 10 seconds, maintained every minute
+        for (long ts = START; ts < START + DAY; ts += 10000) {
+            store.add("cpu", ts, 1.0);
+            if (ts % 60000 == 0) {
+                store.maintain(ts);
+            }
+        }
+        // The day is over while the bucket of its last minute is still pending
+        store.maintain(START + DAY);
+        store.add("cpu", START + DAY + 10000, 1.0);
+        store.maintain(START + DAY + 10000);
+        store.maintain(START + DAY + 3 * 60000);
+
+        assertTrue(new File(directory, "minute/" + START + ResolutionStore.SUFFIX).exists());
+        assertEquals(24 * 60, store.query("cpu", START, START + DAY - 1, Resolution.MINUTE).size());
+        store.close();
+    }
+
+    @Test
+    public void testPointOfRolledWindowIsLate() throws Exception {
+        ResolutionStore store = new ResolutionStore(new File(directory, "minute"), Resolution.MINUTE);
+        store.open(START);
+        for (long ts = START; ts < START + 3 * 60000; ts += 60000) {
+            assertTrue(store.append("cpu", ts, 1.0));
+        }
+        store.roll(START + DAY);
+        assertEquals(1, store.getSegmentCount());
+
+        // Appending would reopen the sealed window and overwrite its segment
+        assertFalse(store.append("cpu", START + DAY - 60000, 2.0));
+        assertEquals(1, store.getLate());
+        store.roll(START + 2 * DAY);
+        List<MetricPoint> points = new ArrayList<MetricPoint>();
+        store.query("cpu", START, START + DAY, points);
+        assertEquals(3, points.size());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
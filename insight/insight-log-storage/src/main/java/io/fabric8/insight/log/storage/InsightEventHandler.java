@@ -23,6 +23,8 @@ import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.util.Map;
 
 import static io.fabric8.insight.log.storage.InsightUtils.formatDate;
@@ -41,40 +43,106 @@ public class InsightEventHandler implements EventHandler {
 
     private String name;
 
-    private String type = "events";
+    private volatile String type = "events";
+
+    private volatile LogShipper shipper;
 
     @Reference
     private StorageService storageService;
 
+    @Reference
+    private MBeanServer mbeanServer;
+
     @Activate
-    public void activate(Map<String, ?> configuration) {
+    public void activate(Map<String, ?> configuration) throws Exception {
         name = System.getProperty("runtime.id");
         if (configuration.containsKey(LOG_TYPE)) {
             type = (String) configuration.get(LOG_TYPE);
         }
+        startShipper(configuration);
     }
 
     @Modified
-    public void modified(Map<String, ?> configuration) {
+    public void modified(Map<String, ?> configuration) throws Exception {
         if (configuration.containsKey(LOG_TYPE)) {
             type = (String) configuration.get(LOG_TYPE);
         } else {
             type = "log";
         }
+        stopShipper();
+        startShipper(configuration);
+    }
+
+    @Deactivate
+    public void deactivate() throws Exception {
+        stopShipper();
+    }
+
+    private void startShipper(Map<String, ?> configuration) throws Exception {
+        LogShipper shipper = LogShipper.create("events", storageService, configuration);
+        shipper.start();
+        mbeanServer.registerMBean(shipper, getObjectName());
+        this.shipper = shipper;
+    }
+
+    private void stopShipper() throws Exception {
+        LogShipper shipper = this.shipper;
+        if (shipper != null) {
+            this.shipper = null;
+            if (mbeanServer.isRegistered(getObjectName())) {
+                mbeanServer.unregisterMBean(getObjectName());
+            }
+            shipper.stop();
+        }
+    }
+
+    private ObjectName getObjectName() throws Exception {
+        return new ObjectName("io.fabric8.insight:type=LogShipper,name=events");
     }
 
     public void handleEvent(final Event event) {
         try {
-            StringBuilder writer = new StringBuilder();
+            LogShipper shipper = this.shipper;
+            String type = this.type;
+            if (type != null && shipper != null) {
+                shipper.offer(new EventEntry(type, name, event));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Error appending log to elastic search", e);
+        }
+    }
+
+    /**
+     * An event admin event, which is immutable and can be encoded later on.
+     */
+    static class EventEntry extends StorageEvent {
+
+        private final String host;
+        private final Event event;
+
+        EventEntry(String type, String host, Event event) {
+            super(type, getTimestamp(event), INFO);
+            this.host = host;
+            this.event = event;
+        }
+
+        private static long getTimestamp(Event event) {
+            Object timestamp = event.getProperty(EventConstants.TIMESTAMP);
+            if (timestamp instanceof Long && (Long) timestamp != 0) {
+                return (Long) timestamp;
+            }
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void writeJson(StringBuilder writer) {
             writer.append("{ \"host\": ");
-            quote(name, writer);
+            quote(host, writer);
             writer.append(", \"topic\": ");
             quote(event.getTopic(), writer);
             writer.append(", \"properties\": { ");
             boolean first = true;
 
-            long timestamp = 0;
-
             for (String name : event.getPropertyNames()) {
                 if (first) {
                     first = false;
@@ -87,8 +155,7 @@ public class InsightEventHandler implements EventHandler {
                 if (value == null) {
                     writer.append("null");
                 } else if (EventConstants.TIMESTAMP.equals(name) && value instanceof Long) {
-                    timestamp = (Long) value;
-                    quote(formatDate(timestamp), writer);
+                    quote(formatDate((Long) value), writer);
                 } else if (value.getClass().isArray()) {
                     writer.append(" [ ");
                     boolean vfirst = true;
@@ -106,15 +173,6 @@ public class InsightEventHandler implements EventHandler {
                 }
             }
             writer.append(" } }");
-
-            if (timestamp == 0) {
-                timestamp = System.currentTimeMillis();
-            }
-            if (type != null && storageService != null) {
-                storageService.store(type, timestamp, writer.toString());
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Error appending log to elastic search", e);
         }
     }
 
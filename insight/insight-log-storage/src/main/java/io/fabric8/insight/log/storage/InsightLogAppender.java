@@ -19,6 +19,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import io.fabric8.insight.storage.StorageService;
 import org.apache.felix.scr.annotations.*;
 import org.ops4j.pax.logging.spi.PaxAppender;
@@ -43,26 +46,61 @@ public class InsightLogAppender implements PaxAppender {
 
     private String name;
 
-    private String type = "log";
+    private volatile String type = "log";
+
+    private volatile LogShipper shipper;
 
     @Reference
     private StorageService storageService;
 
+    @Reference
+    private MBeanServer mbeanServer;
+
     @Activate
-    public void activate(Map<String, ?> configuration) {
+    public void activate(Map<String, ?> configuration) throws Exception {
         name = System.getProperty("runtime.id");
         if (configuration.containsKey(LOG_TYPE)) {
             type = (String) configuration.get(LOG_TYPE);
         }
+        startShipper(configuration);
     }
 
     @Modified
-    public void modified(Map<String, ?> configuration) {
+    public void modified(Map<String, ?> configuration) throws Exception {
         if (configuration.containsKey(LOG_TYPE)) {
             type = (String) configuration.get(LOG_TYPE);
         } else {
             type = "log";
         }
+        stopShipper();
+        startShipper(configuration);
+    }
+
+    @Deactivate
+    public void deactivate() throws Exception {
+        stopShipper();
+    }
+
+    private void startShipper(Map<String, ?> configuration) throws Exception {
+        LogShipper shipper = LogShipper.create("logs", storageService, configuration);
+        shipper.start();
+        mbeanServer.registerMBean(shipper, getObjectName());
+        this.shipper = shipper;
+    }
+
+    private void stopShipper() throws Exception {
+        LogShipper shipper = this.shipper;
+        if (shipper != null) {
+            this.shipper = null;
+            if (mbeanServer.isRegistered(getObjectName())) {
+                mbeanServer.unregisterMBean(getObjectName());
+            }
+            shipper.stop();
+        }
+    }
+
+    private ObjectName getObjectName() throws Exception {
+        return new ObjectName("io.fabric8.insight:type=LogShipper,name=logs");
     }
 
     public void doAppend(final PaxLoggingEvent paxLoggingEvent) {
@@ -72,23 +110,66 @@ public class InsightLogAppender implements PaxAppender {
                     !paxLoggingEvent.getProperties().containsKey("trace-id")) {
                 return;
             }
-            StringBuilder writer = new StringBuilder();
+            LogShipper shipper = this.shipper;
+            String type = this.type;
+            if (type != null && shipper != null) {
+                shipper.offer(new LogEntry(type, name, paxLoggingEvent));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Error appending log to storage", e);
+        }
+    }
+
+    /**
+     * A snapshot of a logging event, the properties are copied on the caller thread
+     * as they may contain the thread local MDC.
+     */
+    static class LogEntry extends StorageEvent {
+
+        private final String host;
+        private final String level;
+        private final String logger;
+        private final String thread;
+        private final String message;
+        private final String[] throwable;
+        private final Map<String, String> properties;
+
+        LogEntry(String type, String host, PaxLoggingEvent paxLoggingEvent) {
+            super(type, paxLoggingEvent.getTimeStamp(), toLevel(paxLoggingEvent.getLevel().toString()));
+            this.host = host;
+            this.level = paxLoggingEvent.getLevel().toString();
+            this.logger = paxLoggingEvent.getLoggerName();
+            this.thread = paxLoggingEvent.getThreadName();
+            this.message = paxLoggingEvent.getMessage();
+            this.throwable = paxLoggingEvent.getThrowableStrRep();
+            this.properties = new HashMap<String, String>();
+            Set<Map.Entry> set = paxLoggingEvent.getProperties().entrySet();
+            for (Map.Entry entry : set) {
+                Object key = entry.getKey();
+                Object value = entry.getValue();
+                if (key != null && value != null) {
+                    properties.put(key.toString(), value.toString());
+                }
+            }
+        }
+
+        @Override
+        public void writeJson(StringBuilder writer) {
             writer.append("{ \"host\" : ");
-            quote(name, writer);
+            quote(host, writer);
             writer.append(",\n  \"@timestamp\" : ");
-            quote(formatDate(paxLoggingEvent.getTimeStamp()), writer);
+            quote(formatDate(getTimestamp()), writer);
             writer.append(",\n  \"level\" : ");
-            quote(paxLoggingEvent.getLevel().toString(), writer);
+            quote(level, writer);
             writer.append(",\n  \"logger\" : ");
-            quote(paxLoggingEvent.getLoggerName(), writer);
+            quote(logger, writer);
             writer.append(",\n  \"thread\" : ");
-            quote(paxLoggingEvent.getThreadName(), writer);
+            quote(thread, writer);
             writer.append(",\n  \"message\" : ");
-            quote(paxLoggingEvent.getMessage(), writer);
+            quote(message, writer);
 
-            String[] throwable = paxLoggingEvent.getThrowableStrRep();
             if (throwable != null) {
-                throwable = addMavenCoord(throwable);
+                String[] throwable = addMavenCoord(this.throwable);
                 writer.append(",\n  \"exception\" : [");
                 for (int i = 0; i < throwable.length; i++) {
                     if (i != 0)
@@ -100,35 +181,20 @@ public class InsightLogAppender implements PaxAppender {
 
             writer.append(",\n  \"properties\" : { ");
             boolean first = true;
-            Map<String, String> properties = new HashMap<String, String>();
-            Set<Map.Entry> set = paxLoggingEvent.getProperties().entrySet();
-            for (Map.Entry entry : set) {
-                Object key = entry.getKey();
-                Object value = entry.getValue();
-                if (key != null && value != null) {
-                    properties.put(key.toString(), value.toString());
-                }
-            }
             addMavenCoord(properties);
 
-            for (Object key : properties.keySet()) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
                 if (first) {
                     first = false;
                 } else {
                     writer.append(", ");
                 }
-                quote(key.toString(), writer);
+                quote(entry.getKey(), writer);
                 writer.append(": ");
-                quote(properties.get(key).toString(), writer);
+                quote(entry.getValue(), writer);
             }
             writer.append(" }");
             writer.append("\n}");
-
-            if (type != null && storageService != null) {
-                storageService.store(type, paxLoggingEvent.getTimeStamp(), writer.toString());
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Error appending log to storage", e);
         }
     }
 
@@ -20,10 +20,16 @@ import java.util.Date;
 
 public class InsightUtils {
 
-    private static final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+    // SimpleDateFormat is not thread safe and events are encoded on several shipper threads
+    private static final ThreadLocal<SimpleDateFormat> simpleDateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+        }
+    };
 
     public static String formatDate(long timestamp) {
-        return simpleDateFormat.format(new Date(timestamp));
+        return simpleDateFormat.get().format(new Date(timestamp));
     }
 
     /**
@@ -0,0 +1,407 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.fabric8.insight.storage.BoundedStorageService;
+import io.fabric8.insight.storage.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ships {@link StorageEvent}s to a {@link StorageService} from a dedicated thread.
+ *
+ * Events are kept in a bounded ring buffer so that a slow storage can not make the
+ * heap grow, the {@link OverflowPolicy} decides what happens when the buffer is full.
+ * The JSON encoding is done on the shipper thread in a reused buffer.  When a spool
+ * directory is configured, documents the storage fails or refuses are written to disk
+ * and replayed once the storage accepts documents again.  A {@link BoundedStorageService}
+ * refusing documents because it is full is handled like a failing storage.
+ */
+public class LogShipper implements LogShipperMBean, Runnable {
+
+    public static final String BUFFER_SIZE = "buffer.size";
+    public static final String OVERFLOW_POLICY = "overflow.policy";
+    public static final String OVERFLOW_LEVEL = "overflow.level";
+    public static final String SPOOL_DIR = "spool.dir";
+    public static final String SPOOL_MAX_SIZE = "spool.max.size";
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final long DEFAULT_SPOOL_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogShipper.class);
+
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final long POLL_INTERVAL = 1000;
+    private static final long STOP_TIMEOUT = 5000;
+
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest buffered event
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new event if its level is below the overflow level,
+         * else discard the oldest buffered event below that level
+         */
+        DROP_BY_LEVEL,
+        /**
+         * Block the caller until some space is available
+         */
+        BLOCK
+    }
+
+    private final String name;
+    private final StorageService storageService;
+    private final OverflowPolicy overflowPolicy;
+    private final int overflowLevel;
+    private final LogSpool spool;
+
+    private final StorageEvent[] buffer;
+    private int head;
+    private int count;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong shipped = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+
+    private final StringBuilder writer = new StringBuilder(1024);
+    private boolean failing;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public LogShipper(String name, StorageService storageService, int capacity, OverflowPolicy overflowPolicy, int overflowLevel, LogSpool spool) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + capacity);
+        }
+        this.name = name;
+        this.storageService = storageService;
+        this.buffer = new StorageEvent[capacity];
+        this.overflowPolicy = overflowPolicy;
+        this.overflowLevel = overflowLevel;
+        this.spool = spool;
+    }
+
+    /**
+     * Create a shipper using the {@link #BUFFER_SIZE}, {@link #OVERFLOW_POLICY}, {@link #OVERFLOW_LEVEL},
+     * {@link #SPOOL_DIR} and {@link #SPOOL_MAX_SIZE} keys of the given component configuration.
+     */
+    public static LogShipper create(String name, StorageService storageService, Map<String, ?> configuration) {
+        int capacity = DEFAULT_BUFFER_SIZE;
+        OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+        int level = StorageEvent.WARN;
+        LogSpool spool = null;
+        if (configuration != null) {
+            if (configuration.get(BUFFER_SIZE) != null) {
+                capacity = Integer.parseInt(configuration.get(BUFFER_SIZE).toString().trim());
+            }
+            if (configuration.get(OVERFLOW_POLICY) != null) {
+                policy = OverflowPolicy.valueOf(configuration.get(OVERFLOW_POLICY).toString().trim().toUpperCase().replace('-', '_'));
+            }
+            if (configuration.get(OVERFLOW_LEVEL) != null) {
+                level = StorageEvent.toLevel(configuration.get(OVERFLOW_LEVEL).toString());
+            }
+            if (configuration.get(SPOOL_DIR) != null) {
+                long maxSize = DEFAULT_SPOOL_MAX_SIZE;
+                if (configuration.get(SPOOL_MAX_SIZE) != null) {
+                    maxSize = Long.parseLong(configuration.get(SPOOL_MAX_SIZE).toString().trim());
+                }
+                spool = new LogSpool(new File(configuration.get(SPOOL_DIR).toString()), name, maxSize);
+            }
+        }
+        return new LogShipper(name, storageService, capacity, policy, level, spool);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, "InsightLogShipper-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the shipper thread, giving it a chance to ship or spool the pending events.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            running = false;
+            lock.lock();
+            try {
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Add an event to the buffer, applying the overflow policy if it is full.
+     *
+     * @return <code>false</code> if the event has been discarded
+     */
+    public boolean offer(StorageEvent event) {
+        lock.lock();
+        try {
+            while (count == buffer.length) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        // Never block the shipper thread itself, it would be waiting for itself
+                        if (!running || Thread.currentThread() == thread) {
+                            dropped.incrementAndGet();
+                            return false;
+                        }
+                        notFull.awaitUninterruptibly();
+                        continue;
+                    case DROP_BY_LEVEL:
+                        if (event.getLevel() < overflowLevel) {
+                            dropped.incrementAndGet();
+                            return false;
+                        }
+                        removeOldestBelow(overflowLevel);
+                        break;
+                    default:
+                        removeAt(0);
+                        break;
+                }
+                dropped.incrementAndGet();
+            }
+            buffer[(head + count) % buffer.length] = event;
+            count++;
+            queued.incrementAndGet();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeOldestBelow(int level) {
+        for (int i = 0; i < count; i++) {
+            if (buffer[(head + i) % buffer.length].getLevel() < level) {
+                removeAt(i);
+                return;
+            }
+        }
+        removeAt(0);
+    }
+
+    /**
+     * Remove the event at the given offset from the head, must be called with the lock held.
+     */
+    private void removeAt(int offset) {
+        for (int i = offset; i > 0; i--) {
+            buffer[(head + i) % buffer.length] = buffer[(head + i - 1) % buffer.length];
+        }
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        count--;
+    }
+
+    private StorageEvent poll(long timeout) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (count == 0) {
+                if (nanos <= 0 || !running) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            StorageEvent event = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                StorageEvent event = poll(POLL_INTERVAL);
+                if (event != null) {
+                    ship(event);
+                } else {
+                    idle();
+                }
+            }
+            StorageEvent event;
+            while ((event = poll(0)) != null) {
+                ship(event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (spool != null) {
+                try {
+                    spool.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Error closing log spool", e);
+                }
+            }
+        }
+    }
+
+    private void ship(StorageEvent event) {
+        String jsonData;
+        try {
+            writer.setLength(0);
+            event.writeJson(writer);
+            jsonData = writer.toString();
+        } catch (Exception e) {
+            dropped.incrementAndGet();
+            LOGGER.warn("Error encoding event", e);
+            return;
+        } finally {
+            if (writer.capacity() > MAX_RETAINED_BUFFER) {
+                writer.setLength(0);
+                writer.trimToSize();
+            }
+        }
+        try {
+            if (store(storageService, event.getType(), event.getTimestamp(), jsonData)) {
+                shipped.incrementAndGet();
+                failing = false;
+                return;
+            }
+            // Only log on the first failure, as logging from here will feed this shipper again
+            if (!failing) {
+                failing = true;
+                LOGGER.warn("Storage is full, " + (spool != null ? "spooling" : "dropping") + " events until it accepts them again");
+            }
+        } catch (Exception e) {
+            if (!failing) {
+                failing = true;
+                LOGGER.warn("Error storing event, " + (spool != null ? "spooling" : "dropping") + " events until the storage recovers", e);
+            }
+        }
+        spoolOrDrop(event.getType(), event.getTimestamp(), jsonData);
+    }
+
+    /**
+     * Send a document to the storage, without letting a {@link BoundedStorageService} discard other documents.
+     *
+     * @return <code>false</code> if the storage is full and the document has not been stored
+     */
+    static boolean store(StorageService storage, String type, long timestamp, String jsonData) {
+        if (storage instanceof BoundedStorageService) {
+            return ((BoundedStorageService) storage).offer(type, timestamp, jsonData);
+        }
+        storage.store(type, timestamp, jsonData);
+        return true;
+    }
+
+    private void spoolOrDrop(String type, long timestamp, String jsonData) {
+        try {
+            if (spool != null && spool.append(type, timestamp, jsonData)) {
+                spooled.incrementAndGet();
+                return;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Error writing to log spool", e);
+        }
+        dropped.incrementAndGet();
+    }
+
+    private void idle() {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.flush();
+            if (!spool.isEmpty()) {
+                shipped.addAndGet(spool.replay(storageService));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error replaying log spool", e);
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return overflowPolicy.name();
+    }
+
+    @Override
+    public int getPending() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getQueued() {
+        return queued.get();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public long getShipped() {
+        return shipped.get();
+    }
+
+    @Override
+    public long getSpooled() {
+        return spooled.get();
+    }
+
+    @Override
+    public long getSpoolSize() {
+        return spool != null ? spool.getSize() : 0;
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+public interface LogShipperMBean {
+
+    /**
+     * The maximum number of events waiting to be shipped
+     */
+    int getCapacity();
+
+    /**
+     * The policy applied when the buffer is full
+     */
+    String getOverflowPolicy();
+
+    /**
+     * The number of events currently waiting to be shipped
+     */
+    int getPending();
+
+    /**
+     * The total number of events accepted in the buffer
+     */
+    long getQueued();
+
+    /**
+     * The total number of events discarded because the buffer or the spool was full
+     */
+    long getDropped();
+
+    /**
+     * The total number of events handed to the storage
+     */
+    long getShipped();
+
+    /**
+     * The total number of events written to the on-disk spool
+     */
+    long getSpooled();
+
+    /**
+     * The current size in bytes of the on-disk spool, or <code>0</code> if there is no spool
+     */
+    long getSpoolSize();
+
+}
@@ -0,0 +1,163 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import io.fabric8.insight.storage.StorageService;
+
+/**
+ * A size bounded on-disk spool used to keep encoded documents while the
+ * {@link StorageService} is not able to accept them.
+ *
+ * Records are appended to a <code>&lt;name&gt;.spool</code> file, and moved to a
+ * <code>&lt;name&gt;.replay</code> file while being replayed.
+ * This class is not thread safe, it is only used by the {@link LogShipper} thread.
+ */
+public class LogSpool implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File replayFile;
+    private final long maxSize;
+
+    private DataOutputStream out;
+    private volatile long size;
+
+    public LogSpool(File directory, String name, long maxSize) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create spool directory " + directory);
+        }
+        this.file = new File(directory, name + ".spool");
+        this.replayFile = new File(directory, name + ".replay");
+        this.maxSize = maxSize;
+        this.size = file.length();
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && !replayFile.exists();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Append a document to the spool.
+     *
+     * @return <code>false</code> if the spool is full and the document has been discarded
+     */
+    public boolean append(String type, long timestamp, String jsonData) throws IOException {
+        byte[] data = jsonData.getBytes(UTF8);
+        if (size + data.length > maxSize) {
+            return false;
+        }
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        int before = out.size();
+        out.writeUTF(type);
+        out.writeLong(timestamp);
+        out.writeInt(data.length);
+        out.write(data);
+        size += out.size() - before;
+        return true;
+    }
+
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Send all spooled documents to the given storage.  If the storage fails or is full,
+     * the remaining documents are kept in the spool for a later attempt.
+     *
+     * @return the number of documents which have been sent
+     */
+    public long replay(StorageService storage) throws IOException {
+        close();
+        if (file.exists() && !replayFile.exists()) {
+            if (!file.renameTo(replayFile)) {
+                throw new IOException("Unable to rename " + file + " to " + replayFile);
+            }
+            size = 0;
+        }
+        if (!replayFile.exists()) {
+            return 0;
+        }
+        long shipped = 0;
+        boolean failed = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(replayFile)))) {
+            while (true) {
+                String type;
+                long timestamp;
+                String jsonData;
+                try {
+                    type = in.readUTF();
+                    timestamp = in.readLong();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    jsonData = new String(data, UTF8);
+                } catch (EOFException e) {
+                    // End of the spool, or a truncated record written during a crash
+                    break;
+                }
+                if (!failed) {
+                    try {
+                        if (LogShipper.store(storage, type, timestamp, jsonData)) {
+                            shipped++;
+                            continue;
+                        }
+                    } catch (RuntimeException e) {
+                        // Keep the document in the spool
+                    }
+                    failed = true;
+                }
+                append(type, timestamp, jsonData);
+            }
+        }
+        flush();
+        if (!replayFile.delete()) {
+            throw new IOException("Unable to delete " + replayFile);
+        }
+        return shipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+/**
+ * An event captured on the caller thread and queued in a {@link LogShipper}.
+ * Implementations must take a snapshot of everything they need in their
+ * constructor, the JSON encoding is performed later on the shipper thread.
+ */
+public abstract class StorageEvent {
+
+    public static final int TRACE = 0;
+    public static final int DEBUG = 1;
+    public static final int INFO = 2;
+    public static final int WARN = 3;
+    public static final int ERROR = 4;
+
+    private final String type;
+    private final long timestamp;
+    private final int level;
+
+    protected StorageEvent(String type, long timestamp, int level) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.level = level;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Write the JSON document for this event.
+     */
+    public abstract void writeJson(StringBuilder writer);
+
+    /**
+     * Convert a level name to one of the level constants, unknown levels are
+     * considered as {@link #INFO}.
+     */
+    public static int toLevel(String level) {
+        if (level == null) {
+            return INFO;
+        }
+        switch (level.trim().toUpperCase()) {
+            case "TRACE":
+                return TRACE;
+            case "DEBUG":
+                return DEBUG;
+            case "WARN":
+            case "WARNING":
+                return WARN;
+            case "ERROR":
+            case "FATAL":
+                return ERROR;
+            default:
+                return INFO;
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.insight.elasticsearch.AbstractElasticsearchStorage;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.node.Node;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ships events to an Elasticsearch storage whose cluster does not answer, then recovers.
+ */
+public class LogShipperElasticsearchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestStorage storage = new TestStorage();
+
+    private LogShipper shipper;
+
+    @After
+    public void tearDown() {
+        if (shipper != null) {
+            shipper.stop();
+        }
+        storage.recover();
+        storage.stop();
+    }
+
+    @Test
+    public void testSpoolWhileElasticsearchIsDown() throws Exception {
+        storage.start();
+        shipper = new LogShipper("test", storage, 64, LogShipper.OverflowPolicy.DROP_OLDEST, StorageEvent.WARN,
+                new LogSpool(folder.getRoot(), "test", 1024 * 1024));
+        shipper.start();
+
+        // One bulk waits for the cluster, one waits for the indexer, two fill the queue and the others are spooled
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(shipper.offer(new TestEvent("e" + i)));
+        }
+        waitFor(new Condition() {
+            public boolean isSatisfied() {
+                return shipper.getShipped() + shipper.getSpooled() == 10;
+            }
+        });
+        assertTrue("Events should be spooled while the queue is full", shipper.getSpooled() >= 4);
+        assertTrue(storage.getRefused() > 0);
+        assertEquals(0, storage.getRejected());
+        assertEquals(0, shipper.getDropped());
+
+        // Once the cluster answers again, the spooled events are replayed
+        storage.recover();
+        waitFor(new Condition() {
+            public boolean isSatisfied() {
+                return storage.getIndexed() == 10;
+            }
+        });
+        assertEquals(10, shipper.getShipped());
+        assertEquals(0, shipper.getSpoolSize());
+        assertEquals(10, new HashSet<String>(storage.documents).size());
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.isSatisfied()) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            Thread.sleep(20);
+        }
+    }
+
+    private interface Condition {
+        boolean isSatisfied();
+    }
+
+    /**
+     * An Elasticsearch storage whose bulk requests are left unanswered until {@link #recover()} is called.
+     */
+    private static class TestStorage extends AbstractElasticsearchStorage implements InvocationHandler {
+
+        private final List<String> documents = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Object[]> pending = new ArrayList<Object[]>();
+        private boolean down = true;
+
+        private final Node node = (Node) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Node.class }, this);
+        private final Client client = (Client) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Client.class }, this);
+
+        TestStorage() {
+            super(2);
+        }
+
+        void start() {
+            Map<String, Object> configuration = new HashMap<String, Object>();
+            configuration.put(BULK_ACTIONS, "1");
+            configuration.put(BULK_LINGER, "0");
+            configuration.put(BULK_CONCURRENT_REQUESTS, "1");
+            start("test", configuration);
+        }
+
+        @Override
+        public void stop() {
+            super.stop();
+        }
+
+        @Override
+        public Node getNode() {
+            return node;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            if (method.getName().equals("client")) {
+                return client;
+            }
+            if (method.getName().equals("bulk") && args != null && args.length == 2) {
+                synchronized (this) {
+                    if (down) {
+                        pending.add(args);
+                        return null;
+                    }
+                }
+                respond((BulkRequest) args[0], (ActionListener<BulkResponse>) args[1]);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        @SuppressWarnings("unchecked")
+        void recover() {
+            List<Object[]> requests;
+            synchronized (this) {
+                down = false;
+                requests = new ArrayList<Object[]>(pending);
+                pending.clear();
+            }
+            for (Object[] args : requests) {
+                respond((BulkRequest) args[0], (ActionListener<BulkResponse>) args[1]);
+            }
+        }
+
+        private void respond(BulkRequest bulk, ActionListener<BulkResponse> listener) {
+            List<ActionRequest> requests = bulk.requests();
+            BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+            for (int i = 0; i < items.length; i++) {
+                IndexRequest request = (IndexRequest) requests.get(i);
+                documents.add(request.source().toUtf8());
+                items[i] = new BulkItemResponse(i, "create", new IndexResponse(request.index(), request.type(), "id" + i, 1, true));
+            }
+            listener.onResponse(new BulkResponse(items, 1));
+        }
+    }
+
+    private static class TestEvent extends StorageEvent {
+        private final String message;
+
+        TestEvent(String message) {
+            super("test", System.currentTimeMillis(), StorageEvent.INFO);
+            this.message = message;
+        }
+
+        @Override
+        public void writeJson(StringBuilder writer) {
+            writer.append("{\"message\":\"").append(message).append("\"}");
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.insight.storage.StorageService;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogShipperTest {
+
+    private final List<String> stored = Collections.synchronizedList(new ArrayList<String>());
+
+    private LogShipper shipper;
+
+    @After
+    public void tearDown() {
+        if (shipper != null) {
+            shipper.stop();
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        shipper = new LogShipper("test", new RecordingStorage(null), 3, LogShipper.OverflowPolicy.DROP_OLDEST, StorageEvent.WARN, null);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "e" + i)));
+        }
+        assertEquals(3, shipper.getPending());
+        assertEquals(2, shipper.getDropped());
+
+        // The pending events are shipped when stopping
+        shipper.start();
+        shipper.stop();
+        assertEquals(Arrays.asList("e3", "e4", "e5"), stored);
+        assertEquals(3, shipper.getShipped());
+    }
+
+    @Test
+    public void testDropByLevel() throws Exception {
+        shipper = new LogShipper("test", new RecordingStorage(null), 3, LogShipper.OverflowPolicy.DROP_BY_LEVEL, StorageEvent.WARN, null);
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.WARN, "warn1")));
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "info1")));
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "info2")));
+
+        // A new event below the level is discarded
+        assertFalse(shipper.offer(new TestEvent(StorageEvent.DEBUG, "debug1")));
+        assertEquals(1, shipper.getDropped());
+
+        // Other events replace the oldest events below the level, then the oldest events
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.ERROR, "error1")));
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.WARN, "warn2")));
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.WARN, "warn3")));
+        assertEquals(3, shipper.getPending());
+        assertEquals(4, shipper.getDropped());
+
+        shipper.start();
+        shipper.stop();
+        assertEquals(Arrays.asList("error1", "warn2", "warn3"), stored);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        final RecordingStorage storage = new RecordingStorage(release);
+        shipper = new LogShipper("test", storage, 2, LogShipper.OverflowPolicy.BLOCK, StorageEvent.WARN, null);
+        shipper.start();
+
+        // The shipper thread takes the first event and waits in the storage, the next two fill the buffer
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "e1")));
+        assertTrue(storage.storing.await(5, TimeUnit.SECONDS));
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "e2")));
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "e3")));
+
+        final CountDownLatch offered = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shipper.offer(new TestEvent(StorageEvent.INFO, "e4"));
+                offered.countDown();
+            }
+        });
+        producer.start();
+        assertFalse("The caller should wait for some space", offered.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        shipper.stop();
+        assertEquals(Arrays.asList("e1", "e2", "e3", "e4"), stored);
+        assertEquals(0, shipper.getDropped());
+    }
+
+    @Test
+    public void testBlockDropsWhenStopped() throws Exception {
+        shipper = new LogShipper("test", new RecordingStorage(null), 1, LogShipper.OverflowPolicy.BLOCK, StorageEvent.WARN, null);
+        assertTrue(shipper.offer(new TestEvent(StorageEvent.INFO, "e1")));
+        // Nobody would ever make room, so the event is discarded instead of blocking forever
+        assertFalse(shipper.offer(new TestEvent(StorageEvent.INFO, "e2")));
+        assertEquals(1, shipper.getDropped());
+    }
+
+    private class RecordingStorage implements StorageService {
+        private final CountDownLatch release;
+        private final CountDownLatch storing = new CountDownLatch(1);
+
+        RecordingStorage(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void store(String type, long timestamp, String jsonData) {
+            storing.countDown();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            stored.add(jsonData);
+        }
+    }
+
+    private static class TestEvent extends StorageEvent {
+        private final String message;
+
+        TestEvent(int level, String message) {
+            super("test", System.currentTimeMillis(), level);
+            this.message = message;
+        }
+
+        @Override
+        public void writeJson(StringBuilder writer) {
+            writer.append(message);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.metrics.model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the numeric {@link MetricPoint}s of a {@link QueryResult}.
+ */
+public final class MetricPoints {
+
+    private MetricPoints() {
+    }
+
+    /**
+     * Add the numeric values of the query result to the given collection, non numeric values are ignored.
+     *
+     * @return the number of points added
+     */
+    public static int collect(String type, long timestamp, QueryResult queryResult, Collection<? super MetricPoint> points) {
+        Map<String, Result<?>> results = queryResult.getResults();
+        if (results == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Result<?> result : results.values()) {
+            if (result instanceof MBeanOpersResult) {
+                MBeanOpersResult opersResult = (MBeanOpersResult) result;
+                List<MBeanOperResult> operResults = opersResult.getResults();
+                if (operResults != null) {
+                    String id = null;
+                    for (MBeanOperResult operResult : operResults) {
+                        Object value = operResult.getValue();
+                        if (value instanceof Number) {
+                            if (id == null) {
+                                id = Metrics.metricId(type, opersResult.getRequest());
+                            }
+                            points.add(new MetricPoint(id, timestamp, ((Number) value).doubleValue()));
+                            count++;
+                        }
+                    }
+                }
+            } else if (result instanceof MBeanAttrsResult) {
+                MBeanAttrsResult attrsResult = (MBeanAttrsResult) result;
+                List<MBeanAttrResult> attrResults = attrsResult.getResults();
+                if (attrResults != null) {
+                    for (MBeanAttrResult attrResult : attrResults) {
+                        Map<String, Object> attrs = attrResult.getAttrs();
+                        if (attrs != null) {
+                            for (Map.Entry<String, Object> attrEntry : attrs.entrySet()) {
+                                Object value = attrEntry.getValue();
+                                if (value instanceof Number) {
+                                    String id = Metrics.metricId(type, attrsResult.getRequest(), attrEntry.getKey());
+                                    points.add(new MetricPoint(id, timestamp, ((Number) value).doubleValue()));
+                                    count++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+}
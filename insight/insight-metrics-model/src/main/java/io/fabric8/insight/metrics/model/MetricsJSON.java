@@ -24,18 +24,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 public final class MetricsJSON {
 
-    private static final SimpleDateFormat format;
+    // SimpleDateFormat is not thread safe and results are encoded concurrently
+    private static final ThreadLocal<SimpleDateFormat> format = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+        }
+    };
     private static final ObjectMapper mapper;
 
     static {
-        format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
         mapper = new ObjectMapper();
-        mapper.getDeserializationConfig().with(format);
-        mapper.getSerializationConfig().with(format);
+        mapper.getDeserializationConfig().with(format.get());
+        mapper.getSerializationConfig().with(format.get());
     }
 
     public static String toIso(Date d) {
-        return format.format(d);
+        return format.get().format(d);
     }
 
     public static String toJson(Object o) {
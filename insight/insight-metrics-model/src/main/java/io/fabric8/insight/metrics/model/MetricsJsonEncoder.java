@@ -0,0 +1,165 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.metrics.model;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a {@link QueryResult} to the JSON document produced by the default MVEL template,
+ * writing directly to a {@link StringBuilder} instead of evaluating the template.
+ * Values are encoded the same way as {@link MetricsJSON#toJson(Object)}.
+ */
+public final class MetricsJsonEncoder {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private MetricsJsonEncoder() {
+    }
+
+    public static String encode(QueryResult queryResult) {
+        StringBuilder sb = new StringBuilder(256);
+        encode(queryResult, sb);
+        return sb.toString();
+    }
+
+    public static void encode(QueryResult queryResult, StringBuilder sb) {
+        sb.append("{\"host\":");
+        writeString(queryResult.getServer().getName(), sb);
+        sb.append(",\"@timestamp\":");
+        writeValue(queryResult.getTimestamp(), sb);
+        sb.append(",\"queries\":{");
+        boolean firstResult = true;
+        for (Map.Entry<String, Result<?>> entry : queryResult.getResults().entrySet()) {
+            if (!firstResult) {
+                sb.append(',');
+            }
+            firstResult = false;
+            writeString(entry.getKey(), sb);
+            sb.append(":[");
+            Result<?> result = entry.getValue();
+            if (result instanceof MBeanAttrsResult) {
+                writeAttrs(((MBeanAttrsResult) result).getResults(), sb);
+            } else if (result instanceof MBeanOpersResult) {
+                writeOpers(((MBeanOpersResult) result).getResults(), sb);
+            }
+            sb.append(']');
+        }
+        sb.append("}}");
+    }
+
+    private static void writeAttrs(List<MBeanAttrResult> results, StringBuilder sb) {
+        boolean first = true;
+        for (MBeanAttrResult r : results) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"name\":");
+            writeString(String.valueOf(r.getObjectName()), sb);
+            sb.append(",\"attrs\":");
+            writeValue(r.getAttrs(), sb);
+            sb.append('}');
+        }
+    }
+
+    private static void writeOpers(List<MBeanOperResult> results, StringBuilder sb) {
+        boolean first = true;
+        for (MBeanOperResult r : results) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"name\":");
+            writeString(String.valueOf(r.getObjectName()), sb);
+            sb.append(",\"value\":");
+            writeValue(r.getValue(), sb);
+            sb.append('}');
+        }
+    }
+
+    public static void writeValue(Object o, StringBuilder sb) {
+        if (o instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object c : (Collection) o) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeValue(c, sb);
+            }
+            sb.append(']');
+        } else if (o instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeString(e.getKey().toString(), sb);
+                sb.append(':');
+                writeValue(e.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (o == null) {
+            sb.append("null");
+        } else if (o instanceof Date) {
+            sb.append('"').append(MetricsJSON.toIso((Date) o)).append('"');
+        } else {
+            writeString(o.toString(), sb);
+        }
+    }
+
+    public static void writeString(String s, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+}
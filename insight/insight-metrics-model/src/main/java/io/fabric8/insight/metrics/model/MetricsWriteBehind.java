@@ -0,0 +1,175 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.metrics.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MetricsStorageService} which extracts the {@link MetricPoint}s of the query results on
+ * the caller thread, and hands them in batches to a {@link Writer} from a background thread.
+ * The queue is bounded, points are dropped when the writer can not keep up.
+ */
+public class MetricsWriteBehind implements MetricsStorageService, Runnable {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(MetricsWriteBehind.class);
+
+    public interface Writer {
+
+        /**
+         * Write a batch of points, called from the write-behind thread only.
+         */
+        void write(List<MetricPoint> points) throws Exception;
+
+    }
+
+    private final String name;
+    private final Writer writer;
+    private final int maxBatch;
+    private final long flushInterval;
+    private final BlockingQueue<MetricPoint> queue;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param name          the name of the write-behind thread
+     * @param writer        the writer receiving the batches
+     * @param capacity      the maximum number of points waiting to be written
+     * @param maxBatch      the maximum number of points per batch
+     * @param flushInterval the maximum time in milliseconds a point waits for a batch to fill up
+     */
+    public MetricsWriteBehind(String name, Writer writer, int capacity, int maxBatch, long flushInterval) {
+        this.name = name;
+        this.writer = writer;
+        this.maxBatch = maxBatch;
+        this.flushInterval = flushInterval;
+        this.queue = new ArrayBlockingQueue<MetricPoint>(capacity);
+    }
+
+    public MetricsWriteBehind(String name, Writer writer) {
+        this(name, writer, 100000, 5000, 1000);
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the background thread, the points still queued are written before returning.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            running = false;
+            thread.interrupt();
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void store(String type, long timestamp, QueryResult queryResult) {
+        List<MetricPoint> points = new ArrayList<MetricPoint>();
+        MetricPoints.collect(type, timestamp, queryResult, points);
+        for (MetricPoint point : points) {
+            if (!queue.offer(point)) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<MetricPoint> batch = new ArrayList<MetricPoint>(maxBatch);
+        while (running) {
+            try {
+                MetricPoint first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) == 0) {
+                        long wait = deadline - System.currentTimeMillis();
+                        MetricPoint next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Check if we are still running
+            }
+            flush(batch);
+        }
+        queue.drainTo(batch);
+        flush(batch);
+    }
+
+    private void flush(List<MetricPoint> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writer.write(batch);
+            written.addAndGet(batch.size());
+        } catch (Throwable t) {
+            failed.addAndGet(batch.size());
+            LOG.warn("Error writing " + batch.size() + " metrics", t);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+}
@@ -16,6 +16,7 @@
 package io.fabric8.insight.metrics.mvel;
 
 import io.fabric8.insight.metrics.model.Metrics;
+import io.fabric8.insight.metrics.model.MetricsJsonEncoder;
 import io.fabric8.insight.metrics.model.MetricsStorageService;
 import io.fabric8.insight.metrics.model.QueryResult;
 import io.fabric8.insight.storage.StorageService;
@@ -23,7 +24,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Implements {@link MetricsStorageService} using the JSON {@link StorageService}
+ * Implements {@link MetricsStorageService} using the JSON {@link StorageService}.
+ * Results are encoded with the {@link MetricsJsonEncoder}, unless their query
+ * specifies a custom MVEL template.
  */
 public class MetricsStorageServiceImpl implements MetricsStorageService {
     private static final transient Logger LOG = LoggerFactory.getLogger(MetricsStorageServiceImpl.class);
@@ -42,7 +45,11 @@ public class MetricsStorageServiceImpl implements MetricsStorageService {
     public void store(String type, long timestamp, QueryResult qrs) {
         String output = null;
         try {
-            output = renderer.render(qrs);
+            if (qrs.getQuery().getTemplate() != null) {
+                output = renderer.render(qrs);
+            } else {
+                output = MetricsJsonEncoder.encode(qrs);
+            }
         } catch (Exception e) {
             LOG.warn("Failed to render " + qrs + " to JSON: " + e, e);
         }
@@ -19,14 +19,15 @@ package io.fabric8.insight.metrics.service;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.fabric8.api.*;
-import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.common.util.JMXUtils;
 import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 import io.fabric8.groups.NodeState;
 import io.fabric8.groups.internal.TrackingZooKeeperGroup;
 import io.fabric8.insight.metrics.model.*;
+import io.fabric8.insight.metrics.service.support.CompiledQuery;
 import io.fabric8.insight.metrics.service.support.JmxUtils;
+import io.fabric8.insight.metrics.service.support.ObjectNameCache;
 import org.apache.felix.scr.annotations.*;
 import org.apache.karaf.jaas.boot.principal.RolePrincipal;
 import org.osgi.framework.BundleContext;
@@ -43,6 +44,7 @@ import java.net.UnknownHostException;
 import java.security.PrivilegedAction;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.fabric8.common.util.IOHelpers.loadFully;
 import static io.fabric8.insight.metrics.model.MetricsJSON.parseJson;
@@ -86,8 +88,12 @@ public class MetricsCollector implements MetricsCollectorMBean {
     @Reference
     private MBeanServer mbeanServer;
 
-    @Reference(name = "storage", referenceInterface = MetricsStorageService.class)
-    private final ValidatingReference<MetricsStorageService> storage = new ValidatingReference<>();
+    @Reference(name = "storage", referenceInterface = MetricsStorageService.class, bind = "bindStorage", unbind = "unbindStorage", cardinality = ReferenceCardinality.MANDATORY_MULTIPLE, policy = ReferencePolicy.DYNAMIC)
+    private final List<MetricsStorageService> storages = new CopyOnWriteArrayList<MetricsStorageService>();
+
+    private ObjectNameCache objectNameCache;
+
+    private final Subject subject = createSubject();
 
     private int defaultDelay = 60;
     private int threadPoolSize = 5;
@@ -103,6 +109,11 @@ public class MetricsCollector implements MetricsCollectorMBean {
         long lastSent;
         Map metadata;
         Group<QueryNodeState> lock;
+        CompiledQuery compiled;
+        final AtomicLong collections = new AtomicLong();
+        final AtomicLong totalTime = new AtomicLong();
+        volatile long lastTime;
+        volatile long maxTime;
 
         public void close() {
             future.cancel(false);
@@ -119,6 +130,8 @@ public class MetricsCollector implements MetricsCollectorMBean {
     @Activate
     private void activate(BundleContext bundleContext) throws Exception {
         this.bundleContext = bundleContext;
+        this.objectNameCache = new ObjectNameCache(mbeanServer);
+        this.objectNameCache.start();
         this.executor = new ScheduledThreadPoolExecutor(threadPoolSize);
         this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
         this.executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
@@ -153,14 +166,22 @@ public class MetricsCollector implements MetricsCollectorMBean {
         for (QueryState q : queries.values()) {
             q.close();
         }
+        objectNameCache.stop();
+    }
+
+    private static Subject createSubject() {
+        Subject subject = new Subject();
+        subject.getPrincipals().add(new RolePrincipal("admin"));
+        subject.setReadOnly();
+        return subject;
     }
 
     private void bindStorage(MetricsStorageService storage) {
-        this.storage.bind(storage);
+        this.storages.add(storage);
     }
 
     private void unbindStorage(MetricsStorageService storage) {
-        this.storage.unbind(storage);
+        this.storages.remove(storage);
     }
 
     static class QueryNodeState extends NodeState {
@@ -198,6 +219,22 @@ public class MetricsCollector implements MetricsCollectorMBean {
         return MetricsJSON.toJson(meta);
     }
 
+    @Override
+    public String getCollectionStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        for (Map.Entry<Query, QueryState> e : queries.entrySet()) {
+            QueryState state = e.getValue();
+            long count = state.collections.get();
+            Map<String, Object> stat = new LinkedHashMap<String, Object>();
+            stat.put("count", count);
+            stat.put("last", state.lastTime);
+            stat.put("max", state.maxTime);
+            stat.put("average", count > 0 ? state.totalTime.get() / count : 0);
+            stats.put(e.getKey().getName(), stat);
+        }
+        return MetricsJSON.toJson(stats);
+    }
+
     public void process() {
         try {
             Container container = MetricsCollector.this.fabricService.getCurrentContainer();
@@ -221,6 +258,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
                     final QueryState state = new QueryState();
                     state.server = server;
                     state.query = q;
+                    state.compiled = CompiledQuery.compile(q);
                     if (q.getMetadata() != null) {
                         state.metadata = parseJson(loadFully(new URL(q.getMetadata())));
                     }
@@ -246,7 +284,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
 
                     long delay = q.getPeriod() > 0 ? q.getPeriod() : defaultDelay;
                     state.future = this.executor.scheduleAtFixedRate(
-                            new Task(state, storage),
+                            new Task(state),
                             Math.round(Math.random() * 1000) + 1,
                             delay * 1000,
                             TimeUnit.MILLISECONDS);
@@ -324,16 +362,36 @@ public class MetricsCollector implements MetricsCollectorMBean {
 
         private final QueryState query;
 
-        public Task(QueryState query, ValidatingReference<MetricsStorageService> storage) {
+        private final PrivilegedAction<QueryResult> collect = new PrivilegedAction<QueryResult>() {
+            @Override
+            public QueryResult run() {
+                try {
+                    return JmxUtils.execute(query.server, query.compiled, mbeanServer, objectNameCache);
+                } catch (Throwable e) {
+                    LOG.error("Error retrieving metrics for " + query.query.getMetadata(), e);
+                }
+                return null;
+            }
+        };
+
+        public Task(QueryState query) {
             this.query = query;
         }
 
+        private void recordTime(long time) {
+            query.collections.incrementAndGet();
+            query.totalTime.addAndGet(time);
+            query.lastTime = time;
+            if (time > query.maxTime) {
+                query.maxTime = time;
+            }
+        }
+
         @Override
         public void run() {
             try {
-                final MetricsStorageService svc = storage.get();
                 // Abort if required services aren't available
-                if (mbeanServer == null || svc == null) {
+                if (mbeanServer == null || storages.isEmpty()) {
                     return;
                 }
                 // If there's a lock, check we are the master
@@ -341,20 +399,9 @@ public class MetricsCollector implements MetricsCollectorMBean {
                     return;
                 }
 
-                Subject subject = new Subject();
-                subject.getPrincipals().add(new RolePrincipal("admin"));
-
-                QueryResult qrs = Subject.doAs(subject, new PrivilegedAction<QueryResult>() {
-                    @Override
-                    public QueryResult run() {
-                        try {
-                            return JmxUtils.execute(query.server, query.query, mbeanServer);
-                        } catch (Throwable e) {
-                            LOG.error("Error retrieving metrics for " + query.query.getMetadata(), e);
-                        }
-                        return null;
-                    }
-                });
+                long start = System.nanoTime();
+                QueryResult qrs = Subject.doAs(subject, collect);
+                recordTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 
                 if (qrs != null) {
                     boolean forceSend = query.query.getMinPeriod() == query.query.getPeriod() ||
@@ -365,22 +412,31 @@ public class MetricsCollector implements MetricsCollectorMBean {
                             query.lastResultSent = false;
                         }
                         if (!query.lastResultSent) {
-                            renderAndSend(svc, query.lastResult);
+                            renderAndSend(query.lastResult);
                         }
                     }
                     query.lastResult = qrs;
                     query.lastResultSent = true;
                     query.lastSent = qrs.getTimestamp().getTime();
-                    renderAndSend(svc, qrs);
+                    renderAndSend(qrs);
                 }
             } catch (Throwable e) {
                 LOG.error("Error sending metrics", e);
             }
         }
 
-        private void renderAndSend(MetricsStorageService svc, QueryResult qrs) throws Exception {
+        /**
+         * Send the result to every storage, a failing storage does not prevent the others from getting it.
+         */
+        private void renderAndSend(QueryResult qrs) {
             long timestamp = qrs.getTimestamp().getTime();
-            svc.store(type, timestamp, qrs);
+            for (MetricsStorageService svc : storages) {
+                try {
+                    svc.store(type, timestamp, qrs);
+                } catch (Throwable e) {
+                    LOG.error("Error sending metrics to " + svc, e);
+                }
+            }
         }
 
     }
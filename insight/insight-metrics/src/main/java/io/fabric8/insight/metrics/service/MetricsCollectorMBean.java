@@ -18,4 +18,10 @@ package io.fabric8.insight.metrics.service;
 public interface MetricsCollectorMBean {
 
     String getMetrics();
+
+    /**
+     * Return the number of collections and the last, maximum and average time
+     * in milliseconds spent collecting each query, as JSON.
+     */
+    String getCollectionStatistics();
 }
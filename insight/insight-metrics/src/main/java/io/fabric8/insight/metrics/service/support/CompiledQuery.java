@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.metrics.service.support;
+
+import io.fabric8.insight.metrics.model.MBeanAttrs;
+import io.fabric8.insight.metrics.model.MBeanOpers;
+import io.fabric8.insight.metrics.model.Query;
+import io.fabric8.insight.metrics.model.Request;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Query} with its object names and argument arrays parsed once, so that
+ * they do not need to be rebuilt each time the query is executed.
+ */
+public class CompiledQuery {
+
+    private final Query query;
+    private final List<CompiledRequest> requests;
+
+    private CompiledQuery(Query query, List<CompiledRequest> requests) {
+        this.query = query;
+        this.requests = requests;
+    }
+
+    public static CompiledQuery compile(Query query) throws MalformedObjectNameException {
+        List<CompiledRequest> requests = new ArrayList<CompiledRequest>(query.getRequests().size());
+        for (Request request : query.getRequests()) {
+            requests.add(compile(request));
+        }
+        return new CompiledQuery(query, requests);
+    }
+
+    public static CompiledRequest compile(Request request) throws MalformedObjectNameException {
+        if (request instanceof MBeanAttrs) {
+            return new CompiledAttrs((MBeanAttrs) request);
+        } else if (request instanceof MBeanOpers) {
+            return new CompiledOpers((MBeanOpers) request);
+        } else {
+            throw new IllegalArgumentException("Unsupported request " + request);
+        }
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public List<CompiledRequest> getRequests() {
+        return requests;
+    }
+
+    public abstract static class CompiledRequest {
+
+        protected final ObjectName objectName;
+
+        protected CompiledRequest(String obj) throws MalformedObjectNameException {
+            this.objectName = new ObjectName(obj);
+        }
+
+        public ObjectName getObjectName() {
+            return objectName;
+        }
+
+        public abstract Request getRequest();
+    }
+
+    public static class CompiledAttrs extends CompiledRequest {
+
+        private final MBeanAttrs request;
+        private final String[] attrs;
+
+        CompiledAttrs(MBeanAttrs request) throws MalformedObjectNameException {
+            super(request.getObj());
+            this.request = request;
+            this.attrs = request.getAttrs().toArray(new String[request.getAttrs().size()]);
+        }
+
+        @Override
+        public MBeanAttrs getRequest() {
+            return request;
+        }
+
+        public String[] getAttrs() {
+            return attrs;
+        }
+    }
+
+    public static class CompiledOpers extends CompiledRequest {
+
+        private final MBeanOpers request;
+        private final Object[] args;
+        private final String[] sig;
+
+        CompiledOpers(MBeanOpers request) throws MalformedObjectNameException {
+            super(request.getObj());
+            this.request = request;
+            this.args = request.getArgs() != null ? request.getArgs().toArray(new Object[request.getArgs().size()]) : new Object[0];
+            this.sig = request.getSig() != null ? request.getSig().toArray(new String[request.getSig().size()]) : new String[0];
+        }
+
+        @Override
+        public MBeanOpers getRequest() {
+            return request;
+        }
+
+        /**
+         * Return a copy of the arguments, as the MBean server may modify the array
+         */
+        public Object[] getArgs() {
+            return args.clone();
+        }
+
+        public String[] getSig() {
+            return sig;
+        }
+    }
+
+}
@@ -26,54 +26,81 @@ import java.util.*;
 public class JmxUtils {
 
     public static QueryResult execute(Server server, Query query, MBeanServerConnection mbs) throws JMException, IOException {
+        return execute(server, CompiledQuery.compile(query), mbs, null);
+    }
+
+    /**
+     * Execute a compiled query, using the given cache to resolve object name patterns if not <code>null</code>.
+     */
+    public static QueryResult execute(Server server, CompiledQuery query, MBeanServerConnection mbs, ObjectNameCache cache) throws JMException, IOException {
         // Iterate through queries
         Map<String, Result<?>> queryResults = new HashMap<String, Result<?>>();
-        for (Request request : query.getRequests()) {
-            queryResults.put(request.getName(), execute(server, request, mbs));
+        for (CompiledQuery.CompiledRequest request : query.getRequests()) {
+            queryResults.put(request.getRequest().getName(), execute(server, request, mbs, cache));
         }
-        return new QueryResult(server, query, new Date(), queryResults);
+        return new QueryResult(server, query.getQuery(), new Date(), queryResults);
     }
 
-    private static Result execute(Server server, Request request, MBeanServerConnection mbs) throws JMException, IOException {
-        if (request instanceof MBeanAttrs) {
-            return execute(server, ((MBeanAttrs) request), mbs);
-        } else if (request instanceof MBeanOpers) {
-            return execute(server, ((MBeanOpers) request), mbs);
+    private static Result execute(Server server, CompiledQuery.CompiledRequest request, MBeanServerConnection mbs, ObjectNameCache cache) throws JMException, IOException {
+        if (request instanceof CompiledQuery.CompiledAttrs) {
+            return execute(server, ((CompiledQuery.CompiledAttrs) request), mbs, cache);
+        } else if (request instanceof CompiledQuery.CompiledOpers) {
+            return execute(server, ((CompiledQuery.CompiledOpers) request), mbs, cache);
         } else {
             throw new IllegalArgumentException("Unsupported request " + request);
         }
     }
 
     public static MBeanOpersResult execute(Server server, MBeanOpers request, MBeanServerConnection mbs) throws JMException, IOException {
+        return execute(server, (CompiledQuery.CompiledOpers) CompiledQuery.compile(request), mbs, null);
+    }
+
+    private static MBeanOpersResult execute(Server server, CompiledQuery.CompiledOpers request, MBeanServerConnection mbs, ObjectNameCache cache) throws JMException, IOException {
         List<MBeanOperResult> results = new ArrayList<MBeanOperResult>();
         // Get all mbeans
-        Set<ObjectName> mbeans = mbs.queryNames(new ObjectName(request.getObj()), null);
+        Set<ObjectName> mbeans = queryNames(request.getObjectName(), mbs, cache);
         for (ObjectName mbean : mbeans) {
             // Invoke operation
-            List<Object> args = request.getArgs();
-            List<String> sig = request.getSig();
-            Object value = mbs.invoke(mbean, request.getOper(),
-                    args.toArray(new Object[args.size()]), sig.toArray(new String[sig.size()]));
+            Object value;
+            try {
+                value = mbs.invoke(mbean, request.getRequest().getOper(), request.getArgs(), request.getSig());
+            } catch (InstanceNotFoundException e) {
+                // Unregistered since the names have been resolved
+                continue;
+            }
             results.add(new MBeanOperResult(mbean, getJmxValue(value)));
         }
-        return new MBeanOpersResult(request, results);
+        return new MBeanOpersResult(request.getRequest(), results);
     }
 
     public static MBeanAttrsResult execute(Server server, MBeanAttrs request, MBeanServerConnection mbs) throws JMException, IOException {
+        return execute(server, (CompiledQuery.CompiledAttrs) CompiledQuery.compile(request), mbs, null);
+    }
+
+    private static MBeanAttrsResult execute(Server server, CompiledQuery.CompiledAttrs request, MBeanServerConnection mbs, ObjectNameCache cache) throws JMException, IOException {
         List<MBeanAttrResult> results = new ArrayList<MBeanAttrResult>();
         // Get all mbeans
-        Set<ObjectName> mbeans = mbs.queryNames(new ObjectName(request.getObj()), null);
+        Set<ObjectName> mbeans = queryNames(request.getObjectName(), mbs, cache);
+        String[] attrs = request.getAttrs();
         for (ObjectName mbean : mbeans) {
-            // Get list of attributes to query
-            List<String> attrs = request.getAttrs();
-            AttributeList al = mbs.getAttributes(mbean, attrs.toArray(new String[attrs.size()]));
-            Map<String, Object> values = new HashMap<String, Object>();
+            AttributeList al;
+            try {
+                al = mbs.getAttributes(mbean, attrs);
+            } catch (InstanceNotFoundException e) {
+                // Unregistered since the names have been resolved
+                continue;
+            }
+            Map<String, Object> values = new HashMap<String, Object>(attrs.length * 2);
             for (Attribute attribute : al.asList()) {
                 values.put(attribute.getName(), getJmxValue(attribute.getValue()));
             }
             results.add(new MBeanAttrResult(mbean, values));
         }
-        return new MBeanAttrsResult(request, results);
+        return new MBeanAttrsResult(request.getRequest(), results);
+    }
+
+    private static Set<ObjectName> queryNames(ObjectName name, MBeanServerConnection mbs, ObjectNameCache cache) throws IOException {
+        return cache != null ? cache.queryNames(name) : mbs.queryNames(name, null);
     }
 
     private static Object getJmxValue(Object value) {
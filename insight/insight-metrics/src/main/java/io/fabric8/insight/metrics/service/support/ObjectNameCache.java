@@ -0,0 +1,108 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.metrics.service.support;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the result of {@link MBeanServerConnection#queryNames(ObjectName, javax.management.QueryExp)}
+ * for each pattern.  The cached sets are kept up to date using the {@link MBeanServerNotification}s
+ * sent by the {@link MBeanServerDelegate}, so that the MBean server is only queried once per pattern.
+ */
+public class ObjectNameCache implements NotificationListener {
+
+    private final MBeanServerConnection mbs;
+    private final Map<ObjectName, Set<ObjectName>> cache = new ConcurrentHashMap<ObjectName, Set<ObjectName>>();
+    private final AtomicLong modifications = new AtomicLong();
+    private volatile boolean listening;
+
+    public ObjectNameCache(MBeanServerConnection mbs) {
+        this.mbs = mbs;
+    }
+
+    public void start() throws IOException, InstanceNotFoundException {
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        mbs.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+        listening = true;
+    }
+
+    public void stop() throws IOException, InstanceNotFoundException, ListenerNotFoundException {
+        listening = false;
+        cache.clear();
+        mbs.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+    }
+
+    /**
+     * Return the names of the registered MBeans matching the given name or pattern.
+     */
+    public Set<ObjectName> queryNames(ObjectName pattern) throws IOException {
+        if (!listening) {
+            return mbs.queryNames(pattern, null);
+        }
+        Set<ObjectName> names = cache.get(pattern);
+        if (names == null) {
+            long before = modifications.get();
+            names = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+            names.addAll(mbs.queryNames(pattern, null));
+            cache.put(pattern, names);
+            // An MBean may have been (un)registered while querying, in which case
+            // the set may be stale, so let the next call query it again
+            if (modifications.get() != before) {
+                cache.remove(pattern);
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) {
+            return;
+        }
+        modifications.incrementAndGet();
+        ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+        boolean registered = MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType());
+        for (Map.Entry<ObjectName, Set<ObjectName>> entry : cache.entrySet()) {
+            if (entry.getKey().apply(name)) {
+                if (registered) {
+                    entry.getValue().add(name);
+                } else {
+                    entry.getValue().remove(name);
+                }
+            }
+        }
+    }
+
+}
@@ -17,22 +17,34 @@ package io.fabric8.insight.metrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.fabric8.insight.metrics.model.MBeanAttrs;
+import io.fabric8.insight.metrics.model.MBeanAttrsResult;
 import io.fabric8.insight.metrics.model.MBeanOpers;
+import io.fabric8.insight.metrics.model.MetricPoint;
+import io.fabric8.insight.metrics.model.MetricPoints;
+import io.fabric8.insight.metrics.model.MetricsJsonEncoder;
 import io.fabric8.insight.metrics.model.Query;
 import io.fabric8.insight.metrics.model.Request;
+import io.fabric8.insight.metrics.service.support.CompiledQuery;
 import io.fabric8.insight.metrics.service.support.JmxUtils;
+import io.fabric8.insight.metrics.service.support.ObjectNameCache;
 import io.fabric8.insight.metrics.mvel.Renderer;
 import io.fabric8.insight.metrics.model.QueryResult;
 import io.fabric8.insight.metrics.model.Server;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class MetricsTest {
 
@@ -55,4 +67,68 @@ public class MetricsTest {
         assertEquals("local", map.get("host"));
         assertNotNull(map.get("@timestamp"));
     }
+
+    @Test
+    public void testJsonEncoder() throws Exception {
+        Query query = new Query("test", new HashSet<Request>(Arrays.<Request>asList(
+                new MBeanAttrs("memory", "java.lang:type=Memory",
+                        Arrays.asList("HeapMemoryUsage", "NonHeapMemoryUsage", "Verbose")),
+                new MBeanOpers("threads", "java.lang:type=Threading", "getThreadCpuTime",
+                        Arrays.<Object>asList(Thread.currentThread().getId()), Arrays.<String>asList(long.class.getName()))
+        )), null, null, null, 0, 0);
+
+        QueryResult qrs = JmxUtils.execute(new Server("local"), query,
+                ManagementFactory.getPlatformMBeanServer());
+
+        ObjectMapper mapper = new ObjectMapper();
+        Map rendered = mapper.readValue(new Renderer().render(qrs), Map.class);
+        Map encoded = mapper.readValue(MetricsJsonEncoder.encode(qrs), Map.class);
+        assertEquals(rendered, encoded);
+
+        List<MetricPoint> points = new ArrayList<MetricPoint>();
+        MetricPoints.collect("sta", qrs.getTimestamp().getTime(), qrs, points);
+        assertEquals(1, points.size());
+        assertEquals("sta-threads", points.get(0).getId());
+    }
+
+    public interface DummyMBean {
+        int getValue();
+    }
+
+    public static class Dummy implements DummyMBean {
+        public int getValue() {
+            return 42;
+        }
+    }
+
+    @Test
+    public void testObjectNameCache() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("io.fabric8.insight.test:type=Dummy,*");
+        ObjectName name = new ObjectName("io.fabric8.insight.test:type=Dummy,name=first");
+        ObjectNameCache cache = new ObjectNameCache(mbs);
+        cache.start();
+        try {
+            assertTrue(cache.queryNames(pattern).isEmpty());
+
+            mbs.registerMBean(new Dummy(), name);
+            assertEquals(Collections.singleton(name), cache.queryNames(pattern));
+
+            Query query = new Query("test", new HashSet<Request>(Arrays.<Request>asList(
+                    new MBeanAttrs("dummy", pattern.toString(), Arrays.asList("Value"))
+            )), null, null, null, 0, 0);
+            QueryResult qrs = JmxUtils.execute(new Server("local"), CompiledQuery.compile(query), mbs, cache);
+            MBeanAttrsResult result = (MBeanAttrsResult) qrs.getResults().get("dummy");
+            assertEquals(1, result.getResults().size());
+            assertEquals(42, result.getResults().get(0).getAttrs().get("Value"));
+
+            mbs.unregisterMBean(name);
+            assertTrue(cache.queryNames(pattern).isEmpty());
+        } finally {
+            cache.stop();
+            if (mbs.isRegistered(name)) {
+                mbs.unregisterMBean(name);
+            }
+        }
+    }
 }
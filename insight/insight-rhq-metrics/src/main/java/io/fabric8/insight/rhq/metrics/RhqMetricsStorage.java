@@ -19,14 +19,10 @@ import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.api.scr.Configurer;
 import io.fabric8.common.util.Strings;
-import io.fabric8.insight.metrics.model.MBeanAttrResult;
-import io.fabric8.insight.metrics.model.MBeanAttrsResult;
-import io.fabric8.insight.metrics.model.MBeanOperResult;
-import io.fabric8.insight.metrics.model.MBeanOpersResult;
-import io.fabric8.insight.metrics.model.Metrics;
+import io.fabric8.insight.metrics.model.MetricPoint;
 import io.fabric8.insight.metrics.model.MetricsStorageService;
+import io.fabric8.insight.metrics.model.MetricsWriteBehind;
 import io.fabric8.insight.metrics.model.QueryResult;
-import io.fabric8.insight.metrics.model.Result;
 import io.fabric8.insight.storage.StorageService;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -63,7 +59,14 @@ public class RhqMetricsStorage extends AbstractComponent implements MetricsStora
 
     @Reference
     private Configurer configurer;
-    private RHQMetrics metricsService;
+    private volatile RHQMetrics metricsService;
+
+    private final MetricsWriteBehind writeBehind = new MetricsWriteBehind("RhqMetricsStorage", new MetricsWriteBehind.Writer() {
+        @Override
+        public void write(List<MetricPoint> points) {
+            writeMetrics(points);
+        }
+    });
 
     @Property(name = "nodes", label = "Cassandra Nodes", description = "The host names or IP addresses of the cassandra nodes", cardinality = Integer.MAX_VALUE)
     private String[] nodes;
@@ -78,6 +81,7 @@ public class RhqMetricsStorage extends AbstractComponent implements MetricsStora
     void activate(Map<String, String> configuration) throws Exception {
         updateConfiguration(configuration);
         activateComponent();
+        writeBehind.start();
     }
 
     @Modified
@@ -87,6 +91,7 @@ public class RhqMetricsStorage extends AbstractComponent implements MetricsStora
 
     @Deactivate
     void deactivate() throws MBeanRegistrationException, InstanceNotFoundException {
+        writeBehind.stop();
         deactivateComponent();
         shutdownMetricService();
     }
@@ -136,70 +141,22 @@ public class RhqMetricsStorage extends AbstractComponent implements MetricsStora
     @Override
     public void store(String type, long timestamp, QueryResult queryResult) {
         assertValid();
+        writeBehind.store(type, timestamp, queryResult);
+    }
+
+    protected void writeMetrics(List<MetricPoint> points) {
+        RHQMetrics metricsService = this.metricsService;
         if (metricsService == null) {
             throw new IllegalStateException("No metricsService available!");
         }
-        Map<String, Result<?>> results = queryResult.getResults();
-        if (results != null) {
-            Set<RawNumericMetric> data = new HashSet<>();
-            Set<Map.Entry<String, Result<?>>> entries = results.entrySet();
-            for (Map.Entry<String, Result<?>> entry : entries) {
-                String key = entry.getKey();
-                Result<?> result = entry.getValue();
-                if (result instanceof MBeanOpersResult) {
-                    MBeanOpersResult opersResult = (MBeanOpersResult) result;
-                    List<MBeanOperResult> operResults = opersResult.getResults();
-                    if (operResults != null) {
-                        for (MBeanOperResult operResult : operResults) {
-                            Object value = operResult.getValue();
-                            Double doubleValue = toDouble(value);
-                            if (doubleValue != null) {
-                                String id = Metrics.metricId(type, opersResult.getRequest());
-                                data.add(new RawNumericMetric(id, doubleValue, timestamp));
-                            }
-                        }
-                    }
-                } else if (result instanceof MBeanAttrsResult) {
-                    MBeanAttrsResult attrsResult = (MBeanAttrsResult) result;
-                    List<MBeanAttrResult> attrResults = attrsResult.getResults();
-                    if (attrResults != null) {
-                        for (MBeanAttrResult attrResult : attrResults) {
-                            Map<String, Object> attrs = attrResult.getAttrs();
-                            if (attrs != null) {
-                                Set<Map.Entry<String, Object>> attrEntries = attrs.entrySet();
-                                for (Map.Entry<String, Object> attrEntry : attrEntries) {
-                                    String attributeName = attrEntry.getKey();
-                                    Object value = attrEntry.getValue();
-                                    Double doubleValue = toDouble(value);
-                                    if (doubleValue != null) {
-                                        String id = Metrics.metricId(type, attrsResult.getRequest(), attributeName);
-                                        data.add(new RawNumericMetric(id, doubleValue, timestamp));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            if (!data.isEmpty()) {
-                metricsService.addData(data);
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("added " + data.size() + " metrics");
-                }
-            }
+        Set<RawNumericMetric> data = new HashSet<>(2 * points.size());
+        for (MetricPoint point : points) {
+            data.add(new RawNumericMetric(point.getId(), point.getValue(), point.getTimestamp()));
         }
-    }
-
-    protected Double toDouble(Object value) {
-        if (value instanceof Double) {
-            return (Double) value;
-        } else if (value instanceof Number) {
-            Number number = (Number) value;
-            return number.doubleValue();
-        } else {
-            return null;
+        metricsService.addData(data);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("added " + data.size() + " metrics");
         }
     }
 
-
 }
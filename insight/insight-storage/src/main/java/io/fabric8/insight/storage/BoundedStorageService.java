@@ -0,0 +1,34 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.storage;
+
+/**
+ * A {@link StorageService} with a bounded capacity, which can refuse new events
+ * when it is full instead of discarding events it already accepted.
+ */
+public interface BoundedStorageService extends StorageService {
+
+    /**
+     * Store an event if the storage has room for it.
+     *
+     * @param type the type of document to store
+     * @param timestamp the date of the event
+     * @param jsonData the data to store
+     * @return <code>false</code> if the storage is full and the event has not been stored
+     */
+    boolean offer(String type, long timestamp, String jsonData);
+
+}
@@ -0,0 +1,365 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerFactory;
+import org.apache.activemq.broker.BrokerService;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs producers and consumers across a number of destinations for a fixed duration, and reports
+ * the throughput and the latency percentiles.
+ * <p>
+ * Producers send at a target rate (see {@link BenchmarkProducerThread}), and consumers measure the
+ * end-to-end latency from the send time carried by each message.  As the send time is taken from the
+ * clock of the producer, producers and consumers run in the same JVM.  The broker can be embedded,
+ * so that a broker configuration can be measured before it is rolled out.
+ */
+public class Benchmark {
+
+    public static final String SEND_TIME_PROPERTY = "BenchmarkSendTime";
+
+    private static final long BASE_MILLIS = System.currentTimeMillis();
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private String brokerUrl = ActiveMQConnectionFactory.DEFAULT_BROKER_URL;
+    private String embeddedBroker;
+    private String user;
+    private String password;
+    private String destination = "queue://BENCHMARK";
+    private int destinations = 1;
+    private int producers = 1;
+    private int consumers = 1;
+    private double rate;
+    private int duration = 60;
+    private int warmup = 10;
+    private boolean persistent = true;
+    private boolean asyncSend;
+    private String payloads = "1024";
+    private String output;
+
+    private PayloadMix payloadMix;
+    private long startNanos;
+    private long measureNanos;
+    private long endNanos;
+    private long sent;
+    private long received;
+
+    /**
+     * Convert a {@link System#nanoTime()} to microseconds since the epoch, keeping the precision of the nano time.
+     */
+    public static long toEpochMicros(long nanoTime) {
+        return BASE_MILLIS * 1000 + TimeUnit.NANOSECONDS.toMicros(nanoTime - BASE_NANOS);
+    }
+
+    public void execute() throws Exception {
+        payloadMix = new PayloadMix(payloads);
+        BrokerService broker = null;
+        if (embeddedBroker != null) {
+            broker = BrokerFactory.createBroker(new URI(embeddedBroker));
+            broker.start();
+            broker.waitUntilStarted();
+            if (brokerUrl == null) {
+                brokerUrl = broker.getVmConnectorURI() + "?create=false";
+            }
+        }
+        if (brokerUrl == null) {
+            brokerUrl = ActiveMQConnectionFactory.DEFAULT_BROKER_URL;
+        }
+
+        System.out.println("Benchmark of " + producers + " producers and " + consumers + " consumers on "
+                + destinations + " x " + destination + ", on broker: " + brokerUrl);
+        System.out.println("Target rate: " + (rate > 0 ? rate + " msg/s" : "unbounded") + ", payloads: " + payloadMix
+                + ", warmup: " + warmup + " s, duration: " + duration + " s");
+
+        List<BenchmarkProducerThread> producerThreads = new ArrayList<BenchmarkProducerThread>();
+        List<BenchmarkConsumerThread> consumerThreads = new ArrayList<BenchmarkConsumerThread>();
+        try {
+            for (int i = 0; i < consumers; i++) {
+                BenchmarkConsumerThread consumer = new BenchmarkConsumerThread(createService(), getConsumerDestination(i), this);
+                consumer.setName("Consumer-" + i);
+                consumer.open();
+                consumerThreads.add(consumer);
+            }
+            startNanos = System.nanoTime();
+            measureNanos = startNanos + TimeUnit.SECONDS.toNanos(warmup);
+            endNanos = measureNanos + TimeUnit.SECONDS.toNanos(duration);
+            for (BenchmarkConsumerThread consumer : consumerThreads) {
+                consumer.start();
+            }
+            for (int i = 0; i < producers; i++) {
+                BenchmarkProducerThread producer = new BenchmarkProducerThread(createService(), getDestination(i), this);
+                producer.setName("Producer-" + i);
+                producer.setRate(rate / producers);
+                producer.setPersistent(persistent);
+                producerThreads.add(producer);
+                producer.start();
+            }
+
+            reportProgress(producerThreads, consumerThreads);
+
+            for (BenchmarkProducerThread producer : producerThreads) {
+                producer.join();
+            }
+            for (BenchmarkConsumerThread consumer : consumerThreads) {
+                consumer.drain();
+            }
+            for (BenchmarkConsumerThread consumer : consumerThreads) {
+                consumer.join();
+            }
+        } finally {
+            for (BenchmarkProducerThread producer : producerThreads) {
+                producer.setRunning(false);
+            }
+            for (BenchmarkConsumerThread consumer : consumerThreads) {
+                consumer.setRunning(false);
+            }
+            if (broker != null) {
+                broker.stop();
+                broker.waitUntilStopped();
+            }
+        }
+
+        report(producerThreads, consumerThreads);
+    }
+
+    private ActiveMQService createService() {
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(user, password, brokerUrl);
+        connectionFactory.setUseAsyncSend(asyncSend);
+        return new ActiveMQService(connectionFactory);
+    }
+
+    String getDestination(int index) {
+        return destinations > 1 ? destination + "." + (index % destinations) : destination;
+    }
+
+    /**
+     * When there are fewer consumers than destinations, each consumer receives from every destination
+     * with the same index modulo the number of consumers, so that no destination is left without consumer.
+     */
+    String getConsumerDestination(int index) {
+        if (consumers >= destinations) {
+            return getDestination(index);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = index; i < destinations; i += consumers) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(getDestination(i));
+        }
+        return sb.toString();
+    }
+
+    private void reportProgress(List<BenchmarkProducerThread> producerThreads, List<BenchmarkConsumerThread> consumerThreads) throws InterruptedException {
+        long lastSent = 0;
+        long lastReceived = 0;
+        long next = startNanos;
+        while (System.nanoTime() < endNanos) {
+            next += TimeUnit.SECONDS.toNanos(1);
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+            long sent = 0;
+            boolean running = false;
+            for (BenchmarkProducerThread producer : producerThreads) {
+                sent += producer.getSentCount();
+                running |= producer.isRunning();
+            }
+            long received = 0;
+            for (BenchmarkConsumerThread consumer : consumerThreads) {
+                received += consumer.getReceived();
+            }
+            System.out.println(String.format(Locale.ENGLISH, "%6ds %s sent: %8d msg/s, received: %8d msg/s",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos),
+                    System.nanoTime() < measureNanos ? "(warmup)" : "        ",
+                    sent - lastSent, received - lastReceived));
+            lastSent = sent;
+            lastReceived = received;
+            if (!running) {
+                break;
+            }
+        }
+    }
+
+    private void report(List<BenchmarkProducerThread> producerThreads, List<BenchmarkConsumerThread> consumerThreads) throws IOException {
+        LatencyHistogram sendLatency = new LatencyHistogram();
+        long sent = 0;
+        for (BenchmarkProducerThread producer : producerThreads) {
+            sendLatency.add(producer.getSendLatency());
+            sent += producer.getSentCount();
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        long received = 0;
+        for (BenchmarkConsumerThread consumer : consumerThreads) {
+            latency.add(consumer.getLatency());
+            received += consumer.getReceived();
+        }
+
+        this.sent = sent;
+        this.received = received;
+        System.out.println("Sent: " + sent + " messages, received: " + received + " messages");
+        System.out.println(String.format(Locale.ENGLISH, "Throughput: %.1f msg/s sent, %.1f msg/s received",
+                (double) sendLatency.getCount() / duration, (double) latency.getCount() / duration));
+        System.out.println("Send latency (ms):       " + summary(sendLatency));
+        System.out.println("End-to-end latency (ms): " + summary(latency));
+
+        if (output != null) {
+            File dir = new File(output);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can not create directory " + dir);
+            }
+            writePercentiles(new File(dir, "send-latency.hgrm"), sendLatency);
+            writePercentiles(new File(dir, "e2e-latency.hgrm"), latency);
+            try (PrintStream out = new PrintStream(new FileOutputStream(new File(dir, "summary.csv")), false, "UTF-8")) {
+                out.println("metric,count,mean,p50,p90,p99,p99.9,p99.99,max");
+                out.println("send," + csv(sendLatency));
+                out.println("e2e," + csv(latency));
+            }
+            System.out.println("Results written to " + dir.getAbsolutePath());
+        }
+    }
+
+    private static void writePercentiles(File file, LatencyHistogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+            histogram.writePercentiles(out, 1000.0);
+        }
+    }
+
+    private static String summary(LatencyHistogram h) {
+        return String.format(Locale.ENGLISH, "mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                h.getMean() / 1000.0, h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+    }
+
+    private static String csv(LatencyHistogram h) {
+        return String.format(Locale.ENGLISH, "%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f", h.getCount(),
+                h.getMean() / 1000.0, h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                h.getValueAtPercentile(99.99) / 1000.0, h.getMax() / 1000.0);
+    }
+
+    /**
+     * @return the number of messages sent by all producers, once the benchmark is done
+     */
+    long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of messages received by all consumers, once the benchmark is done
+     */
+    long getReceived() {
+        return received;
+    }
+
+    PayloadMix getPayloadMix() {
+        return payloadMix;
+    }
+
+    /**
+     * @return true if a message intended to be sent at the given nano time is past the end of the benchmark
+     */
+    boolean isFinished(long nanoTime) {
+        return nanoTime - endNanos >= 0;
+    }
+
+    /**
+     * @return true if a message intended to be sent at the given nano time is past the warmup
+     */
+    boolean isMeasured(long nanoTime) {
+        return nanoTime - measureNanos >= 0 && nanoTime - endNanos < 0;
+    }
+
+    boolean isMeasuredEpochMicros(long epochMicros) {
+        return epochMicros >= toEpochMicros(measureNanos) && epochMicros < toEpochMicros(endNanos);
+    }
+
+    public void setBrokerUrl(String brokerUrl) {
+        this.brokerUrl = brokerUrl;
+    }
+
+    /**
+     * @param embeddedBroker the URI of a broker to start in this JVM, such as
+     *                       <code>broker:(tcp://localhost:61616)?persistent=false</code> or <code>xbean:activemq.xml</code>
+     */
+    public void setEmbeddedBroker(String embeddedBroker) {
+        this.embeddedBroker = embeddedBroker;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public void setDestinations(int destinations) {
+        this.destinations = destinations;
+    }
+
+    public void setProducers(int producers) {
+        this.producers = producers;
+    }
+
+    public void setConsumers(int consumers) {
+        this.consumers = consumers;
+    }
+
+    /**
+     * @param rate the total number of messages sent per second, or 0 to send as fast as possible
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public void setWarmup(int warmup) {
+        this.warmup = warmup;
+    }
+
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    public void setAsyncSend(boolean asyncSend) {
+        this.asyncSend = asyncSend;
+    }
+
+    public void setPayloads(String payloads) {
+        this.payloads = payloads;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.*;
+
+/**
+ * Receives messages and records their end-to-end latency, from the intended send time
+ * set by the {@link BenchmarkProducerThread} to the time they are received.
+ * <p>
+ * The destination may be a composite destination such as <code>queue://A.0,queue://A.1</code>,
+ * so that a single consumer receives from several destinations.
+ */
+public class BenchmarkConsumerThread extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchmarkConsumerThread.class);
+
+    private final JMSService service;
+    private final String dest;
+    private final Benchmark benchmark;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private MessageConsumer consumer;
+    private volatile long received;
+    private volatile boolean running;
+    private volatile boolean draining;
+    private int receiveTimeOut = 1000;
+
+    public BenchmarkConsumerThread(JMSService service, String dest, Benchmark benchmark) {
+        this.service = service;
+        this.dest = dest;
+        this.benchmark = benchmark;
+    }
+
+    /**
+     * Start the connection and the consumer, so that no message is missed once this method returns.
+     */
+    public void open() throws JMSException {
+        service.start();
+        consumer = service.createConsumer(dest);
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        try {
+            if (consumer == null) {
+                open();
+            }
+            while (running) {
+                Message message = consumer.receive(receiveTimeOut);
+                if (message == null) {
+                    if (draining) {
+                        break;
+                    }
+                    continue;
+                }
+                long now = Benchmark.toEpochMicros(System.nanoTime());
+                if (message.propertyExists(Benchmark.SEND_TIME_PROPERTY)) {
+                    long sent = message.getLongProperty(Benchmark.SEND_TIME_PROPERTY);
+                    if (benchmark.isMeasuredEpochMicros(sent)) {
+                        latency.record(now - sent);
+                    }
+                }
+                received++;
+            }
+        } catch (Exception e) {
+            LOG.error(getName() + " Failed to receive messages", e);
+        } finally {
+            running = false;
+            if (consumer != null) {
+                try {
+                    consumer.close();
+                } catch (JMSException e) {
+                    LOG.debug("Failed to close consumer", e);
+                }
+            }
+            service.stop();
+        }
+        LOG.info(getName() + " Consumed: " + received + " messages");
+    }
+
+    /**
+     * The histogram of the end-to-end latencies in microseconds, only safe to read once the thread has finished.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Stop as soon as no message has been received for the receive timeout.
+     */
+    public void drain() {
+        draining = true;
+    }
+
+    public void setReceiveTimeOut(int receiveTimeOut) {
+        this.receiveTimeOut = receiveTimeOut;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setRunning(boolean running) {
+        this.running = running;
+    }
+}
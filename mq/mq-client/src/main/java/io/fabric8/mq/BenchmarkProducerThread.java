@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends messages at a target rate.
+ * <p>
+ * Each message has an intended send time on a fixed schedule, and latencies are measured from that
+ * time rather than from the time the message was actually sent.  When the broker stalls, the messages
+ * which should have been sent in the meantime are then sent as fast as possible, and their latency
+ * includes the time they waited, instead of being silently omitted from the results.
+ */
+public class BenchmarkProducerThread extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchmarkProducerThread.class);
+
+    private final JMSService service;
+    private final String dest;
+    private final Benchmark benchmark;
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private volatile long sentCount;
+    private volatile boolean running;
+    private double rate;
+    private boolean persistent = true;
+
+    public BenchmarkProducerThread(JMSService service, String dest, Benchmark benchmark) {
+        this.service = service;
+        this.dest = dest;
+        this.benchmark = benchmark;
+    }
+
+    @Override
+    public void run() {
+        MessageProducer producer = null;
+        running = true;
+        try {
+            service.start();
+            producer = service.createProducer(dest);
+            producer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+            PayloadMix payloads = benchmark.getPayloadMix();
+            long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            long next = System.nanoTime();
+
+            while (running) {
+                long intended;
+                if (interval > 0) {
+                    intended = next;
+                    next += interval;
+                    long wait;
+                    while (running && (wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    intended = System.nanoTime();
+                }
+                if (!running || benchmark.isFinished(intended)) {
+                    break;
+                }
+
+                BytesMessage message = service.createBytesMessage(payloads.next());
+                message.setLongProperty(Benchmark.SEND_TIME_PROPERTY, Benchmark.toEpochMicros(intended));
+                producer.send(message);
+                if (benchmark.isMeasured(intended)) {
+                    sendLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+                }
+                sentCount++;
+            }
+        } catch (Exception e) {
+            LOG.error(getName() + " Failed to send messages", e);
+        } finally {
+            running = false;
+            if (producer != null) {
+                try {
+                    producer.close();
+                } catch (JMSException e) {
+                    LOG.debug("Failed to close producer", e);
+                }
+            }
+            service.stop();
+        }
+        LOG.info(getName() + " Produced: " + sentCount + " messages");
+    }
+
+    /**
+     * The histogram of the time in microseconds between the intended send time and the completion
+     * of the send, only safe to read once the thread has finished.
+     */
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @param rate the number of messages to send per second, or 0 to send as fast as possible
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setRunning(boolean running) {
+        this.running = running;
+    }
+}
@@ -53,7 +53,9 @@ public class ConsumerThread extends Thread {
             while (running && received < messageCount) {
                 Message msg = consumer.receive(receiveTimeOut);
                 if (msg != null) {
-                    LOG.info(threadName + " Received " + (msg instanceof TextMessage ? ((TextMessage) msg).getText() : msg.getJMSMessageID()));
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug(threadName + " Received " + (msg instanceof TextMessage ? ((TextMessage) msg).getText() : msg.getJMSMessageID()));
+                    }
                     received++;
                 } else {
                     if (breakOnNull) {
@@ -62,7 +64,7 @@ public class ConsumerThread extends Thread {
                 }
 
                 if (transactionBatchSize > 0 && received > 0 && received % transactionBatchSize == 0) {
-                    LOG.info(threadName + "Committing transaction: " + transactions++);
+                    LOG.debug(threadName + "Committing transaction: " + transactions++);
                     service.getDefaultSession().commit();
                 }
 
@@ -0,0 +1,178 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * A log-linear histogram of latencies in microseconds, with a relative error below 1%.
+ * <p>
+ * It is not thread safe: each producer or consumer records into its own histogram,
+ * and the histograms are merged with {@link #add(LatencyHistogram)} once they are done.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) sum / count : 0.0;
+    }
+
+    public double getStdDeviation() {
+        if (count == 0) {
+            return 0.0;
+        }
+        double mean = getMean();
+        double total = 0.0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                double deviation = (lowestValue(i) + highestValue(i)) / 2.0 - mean;
+                total += deviation * deviation * counts[i];
+            }
+        }
+        return Math.sqrt(total / count);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value equivalent to the value at the given percentile
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Write the percentile distribution in the format of HdrHistogram's <code>.hgrm</code> files,
+     * so that it can be plotted with the usual tools.
+     *
+     * @param scale the value the recorded values are divided by, 1000.0 to report milliseconds
+     */
+    public void writePercentiles(PrintStream out, double scale) {
+        out.println("       Value     Percentile TotalCount 1/(1-Percentile)");
+        out.println();
+        if (count > 0) {
+            double percentile = 0.0;
+            while (percentile < 100.0) {
+                long value = getValueAtPercentile(percentile);
+                out.println(String.format(Locale.ENGLISH, "%12.3f %14.12f %10d %14.2f",
+                        value / scale, percentile / 100.0, getCountAtOrBelow(value), 1.0 / (1.0 - percentile / 100.0)));
+                if (value >= max) {
+                    break;
+                }
+                // five reports for each halving of the distance to 100%
+                int halvings = (int) (Math.log(100.0 / (100.0 - percentile)) / Math.log(2));
+                percentile += 100.0 / (5L << Math.min(halvings + 1, 60));
+            }
+            out.println(String.format(Locale.ENGLISH, "%12.3f %14.12f %10d", max / scale, 1.0, count));
+        }
+        out.println(String.format(Locale.ENGLISH, "#[Mean    = %12.3f, StdDeviation   = %12.3f]", getMean() / scale, getStdDeviation() / scale));
+        out.println(String.format(Locale.ENGLISH, "#[Max     = %12.3f, Total count    = %12d]", max / scale, count));
+        out.println(String.format(Locale.ENGLISH, "#[Buckets = %12d, SubBuckets     = %12d]", BUCKETS / SUB_BUCKETS, SUB_BUCKETS));
+    }
+
+    long getCountAtOrBelow(long value) {
+        long seen = 0;
+        int index = index(value);
+        for (int i = 0; i <= index; i++) {
+            seen += counts[i];
+        }
+        return seen;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long lowestValue(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long mantissa = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return mantissa << shift;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+}
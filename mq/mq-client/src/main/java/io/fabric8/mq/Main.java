@@ -26,7 +26,7 @@ public class Main {
     final static String loggingLevelProperty = "org.ops4j.pax.logging.DefaultServiceLog.level";
     String action;
     String destination;
-    String brokerUrl = ActiveMQConnectionFactory.DEFAULT_BROKER_URL;
+    String brokerUrl;
     boolean persistent = true;
     int count = 100;
     int sleep = 0;
@@ -39,6 +39,16 @@ public class Main {
     String user;
     String groupID;
     int batchSize;
+    int producers = 1;
+    int consumers = 1;
+    int destinations = 1;
+    double rate;
+    int duration = 60;
+    int warmup = 10;
+    boolean asyncSend;
+    String payloads = "1024";
+    String output;
+    String embeddedBroker;
 
     public static void main(String[] args) throws Exception {
 
@@ -82,6 +92,26 @@ public class Main {
                     main.persistent = Boolean.valueOf(shift(arg1)).booleanValue();
                 } else if ("--parallelThreads".equals(arg)) {
                     main.parallelThreads = Integer.parseInt(shift(arg1));
+                } else if ("--producers".equals(arg)) {
+                    main.producers = Integer.parseInt(shift(arg1));
+                } else if ("--consumers".equals(arg)) {
+                    main.consumers = Integer.parseInt(shift(arg1));
+                } else if ("--destinations".equals(arg)) {
+                    main.destinations = Integer.parseInt(shift(arg1));
+                } else if ("--rate".equals(arg)) {
+                    main.rate = Double.parseDouble(shift(arg1));
+                } else if ("--duration".equals(arg)) {
+                    main.duration = Integer.parseInt(shift(arg1));
+                } else if ("--warmup".equals(arg)) {
+                    main.warmup = Integer.parseInt(shift(arg1));
+                } else if ("--asyncSend".equals(arg)) {
+                    main.asyncSend = Boolean.valueOf(shift(arg1)).booleanValue();
+                } else if ("--payloads".equals(arg)) {
+                    main.payloads = shift(arg1);
+                } else if ("--output".equals(arg)) {
+                    main.output = shift(arg1);
+                } else if ("--embeddedBroker".equals(arg)) {
+                    main.embeddedBroker = shift(arg1);
                 } else {
                     System.err.println("Invalid usage: unknown option: " + arg);
                     displayHelpAndExit(1);
@@ -97,6 +127,13 @@ public class Main {
     }
 
     private void execute() {
+        if ("benchmark".equals(action)) {
+            executeBenchmark();
+            return;
+        }
+        if (brokerUrl == null) {
+            brokerUrl = ActiveMQConnectionFactory.DEFAULT_BROKER_URL;
+        }
         initDestination();
 
         System.out.println("Using destination: " + destination + ", on broker: " + brokerUrl);
@@ -180,6 +217,34 @@ public class Main {
 
     }
 
+    private void executeBenchmark() {
+        Benchmark benchmark = new Benchmark();
+        benchmark.setBrokerUrl(brokerUrl != null || embeddedBroker != null ? brokerUrl : ActiveMQConnectionFactory.DEFAULT_BROKER_URL);
+        benchmark.setEmbeddedBroker(embeddedBroker);
+        benchmark.setUser(user);
+        benchmark.setPassword(password);
+        if (destination != null) {
+            benchmark.setDestination(destination);
+        }
+        benchmark.setDestinations(destinations);
+        benchmark.setProducers(producers);
+        benchmark.setConsumers(consumers);
+        benchmark.setRate(rate);
+        benchmark.setDuration(duration);
+        benchmark.setWarmup(warmup);
+        benchmark.setPersistent(persistent);
+        benchmark.setAsyncSend(asyncSend);
+        benchmark.setPayloads(payloads);
+        benchmark.setOutput(output);
+        try {
+            benchmark.execute();
+        } catch (Exception error) {
+            System.err.println("Benchmark failed with: " + error);
+            error.printStackTrace(System.err);
+            System.exit(2);
+        }
+    }
+
     private void initDestination() {
         if (destination == null) {
             if (clientId != null) {
@@ -199,7 +264,7 @@ public class Main {
     }
 
     private static void displayHelpAndExit(int exitCode) {
-        System.out.println(" usage   : (producer|consumer) [OPTIONS]");
+        System.out.println(" usage   : (producer|consumer|benchmark) [OPTIONS]");
         System.out.println(" options : [--destination (queue://..|topic://..) - ; default TEST");
         System.out.println("           [--persistent  true|false] - use persistent or non persistent messages; default true");
         System.out.println("           [--count           N] - number of messages to send or receive; default 100");
@@ -214,6 +279,17 @@ public class Main {
         System.out.println("           [--brokerUrl     URL] - connection factory url; default " + ActiveMQConnectionFactory.DEFAULT_BROKER_URL);
         System.out.println("           [--user          .. ] - connection user name");
         System.out.println("           [--password      .. ] - connection password");
+        System.out.println(" benchmark options :");
+        System.out.println("           [--producers       N] - number of producers; default 1");
+        System.out.println("           [--consumers       N] - number of consumers; default 1");
+        System.out.println("           [--destinations    N] - number of destinations, named after the destination with a .N suffix; default 1");
+        System.out.println("           [--rate            N] - total number of messages sent per second; default 0, as fast as possible");
+        System.out.println("           [--duration        N] - duration of the measurement in seconds; default 60");
+        System.out.println("           [--warmup          N] - duration of the warmup in seconds, not measured; default 10");
+        System.out.println("           [--asyncSend true|false] - send messages asynchronously; default false");
+        System.out.println("           [--payloads size:weight,..] - mix of BytesMessage sizes in bytes; default 1024");
+        System.out.println("           [--output        dir] - directory to write the latency distributions (.hgrm) and summary.csv to");
+        System.out.println("           [--embeddedBroker URI] - start a broker in this JVM, e.g. broker:(tcp://localhost:61616)?persistent=false or xbean:activemq.xml");
 
         System.out.println("");
 
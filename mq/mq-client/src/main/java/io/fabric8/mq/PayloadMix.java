@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A weighted mix of payload sizes, parsed from a list such as <code>100:0.7,1024:0.2,10240:0.1</code>.
+ * A size without weight has a weight of 1.  The payloads are allocated once and shared.
+ */
+public class PayloadMix {
+
+    private final byte[][] payloads;
+    private final double[] cumulativeWeights;
+
+    public PayloadMix(String mix) {
+        String[] entries = mix.split(",");
+        payloads = new byte[entries.length][];
+        cumulativeWeights = new double[entries.length];
+        double total = 0.0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            int size = Integer.parseInt(parts[0].trim());
+            double weight = parts.length > 1 ? Double.parseDouble(parts[1].trim()) : 1.0;
+            if (size < 0 || weight <= 0) {
+                throw new IllegalArgumentException("Invalid payload size or weight: " + entries[i]);
+            }
+            payloads[i] = new byte[size];
+            for (int j = 0; j < size; j++) {
+                payloads[i][j] = '.';
+            }
+            total += weight;
+            cumulativeWeights[i] = total;
+        }
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            cumulativeWeights[i] /= total;
+        }
+    }
+
+    public byte[] next() {
+        if (payloads.length == 1) {
+            return payloads[0];
+        }
+        double r = ThreadLocalRandom.current().nextDouble();
+        for (int i = 0; i < cumulativeWeights.length - 1; i++) {
+            if (r < cumulativeWeights[i]) {
+                return payloads[i];
+            }
+        }
+        return payloads[payloads.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        double previous = 0.0;
+        for (int i = 0; i < payloads.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(payloads[i].length).append("b:").append(Math.round((cumulativeWeights[i] - previous) * 100)).append("%");
+            previous = cumulativeWeights[i];
+        }
+        return sb.toString();
+    }
+}
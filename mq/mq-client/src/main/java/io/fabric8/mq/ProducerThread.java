@@ -69,10 +69,12 @@ public class ProducerThread extends Thread {
                 Message message = createMessage(sentCount);
                 if ((msgGroupID!=null)&&(!msgGroupID.isEmpty())) message.setStringProperty("JMSXGroupID", msgGroupID);
                 producer.send(message);
-                LOG.info(threadName + " Sent: " + (message instanceof TextMessage ? ((TextMessage) message).getText() : message.getJMSMessageID()));
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(threadName + " Sent: " + (message instanceof TextMessage ? ((TextMessage) message).getText() : message.getJMSMessageID()));
+                }
 
                 if (transactionBatchSize > 0 && sentCount > 0 && sentCount % transactionBatchSize == 0) {
-                    LOG.info(threadName + " Committing transaction: " + transactions++);
+                    LOG.debug(threadName + " Committing transaction: " + transactions++);
                     service.getDefaultSession().commit();
                 }
 
@@ -0,0 +1,114 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Connection;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BenchmarkTest {
+
+    private BrokerService broker;
+    private String brokerUrl;
+
+    @Before
+    public void startBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("benchmark");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setAdvisorySupport(false);
+        broker.start();
+        broker.waitUntilStarted();
+        brokerUrl = broker.getVmConnectorURI() + "?create=false";
+    }
+
+    @After
+    public void stopBroker() throws Exception {
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Test
+    public void testConsumerDestinations() {
+        Benchmark benchmark = new Benchmark();
+        benchmark.setDestination("queue://TEST");
+        assertEquals("queue://TEST", benchmark.getConsumerDestination(0));
+
+        benchmark.setDestinations(5);
+        benchmark.setConsumers(2);
+        assertEquals("queue://TEST.0,queue://TEST.2,queue://TEST.4", benchmark.getConsumerDestination(0));
+        assertEquals("queue://TEST.1,queue://TEST.3", benchmark.getConsumerDestination(1));
+
+        benchmark.setConsumers(7);
+        assertEquals("queue://TEST.0", benchmark.getConsumerDestination(0));
+        assertEquals("queue://TEST.4", benchmark.getConsumerDestination(4));
+        assertEquals("queue://TEST.1", benchmark.getConsumerDestination(6));
+    }
+
+    @Test
+    public void testOpenedConsumerDoesNotMissTopicMessages() throws Exception {
+        BenchmarkConsumerThread consumer = new BenchmarkConsumerThread(new ActiveMQService(brokerUrl), "topic://OPEN", new Benchmark());
+        consumer.setReceiveTimeOut(100);
+        consumer.open();
+
+        // sent before the consumer thread runs, so only received if the subscription was made by open()
+        Connection connection = new ActiveMQConnectionFactory(brokerUrl).createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(ActiveMQDestination.createDestination("topic://OPEN", ActiveMQDestination.QUEUE_TYPE));
+            for (int i = 0; i < 10; i++) {
+                producer.send(session.createTextMessage("message " + i));
+            }
+        } finally {
+            connection.close();
+        }
+
+        consumer.drain();
+        consumer.start();
+        consumer.join(10000);
+        assertEquals(10, consumer.getReceived());
+    }
+
+    @Test
+    public void testFewerConsumersThanDestinations() throws Exception {
+        Benchmark benchmark = new Benchmark();
+        benchmark.setBrokerUrl(brokerUrl);
+        benchmark.setDestination("topic://BENCHMARK");
+        benchmark.setDestinations(3);
+        benchmark.setProducers(3);
+        benchmark.setConsumers(1);
+        benchmark.setRate(300);
+        benchmark.setWarmup(0);
+        benchmark.setDuration(1);
+        benchmark.setPersistent(false);
+        benchmark.setPayloads("100");
+        benchmark.execute();
+
+        assertTrue("Sent " + benchmark.getSent(), benchmark.getSent() > 100);
+        assertEquals(benchmark.getSent(), benchmark.getReceived());
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.0);
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(90, histogram.getValueAtPercentile(90));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testNegativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBucketsCoverValuesWithoutGaps() {
+        long previous = -1;
+        for (int i = 0; LatencyHistogram.lowestValue(i) > previous && LatencyHistogram.highestValue(i) < Long.MAX_VALUE / 4; i++) {
+            assertEquals(previous + 1, LatencyHistogram.lowestValue(i));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.lowestValue(i)));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.highestValue(i)));
+            previous = LatencyHistogram.highestValue(i);
+        }
+        assertTrue(previous > 1000L * 1000 * 1000 * 1000);
+    }
+
+    @Test
+    public void testRelativeErrorBelowOnePercent() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = (long) Math.exp(random.nextDouble() * 40);
+            int index = LatencyHistogram.index(value);
+            long lowest = LatencyHistogram.lowestValue(index);
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(value + " in [" + lowest + ", " + highest + "]", lowest <= value && value <= highest);
+            assertTrue(value + " in [" + lowest + ", " + highest + "]", highest - lowest <= value / 100);
+        }
+    }
+
+    @Test
+    public void testPercentilesOfLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(5000000, histogram.getValueAtPercentile(50), 50000);
+        assertEquals(9900000, histogram.getValueAtPercentile(99), 99000);
+        assertEquals(10000000, histogram.getValueAtPercentile(100));
+        assertEquals(10000000, histogram.getMax());
+        assertTrue(histogram.getValueAtPercentile(50) >= 5000000);
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram empty = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            first.record(10);
+            second.record(1000);
+        }
+        first.add(second);
+        first.add(empty);
+        assertEquals(200, first.getCount());
+        assertEquals(10, first.getMin());
+        assertEquals(1000, first.getMax());
+        assertEquals(505.0, first.getMean(), 0.0);
+        assertEquals(10, first.getValueAtPercentile(50));
+        assertEquals(1000, first.getValueAtPercentile(50.5));
+        assertEquals(100, first.getCountAtOrBelow(10));
+        assertEquals(200, first.getCountAtOrBelow(1000));
+
+        empty.add(second);
+        assertEquals(1000, empty.getMin());
+    }
+
+    @Test
+    public void testWritePercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        histogram.writePercentiles(out, 1000.0);
+        String[] lines = bytes.toString("UTF-8").split("\n");
+
+        assertTrue(lines[0].contains("Percentile"));
+        double lastValue = 0;
+        double lastPercentile = -1;
+        int rows = 0;
+        for (String line : lines) {
+            if (line.trim().isEmpty() || line.startsWith("#") || line.contains("Percentile")) {
+                continue;
+            }
+            String[] columns = line.trim().split("\\s+");
+            double value = Double.parseDouble(columns[0]);
+            double percentile = Double.parseDouble(columns[1]);
+            assertTrue(line, value >= lastValue);
+            assertTrue(line, percentile > lastPercentile);
+            lastValue = value;
+            lastPercentile = percentile;
+            rows++;
+        }
+        assertTrue(rows > 10);
+        assertEquals(1000.0, lastValue, 0.0);
+        assertEquals(1.0, lastPercentile, 0.0);
+        assertTrue(lines[lines.length - 2].contains("Total count    =         1000"));
+    }
+}
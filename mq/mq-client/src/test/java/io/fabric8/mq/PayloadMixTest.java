@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PayloadMixTest {
+
+    @Test
+    public void testSingleSize() {
+        PayloadMix mix = new PayloadMix("1024");
+        byte[] payload = mix.next();
+        assertEquals(1024, payload.length);
+        assertSame(payload, mix.next());
+        assertEquals("1024b:100%", mix.toString());
+    }
+
+    @Test
+    public void testWeights() {
+        PayloadMix mix = new PayloadMix("100:0.7, 1024:0.2 ,10240:0.1");
+        assertEquals("100b:70%,1024b:20%,10240b:10%", mix.toString());
+
+        Map<byte[], Integer> counts = new IdentityHashMap<byte[], Integer>();
+        int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            byte[] payload = mix.next();
+            Integer count = counts.get(payload);
+            counts.put(payload, count == null ? 1 : count + 1);
+        }
+        // the payloads are allocated once and shared
+        assertEquals(3, counts.size());
+        for (Map.Entry<byte[], Integer> entry : counts.entrySet()) {
+            double expected;
+            switch (entry.getKey().length) {
+                case 100: expected = 0.7; break;
+                case 1024: expected = 0.2; break;
+                case 10240: expected = 0.1; break;
+                default: throw new AssertionError("Unexpected size " + entry.getKey().length);
+            }
+            assertEquals(expected, entry.getValue() / (double) samples, 0.01);
+        }
+    }
+
+    @Test
+    public void testSizesWithoutWeightHaveTheSameWeight() {
+        assertEquals("0b:50%,10b:50%", new PayloadMix("0,10").toString());
+        assertEquals("1b:33%,2b:67%", new PayloadMix("1,2:2").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroWeight() {
+        new PayloadMix("100:0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSize() {
+        new PayloadMix("-1");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidSize() {
+        new PayloadMix("1k");
+    }
+}
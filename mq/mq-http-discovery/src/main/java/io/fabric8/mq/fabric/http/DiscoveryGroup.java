@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric.http;
+
+import io.fabric8.groups.Group;
+import io.fabric8.groups.GroupListener;
+import io.fabric8.groups.internal.ZooKeeperGroup;
+import io.fabric8.mq.fabric.http.FabricDiscoveryServlet.ActiveMQNode;
+import io.fabric8.zookeeper.utils.ZooKeeperUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The broker list of a group, kept up to date by the ZooKeeper watches of a {@link ZooKeeperGroup}.
+ * <p>
+ * The list is rebuilt on the group's own thread when its membership changes, so concurrent HTTP
+ * requests never query ZooKeeper themselves.  The last known list is still served while
+ * disconnected from ZooKeeper.
+ */
+class DiscoveryGroup implements GroupListener<ActiveMQNode> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiscoveryGroup.class);
+
+    /**
+     * An immutable broker list and its entity tag.
+     */
+    static final class Snapshot {
+        final String result;
+        final String etag;
+
+        Snapshot(String result) {
+            this.result = result;
+            this.etag = "\"" + Integer.toHexString(result.hashCode()) + "-" + Integer.toHexString(result.length()) + "\"";
+        }
+    }
+
+    /**
+     * Notified once when the broker list changes.
+     */
+    interface ChangeListener {
+        void changed(Snapshot snapshot);
+    }
+
+    private final String name;
+    private final CuratorFramework curator;
+    private final ZooKeeperGroup<ActiveMQNode> group;
+    private final Set<ChangeListener> changeListeners = Collections.newSetFromMap(new ConcurrentHashMap<ChangeListener, Boolean>());
+    private volatile Snapshot snapshot;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    DiscoveryGroup(CuratorFramework curator, String name, String path) {
+        this.name = name;
+        this.curator = curator;
+        this.group = new ZooKeeperGroup<ActiveMQNode>(curator, path, ActiveMQNode.class);
+    }
+
+    void start() {
+        group.add(this);
+        group.start();
+    }
+
+    void close() {
+        closed = true;
+        group.remove(this);
+        try {
+            group.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close group " + name, e);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        Snapshot current = snapshot;
+        for (ChangeListener listener : changeListeners) {
+            if (changeListeners.remove(listener)) {
+                listener.changed(current);
+            }
+        }
+    }
+
+    @Override
+    public void groupEvent(Group<ActiveMQNode> group, GroupEvent event) {
+        if (event != GroupEvent.DISCONNECTED) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        StringBuilder buff = new StringBuilder();
+        try {
+            Set<String> masters = new HashSet<String>();
+            for (ActiveMQNode node : group.members().values()) {
+                if (node.services != null && masters.add(node.getId())) {
+                    for (String url : node.services) {
+                        buff.append(ZooKeeperUtils.getSubstitutedData(curator, url));
+                        buff.append('\n');
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to resolve the brokers of group " + name + ", keeping the previous list", e);
+            return;
+        }
+        Snapshot update = new Snapshot(buff.toString());
+        Snapshot previous = snapshot;
+        if (previous != null && previous.etag.equals(update.etag) && previous.result.equals(update.result)) {
+            return;
+        }
+        LOG.debug("Brokers of group {} changed", name);
+        synchronized (this) {
+            snapshot = update;
+            notifyAll();
+        }
+        for (ChangeListener listener : changeListeners) {
+            if (changeListeners.remove(listener)) {
+                listener.changed(update);
+            }
+        }
+    }
+
+    /**
+     * @return the current broker list, or null if it has not been loaded yet
+     */
+    Snapshot getSnapshot() {
+        lastAccess = System.currentTimeMillis();
+        return snapshot;
+    }
+
+    /**
+     * @return the current broker list, waiting up to the given timeout for it to be loaded, or null
+     */
+    Snapshot getSnapshot(long timeout) throws InterruptedException {
+        Snapshot current = getSnapshot();
+        if (current == null && timeout > 0) {
+            long deadline = System.currentTimeMillis() + timeout;
+            synchronized (this) {
+                long remaining;
+                while ((current = snapshot) == null && !closed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the broker list once its entity tag differs from the given one, or the current list after the timeout
+     */
+    Snapshot awaitChange(String etag, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            Snapshot current;
+            long remaining;
+            while ((current = snapshot) != null && current.etag.equals(etag) && !closed
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Register a listener notified once on the next change, unless the list already differs from the given entity tag,
+     * in which case false is returned.
+     */
+    boolean addChangeListener(String etag, ChangeListener listener) {
+        changeListeners.add(listener);
+        Snapshot current = snapshot;
+        if (current == null || !current.etag.equals(etag)) {
+            return !changeListeners.remove(listener);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the listener was still registered, false if it has already been notified
+     */
+    boolean removeChangeListener(ChangeListener listener) {
+        return changeListeners.remove(listener);
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    String getName() {
+        return name;
+    }
+}
@@ -18,37 +18,43 @@ package io.fabric8.mq.fabric.http;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.curator.framework.CuratorFramework;
 import io.fabric8.groups.NodeState;
-import io.fabric8.groups.internal.ZooKeeperGroup;
-import io.fabric8.zookeeper.utils.ZooKeeperUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Returns the broker URLs of a group, one per line.
+ * <p>
+ * The broker lists are kept up to date by ZooKeeper watches, see {@link DiscoveryGroup}.  Each response
+ * carries an <code>ETag</code>, and a request with a matching <code>If-None-Match</code> header gets a
+ * <code>304 Not Modified</code>.  When such a request also has a <code>wait</code> parameter, in seconds,
+ * the response is held until the broker list changes or the wait expires.
+ */
 public class FabricDiscoveryServlet extends HttpServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(FabricDiscoveryServlet.class);
 
+    private static final String GROUPS_PATH = "/fabric/registry/clusters/amq/";
+
     volatile CuratorFramework curator = null;
     long cacheTimeout = 1000;
-    ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
-
-    static class CacheEntry {
-        long timestamp;
-        String result;
-
-        CacheEntry(String result, long timestamp) {
-            this.result = result;
-            this.timestamp = timestamp;
-        }
-    }
+    long loadTimeout = 5000;
+    long maxWait = 60000;
+    long idleTimeout = 600000;
+    final ConcurrentHashMap<String, DiscoveryGroup> groups = new ConcurrentHashMap<String, DiscoveryGroup>();
+    final ConcurrentHashMap<String, Long> missingGroups = new ConcurrentHashMap<String, Long>();
+    private volatile long lastEviction = System.currentTimeMillis();
 
     static class ActiveMQNode extends NodeState {
         @JsonProperty
@@ -77,48 +83,175 @@ public class FabricDiscoveryServlet extends HttpServlet {
 
             LOG.debug("discovery request for group name={}", groupName);
 
-            // To avoid hammering ZooKeeper if we get to many HTTP requests back to back,
-            // lets cache results.
-            CacheEntry cacheEntry = cache.get(groupName);
-            long now = System.currentTimeMillis();
-            if (cacheEntry == null || cacheEntry.timestamp + cacheTimeout < now) {
-
-                try {
-                    Map<String, ActiveMQNode> members = ZooKeeperGroup.members(curator, "/fabric/registry/clusters/amq/" + groupName, ActiveMQNode.class);
-                    HashSet<String> masters = new HashSet<String>();
-                    StringBuilder buff = new StringBuilder();
-
-                    for (ActiveMQNode node : members.values()) {
-                        if (!masters.contains(node.getId())) {
-                            for (int i = 0; i < node.services.length; i++) {
-                                String url = node.services[i];
-                                url = ZooKeeperUtils.getSubstitutedData(curator, url);
-                                buff.append(url);
-                                buff.append('\n');
-                            }
-                            masters.add(node.getId());
-                        }
-                    }
-
-                    cacheEntry = new CacheEntry(buff.toString(), now);
-                } catch (Exception e) {
-                    cacheEntry = new CacheEntry(null, now);
+            evictIdleGroups();
+            DiscoveryGroup group = getGroup(curator, groupName);
+            DiscoveryGroup.Snapshot snapshot = group != null ? group.getSnapshot(loadTimeout) : null;
+            if (snapshot == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+                return;
+            }
+
+            String etag = req.getHeader("If-None-Match");
+            long wait = getWait(req);
+            if (etag != null && etag.equals(snapshot.etag) && wait > 0) {
+                if (req.isAsyncSupported()) {
+                    startLongPoll(req, group, etag, wait);
+                    return;
+                }
+                DiscoveryGroup.Snapshot changed = group.awaitChange(etag, wait);
+                if (changed != null) {
+                    snapshot = changed;
+                }
+            }
+            respond(resp, snapshot, etag);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted");
+        } catch (Exception e) {
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error occurred: " + e);
+        }
+    }
+
+    private void startLongPoll(HttpServletRequest req, final DiscoveryGroup group, final String etag, long wait) throws IOException {
+        final AsyncContext async = req.startAsync();
+        async.setTimeout(wait);
+        final DiscoveryGroup.ChangeListener listener = new DiscoveryGroup.ChangeListener() {
+            @Override
+            public void changed(DiscoveryGroup.Snapshot snapshot) {
+                complete(async, snapshot, etag);
+            }
+        };
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (group.removeChangeListener(listener)) {
+                    complete(async, null, etag);
                 }
+            }
 
-                cache.put(groupName, cacheEntry);
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                group.removeChangeListener(listener);
             }
 
-            if (cacheEntry.result != null) {
-                resp.getWriter().print(cacheEntry.result.toString());
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+        if (!group.addChangeListener(etag, listener)) {
+            complete(async, group.getSnapshot(), etag);
+        }
+    }
+
+    private void complete(AsyncContext async, DiscoveryGroup.Snapshot snapshot, String etag) {
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        try {
+            if (snapshot == null) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                resp.setHeader("ETag", etag);
             } else {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+                respond(resp, snapshot, etag);
             }
+        } catch (IOException e) {
+            LOG.debug("Failed to answer discovery request", e);
+        } finally {
+            async.complete();
+        }
+    }
 
-        } catch (Exception e) {
-            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error occurred: " + e);
+    private void respond(HttpServletResponse resp, DiscoveryGroup.Snapshot snapshot, String etag) throws IOException {
+        resp.setHeader("ETag", snapshot.etag);
+        resp.setHeader("Cache-Control", "no-cache");
+        if (snapshot.etag.equals(etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            resp.setContentType("text/plain");
+            resp.getWriter().print(snapshot.result);
+        }
+    }
+
+    private long getWait(HttpServletRequest req) {
+        String wait = req.getParameter("wait");
+        if (wait == null) {
+            return 0;
+        }
+        try {
+            return Math.min(Long.parseLong(wait) * 1000, maxWait);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Return the watched group, only started once its node is known to exist, so that requests for
+     * unknown groups do not create nodes nor watches.  Unknown groups are remembered for the cache timeout.
+     */
+    private DiscoveryGroup getGroup(CuratorFramework curator, String groupName) throws Exception {
+        DiscoveryGroup group = groups.get(groupName);
+        if (group == null) {
+            long now = System.currentTimeMillis();
+            Long missing = missingGroups.get(groupName);
+            if (missing != null && missing + cacheTimeout > now) {
+                return null;
+            }
+            String path = GROUPS_PATH + groupName;
+            if (curator.checkExists().forPath(path) == null) {
+                missingGroups.put(groupName, now);
+                return null;
+            }
+            missingGroups.remove(groupName);
+            DiscoveryGroup created = new DiscoveryGroup(curator, groupName, path);
+            group = groups.putIfAbsent(groupName, created);
+            if (group == null) {
+                group = created;
+                created.start();
+            }
+        }
+        return group;
+    }
+
+    private void evictIdleGroups() {
+        long now = System.currentTimeMillis();
+        if (now - lastEviction < Math.min(idleTimeout, 60000)) {
+            return;
+        }
+        lastEviction = now;
+        for (Iterator<Map.Entry<String, DiscoveryGroup>> it = groups.entrySet().iterator(); it.hasNext();) {
+            DiscoveryGroup group = it.next().getValue();
+            if (now - group.getLastAccess() > idleTimeout) {
+                it.remove();
+                group.close();
+            }
         }
+        for (Iterator<Long> it = missingGroups.values().iterator(); it.hasNext();) {
+            if (it.next() + cacheTimeout < now) {
+                it.remove();
+            }
+        }
+    }
+
+    private void closeGroups() {
+        for (Iterator<DiscoveryGroup> it = groups.values().iterator(); it.hasNext();) {
+            DiscoveryGroup group = it.next();
+            it.remove();
+            group.close();
+        }
+        missingGroups.clear();
     }
 
+    @Override
+    public void destroy() {
+        closeGroups();
+        super.destroy();
+    }
+
+    /**
+     * The time in milliseconds an unknown group is remembered as missing
+     */
     public long getCacheTimeout() {
         return cacheTimeout;
     }
@@ -127,11 +260,36 @@ public class FabricDiscoveryServlet extends HttpServlet {
         this.cacheTimeout = cacheTimeout;
     }
 
+    /**
+     * The maximum time in milliseconds a long-poll request is held
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * The time in milliseconds after which the watches of a group which is no longer requested are removed
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
     public CuratorFramework getCurator() {
         return curator;
     }
 
     public void setCurator(CuratorFramework curator) {
+        if (this.curator != curator) {
+            closeGroups();
+        }
         this.curator = curator;
     }
 
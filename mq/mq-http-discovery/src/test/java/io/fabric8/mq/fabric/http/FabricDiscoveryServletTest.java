@@ -0,0 +1,248 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric.http;
+
+import io.fabric8.groups.internal.ZooKeeperGroup;
+import io.fabric8.mq.fabric.http.FabricDiscoveryServlet.ActiveMQNode;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the discovery servlet in Jetty against an embedded ZooKeeper, both with and without async support.
+ */
+public class FabricDiscoveryServletTest {
+
+    private static final String GROUP_PATH = "/fabric/registry/clusters/amq/default";
+
+    private NIOServerCnxnFactory zookeeper;
+    private CuratorFramework curator;
+    private ZooKeeperGroup<ActiveMQNode> broker;
+    private FabricDiscoveryServlet servlet;
+    private Server server;
+    private int port;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = new File("target/zk/" + System.currentTimeMillis());
+        ZooKeeperServer zkServer = new ZooKeeperServer(dir, dir, 2000);
+        zookeeper = new NIOServerCnxnFactory();
+        zookeeper.configure(new InetSocketAddress("localhost", 0), 100);
+        zookeeper.startup(zkServer);
+
+        curator = CuratorFrameworkFactory.builder()
+                .connectString("localhost:" + zookeeper.getLocalPort())
+                .retryPolicy(new RetryNTimes(10, 100))
+                .build();
+        curator.start();
+        curator.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        broker = new ZooKeeperGroup<ActiveMQNode>(curator, GROUP_PATH, ActiveMQNode.class);
+        broker.start();
+        broker.update(createNode("tcp://broker1:61616"));
+        // the group joins in the background, and an unknown group is remembered as missing
+        long deadline = System.currentTimeMillis() + 10000;
+        while (curator.checkExists().forPath(GROUP_PATH) == null
+                || curator.getChildren().forPath(GROUP_PATH).isEmpty()) {
+            assertTrue("The broker did not join its group", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        servlet = new FabricDiscoveryServlet();
+        servlet.setCurator(curator);
+        servlet.setMaxWait(30000);
+
+        server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        ServletHolder async = new ServletHolder(servlet);
+        async.setAsyncSupported(true);
+        context.addServlet(async, "/async/*");
+        ServletHolder sync = new ServletHolder(servlet);
+        sync.setAsyncSupported(false);
+        context.addServlet(sync, "/sync/*");
+        server.setHandler(context);
+        server.start();
+        port = server.getConnectors()[0].getLocalPort();
+
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.stop();
+        broker.close();
+        curator.close();
+        zookeeper.shutdown();
+    }
+
+    private static ActiveMQNode createNode(String... services) {
+        ActiveMQNode node = new ActiveMQNode();
+        node.id = "default";
+        node.services = services;
+        return node;
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        for (String mode : new String[] {"async", "sync"}) {
+            HttpURLConnection connection = open("/" + mode + "/default", null);
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("tcp://broker1:61616\n", read(connection));
+            String etag = connection.getHeaderField("ETag");
+            assertNotNull(etag);
+
+            connection = open("/" + mode + "/default", etag);
+            assertEquals(304, connection.getResponseCode());
+            assertEquals(etag, connection.getHeaderField("ETag"));
+
+            connection = open("/" + mode + "/default", "\"other\"");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(etag, connection.getHeaderField("ETag"));
+        }
+    }
+
+    @Test
+    public void testUnknownGroup() throws Exception {
+        assertEquals(404, open("/async/unknown", null).getResponseCode());
+        assertEquals(404, open("/sync/unknown", null).getResponseCode());
+        assertFalse(servlet.groups.containsKey("unknown"));
+        assertTrue(servlet.missingGroups.containsKey("unknown"));
+    }
+
+    @Test
+    public void testLongPollWokenByMembershipChange() throws Exception {
+        for (String mode : new String[] {"async", "sync"}) {
+            HttpURLConnection connection = open("/" + mode + "/default", null);
+            assertEquals(200, connection.getResponseCode());
+            final String etag = connection.getHeaderField("ETag");
+            read(connection);
+
+            Future<HttpURLConnection> poll = longPoll("/" + mode + "/default?wait=30", etag);
+            Thread.sleep(500);
+            assertFalse("The long-poll should wait for a change", poll.isDone());
+
+            long start = System.currentTimeMillis();
+            String service = "tcp://" + mode + ":61616";
+            broker.update(createNode(service));
+            connection = poll.get(10, TimeUnit.SECONDS);
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(service + "\n", read(connection));
+            assertFalse(etag.equals(connection.getHeaderField("ETag")));
+        }
+    }
+
+    @Test
+    public void testLongPollTimeout() throws Exception {
+        servlet.setMaxWait(500);
+        for (String mode : new String[] {"async", "sync"}) {
+            HttpURLConnection connection = open("/" + mode + "/default", null);
+            String etag = connection.getHeaderField("ETag");
+            read(connection);
+
+            long start = System.currentTimeMillis();
+            // the wait of 30s is capped by the maximum wait of the servlet
+            connection = longPoll("/" + mode + "/default?wait=30", etag).get(10, TimeUnit.SECONDS);
+            long elapsed = System.currentTimeMillis() - start;
+            assertEquals(304, connection.getResponseCode());
+            assertEquals(etag, connection.getHeaderField("ETag"));
+            assertTrue("Answered after " + elapsed + " ms", elapsed >= 450 && elapsed < 5000);
+        }
+    }
+
+    @Test
+    public void testIdleGroupsAreEvicted() throws Exception {
+        servlet.setIdleTimeout(200);
+        assertEquals(200, open("/async/default", null).getResponseCode());
+        DiscoveryGroup group = servlet.groups.get("default");
+        assertNotNull(group);
+
+        broker.update(createNode("tcp://broker2:61616"));
+        Thread.sleep(500);
+        // eviction happens on the next request
+        assertEquals(404, open("/async/unknown", null).getResponseCode());
+        assertFalse(servlet.groups.containsKey("default"));
+
+        // requested again, the group is watched again with the current brokers
+        HttpURLConnection connection = open("/async/default", null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("tcp://broker2:61616\n", read(connection));
+        assertFalse(group == servlet.groups.get("default"));
+    }
+
+    private Future<HttpURLConnection> longPoll(final String path, final String etag) {
+        return executor.submit(new Callable<HttpURLConnection>() {
+            @Override
+            public HttpURLConnection call() throws Exception {
+                HttpURLConnection connection = open(path, etag);
+                connection.getResponseCode();
+                return connection;
+            }
+        });
+    }
+
+    private HttpURLConnection open(String path, String etag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setReadTimeout(60000);
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
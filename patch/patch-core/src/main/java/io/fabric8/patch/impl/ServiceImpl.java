@@ -32,14 +32,21 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
@@ -95,6 +102,8 @@ public class ServiceImpl implements Service {
 
     private static final Pattern SYMBOLIC_NAME_PATTERN = Pattern.compile("([^;: ]+)(.*)");
 
+    private static final int MAX_MANIFEST_THREADS = 8;
+
     public ServiceImpl(BundleContext bundleContext) {
         // Use system bundle' bundle context to avoid running into
         // "Invalid BundleContext" exceptions when updating bundles
@@ -143,11 +152,7 @@ public class ServiceImpl implements Service {
             } catch (IOException e) {
             }
             if (zipFile != null) {
-                String karafDefaultRrepository = System.getProperty("karaf.default.repository");
-                if(Strings.isNullOrBlank(karafDefaultRrepository)){
-                    karafDefaultRrepository = "system";
-                }
-                File localRepoPath = new File(System.getProperty("karaf.home"), karafDefaultRrepository);
+                File localRepoPath = getLocalRepository();
                 Enumeration<? extends ZipEntry> entries = zipFile.entries();
                 List<ZipEntry> resources = new ArrayList<ZipEntry>();
 
@@ -200,6 +205,14 @@ public class ServiceImpl implements Service {
         }
     }
 
+    private static File getLocalRepository() {
+        String karafDefaultRrepository = System.getProperty("karaf.default.repository");
+        if(Strings.isNullOrBlank(karafDefaultRrepository)){
+            karafDefaultRrepository = "system";
+        }
+        return new File(System.getProperty("karaf.home"), karafDefaultRrepository);
+    }
+
     private File getPatchStorage(Patch patch) {
         return new File(patchDir, patch.getId());
     }
@@ -323,16 +336,16 @@ public class ServiceImpl implements Service {
         if (result == null) {
             throw new PatchException("Patch " + patch.getId() + " is not installed");
         }
-        Bundle[] allBundles = bundleContext.getBundles();
+        BundleIndex index = new BundleIndex(bundleContext.getBundles());
         List<BundleUpdate> badUpdates = new ArrayList<BundleUpdate>();
+        final Map<Bundle, String> toUpdate = new HashMap<Bundle, String>();
         for (BundleUpdate update : result.getUpdates()) {
             boolean found = false;
             Version v = Version.parseVersion(update.getNewVersion());
-            for (Bundle bundle : allBundles) {
-                if (stripSymbolicName(bundle.getSymbolicName()).equals(stripSymbolicName(update.getSymbolicName()))
-                        && bundle.getVersion().equals(v)) {
+            for (Bundle bundle : index.getBundles(update.getSymbolicName())) {
+                if (bundle.getVersion().equals(v)) {
+                    toUpdate.put(bundle, update.getPreviousLocation());
                     found = true;
-                    break;
                 }
             }
             if (!found) {
@@ -348,17 +361,6 @@ public class ServiceImpl implements Service {
             throw new PatchException(sb.toString());
         }
 
-        final Map<Bundle, String> toUpdate = new HashMap<Bundle, String>();
-        for (BundleUpdate update : result.getUpdates()) {
-            Version v = Version.parseVersion(update.getNewVersion());
-            for (Bundle bundle : allBundles) {
-                if (stripSymbolicName(bundle.getSymbolicName()).equals(stripSymbolicName(update.getSymbolicName()))
-                        && bundle.getVersion().equals(v)) {
-                    toUpdate.put(bundle, update.getPreviousLocation());
-                }
-            }
-        }
-
         final Offline offline = new Offline(new File(System.getProperty("karaf.base")));
         Executors.newSingleThreadExecutor().execute(new Runnable() {
             @Override
@@ -395,15 +397,23 @@ public class ServiceImpl implements Service {
             final Map<Bundle, String> toUpdate = new HashMap<Bundle, String>();
             final BundleVersionHistory history = createBundleVersionHistory();
             Map<String, BundleUpdate> allUpdates = new HashMap<String, BundleUpdate>();
+
+            long start = System.currentTimeMillis();
+            Set<String> urls = new LinkedHashSet<String>();
+            for (Patch patch : patches) {
+                urls.addAll(patch.getBundles());
+            }
+            Map<String, Manifest> manifests = readManifests(getLocalRepository(), urls);
+            long manifestsRead = System.currentTimeMillis();
+            BundleIndex index = new BundleIndex(bundleContext.getBundles());
+            long indexed = System.currentTimeMillis();
+
             for (Patch patch : patches) {
                 String startup = readFully(new File(System.getProperty("karaf.base"), "etc/startup.properties"));
                 String overrides = readFully(new File(System.getProperty("karaf.base"), "etc/overrides.properties"));
                 List<BundleUpdate> updates = new ArrayList<BundleUpdate>();
-                Bundle[] allBundles = bundleContext.getBundles();
                 for (String url : patch.getBundles()) {
-                    JarInputStream jis = new JarInputStream(new URL(url).openStream());
-                    jis.close();
-                    Manifest manifest = jis.getManifest();
+                    Manifest manifest = manifests.get(url);
                     Attributes att = manifest != null ? manifest.getMainAttributes() : null;
                     String sn = att != null ? att.getValue(Constants.BUNDLE_SYMBOLICNAME) : null;
                     String vr = att != null ? att.getValue(Constants.BUNDLE_VERSION) : null;
@@ -427,9 +437,9 @@ public class ServiceImpl implements Service {
                     }
 
                     if (range != null) {
-                        for (Bundle bundle : allBundles) {
+                        for (Bundle bundle : index.getBundles(sn)) {
                             Version oldV = bundle.getVersion();
-                            if (bundle.getBundleId() != 0 && stripSymbolicName(sn).equals(stripSymbolicName(bundle.getSymbolicName())) && range.contains(oldV)) {
+                            if (bundle.getBundleId() != 0 && range.contains(oldV)) {
                                 String location = history.getLocation(bundle);
                                 BundleUpdate update = new BundleUpdateImpl(sn, v.toString(), url, oldV.toString(), location);
                                 updates.add(update);
@@ -457,6 +467,7 @@ public class ServiceImpl implements Service {
                 Result result = new ResultImpl(patch, simulate, System.currentTimeMillis(), updates, startup, overrides);
                 results.put(patch.getId(), result);
             }
+            long matched = System.currentTimeMillis();
             // Apply results
             System.out.println("Bundles to update:");
             for (Map.Entry<Bundle, String> e : toUpdate.entrySet()) {
@@ -464,6 +475,8 @@ public class ServiceImpl implements Service {
             }
             if (simulate) {
                 System.out.println("Running simulation only - no bundles are being updated at this time");
+                System.out.printf("Simulation took %d ms: reading %d bundle manifests %d ms, indexing %d installed bundles %d ms, matching bundles %d ms%n",
+                        matched - start, manifests.size(), manifestsRead - start, index.size(), indexed - manifestsRead, matched - indexed);
             } else {
                 System.out.println("Installation will begin.  The connection may be lost or the console restarted.");
             }
@@ -496,6 +509,69 @@ public class ServiceImpl implements Service {
         }
     }
 
+    /**
+     * Read the manifests of the given bundles concurrently.  Bundles already extracted to the local
+     * repository from the patch file are read from there, others are downloaded from their url.
+     */
+    static Map<String, Manifest> readManifests(final File localRepository, Collection<String> urls) throws Exception {
+        Map<String, Manifest> manifests = new HashMap<String, Manifest>();
+        if (urls.isEmpty()) {
+            return manifests;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(urls.size(), MAX_MANIFEST_THREADS), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "patch-manifest-reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Map<String, Future<Manifest>> futures = new LinkedHashMap<String, Future<Manifest>>();
+            for (final String url : urls) {
+                futures.put(url, executor.submit(new Callable<Manifest>() {
+                    @Override
+                    public Manifest call() throws Exception {
+                        return readManifest(localRepository, url);
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<Manifest>> entry : futures.entrySet()) {
+                try {
+                    manifests.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return manifests;
+    }
+
+    /**
+     * Only plain <code>mvn:</code> urls are read from the local repository: the bundle of an url such as
+     * <code>wrap:mvn:...</code> is built from the artifact, and its manifest differs from the artifact's one.
+     */
+    static Manifest readManifest(File localRepository, String url) throws IOException {
+        Offline.Artifact artifact = url.startsWith("mvn:") ? Offline.mvnurlToArtifact(url, true) : null;
+        if (artifact != null) {
+            File file = new File(localRepository, artifact.getPath());
+            if (file.isFile()) {
+                JarFile jar = new JarFile(file, false);
+                try {
+                    return jar.getManifest();
+                } finally {
+                    jar.close();
+                }
+            }
+        }
+        JarInputStream jis = new JarInputStream(new URL(url).openStream());
+        jis.close();
+        return jis.getManifest();
+    }
+
     private void applyChanges(Map<Bundle, String> toUpdate) throws BundleException, IOException {
         List<Bundle> toStop = new ArrayList<Bundle>();
         toStop.addAll(toUpdate.keySet());
@@ -517,8 +593,9 @@ public class ServiceImpl implements Service {
             toRefresh.add(bundle);
             toStart.add(bundle);
         }
-        findBundlesWithOptionalPackagesToRefresh(toRefresh);
-        findBundlesWithFramentsToRefresh(toRefresh);
+        BundleIndex index = new BundleIndex(bundleContext.getBundles());
+        findBundlesWithOptionalPackagesToRefresh(index, toRefresh);
+        findBundlesWithFramentsToRefresh(index, toRefresh);
         if (!toRefresh.isEmpty()) {
             final CountDownLatch l = new CountDownLatch(1);
             FrameworkListener listener = new FrameworkListener() {
@@ -596,7 +673,8 @@ public class ServiceImpl implements Service {
         return nb;
     }
 
-    protected void findBundlesWithFramentsToRefresh(Set<Bundle> toRefresh) {
+    protected void findBundlesWithFramentsToRefresh(BundleIndex index, Set<Bundle> toRefresh) {
+        Set<Bundle> hosts = new HashSet<Bundle>();
         for (Bundle b : toRefresh) {
             if (b.getState() != Bundle.UNINSTALLED) {
                 String hostHeader = (String) b.getHeaders().get(Constants.FRAGMENT_HOST);
@@ -604,28 +682,27 @@ public class ServiceImpl implements Service {
                     Clause[] clauses = Parser.parseHeader(hostHeader);
                     if (clauses != null && clauses.length > 0) {
                         Clause path = clauses[0];
-                        for (Bundle hostBundle : bundleContext.getBundles()) {
-                            if (hostBundle.getSymbolicName().equals(path.getName())) {
-                                String ver = path.getAttribute(Constants.BUNDLE_VERSION_ATTRIBUTE);
-                                if (ver != null) {
-                                    VersionRange v = VersionRange.parseVersionRange(ver);
-                                    if (v.contains(hostBundle.getVersion())) {
-                                        toRefresh.add(hostBundle);
-                                    }
-                                } else {
-                                    toRefresh.add(hostBundle);
+                        for (Bundle hostBundle : index.getBundles(path.getName())) {
+                            String ver = path.getAttribute(Constants.BUNDLE_VERSION_ATTRIBUTE);
+                            if (ver != null) {
+                                VersionRange v = VersionRange.parseVersionRange(ver);
+                                if (v.contains(hostBundle.getVersion())) {
+                                    hosts.add(hostBundle);
                                 }
+                            } else {
+                                hosts.add(hostBundle);
                             }
                         }
                     }
                 }
             }
         }
+        toRefresh.addAll(hosts);
     }
 
-    protected void findBundlesWithOptionalPackagesToRefresh(Set<Bundle> toRefresh) {
+    protected void findBundlesWithOptionalPackagesToRefresh(BundleIndex index, Set<Bundle> toRefresh) {
         // First pass: include all bundles contained in these features
-        Set<Bundle> bundles = new HashSet<Bundle>(Arrays.asList(bundleContext.getBundles()));
+        Set<Bundle> bundles = new HashSet<Bundle>(index.getAllBundles());
         bundles.removeAll(toRefresh);
         if (bundles.isEmpty()) {
             return;
@@ -645,26 +722,36 @@ public class ServiceImpl implements Service {
         if (bundles.isEmpty()) {
             return;
         }
-        // Third pass: compute a list of packages that are exported by our bundles and see if
+        // Third pass: compute the packages that are exported by our bundles, indexed by name, and see if
         //             some exported packages can be wired to the optional imports
-        List<Clause> exports = new ArrayList<Clause>();
+        Map<String, List<Clause>> exports = new HashMap<String, List<Clause>>();
         for (Bundle b : toRefresh) {
             if (b.getState() != Bundle.UNINSTALLED) {
                 String exportsStr = (String) b.getHeaders().get(Constants.EXPORT_PACKAGE);
                 if (exportsStr != null) {
-                    Clause[] exportsList = Parser.parseHeader(exportsStr);
-                    exports.addAll(Arrays.asList(exportsList));
+                    for (Clause pe : Parser.parseHeader(exportsStr)) {
+                        List<Clause> clauses = exports.get(pe.getName());
+                        if (clauses == null) {
+                            clauses = new ArrayList<Clause>(1);
+                            exports.put(pe.getName(), clauses);
+                        }
+                        clauses.add(pe);
+                    }
                 }
             }
         }
+        if (exports.isEmpty()) {
+            return;
+        }
         for (Iterator<Bundle> it = bundles.iterator(); it.hasNext();) {
             Bundle b = it.next();
             List<Clause> importsList = imports.get(b);
             for (Iterator<Clause> itpi = importsList.iterator(); itpi.hasNext();) {
                 Clause pi = itpi.next();
                 boolean matching = false;
-                for (Clause pe : exports) {
-                    if (pi.getName().equals(pe.getName())) {
+                List<Clause> candidates = exports.get(pi.getName());
+                if (candidates != null) {
+                    for (Clause pe : candidates) {
                         String evStr = pe.getAttribute(Constants.VERSION_ATTRIBUTE);
                         String ivStr = pi.getAttribute(Constants.VERSION_ATTRIBUTE);
                         Version exported = evStr != null ? Version.parseVersion(evStr) : Version.emptyVersion;
@@ -747,6 +834,47 @@ public class ServiceImpl implements Service {
         }
     }
 
+    /**
+     * The installed bundles, indexed by symbolic name
+     */
+    protected static final class BundleIndex {
+
+        private final List<Bundle> bundles;
+        private final Map<String, List<Bundle>> bundlesBySymbolicName = new HashMap<String, List<Bundle>>();
+
+        public BundleIndex(Bundle[] bundles) {
+            this.bundles = bundles != null ? Arrays.asList(bundles) : Collections.<Bundle>emptyList();
+            for (Bundle bundle : this.bundles) {
+                if (bundle.getSymbolicName() == null) {
+                    continue;
+                }
+                String symbolicName = stripSymbolicName(bundle.getSymbolicName());
+                List<Bundle> list = bundlesBySymbolicName.get(symbolicName);
+                if (list == null) {
+                    list = new ArrayList<Bundle>(1);
+                    bundlesBySymbolicName.put(symbolicName, list);
+                }
+                list.add(bundle);
+            }
+        }
+
+        /**
+         * @return the bundles with the given symbolic name, ignoring its directives
+         */
+        public List<Bundle> getBundles(String symbolicName) {
+            List<Bundle> list = bundlesBySymbolicName.get(stripSymbolicName(symbolicName));
+            return list != null ? list : Collections.<Bundle>emptyList();
+        }
+
+        public List<Bundle> getAllBundles() {
+            return bundles;
+        }
+
+        public int size() {
+            return bundles.size();
+        }
+    }
+
     /**
      * Contains the history of bundle versions that have been applied through the patching mechanism
      */
@@ -532,6 +532,68 @@ public class ServiceImplTest {
                      history.getLocation(createMockBundle("my-bsn", "0.9.0", "mvn:groupId/my-bsn/0.9.0")));
     }
 
+    @Test
+    public void testReadManifests() throws Exception {
+        File repository = new File(storage, "repository");
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            String url = "mvn:foo/bundle-" + i + "/1.0." + i;
+            File file = new File(repository, Offline.mvnurlToArtifact(url, true).getPath());
+            file.getParentFile().mkdirs();
+            copy(new FileInputStream(createBundle("bundle-" + i, "1.0." + i)), new FileOutputStream(file));
+            urls.add(url);
+        }
+        // not in the local repository, so read from its url
+        urls.add("mvn:foo/my-bsn/1.3.1");
+
+        Map<String, Manifest> manifests = ServiceImpl.readManifests(repository, urls);
+        assertEquals(21, manifests.size());
+        for (int i = 0; i < 20; i++) {
+            Manifest manifest = manifests.get("mvn:foo/bundle-" + i + "/1.0." + i);
+            assertEquals("bundle-" + i, manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+            assertEquals("1.0." + i, manifest.getMainAttributes().getValue("Bundle-Version"));
+        }
+        assertEquals("1.3.1", manifests.get("mvn:foo/my-bsn/1.3.1").getMainAttributes().getValue("Bundle-Version"));
+
+        urls.add("mvn:foo/unknown/1.0.0");
+        try {
+            ServiceImpl.readManifests(repository, urls);
+            fail("The failure to read a manifest should be reported");
+        } catch (IllegalArgumentException e) {
+            assertEquals("mvn:foo/unknown/1.0.0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadManifestOnlyUsesLocalRepositoryForMvnUrls() throws Exception {
+        File repository = new File(storage, "repository");
+        File file = new File(repository, Offline.mvnurlToArtifact("mvn:foo/my-bsn/1.3.1", true).getPath());
+        file.getParentFile().mkdirs();
+        copy(new FileInputStream(bundlev131), new FileOutputStream(file));
+
+        assertEquals("1.3.1", ServiceImpl.readManifest(repository, "mvn:foo/my-bsn/1.3.1").getMainAttributes().getValue("Bundle-Version"));
+        // the wrapped bundle is not the artifact of the local repository
+        assertEquals("2.0.0", ServiceImpl.readManifest(repository, "wrap:mvn:foo/my-bsn/1.3.1").getMainAttributes().getValue("Bundle-Version"));
+    }
+
+    @Test
+    public void testOptionalImportsToRefresh() throws Exception {
+        Bundle exporter = createMockBundle("exporter", Bundle.ACTIVE, null, "p.a;version=1.5, p.b;version=\"2.0\"");
+        Bundle uninstalled = createMockBundle("uninstalled", Bundle.UNINSTALLED, null, "p.c");
+        Bundle optional = createMockBundle("optional", Bundle.ACTIVE, "p.a;version=\"[1,2)\";resolution:=optional", null);
+        Bundle optionalOtherVersion = createMockBundle("optional-other-version", Bundle.ACTIVE, "p.b;version=\"[1,2)\";resolution:=optional", null);
+        Bundle optionalAnyVersion = createMockBundle("optional-any-version", Bundle.ACTIVE, "p.x;resolution:=optional,p.b;resolution:=optional", null);
+        Bundle optionalUninstalled = createMockBundle("optional-uninstalled", Bundle.ACTIVE, "p.c;resolution:=optional", null);
+        Bundle mandatory = createMockBundle("mandatory", Bundle.ACTIVE, "p.a", null);
+
+        ServiceImpl service = createMockServiceImpl();
+        Set<Bundle> toRefresh = asSet(exporter, uninstalled);
+        service.findBundlesWithOptionalPackagesToRefresh(new ServiceImpl.BundleIndex(new Bundle[] {
+                exporter, uninstalled, optional, optionalOtherVersion, optionalAnyVersion, optionalUninstalled, mandatory}), toRefresh);
+
+        assertEquals(asSet(exporter, uninstalled, optional, optionalAnyVersion), toRefresh);
+    }
+
     private Bundle createMockBundle(String bsn, String version, String location) {
         Bundle result = createNiceMock(Bundle.class);
         expect(result.getSymbolicName()).andReturn(bsn);
@@ -541,6 +603,22 @@ public class ServiceImplTest {
         return result;
     }
 
+    private Bundle createMockBundle(String bsn, int state, String imports, String exports) {
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        if (imports != null) {
+            headers.put("Import-Package", imports);
+        }
+        if (exports != null) {
+            headers.put("Export-Package", exports);
+        }
+        Bundle result = createNiceMock(Bundle.class);
+        expect(result.getSymbolicName()).andReturn(bsn).anyTimes();
+        expect(result.getState()).andReturn(state).anyTimes();
+        expect(result.getHeaders()).andReturn(headers).anyTimes();
+        replay(result);
+        return result;
+    }
+
     private void generateData() throws Exception {
         karaf = new File(baseDir, "karaf");
         delete(karaf);
@@ -725,10 +803,13 @@ public class ServiceImplTest {
     public class CustomBundleURLStreamHandlerFactory implements
             URLStreamHandlerFactory {
         private static final String MVN_URI_PREFIX = "mvn";
+        private static final String WRAP_URI_PREFIX = "wrap";
 
         public URLStreamHandler createURLStreamHandler(String protocol) {
             if (protocol.equals(MVN_URI_PREFIX)) {
                 return new MvnHandler();
+            } else if (protocol.equals(WRAP_URI_PREFIX)) {
+                return new WrapHandler();
             } else {
                 return null;
             }
@@ -755,4 +836,14 @@ public class ServiceImplTest {
         }
     }
 
+    public class WrapHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL u) throws IOException {
+            if (u.toString().equals("wrap:mvn:foo/my-bsn/1.3.1")) {
+                return bundlev200.toURI().toURL().openConnection();
+            }
+            throw new IllegalArgumentException(u.toString());
+        }
+    }
+
 }